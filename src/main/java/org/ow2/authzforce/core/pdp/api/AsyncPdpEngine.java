@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api;
+
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * {@link PdpEngine} providing asynchronous evaluation methods, for non-blocking callers such as event-loop-based servers. The default implementations run the synchronous evaluation methods on a
+ * given {@link Executor}, e.g. a virtual-thread-per-task executor ({@code Executors.newVirtualThreadPerTaskExecutor()} in Java 21+) or a fork-join pool.
+ * <p>
+ * Cancelling a returned future (with {@link CompletableFuture#cancel(boolean)}), or reaching the deadline if any, interrupts the thread running the evaluation. Therefore, attribute providers
+ * making blocking calls should use interruptible I/O, or check {@link Thread#isInterrupted()}, and give up - with an {@link IndeterminateEvaluationException} for instance - when interrupted.
+ */
+public interface AsyncPdpEngine extends PdpEngine
+{
+	/**
+	 * Creates the Indeterminate result of an evaluation that has reached its deadline. Called only when the deadline is reached, in order not to create an exception - with its stack trace - for
+	 * every evaluation.
+	 *
+	 * @param timeout
+	 *            evaluation timeout
+	 * @return Indeterminate (processing error) result
+	 */
+	private static DecisionResult newTimeoutResult(final Duration timeout)
+	{
+		return DecisionResults.newIndeterminate(null, new IndeterminateEvaluationException("Decision evaluation deadline exceeded (timeout = " + timeout + ")", XacmlStatusCode.PROCESSING_ERROR.value()),
+				null);
+	}
+
+	/**
+	 * Asynchronous version of {@link #evaluate(DecisionRequest)}
+	 *
+	 * @param request
+	 *            Individual Decision Request
+	 * @param executor
+	 *            executor running the evaluation
+	 * @return future decision result; completed exceptionally only if {@code executor} rejects the evaluation or the evaluation fails with an unexpected (runtime) exception
+	 */
+	default CompletableFuture<DecisionResult> evaluateAsync(final DecisionRequest request, final Executor executor)
+	{
+		Preconditions.checkArgument(request != null && executor != null, "Undefined request or executor");
+		return InterruptibleEvaluation.submit(() -> evaluate(request), executor);
+	}
+
+	/**
+	 * Asynchronous version of {@link #evaluate(DecisionRequest)} with a deadline
+	 *
+	 * @param request
+	 *            Individual Decision Request
+	 * @param executor
+	 *            executor running the evaluation
+	 * @param timeout
+	 *            maximum evaluation time (including time waiting for execution by {@code executor}), after which the result is Indeterminate (processing error) and the evaluation is interrupted
+	 * @return future decision result; completed exceptionally only if {@code executor} rejects the evaluation or the evaluation fails with an unexpected (runtime) exception
+	 */
+	default CompletableFuture<DecisionResult> evaluateAsync(final DecisionRequest request, final Executor executor, final Duration timeout)
+	{
+		Preconditions.checkArgument(request != null && executor != null, "Undefined request or executor");
+		Preconditions.checkArgument(timeout != null && !timeout.isNegative(), "Undefined or negative timeout");
+		return InterruptibleEvaluation.submit(() -> evaluate(request), executor, timeout, () -> newTimeoutResult(timeout));
+	}
+
+	/**
+	 * Asynchronous version of {@link #evaluate(List, EvaluationContext)}
+	 *
+	 * @param requests
+	 *            Individual Decision Requests
+	 * @param mdpContext
+	 *            the context of the Multiple Decision request that the {@code requests} belong to (see {@link #evaluate(List, EvaluationContext)})
+	 * @param executor
+	 *            executor running the evaluation
+	 * @param <INDIVIDUAL_DECISION_REQ_T>
+	 *            request type
+	 * @return future decision request-result pairs; completed exceptionally with an {@link IndeterminateEvaluationException} if {@link #evaluate(List, EvaluationContext)} throws one
+	 */
+	default <INDIVIDUAL_DECISION_REQ_T extends DecisionRequest> CompletableFuture<Collection<Entry<INDIVIDUAL_DECISION_REQ_T, ? extends DecisionResult>>> evaluateAsync(
+			final List<INDIVIDUAL_DECISION_REQ_T> requests, final EvaluationContext mdpContext, final Executor executor)
+	{
+		Preconditions.checkArgument(requests != null && executor != null, "Undefined requests or executor");
+		return InterruptibleEvaluation.submit(() -> evaluate(requests, mdpContext), executor);
+	}
+
+	/**
+	 * Asynchronous version of {@link #evaluate(List, EvaluationContext)} with a deadline
+	 *
+	 * @param requests
+	 *            Individual Decision Requests
+	 * @param mdpContext
+	 *            the context of the Multiple Decision request that the {@code requests} belong to (see {@link #evaluate(List, EvaluationContext)})
+	 * @param executor
+	 *            executor running the evaluation
+	 * @param timeout
+	 *            maximum evaluation time (including time waiting for execution by {@code executor}), after which the result of every request is Indeterminate (processing error) and the evaluation is
+	 *            interrupted
+	 * @param <INDIVIDUAL_DECISION_REQ_T>
+	 *            request type
+	 * @return future decision request-result pairs; completed exceptionally with an {@link IndeterminateEvaluationException} if {@link #evaluate(List, EvaluationContext)} throws one
+	 */
+	default <INDIVIDUAL_DECISION_REQ_T extends DecisionRequest> CompletableFuture<Collection<Entry<INDIVIDUAL_DECISION_REQ_T, ? extends DecisionResult>>> evaluateAsync(
+			final List<INDIVIDUAL_DECISION_REQ_T> requests, final EvaluationContext mdpContext, final Executor executor, final Duration timeout)
+	{
+		Preconditions.checkArgument(requests != null && executor != null, "Undefined requests or executor");
+		Preconditions.checkArgument(timeout != null && !timeout.isNegative(), "Undefined or negative timeout");
+		return InterruptibleEvaluation.submit(() -> evaluate(requests, mdpContext), executor, timeout, () -> {
+			final DecisionResult timeoutResult = newTimeoutResult(timeout);
+			final Collection<Entry<INDIVIDUAL_DECISION_REQ_T, ? extends DecisionResult>> timeoutResults = new ArrayList<>(requests.size());
+			for (final INDIVIDUAL_DECISION_REQ_T request : requests)
+			{
+				timeoutResults.add(new AbstractMap.SimpleImmutableEntry<>(request, timeoutResult));
+			}
+
+			return timeoutResults;
+		});
+	}
+}
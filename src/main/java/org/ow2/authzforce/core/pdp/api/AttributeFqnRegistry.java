@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Registry of interned {@link AttributeFqn}s, assigning a dense integer index (0, 1, 2...) to each attribute name, typically every attribute name referenced by the policies, at policy-load time.
+ * <p>
+ * The {@link AttributeFqn} returned by {@link #intern(AttributeFqn)} is bound to its index, so that {@link #indexOf(AttributeFqn)} returns it without any hashing or lookup. This allows evaluation
+ * contexts to store attribute values in an array indexed by attribute index instead of a hash map (see {@link BaseEvaluationContext#BaseEvaluationContext(AttributeFqnRegistry, Map, boolean,
+ * java.util.Optional)}). Therefore, expressions such as AttributeDesignators should use the interned instance as attribute name.
+ * <p>
+ * This class is thread-safe. Indexes are never reassigned, so the registry only grows.
+ */
+public final class AttributeFqnRegistry
+{
+	private final Map<AttributeFqn, AttributeFqn> internedFqns = new ConcurrentHashMap<>();
+	private final List<AttributeFqn> internedFqnsByIndex = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Interns an attribute name
+	 * 
+	 * @param attributeFqn
+	 *            attribute name
+	 * @return the canonical instance equal to {@code attributeFqn} bound to its index in this registry; a new index is assigned if {@code attributeFqn} was not registered before.
+	 */
+	public AttributeFqn intern(final AttributeFqn attributeFqn)
+	{
+		Preconditions.checkArgument(attributeFqn != null, "Undefined attributeFqn");
+		final AttributeFqn interned = internedFqns.get(attributeFqn);
+		if (interned != null)
+		{
+			return interned;
+		}
+
+		synchronized (internedFqnsByIndex)
+		{
+			return internedFqns.computeIfAbsent(attributeFqn, fqn -> {
+				final AttributeFqn newInterned = AttributeFqns.newIndexedInstance(fqn, this, internedFqnsByIndex.size());
+				internedFqnsByIndex.add(newInterned);
+				return newInterned;
+			});
+		}
+	}
+
+	/**
+	 * Gets the index of an attribute name. This is a simple field access if {@code attributeFqn} is an instance returned by {@link #intern(AttributeFqn)}, else a hash lookup.
+	 * 
+	 * @param attributeFqn
+	 *            attribute name
+	 * @return index of the attribute name; or negative if not registered
+	 */
+	public int indexOf(final AttributeFqn attributeFqn)
+	{
+		final int index = AttributeFqns.getIndex(attributeFqn, this);
+		if (index >= 0)
+		{
+			return index;
+		}
+
+		final AttributeFqn interned = internedFqns.get(attributeFqn);
+		return interned == null ? -1 : AttributeFqns.getIndex(interned, this);
+	}
+
+	/**
+	 * Gets the attribute name with a given index
+	 * 
+	 * @param index
+	 *            attribute index
+	 * @return interned attribute name
+	 * @throws IndexOutOfBoundsException
+	 *             if {@code index < 0 || index >= size()}
+	 */
+	public AttributeFqn get(final int index) throws IndexOutOfBoundsException
+	{
+		return internedFqnsByIndex.get(index);
+	}
+
+	/**
+	 * Gets the number of registered attribute names, i.e. the next index to be assigned
+	 * 
+	 * @return number of registered attribute names
+	 */
+	public int size()
+	{
+		return internedFqnsByIndex.size();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "AttributeFqnRegistry" + internedFqnsByIndex;
+	}
+}
@@ -21,6 +21,10 @@ import java.util.Objects;
 import java.util.Optional;
 
 import oasis.names.tc.xacml._3_0.core.schema.wd_17.AttributeDesignatorType;
+import org.ow2.authzforce.xacml.identifiers.XacmlAttributeCategory;
+import org.ow2.authzforce.xacml.identifiers.XacmlAttributeId;
+
+import com.google.common.collect.ImmutableSet;
 
 /**
  * Static utility methods pertaining to {@link AttributeFqn} instances.
@@ -31,6 +35,15 @@ public final class AttributeFqns
 	private static final IllegalArgumentException NULL_ID_ARGUMENT_EXCEPTION = new IllegalArgumentException("Undefined AttributeId");
 	private static final IllegalArgumentException NULL_CATEGORY_ARGUMENT_EXCEPTION = new IllegalArgumentException("Undefined Attribute category");
 
+	/**
+	 * Standard XACML environment attributes whose values depend on the time of evaluation (current-time, current-date, current-dateTime, without Issuer). A decision depending on any of these is
+	 * time-sensitive, e.g. not cacheable unless its validity period is known (see {@link EvaluationContext#getDecisionValidUntil()}).
+	 */
+	public static final ImmutableSet<AttributeFqn> STANDARD_CURRENT_TIME_ATTRIBUTES = ImmutableSet.of(
+			newInstance(XacmlAttributeCategory.XACML_3_0_ENVIRONMENT.value(), Optional.empty(), XacmlAttributeId.XACML_1_0_ENVIRONMENT_CURRENT_TIME.value()),
+			newInstance(XacmlAttributeCategory.XACML_3_0_ENVIRONMENT.value(), Optional.empty(), XacmlAttributeId.XACML_1_0_ENVIRONMENT_CURRENT_DATE.value()),
+			newInstance(XacmlAttributeCategory.XACML_3_0_ENVIRONMENT.value(), Optional.empty(), XacmlAttributeId.XACML_1_0_ENVIRONMENT_CURRENT_DATETIME.value()));
+
 	private AttributeFqns()
 	{
 		// disable constructor
@@ -44,6 +57,12 @@ public final class AttributeFqns
 		private final String category;
 		private final String id;
 
+		/*
+		 * Registry that interned this instance (null if none), and index assigned by this registry (negative if none). Ignored by equals/hashCode/compareTo.
+		 */
+		private final AttributeFqnRegistry registry;
+		private final int index;
+
 		// cached method results
 		private transient volatile int hashCode = 0; // Effective Java - Item 9
 		private transient volatile String toString = null; // Effective Java - Item 71
@@ -60,11 +79,13 @@ public final class AttributeFqns
 			return id;
 		}
 
-		private ExtensibleAttributeFQN(final String attrCat, final String attrId)
+		private ExtensibleAttributeFQN(final String attrCat, final String attrId, final AttributeFqnRegistry registry, final int index)
 		{
 			assert attrCat != null && attrId != null;
 			category = attrCat;
 			id = attrId;
+			this.registry = registry;
+			this.index = index;
 		}
 
 		/*
@@ -173,9 +194,9 @@ public final class AttributeFqns
 		 * @throws IllegalArgumentException
 		 *             if {@code attrCat == null || attrId == null}
 		 */
-		private NonIssuedAttributeFQN(final String attrCat, final String attrId)
+		private NonIssuedAttributeFQN(final String attrCat, final String attrId, final AttributeFqnRegistry registry, final int index)
 		{
-			super(attrCat, attrId);
+			super(attrCat, attrId, registry, index);
 		}
 
 		@Override
@@ -211,9 +232,9 @@ public final class AttributeFqns
 		 * @throws IllegalArgumentException
 		 *             if {@code attrCat == null || attrId == null}
 		 */
-		private IssuedAttributeFQN(final String attrCat, final String attrIssuer, final String attrId)
+		private IssuedAttributeFQN(final String attrCat, final String attrIssuer, final String attrId, final AttributeFqnRegistry registry, final int index)
 		{
-			super(attrCat, attrId);
+			super(attrCat, attrId, registry, index);
 			assert attrIssuer != null;
 
 			alwaysPresentIssuer = Optional.of(attrIssuer);
@@ -255,7 +276,33 @@ public final class AttributeFqns
 			throw NULL_ID_ARGUMENT_EXCEPTION;
 		}
 
-		return attributeIssuer.isPresent() ? new IssuedAttributeFQN(attributeCategory, attributeIssuer.get(), attributeId) : new NonIssuedAttributeFQN(attributeCategory, attributeId);
+		return attributeIssuer.isPresent() ? new IssuedAttributeFQN(attributeCategory, attributeIssuer.get(), attributeId, null, -1) : new NonIssuedAttributeFQN(attributeCategory, attributeId, null, -1);
+	}
+
+	/**
+	 * Creates copy of an {@link AttributeFqn} bound to an index in a registry, for {@link AttributeFqnRegistry#intern(AttributeFqn)} only
+	 */
+	static AttributeFqn newIndexedInstance(final AttributeFqn attributeFqn, final AttributeFqnRegistry registry, final int index)
+	{
+		assert attributeFqn != null && registry != null && index >= 0;
+		final Optional<String> issuer = attributeFqn.getIssuer();
+		return issuer.isPresent() ? new IssuedAttributeFQN(attributeFqn.getCategory(), issuer.get(), attributeFqn.getId(), registry, index)
+				: new NonIssuedAttributeFQN(attributeFqn.getCategory(), attributeFqn.getId(), registry, index);
+	}
+
+	/**
+	 * Gets the index of an {@link AttributeFqn} created by {@link #newIndexedInstance(AttributeFqn, AttributeFqnRegistry, int)} with the given registry, without any lookup
+	 * 
+	 * @return the index; or negative if {@code attributeFqn} was not interned by {@code registry}
+	 */
+	static int getIndex(final AttributeFqn attributeFqn, final AttributeFqnRegistry registry)
+	{
+		if (attributeFqn instanceof ExtensibleAttributeFQN extensibleFqn && extensibleFqn.registry == registry)
+		{
+			return extensibleFqn.index;
+		}
+
+		return -1;
 	}
 
 	/**
@@ -35,7 +35,9 @@ package org.ow2.authzforce.core.pdp.api;
  * limitations under the License.
  */
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.*;
+import org.ow2.authzforce.core.pdp.api.expression.AttributeSelectorExpression;
 import org.ow2.authzforce.core.pdp.api.expression.VariableReference;
 import org.ow2.authzforce.core.pdp.api.value.*;
 import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
@@ -57,19 +59,45 @@ public abstract class BaseEvaluationContext implements EvaluationContext
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(BaseEvaluationContext.class);
 
+    /*
+     * Named attributes not registered in attributeFqnRegistry (all if no registry)
+     */
     private final Map<AttributeFqn, AttributeBag<?>> namedAttributes;
 
+    /*
+     * Registry of attribute names indexing namedAttributeSlots (null if none), and values of the registered attributes by index (value null iff attribute not set)
+     */
+    private final AttributeFqnRegistry attributeFqnRegistry;
+    private AttributeBag<?>[] namedAttributeSlots;
+
     private final Map<String, Entry<VariableReference<?>, Value>> varValsById = HashCollections.newMutableMap();
 
     private final Map<String, Object> mutableProperties = HashCollections.newMutableMap();
 
-    private final boolean returnApplicablePolicyIdList;
+    private boolean returnApplicablePolicyIdList;
 
-    /**
-     * Listeners registered in the context, indexed by Class
+    private static final Listener[] NO_LISTENERS = {};
+
+    /*
+     * Listeners registered in the context, indexed by Class. Modified only via putListener(), since listeners are notified from a snapshot array updated by that method (see
+     * fireNamedAttributeValueConsumed() and so on). Subclasses use putListener()/getListener() as well.
      */
-    protected final ClassToInstanceMap<Listener> listeners = MutableClassToInstanceMap.create();
-    private final Instant creationTimestamp;
+    private final ClassToInstanceMap<Listener> listeners = MutableClassToInstanceMap.create();
+
+    /*
+     * Snapshot of listeners.values(), iterated by the fire*() methods without allocating anything (unlike listeners.forEach(lambda)), and empty in the most common case - no listener
+     */
+    private Listener[] listenerArray = NO_LISTENERS;
+    private Instant creationTimestamp;
+
+    /*
+     * Time-sensitivity of the decision: time-dependent attributes consumed (null until the first one is, empty after recycle()), uses of possibly time-dependent values, how many of these uses have
+     * a declared validity limit, and the earliest of these limits (null if none)
+     */
+    private Set<AttributeFqn> consumedTimeDependentAttributes = null;
+    private int timeDependentAttributeUseCount = 0;
+    private int boundedTimeDependentAttributeUseCount = 0;
+    private Instant decisionValidUntil = null;
 
     /**
      * Constructs a new <code>IndividualDecisionRequestContext</code> based on the given request attributes and extra contents with support for XPath evaluation against Content element in Attributes
@@ -85,8 +113,126 @@ public abstract class BaseEvaluationContext implements EvaluationContext
     {
         this.namedAttributes = namedAttributeMap == null ? HashCollections.newUpdatableMap()
                 : HashCollections.newUpdatableMap(namedAttributeMap);
+        this.attributeFqnRegistry = null;
+        this.namedAttributeSlots = new AttributeBag<?>[0];
+        this.returnApplicablePolicyIdList = returnApplicablePolicyIdList;
+        this.creationTimestamp = requestTimestamp.orElseGet(Instant::now);
+    }
+
+    /**
+     * Constructs a new context storing the values of the attributes registered in a given {@link AttributeFqnRegistry} in an array indexed by attribute index, instead of a hash map. Any other
+     * attribute - not registered when this context is created - is stored in a hash map. Attribute lookups by interned {@link AttributeFqn} ({@link AttributeFqnRegistry#intern(AttributeFqn)}) are
+     * therefore simple array accesses.
+     *
+     * @param attributeFqnRegistry
+     *            registry of the attribute names known to the policies (non-null)
+     * @param namedAttributeMap
+     *            named attribute map (attribute key and value pairs) from the original Request; null iff none. An attribute key is a global ID based on attribute category,issuer,id. An
+     *            attribute value is a bag of primitive values.
+     * @param requestTimestamp optional request timestamp (else current time is used)
+     * @param returnApplicablePolicyIdList
+     *            true iff list of IDs of policies matched during evaluation must be returned
+     */
+    protected BaseEvaluationContext(final AttributeFqnRegistry attributeFqnRegistry, final Map<AttributeFqn, AttributeBag<?>> namedAttributeMap, final boolean returnApplicablePolicyIdList, Optional<Instant> requestTimestamp)
+    {
+        Preconditions.checkArgument(attributeFqnRegistry != null, "Undefined attributeFqnRegistry");
+        this.attributeFqnRegistry = attributeFqnRegistry;
+        this.namedAttributeSlots = new AttributeBag<?>[attributeFqnRegistry.size()];
+        this.namedAttributes = HashCollections.newUpdatableMap();
+        putAllNamedAttributes(namedAttributeMap);
         this.returnApplicablePolicyIdList = returnApplicablePolicyIdList;
-        this.creationTimestamp = requestTimestamp.orElse(Instant.now());
+        this.creationTimestamp = requestTimestamp.orElseGet(Instant::now);
+    }
+
+    private void putAllNamedAttributes(final Map<AttributeFqn, AttributeBag<?>> namedAttributeMap)
+    {
+        if (namedAttributeMap == null)
+        {
+            return;
+        }
+
+        if (attributeFqnRegistry == null)
+        {
+            namedAttributes.putAll(namedAttributeMap);
+            return;
+        }
+
+        for (final Entry<AttributeFqn, AttributeBag<?>> namedAttribute : namedAttributeMap.entrySet())
+        {
+            final int slot = slotOf(namedAttribute.getKey());
+            if (slot < 0)
+            {
+                namedAttributes.put(namedAttribute.getKey(), namedAttribute.getValue());
+            }
+            else
+            {
+                namedAttributeSlots[slot] = namedAttribute.getValue();
+            }
+        }
+    }
+
+    /**
+     * Re-initializes this context for the evaluation of a new request, as if it were constructed with the given arguments, but reusing the internal maps and arrays already allocated (see
+     * {@link EvaluationContextPool}). This method first calls {@link #recycle()}, therefore any subclass-specific state is cleared as well. Subclasses are expected to expose their own public
+     * reset method taking their specific arguments, and calling this one.
+     *
+     * @param namedAttributeMap
+     *            named attribute map (attribute key and value pairs) from the original Request; null iff none.
+     * @param returnApplicablePolicyIdList
+     *            true iff list of IDs of policies matched during evaluation must be returned
+     * @param requestTimestamp
+     *            optional request timestamp (else current time is used)
+     */
+    protected void reset(final Map<AttributeFqn, AttributeBag<?>> namedAttributeMap, final boolean returnApplicablePolicyIdList, final Optional<Instant> requestTimestamp)
+    {
+        recycle();
+        if (attributeFqnRegistry != null && namedAttributeSlots.length < attributeFqnRegistry.size())
+        {
+            // new attributes registered since last time
+            namedAttributeSlots = new AttributeBag<?>[attributeFqnRegistry.size()];
+        }
+
+        putAllNamedAttributes(namedAttributeMap);
+        this.returnApplicablePolicyIdList = returnApplicablePolicyIdList;
+        this.creationTimestamp = requestTimestamp.orElseGet(Instant::now);
+    }
+
+    /**
+     * Clears all the request-specific state of this context (attributes, variables, other properties, listeners, decision validity), keeping the allocated maps and arrays for later reuse by
+     * {@link #reset(Map, boolean, Optional)}. In particular, this context does not retain any reference to the data of the last request evaluated. Subclasses holding other request-specific state
+     * must override this method to clear it, and call <code>super.recycle()</code>.
+     */
+    public void recycle()
+    {
+        namedAttributes.clear();
+        Arrays.fill(namedAttributeSlots, null);
+        varValsById.clear();
+        mutableProperties.clear();
+        listeners.clear();
+        listenerArray = NO_LISTENERS;
+        if (consumedTimeDependentAttributes != null)
+        {
+            consumedTimeDependentAttributes.clear();
+        }
+
+        timeDependentAttributeUseCount = 0;
+        boundedTimeDependentAttributeUseCount = 0;
+        decisionValidUntil = null;
+    }
+
+    /*
+     * Index of the attribute in namedAttributeSlots, negative if not there (in namedAttributes map instead)
+     */
+    private int slotOf(final AttributeFqn attributeFqn)
+    {
+        if (attributeFqnRegistry == null)
+        {
+            return -1;
+        }
+
+        final int index = attributeFqnRegistry.indexOf(attributeFqn);
+        // attributes registered after this context was created are not in the array
+        return index < namedAttributeSlots.length ? index : -1;
     }
 
     @Override
@@ -99,7 +245,22 @@ public abstract class BaseEvaluationContext implements EvaluationContext
     @Override
     public final <AV extends AttributeValue> AttributeBag<AV> getNamedAttributeValue(final AttributeFqn attributeFqn, final Datatype<AV> datatype) throws IndeterminateEvaluationException
     {
-        final AttributeBag<?> bagResult = namedAttributes.get(attributeFqn);
+        if (isTimeDependent(attributeFqn))
+        {
+            /*
+             * Counted even if the value is not in the context yet, since the caller gets it from some attribute provider then
+             */
+            if (consumedTimeDependentAttributes == null)
+            {
+                consumedTimeDependentAttributes = HashCollections.newUpdatableSet(AttributeFqns.STANDARD_CURRENT_TIME_ATTRIBUTES.size());
+            }
+
+            consumedTimeDependentAttributes.add(attributeFqn);
+            timeDependentAttributeUseCount++;
+        }
+
+        final int slot = slotOf(attributeFqn);
+        final AttributeBag<?> bagResult = slot < 0 ? namedAttributes.get(attributeFqn) : namedAttributeSlots[slot];
         if (bagResult == null)
         {
             return null;
@@ -116,27 +277,106 @@ public abstract class BaseEvaluationContext implements EvaluationContext
          * If datatype classes match, 'bagResult' should have the same type as 'datatypeClass'.
          */
         final AttributeBag<AV> result = (AttributeBag<AV>) bagResult;
-        this.listeners.forEach((lt, l) -> l.namedAttributeValueConsumed(attributeFqn, result));
+        fireNamedAttributeValueConsumed(attributeFqn, result);
         return result;
     }
 
+    /**
+     * Tells whether the value of the given attribute depends on the time of evaluation, in which case {@link #getNamedAttributeValue(AttributeFqn, Datatype)} records it in the set of
+     * {@link #getConsumedTimeDependentAttributes()}. This implementation returns true iff the attribute is one of {@link AttributeFqns#STANDARD_CURRENT_TIME_ATTRIBUTES}. Subclasses may override
+     * this to take other time-dependent attributes into account, e.g. provided by custom attribute providers.
+     *
+     * @param attributeFqn attribute name
+     * @return true iff the attribute is time-dependent
+     */
+    protected boolean isTimeDependent(final AttributeFqn attributeFqn)
+    {
+        return AttributeFqns.STANDARD_CURRENT_TIME_ATTRIBUTES.contains(attributeFqn);
+    }
+
+    @Override
+    public final ImmutableSet<AttributeFqn> getConsumedTimeDependentAttributes()
+    {
+        return consumedTimeDependentAttributes == null || consumedTimeDependentAttributes.isEmpty() ? ImmutableSet.of() : ImmutableSet.copyOf(consumedTimeDependentAttributes);
+    }
+
+    @Override
+    public final int getTimeDependentAttributeUseCount()
+    {
+        return timeDependentAttributeUseCount;
+    }
+
+    @Override
+    public final void restrictDecisionValidity(final Instant validUntil)
+    {
+        assert validUntil != null;
+        boundedTimeDependentAttributeUseCount++;
+        if (decisionValidUntil == null || validUntil.isBefore(decisionValidUntil))
+        {
+            decisionValidUntil = validUntil;
+        }
+    }
+
+    @Override
+    public final boolean isDecisionValidityTracked()
+    {
+        return true;
+    }
+
+    @Override
+    public final Optional<Instant> getDecisionValidUntil()
+    {
+        if (consumedTimeDependentAttributes == null || consumedTimeDependentAttributes.isEmpty())
+        {
+            // time-independent, whatever validity limits were declared
+            return Optional.empty();
+        }
+
+        // valid at evaluation time only if some use has no declared validity limit
+        return Optional.of(decisionValidUntil == null || boundedTimeDependentAttributeUseCount < timeDependentAttributeUseCount ? creationTimestamp : decisionValidUntil);
+    }
+
     @Override
     public final boolean putNamedAttributeValue(final AttributeFqn attributeFqn, final AttributeBag<?> result, boolean override)
     {
+        final int slot = slotOf(attributeFqn);
         if(override) {
-            final Bag<?> oldValue = namedAttributes.put(attributeFqn, result);
+            final Bag<?> oldValue;
+            if (slot < 0)
+            {
+                oldValue = namedAttributes.put(attributeFqn, result);
+            }
+            else
+            {
+                oldValue = namedAttributeSlots[slot];
+                namedAttributeSlots[slot] = result;
+            }
+
             final boolean overridden = oldValue != null;
             if(LOGGER.isWarnEnabled() && overridden)
             {
                     LOGGER.warn("Overriding value of AttributeDesignator {} in evaluation context. Old: {}; new: {}", attributeFqn, oldValue, result);
             }
 
-            this.listeners.forEach((lt, l) -> l.namedAttributeValueProduced(attributeFqn, result));
+            fireNamedAttributeValueProduced(attributeFqn, result);
             return overridden;
         }
 
         // no override
-        final Bag<?> old = namedAttributes.putIfAbsent(attributeFqn, result);
+        final Bag<?> old;
+        if (slot < 0)
+        {
+            old = namedAttributes.putIfAbsent(attributeFqn, result);
+        }
+        else
+        {
+            old = namedAttributeSlots[slot];
+            if (old == null)
+            {
+                namedAttributeSlots[slot] = result;
+            }
+        }
+
         if(old != null)
         {
             LOGGER.warn("Cannot set the value of AttributeDesignator {} already set in evaluation context (override=false): {}; with value: {}", attributeFqn, old, result);
@@ -156,6 +396,12 @@ public abstract class BaseEvaluationContext implements EvaluationContext
             return null;
         }
 
+        if (timeDependentAttributeUseCount > 0)
+        {
+            // the variable value may have been computed from a time-dependent attribute already read
+            timeDependentAttributeUseCount++;
+        }
+
         try
         {
             return expectedDatatype.cast(entry.getValue());
@@ -224,8 +470,23 @@ public abstract class BaseEvaluationContext implements EvaluationContext
     @Override
     public final Iterator<Entry<AttributeFqn, AttributeBag<?>>> getNamedAttributes()
     {
-        final Set<Entry<AttributeFqn, AttributeBag<?>>> immutableAttributeSet = Collections.unmodifiableSet(namedAttributes.entrySet());
-        return immutableAttributeSet.iterator();
+        if (attributeFqnRegistry == null)
+        {
+            final Set<Entry<AttributeFqn, AttributeBag<?>>> immutableAttributeSet = Collections.unmodifiableSet(namedAttributes.entrySet());
+            return immutableAttributeSet.iterator();
+        }
+
+        final List<Entry<AttributeFqn, AttributeBag<?>>> attributes = new ArrayList<>(namedAttributes.size() + namedAttributeSlots.length);
+        for (int i = 0; i < namedAttributeSlots.length; i++)
+        {
+            if (namedAttributeSlots[i] != null)
+            {
+                attributes.add(new AbstractMap.SimpleImmutableEntry<>(attributeFqnRegistry.get(i), namedAttributeSlots[i]));
+            }
+        }
+
+        attributes.addAll(namedAttributes.entrySet());
+        return Collections.unmodifiableList(attributes).iterator();
     }
 
     @Override
@@ -237,7 +498,82 @@ public abstract class BaseEvaluationContext implements EvaluationContext
     @Override
     public final <L extends Listener> L putListener(final Class<L> listenerType, final L listener)
     {
-        return this.listeners.putInstance(listenerType, listener);
+        final L previous = this.listeners.putInstance(listenerType, listener);
+        this.listenerArray = this.listeners.values().stream().filter(Objects::nonNull).toArray(Listener[]::new);
+        return previous;
+    }
+
+    /**
+     * Notifies the registered listeners of {@link Listener#namedAttributeValueProduced(AttributeFqn, AttributeBag)}. No-op (no allocation) if there is no listener.
+     *
+     * @param attributeFqn
+     *            attribute name
+     * @param value
+     *            attribute value bag
+     * @param <AV> produced AttributeValue type
+     */
+    protected final <AV extends AttributeValue> void fireNamedAttributeValueProduced(final AttributeFqn attributeFqn, final AttributeBag<AV> value)
+    {
+        for (final Listener listener : listenerArray)
+        {
+            listener.namedAttributeValueProduced(attributeFqn, value);
+        }
+    }
+
+    /**
+     * Notifies the registered listeners of {@link Listener#namedAttributeValueConsumed(AttributeFqn, AttributeBag)}. No-op (no allocation) if there is no listener.
+     *
+     * @param attributeFqn
+     *            attribute name
+     * @param value
+     *            attribute value bag
+     * @param <AV> consumed AttributeValue type
+     */
+    protected final <AV extends AttributeValue> void fireNamedAttributeValueConsumed(final AttributeFqn attributeFqn, final AttributeBag<AV> value)
+    {
+        for (final Listener listener : listenerArray)
+        {
+            listener.namedAttributeValueConsumed(attributeFqn, value);
+        }
+    }
+
+    /**
+     * Notifies the registered listeners of {@link Listener#attributeSelectorResultProduced(AttributeSelectorExpression, Optional, Bag)}, typically from
+     * {@link #putAttributeSelectorResultIfAbsent(AttributeSelectorExpression, Bag)} implementation. No-op (no allocation) if there is no listener.
+     *
+     * @param attributeSelector
+     *            attribute selector
+     * @param contextSelectorBag
+     *            (optional) xPath-expression value of attribute referenced by ContextSelectorId if present
+     * @param result
+     *            evaluation result
+     * @param <AV> produced bag AttributeValue type
+     */
+    protected final <AV extends AttributeValue> void fireAttributeSelectorResultProduced(final AttributeSelectorExpression<AV> attributeSelector,
+            final Optional<AttributeBag<XPathValue>> contextSelectorBag, final Bag<AV> result)
+    {
+        for (final Listener listener : listenerArray)
+        {
+            listener.attributeSelectorResultProduced(attributeSelector, contextSelectorBag, result);
+        }
+    }
+
+    /**
+     * Notifies the registered listeners of {@link Listener#attributeSelectorResultConsumed(AttributeSelectorExpression, Bag)}, typically from
+     * {@link #getAttributeSelectorResult(AttributeSelectorExpression)} implementation. No-op (no allocation) if there is no listener.
+     *
+     * @param attributeSelector
+     *            attribute selector
+     * @param result
+     *            evaluation result
+     * @param <AV> consumed bag AttributeValue type
+     */
+    protected final <AV extends AttributeValue> void fireAttributeSelectorResultConsumed(final AttributeSelectorExpression<AV> attributeSelector, final Bag<AV> result)
+    {
+        for (final Listener listener : listenerArray)
+        {
+            listener.attributeSelectorResultConsumed(attributeSelector, result);
+        }
     }
 
     @Override
@@ -18,12 +18,16 @@
 package org.ow2.authzforce.core.pdp.api;
 
 import java.io.Closeable;
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry;
 import org.ow2.authzforce.xmlns.pdp.ext.AbstractDecisionCache;
 
+import com.google.common.collect.Maps;
+
 /**
  * Authorization (XACML) decision result cache. Implements {@link Closeable} because a cache may use resources external to the JVM such as a disk or connection to a remote server for persistence,
  * replication, clustering, etc. Therefore, these resources must be released by calling {@link #close()} when it is no longer needed.
@@ -108,13 +112,77 @@ public interface DecisionCache extends Closeable
 	 */
 	void put(DecisionRequest request, DecisionResult result, EvaluationContext evalCtx);
 
+	/**
+	 * Puts a decision request and corresponding result in cache, with a validity limit, typically for decisions depending on time-dependent attributes such as the XACML current-time/date/dateTime
+	 * (see {@link EvaluationContext#getDecisionValidUntil()}). The cache must not return the result after {@code validUntil}.
+	 * <p>
+	 * If {@code evalCtx} is not null and does not track the decision validity ({@link EvaluationContext#isDecisionValidityTracked()} returns false), whether the result depends on time is unknown,
+	 * therefore the result must not be cached, whatever {@code validUntil}.
+	 * <p>
+	 * This implementation calls {@link #put(DecisionRequest, DecisionResult, EvaluationContext)} if {@code validUntil} is empty (and the validity is tracked), else does nothing (the result is not
+	 * cached), since the cache is not assumed to support per-entry expiration. Implementations supporting it should override this method.
+	 * 
+	 * @param request
+	 *            individual decision request
+	 * @param result
+	 *            the corresponding decision result
+	 * @param evalCtx
+	 *            evaluation context (see {@link #put(DecisionRequest, DecisionResult, EvaluationContext)})
+	 * @param validUntil
+	 *            instant after which the result is no longer valid; empty if the validity is unlimited (as far as time is concerned).
+	 */
+	default void put(final DecisionRequest request, final DecisionResult result, final EvaluationContext evalCtx, final Optional<Instant> validUntil)
+	{
+		if (validUntil.isEmpty() && (evalCtx == null || evalCtx.isDecisionValidityTracked()))
+		{
+			put(request, result, evalCtx);
+		}
+	}
+
 	/**
 	 * Puts decision requests and corresponding results in cache. The ability to put multiple cache entries at once allows the Cache implementation to optimize the creation/update by doing them all in
 	 * the same request, e.g. if the cache is in a remote storage/server.
+	 * <p>
+	 * The results are cached with unlimited validity (as far as time is concerned), therefore must not depend on time-dependent attributes. Use {@link #putAll(Map, Map)} for results that may.
 	 * @param <DECISION_REQ_T> request type
 	 * @param resultsByRequest
 	 *            (request, result) pairs as key-value pairs to be cached
 	 */
 	<DECISION_REQ_T extends DecisionRequest> void putAll(Map<DECISION_REQ_T, DecisionResult> resultsByRequest);
 
+	/**
+	 * Puts decision requests and corresponding results in cache, with validity limits for the results depending on time-dependent attributes, e.g. the results of a Multiple Decision request (see
+	 * {@link #put(DecisionRequest, DecisionResult, EvaluationContext, Optional)} for the single-result equivalent). The cache must not return a result after its validity limit.
+	 * <p>
+	 * This implementation calls {@link #putAll(Map)} with the results that have no validity limit only, i.e. the others are not cached, since the cache is not assumed to support per-entry
+	 * expiration. Implementations supporting it should override this method.
+	 * @param <DECISION_REQ_T> request type
+	 * @param resultsByRequest
+	 *            (request, result) pairs as key-value pairs to be cached
+	 * @param validUntilByRequest
+	 *            instants after which the results are no longer valid (see {@link EvaluationContext#getDecisionValidUntil()}), by request. A request in {@code resultsByRequest} but not in this map
+	 *            has a result with unlimited validity (as far as time is concerned), therefore the results evaluated in a context that does not track the decision validity (see
+	 *            {@link EvaluationContext#isDecisionValidityTracked()}) must not be passed to this method, or be mapped to their evaluation time (see
+	 *            {@link EvaluationContext#getDecisionValidUntil()}), so that they are not cached.
+	 */
+	default <DECISION_REQ_T extends DecisionRequest> void putAll(final Map<DECISION_REQ_T, DecisionResult> resultsByRequest, final Map<DECISION_REQ_T, Instant> validUntilByRequest)
+	{
+		putAll(validUntilByRequest.isEmpty() ? resultsByRequest : Maps.filterKeys(resultsByRequest, request -> !validUntilByRequest.containsKey(request)));
+	}
+
+	/**
+	 * Notifies the cache of the attributes that the PDP policies may reference (see {@link PdpEngine#getPolicyAttributeReferences()}), to be called by the PDP once the policies are loaded, before
+	 * any other method of this API. This allows the cache to build keys from the requests projected onto these attributes ({@link PolicyAttributeReferences#project(DecisionRequest)}), so that
+	 * requests differing only by irrelevant attributes share the same cache entry.
+	 * <p>
+	 * This implementation does nothing, i.e. ignores the information.
+	 * 
+	 * @param attributeReferences
+	 *            attributes referenced by the policies
+	 */
+	default void setPolicyAttributeReferences(PolicyAttributeReferences attributeReferences)
+	{
+		// ignored by default
+	}
+
 }
@@ -59,6 +59,22 @@ public interface DecisionRequest
 	 */
 	ImmutableMap<String, XdmNode> getExtraContentsByCategory();
 
+	/**
+	 * Get the Attributes/Content (parsed into XDM data model for XPath evaluation) of a given attribute category. Evaluation contexts should call this method instead of
+	 * {@link #getExtraContentsByCategory()} to get the Content required by an AttributeSelector or XPath-based function, because implementations may parse the Contents lazily, only when first
+	 * requested with this method (e.g. {@link ImmutableDecisionRequest#getInstanceByCategoryWithLazyContents(java.util.Map, java.util.Map, boolean)}).
+	 *
+	 * @param category
+	 *            attribute category
+	 * @return XML Content node of {@code category}, null if none
+	 * @throws IndeterminateEvaluationException
+	 *             if the Content is parsed lazily and is invalid (syntax error)
+	 */
+	default XdmNode getExtraContent(final String category) throws IndeterminateEvaluationException
+	{
+		return getExtraContentsByCategory().get(category);
+	}
+
 	/**
 	 * Get ReturnPolicyIdList flag
 	 * 
@@ -66,4 +82,31 @@ public interface DecisionRequest
 	 */
 	boolean isApplicablePolicyIdListReturned();
 
+	/**
+	 * Get the compact 128-bit fingerprint of this request, e.g. for decision caching. Immutable implementations should compute it only once per key and reuse it on subsequent calls; this default
+	 * implementation computes it on every call.
+	 *
+	 * @param key
+	 *            secret key of the fingerprint hash function, typically one per cache
+	 * @return fingerprint of this request (named attributes, extra contents and ReturnPolicyIdList flag)
+	 */
+	default DecisionRequestFingerprint getFingerprint(final DecisionRequestFingerprint.Key key)
+	{
+		return DecisionRequestFingerprint.of(this, key);
+	}
+
+	/**
+	 * Get the projection of this request onto the attributes referenced by the policies (see {@link PolicyAttributeReferences#project(DecisionRequest)}), e.g. to compute decision cache keys.
+	 * Immutable implementations should compute it only once per {@code attributeReferences} and reuse it on subsequent calls, so that the projected request's fingerprint is computed only once as
+	 * well; this default implementation computes it on every call.
+	 *
+	 * @param attributeReferences
+	 *            attributes referenced by the policies
+	 * @return projected request
+	 */
+	default DecisionRequest getProjection(final PolicyAttributeReferences attributeReferences)
+	{
+		return attributeReferences.project(this);
+	}
+
 }
\ No newline at end of file
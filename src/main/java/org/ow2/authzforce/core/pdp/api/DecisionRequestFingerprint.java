@@ -0,0 +1,357 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+
+import javax.xml.namespace.QName;
+
+import net.sf.saxon.s9api.XdmNode;
+import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.w3c.dom.Node;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Compact 128-bit fingerprint of a {@link DecisionRequest}, to be used for instance as decision cache key instead of the request itself, to avoid keeping the request's attributes in memory and
+ * comparing them deeply on every cache lookup.
+ * <p>
+ * The fingerprint is canonical and order-independent: it depends only on the set of named attributes (category, id, issuer, datatype and multiset of values, i.e. regardless of the order of
+ * attributes in the request and the order of values in each bag), the extra Contents by category, and the ReturnPolicyIdList flag. In other words, two requests equal in the sense of
+ * {@link ImmutableDecisionRequest#equals(Object)} have the same fingerprint for a given {@link Key}.
+ * <p>
+ * Since the request attributes are controlled by the client, and a collision would return the decision of another request, the fingerprint is a keyed hash: each attribute (resp. value, Content)
+ * is hashed separately with a 128-bit pseudo-random function made of two SipHash-2-4 instances with independent secret keys (see {@link Key}), then the element hashes are sorted and hashed again
+ * in this canonical order. Without the key, a client cannot compute fingerprints, let alone forge collisions, and the probability of collision between two different requests is about
+ * 2<sup>-128</sup>. Fingerprints computed with different keys are not comparable.
+ * <p>
+ * Instances are immutable.
+ */
+public final class DecisionRequestFingerprint implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final Comparator<DecisionRequestFingerprint> CANONICAL_ORDER = Comparator.comparingLong(DecisionRequestFingerprint::getHigh).thenComparingLong(DecisionRequestFingerprint::getLow);
+
+	private static final DecisionRequestFingerprint[] EMPTY_ARRAY = {};
+
+	/**
+	 * Secret key of the keyed hash function used to compute fingerprints. Caches using fingerprints as keys should use a random key, e.g. {@link #newRandom()}, and keep it secret. Persistent
+	 * caches must store their key with the entries, since fingerprints computed with different keys are not comparable.
+	 * <p>
+	 * Instances are immutable.
+	 */
+	public static final class Key
+	{
+		/**
+		 * Size of the key in bytes (two 128-bit SipHash keys)
+		 */
+		public static final int SIZE = 32;
+
+		private static final SecureRandom RANDOM = new SecureRandom();
+
+		private final byte[] bytes;
+		private final HashFunction hashFunction;
+
+		private Key(final byte[] bytes)
+		{
+			this.bytes = bytes;
+			final ByteBuffer longs = ByteBuffer.wrap(bytes);
+			this.hashFunction = Hashing.concatenating(Hashing.sipHash24(longs.getLong(0), longs.getLong(8)), Hashing.sipHash24(longs.getLong(16), longs.getLong(24)));
+		}
+
+		/**
+		 * Generates a new random key (using {@link SecureRandom})
+		 * 
+		 * @return new key
+		 */
+		public static Key newRandom()
+		{
+			final byte[] bytes = new byte[SIZE];
+			RANDOM.nextBytes(bytes);
+			return new Key(bytes);
+		}
+
+		/**
+		 * Restores a key, e.g. from some external storage
+		 * 
+		 * @param bytes
+		 *            key bytes (as returned by {@link #getBytes()})
+		 * @return key
+		 * @throws IllegalArgumentException
+		 *             if {@code bytes} is null or its length is not {@link #SIZE}
+		 */
+		public static Key valueOf(final byte[] bytes) throws IllegalArgumentException
+		{
+			Preconditions.checkArgument(bytes != null && bytes.length == SIZE, "Invalid fingerprint key (expected: %s bytes)", SIZE);
+			return new Key(bytes.clone());
+		}
+
+		/**
+		 * Get the key bytes, e.g. to store the key along with fingerprints
+		 * 
+		 * @return key bytes (copy)
+		 */
+		public byte[] getBytes()
+		{
+			return bytes.clone();
+		}
+	}
+
+	private final long high;
+	private final long low;
+
+	private DecisionRequestFingerprint(final long high, final long low)
+	{
+		this.high = high;
+		this.low = low;
+	}
+
+	/**
+	 * Creates fingerprint from its 128-bit value, e.g. restored from some external storage
+	 * 
+	 * @param high
+	 *            most significant 64 bits
+	 * @param low
+	 *            least significant 64 bits
+	 * @return fingerprint
+	 */
+	public static DecisionRequestFingerprint valueOf(final long high, final long low)
+	{
+		return new DecisionRequestFingerprint(high, low);
+	}
+
+	private static DecisionRequestFingerprint valueOf(final HashCode hash)
+	{
+		final ByteBuffer bytes = ByteBuffer.wrap(hash.asBytes());
+		return new DecisionRequestFingerprint(bytes.getLong(0), bytes.getLong(8));
+	}
+
+	private static void putString(final Hasher hasher, final String s)
+	{
+		// length prefix to prevent ambiguity between consecutive strings
+		hasher.putInt(s.length()).putString(s, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Puts the element hashes in canonical (sorted) order, preceded by their count
+	 */
+	private static void putSorted(final Hasher hasher, final DecisionRequestFingerprint[] elementHashes)
+	{
+		Arrays.sort(elementHashes, CANONICAL_ORDER);
+		hasher.putInt(elementHashes.length);
+		for (final DecisionRequestFingerprint elementHash : elementHashes)
+		{
+			hasher.putLong(elementHash.high).putLong(elementHash.low);
+		}
+	}
+
+	/*
+	 * Puts the serialized form of a content item: text as is, XML nodes serialized to XML, else Java-serialized
+	 */
+	/*
+	 * Content serialized like the raw Content of a LazilyParsedContent
+	 */
+	private static String serialize(final XdmNode content)
+	{
+		final String xml = LazilyParsedContent.serialize(content.asSource());
+		return xml == null ? content.toString() : xml;
+	}
+
+	private static void putContentItem(final Hasher hasher, final Serializable contentItem)
+	{
+		if (contentItem instanceof String s)
+		{
+			hasher.putByte((byte) 0);
+			putString(hasher, s);
+			return;
+		}
+
+		if (contentItem instanceof Node node)
+		{
+			hasher.putByte((byte) 1);
+			putString(hasher, XmlUtils.SAXON_PROCESSOR.newDocumentBuilder().wrap(node).toString());
+			return;
+		}
+
+		hasher.putByte((byte) 2);
+		putString(hasher, contentItem.getClass().getName());
+		try (final OutputStream out = Funnels.asOutputStream(hasher); final ObjectOutputStream objectOut = new ObjectOutputStream(out))
+		{
+			objectOut.writeObject(contentItem);
+		}
+		catch (final IOException e)
+		{
+			throw new IllegalArgumentException("Failed to serialize attribute value content for fingerprinting: " + contentItem, e);
+		}
+	}
+
+	private static DecisionRequestFingerprint hashValue(final AttributeValue value, final HashFunction hashFunction)
+	{
+		final Hasher hasher = hashFunction.newHasher();
+		for (final Serializable contentItem : value.getContent())
+		{
+			putContentItem(hasher, contentItem);
+		}
+
+		final Map<QName, String> xmlAttributes = value.getXmlAttributes();
+		final DecisionRequestFingerprint[] xmlAttributeHashes = xmlAttributes.isEmpty() ? EMPTY_ARRAY : new DecisionRequestFingerprint[xmlAttributes.size()];
+		int i = 0;
+		for (final Entry<QName, String> xmlAttribute : xmlAttributes.entrySet())
+		{
+			final Hasher xmlAttributeHasher = hashFunction.newHasher();
+			putString(xmlAttributeHasher, xmlAttribute.getKey().toString());
+			putString(xmlAttributeHasher, xmlAttribute.getValue());
+			xmlAttributeHashes[i++] = valueOf(xmlAttributeHasher.hash());
+		}
+
+		putSorted(hasher, xmlAttributeHashes);
+		return valueOf(hasher.hash());
+	}
+
+	private static DecisionRequestFingerprint hashNamedAttribute(final AttributeFqn attributeFqn, final AttributeBag<?> values, final HashFunction hashFunction)
+	{
+		final Hasher hasher = hashFunction.newHasher();
+		putString(hasher, attributeFqn.getCategory());
+		putString(hasher, attributeFqn.getId());
+		final Optional<String> issuer = attributeFqn.getIssuer();
+		hasher.putBoolean(issuer.isPresent());
+		issuer.ifPresent(s -> putString(hasher, s));
+		putString(hasher, values.getElementDatatype().getId());
+
+		// multiset of values, i.e. duplicates included
+		final DecisionRequestFingerprint[] valueHashes = new DecisionRequestFingerprint[values.size()];
+		int i = 0;
+		for (final AttributeValue value : values)
+		{
+			valueHashes[i++] = hashValue(value, hashFunction);
+		}
+
+		putSorted(hasher, valueHashes);
+		return valueOf(hasher.hash());
+	}
+
+	/**
+	 * Computes the fingerprint of a decision request. This is a potentially costly operation (proportional to the size of the request), therefore implementations of
+	 * {@link DecisionRequest#getFingerprint(Key)} should call this only once per request and key.
+	 * 
+	 * @param request
+	 *            decision request
+	 * @param key
+	 *            secret key of the hash function
+	 * @return fingerprint
+	 * @throws IllegalArgumentException
+	 *             if some attribute value content cannot be serialized, or some Attributes/Content can be neither serialized raw nor parsed (see {@link LazilyParsedContent})
+	 */
+	public static DecisionRequestFingerprint of(final DecisionRequest request, final Key key) throws IllegalArgumentException
+	{
+		final HashFunction hashFunction = key.hashFunction;
+		final Map<AttributeFqn, AttributeBag<?>> namedAttributes = request.getNamedAttributes();
+		final DecisionRequestFingerprint[] namedAttributeHashes = new DecisionRequestFingerprint[namedAttributes.size()];
+		int i = 0;
+		for (final Entry<AttributeFqn, AttributeBag<?>> namedAttribute : namedAttributes.entrySet())
+		{
+			namedAttributeHashes[i++] = hashNamedAttribute(namedAttribute.getKey(), namedAttribute.getValue(), hashFunction);
+		}
+
+		// serialized Contents (the same way whether parsed lazily or not), without parsing the ones parsed lazily if possible
+		final Map<String, String> contents = request instanceof ImmutableDecisionRequest immutableRequest ? immutableRequest.getSerializedExtraContents()
+				: Maps.transformValues(request.getExtraContentsByCategory(), DecisionRequestFingerprint::serialize);
+		final DecisionRequestFingerprint[] contentHashes = new DecisionRequestFingerprint[contents.size()];
+		i = 0;
+		for (final Entry<String, String> content : contents.entrySet())
+		{
+			final Hasher contentHasher = hashFunction.newHasher();
+			putString(contentHasher, content.getKey());
+			putString(contentHasher, content.getValue());
+			contentHashes[i++] = valueOf(contentHasher.hash());
+		}
+
+		final Hasher hasher = hashFunction.newHasher();
+		putSorted(hasher, namedAttributeHashes);
+		putSorted(hasher, contentHashes);
+		hasher.putBoolean(request.isApplicablePolicyIdListReturned());
+		return valueOf(hasher.hash());
+	}
+
+	/**
+	 * Get the most significant 64 bits
+	 * 
+	 * @return most significant 64 bits
+	 */
+	public long getHigh()
+	{
+		return high;
+	}
+
+	/**
+	 * Get the least significant 64 bits
+	 * 
+	 * @return least significant 64 bits
+	 */
+	public long getLow()
+	{
+		return low;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return (int) (low ^ (low >>> 32));
+	}
+
+	@Override
+	public boolean equals(final Object obj)
+	{
+		if (this == obj)
+		{
+			return true;
+		}
+
+		if (!(obj instanceof DecisionRequestFingerprint other))
+		{
+			return false;
+		}
+
+		return this.high == other.high && this.low == other.low;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%016x%016x", high, low);
+	}
+}
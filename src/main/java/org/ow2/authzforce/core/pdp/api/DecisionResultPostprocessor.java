@@ -52,6 +52,14 @@ public interface DecisionResultPostprocessor<INDIVIDUAL_DECISION_REQUEST extends
 		 * Identifier of the feature described in section 3 (Requests for a combined decision) of XACML v3.0 Multiple Decision Profile.
 		 */
 		public static final String XACML_MULTIPLE_DECISION_PROFILE_COMBINED_DECISION = "urn:oasis:names:tc:xacml:3.0:profile:multiple:combined-decision";
+
+		/**
+		 * Identifier of the feature of processing lazily-evaluated results: the collection passed to {@link DecisionResultPostprocessor#process(Collection)} may evaluate each individual decision
+		 * request only when the corresponding entry is reached by the iterator (e.g. to write each result as soon as it is evaluated, instead of all results at the end), in which case it can be
+		 * iterated only once, and an evaluation error of an individual decision request is returned as an Indeterminate result for this request only. In this case, the evaluation may go on after
+		 * {@link DecisionResultPostprocessor#process(Collection)} returns, e.g. while the output is written out, so the PDP engine must not be closed before the output is fully processed.
+		 */
+		public static final String LAZY_RESULTS = PdpExtension.AUTHZFORCE_EXTENSION_PREFIX + "result-postproc:lazy-results";
 	}
 
 	/**
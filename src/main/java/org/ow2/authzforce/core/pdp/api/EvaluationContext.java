@@ -18,6 +18,7 @@
 package org.ow2.authzforce.core.pdp.api;
 
 import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableSet;
 import net.sf.saxon.s9api.XdmNode;
 import org.ow2.authzforce.core.pdp.api.expression.AttributeDesignatorExpression;
 import org.ow2.authzforce.core.pdp.api.expression.AttributeSelectorExpression;
@@ -142,6 +143,40 @@ public interface EvaluationContext
 	 */
 	boolean putNamedAttributeValue(AttributeFqn attributeFQN, AttributeBag<?> result, boolean override);
 
+	/**
+	 * Returns the value of a named attribute in this context, resolving it with {@code resolver} and putting it in this context (without override) first if unknown. This is the atomic version of
+	 * {@link #getNamedAttributeValue(AttributeFqn, Datatype)} followed by {@link #putNamedAttributeValue(AttributeFqn, AttributeBag, boolean)}, to be used to resolve attributes (e.g. with
+	 * {@link NamedAttributeProvider}s) in a context shared by concurrent threads such as a Multiple Decision request context (see {@link EvaluationContexts#synchronizedContext(EvaluationContext)}):
+	 * implementations for such contexts must call {@code resolver} at most once per attribute at a time, the other threads requesting the same attribute waiting for the result.
+	 * <p>
+	 * This implementation is not atomic: it calls {@link #getNamedAttributeValue(AttributeFqn, Datatype)}, then {@code resolver} and {@link #putNamedAttributeValue(AttributeFqn, AttributeBag, boolean)}
+	 * if the value was unknown.
+	 *
+	 * @param attributeFQN
+	 *            attribute GUID (global ID = Category,Issuer,AttributeId)
+	 * @param datatype
+	 *            attribute value datatype
+	 * @param resolver
+	 *            resolves the attribute value (not null) if unknown in this context. It must not resolve the same attribute in this context (cyclic dependency).
+	 * @param <AV>
+	 *            type of AttributeValue requested
+	 * @return attribute value(s) in this context (possibly resolved by another thread)
+	 * @throws IndeterminateEvaluationException
+	 *             error getting the attribute value from this context (see {@link #getNamedAttributeValue(AttributeFqn, Datatype)}) or thrown by {@code resolver}
+	 */
+	default <AV extends AttributeValue> AttributeBag<AV> computeNamedAttributeValueIfAbsent(final AttributeFqn attributeFQN, final Datatype<AV> datatype,
+			final MultipleDecisionMemo.Loader<AttributeBag<AV>> resolver) throws IndeterminateEvaluationException
+	{
+		final AttributeBag<AV> contextValue = getNamedAttributeValue(attributeFQN, datatype);
+		if (contextValue != null)
+		{
+			return contextValue;
+		}
+
+		final AttributeBag<AV> resolvedValue = resolver.load();
+		return putNamedAttributeValue(attributeFQN, resolvedValue, false) ? resolvedValue : getNamedAttributeValue(attributeFQN, datatype);
+	}
+
 	/**
 	 * Returns available context evaluation result for a given AttributeSelector. This feature is optional. Any implementation that does not implement this method may throw
 	 * {@link UnsupportedOperationException} .
@@ -257,6 +292,28 @@ public interface EvaluationContext
 	 */
 	void putOther(String key, Object val);
 
+	/**
+	 * Puts custom property in the context if there is none with the same key yet. Implementations for contexts shared by concurrent threads (see
+	 * {@link EvaluationContexts#synchronizedContext(EvaluationContext)}) must do it atomically.
+	 * <p>
+	 * This implementation is not atomic: it calls {@link #getOther(String)}, then {@link #putOther(String, Object)} if the result is null.
+	 *
+	 * @see java.util.Map#putIfAbsent(Object, Object)
+	 * @param key property key
+	 * @param val property value
+	 * @return the previous value associated with key (then left unchanged), or null if there was no mapping for key.
+	 */
+	default Object putOtherIfAbsent(final String key, final Object val)
+	{
+		final Object previousVal = getOther(key);
+		if (previousVal == null)
+		{
+			putOther(key, val);
+		}
+
+		return previousVal;
+	}
+
 	/**
 	 * Removes custom property from the context
 	 * 
@@ -274,6 +331,79 @@ public interface EvaluationContext
 	 */
 	boolean isApplicablePolicyIdListRequested();
 
+	/**
+	 * Get the time-dependent attributes (e.g. {@link AttributeFqns#STANDARD_CURRENT_TIME_ATTRIBUTES}) consumed so far - with {@link #getNamedAttributeValue(AttributeFqn, Datatype)} - in this
+	 * context. If not empty, the decision depends on the time of evaluation.
+	 * <p>
+	 * This implementation returns an empty set, i.e. does not track such attributes.
+	 *
+	 * @return time-dependent attributes consumed in this context
+	 */
+	default ImmutableSet<AttributeFqn> getConsumedTimeDependentAttributes()
+	{
+		return ImmutableSet.of();
+	}
+
+	/**
+	 * Get the number of uses so far, in this context, of values that may depend on time-dependent attributes, i.e. the number of calls to {@link #getNamedAttributeValue(AttributeFqn, Datatype)}
+	 * for such attributes (see {@link #getConsumedTimeDependentAttributes()}), plus the number of variable values reused with {@link #getVariableValue(String, Datatype)} after such calls (a
+	 * variable may hold a time-dependent value). An evaluation component may compare this count before and after evaluating an argument to find out whether the argument value comes from exactly one
+	 * such use, before calling {@link #restrictDecisionValidity(Instant)}.
+	 * <p>
+	 * This implementation returns 0.
+	 *
+	 * @return number of uses of possibly time-dependent values
+	 */
+	default int getTimeDependentAttributeUseCount()
+	{
+		return 0;
+	}
+
+	/**
+	 * Declares that the result of one use of a time-dependent attribute value (as counted by {@link #getTimeDependentAttributeUseCount()}) remains the same until the given instant (exclusive). To
+	 * be called by the evaluation component using the value, e.g. a comparison function with a constant, with the next instant when its result may change (e.g. the constant dateTime a
+	 * dateTime-less-than comparison would flip at). {@link Instant#MAX} means the result never changes. If called multiple times, the earliest instant applies.
+	 * <p>
+	 * This implementation does nothing.
+	 *
+	 * @param validUntil
+	 *            instant until which the result of the use remains the same
+	 */
+	default void restrictDecisionValidity(final Instant validUntil)
+	{
+		// ignored by default
+	}
+
+	/**
+	 * Tells whether this context tracks the uses of time-dependent attributes ({@link #getConsumedTimeDependentAttributes()}, {@link #getTimeDependentAttributeUseCount()}), i.e. whether
+	 * {@link #getDecisionValidUntil()} reflects the actual time-sensitivity of the decision. If false, whether the decision depends on time is unknown, therefore the decision must not be cached
+	 * beyond the time of evaluation.
+	 * <p>
+	 * This implementation returns false.
+	 *
+	 * @return true iff the decision validity is tracked in this context
+	 */
+	default boolean isDecisionValidityTracked()
+	{
+		return false;
+	}
+
+	/**
+	 * Get the instant until which the decision evaluated in this context remains valid, e.g. to set the expiration of the corresponding {@link DecisionCache} entry with
+	 * {@link DecisionCache#put(DecisionRequest, DecisionResult, EvaluationContext, Optional)}.
+	 * <p>
+	 * This implementation returns the context creation timestamp ({@link #getCreationTimestamp()}), i.e. the decision is only valid at evaluation time, since the validity is not tracked (see
+	 * {@link #isDecisionValidityTracked()}).
+	 *
+	 * @return empty if the validity is tracked and the decision does not depend on any time-dependent attribute; else the earliest instant declared with
+	 *         {@link #restrictDecisionValidity(Instant)} if every use of time-dependent attributes ({@link #getTimeDependentAttributeUseCount()}) was bounded that way, or the context creation
+	 *         timestamp if not or if the validity is not tracked (the decision is then only valid at evaluation time).
+	 */
+	default Optional<Instant> getDecisionValidUntil()
+	{
+		return Optional.of(getCreationTimestamp());
+	}
+
 	/**
 	 * Registers a listener on this evaluation context
 	 * 
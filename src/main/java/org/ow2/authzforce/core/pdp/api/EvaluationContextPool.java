@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Bounded pool of reusable {@link BaseEvaluationContext}s, to avoid allocating new contexts (and their internal maps) for every request evaluated by a PDP engine. Typical usage:
+ * 
+ * <pre>
+ * {@code
+ * final MyEvaluationContext ctx = pool.acquire();
+ * try
+ * {
+ * 	ctx.reset(request); // calls BaseEvaluationContext#reset(...)
+ * 	// evaluate the request with ctx
+ * } finally
+ * {
+ * 	pool.release(ctx);
+ * }
+ * }
+ * </pre>
+ * 
+ * The pool is made of slots selected from the ID of the current thread, so that a given thread mostly reuses the same slot - the same context - without contention. When the thread's slot is empty
+ * (e.g. many more threads than slots, as with virtual threads), the next slots are tried, and a new context is created if all of them are empty. Contexts released to a full pool are simply dropped
+ * (garbage-collected).
+ * <p>
+ * This class is thread-safe and lock-free.
+ *
+ * @param <C>
+ *            type of pooled evaluation context
+ */
+public final class EvaluationContextPool<C extends BaseEvaluationContext>
+{
+	/**
+	 * Maximum number of slots tried by {@link #acquire()} and {@link #release(BaseEvaluationContext)}
+	 */
+	private static final int MAX_PROBES = 4;
+
+	private final AtomicReferenceArray<C> slots;
+	private final int slotMask;
+	private final Supplier<C> contextFactory;
+
+	/**
+	 * Creates a pool
+	 * 
+	 * @param capacity
+	 *            maximum number of idle contexts kept in the pool, rounded up to the next power of 2. Typically the number of threads evaluating requests (e.g. the number of CPU cores for
+	 *            virtual threads).
+	 * @param contextFactory
+	 *            creates new contexts when none is available in the pool
+	 */
+	public EvaluationContextPool(final int capacity, final Supplier<C> contextFactory)
+	{
+		Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30, "Invalid capacity (must be in [1, 2^30]): %s", capacity);
+		Preconditions.checkArgument(contextFactory != null, "Undefined contextFactory");
+		final int slotCount = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.slots = new AtomicReferenceArray<>(slotCount);
+		this.slotMask = slotCount - 1;
+		this.contextFactory = contextFactory;
+	}
+
+	private int firstSlot()
+	{
+		// Fibonacci hashing to spread consecutive thread IDs
+		return (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 32) & slotMask;
+	}
+
+	/**
+	 * Takes an idle context from the pool, or creates a new one if none is available. The returned context must be (re-)initialized with the request to evaluate before use.
+	 * 
+	 * @return evaluation context for exclusive use by the caller until {@link #release(BaseEvaluationContext)}
+	 */
+	public C acquire()
+	{
+		final int first = firstSlot();
+		final int probes = Math.min(MAX_PROBES, slotMask + 1);
+		for (int i = 0; i < probes; i++)
+		{
+			final int slot = (first + i) & slotMask;
+			final C ctx = slots.get(slot);
+			if (ctx != null && slots.compareAndSet(slot, ctx, null))
+			{
+				return ctx;
+			}
+		}
+
+		return contextFactory.get();
+	}
+
+	/**
+	 * Gives a context back to the pool, after calling {@link BaseEvaluationContext#recycle()} on it so that the pool does not retain any request data. The caller must not use the context anymore
+	 * afterwards.
+	 * 
+	 * @param ctx
+	 *            context previously returned by {@link #acquire()}
+	 */
+	public void release(final C ctx)
+	{
+		Preconditions.checkArgument(ctx != null, "Undefined ctx");
+		ctx.recycle();
+		final int first = firstSlot();
+		final int probes = Math.min(MAX_PROBES, slotMask + 1);
+		for (int i = 0; i < probes; i++)
+		{
+			final int slot = (first + i) & slotMask;
+			if (slots.get(slot) == null && slots.compareAndSet(slot, null, ctx))
+			{
+				return;
+			}
+		}
+		// pool full around this slot: drop ctx
+	}
+}
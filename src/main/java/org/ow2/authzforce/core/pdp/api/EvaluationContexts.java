@@ -0,0 +1,429 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.ow2.authzforce.core.pdp.api.expression.AttributeSelectorExpression;
+import org.ow2.authzforce.core.pdp.api.expression.VariableReference;
+import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.Bag;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+import org.ow2.authzforce.core.pdp.api.value.Value;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import net.sf.saxon.s9api.XdmNode;
+
+/**
+ * Static utility methods pertaining to {@link EvaluationContext} instances.
+ *
+ */
+public final class EvaluationContexts
+{
+	private EvaluationContexts()
+	{
+		// prevent instantiation
+	}
+
+	private static final class SynchronizedEvaluationContext implements EvaluationContext
+	{
+		private final EvaluationContext delegate;
+
+		/*
+		 * Lock instead of object monitor, to avoid pinning virtual threads (Java 21) waiting for it
+		 */
+		private final ReentrantLock lock = new ReentrantLock();
+
+		/*
+		 * Named attributes being resolved with computeNamedAttributeValueIfAbsent(...), resolved only once at a time (other threads waiting for the result)
+		 */
+		private final MultipleDecisionMemo namedAttributeResolutions = new MultipleDecisionMemo();
+
+		private SynchronizedEvaluationContext(final EvaluationContext delegate)
+		{
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Instant getCreationTimestamp()
+		{
+			lock.lock();
+			try
+			{
+				return delegate.getCreationTimestamp();
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public <AV extends AttributeValue> AttributeBag<AV> getNamedAttributeValue(final AttributeFqn attributeFQN, final Datatype<AV> datatype) throws IndeterminateEvaluationException
+		{
+			lock.lock();
+			try
+			{
+				return delegate.getNamedAttributeValue(attributeFQN, datatype);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Iterator<Entry<AttributeFqn, AttributeBag<?>>> getNamedAttributes()
+		{
+			lock.lock();
+			try
+			{
+				// snapshot, the delegate's iterator is not safe for use outside the lock
+				return ImmutableList.copyOf(delegate.getNamedAttributes()).iterator();
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean putNamedAttributeValue(final AttributeFqn attributeFQN, final AttributeBag<?> result, final boolean override)
+		{
+			lock.lock();
+			try
+			{
+				return delegate.putNamedAttributeValue(attributeFQN, result, override);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public <AV extends AttributeValue> AttributeBag<AV> computeNamedAttributeValueIfAbsent(final AttributeFqn attributeFQN, final Datatype<AV> datatype,
+				final MultipleDecisionMemo.Loader<AttributeBag<AV>> resolver) throws IndeterminateEvaluationException
+		{
+			final AttributeBag<AV> contextValue = getNamedAttributeValue(attributeFQN, datatype);
+			if (contextValue != null)
+			{
+				return contextValue;
+			}
+
+			/*
+			 * The resolver is called without holding the lock, only by the first thread requesting the attribute, the other ones waiting for the result. The context is checked again before calling
+			 * it since the attribute may have been put in the context by another caller in the meantime. Failed resolutions are not memoized, i.e. retried by the next caller.
+			 */
+			namedAttributeResolutions.get(attributeFQN, () -> {
+				final AttributeBag<AV> latestContextValue = getNamedAttributeValue(attributeFQN, datatype);
+				if (latestContextValue != null)
+				{
+					return latestContextValue;
+				}
+
+				final AttributeBag<AV> resolvedValue = resolver.load();
+				putNamedAttributeValue(attributeFQN, resolvedValue, false);
+				return resolvedValue;
+			});
+			return getNamedAttributeValue(attributeFQN, datatype);
+		}
+
+		@Override
+		public <AV extends AttributeValue> Bag<AV> getAttributeSelectorResult(final AttributeSelectorExpression<AV> attributeSelector) throws IndeterminateEvaluationException
+		{
+			lock.lock();
+			try
+			{
+				return delegate.getAttributeSelectorResult(attributeSelector);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public <AV extends AttributeValue> boolean putAttributeSelectorResultIfAbsent(final AttributeSelectorExpression<AV> attributeSelector, final Bag<AV> result)
+				throws IndeterminateEvaluationException
+		{
+			lock.lock();
+			try
+			{
+				return delegate.putAttributeSelectorResultIfAbsent(attributeSelector, result);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public XdmNode getAttributesContent(final String category)
+		{
+			lock.lock();
+			try
+			{
+				return delegate.getAttributesContent(category);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public <V extends Value> V getVariableValue(final String variableId, final Datatype<V> datatype) throws IndeterminateEvaluationException
+		{
+			lock.lock();
+			try
+			{
+				return delegate.getVariableValue(variableId, datatype);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public ImmutableCollection<Entry<VariableReference<?>, Value>> getVariables()
+		{
+			lock.lock();
+			try
+			{
+				return delegate.getVariables();
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean putVariableIfAbsent(final VariableReference<?> variableRef, final Value value)
+		{
+			lock.lock();
+			try
+			{
+				return delegate.putVariableIfAbsent(variableRef, value);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Entry<VariableReference<?>, Value> removeVariable(final String variableId)
+		{
+			lock.lock();
+			try
+			{
+				return delegate.removeVariable(variableId);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Object getOther(final String key)
+		{
+			lock.lock();
+			try
+			{
+				return delegate.getOther(key);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean containsKey(final String key)
+		{
+			lock.lock();
+			try
+			{
+				return delegate.containsKey(key);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void putOther(final String key, final Object val)
+		{
+			lock.lock();
+			try
+			{
+				delegate.putOther(key, val);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Object putOtherIfAbsent(final String key, final Object val)
+		{
+			lock.lock();
+			try
+			{
+				return delegate.putOtherIfAbsent(key, val);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Object remove(final String key)
+		{
+			lock.lock();
+			try
+			{
+				return delegate.remove(key);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean isApplicablePolicyIdListRequested()
+		{
+			lock.lock();
+			try
+			{
+				return delegate.isApplicablePolicyIdListRequested();
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public ImmutableSet<AttributeFqn> getConsumedTimeDependentAttributes()
+		{
+			lock.lock();
+			try
+			{
+				return delegate.getConsumedTimeDependentAttributes();
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int getTimeDependentAttributeUseCount()
+		{
+			lock.lock();
+			try
+			{
+				return delegate.getTimeDependentAttributeUseCount();
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void restrictDecisionValidity(final Instant validUntil)
+		{
+			lock.lock();
+			try
+			{
+				delegate.restrictDecisionValidity(validUntil);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean isDecisionValidityTracked()
+		{
+			return delegate.isDecisionValidityTracked();
+		}
+
+		@Override
+		public Optional<Instant> getDecisionValidUntil()
+		{
+			lock.lock();
+			try
+			{
+				return delegate.getDecisionValidUntil();
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public <L extends Listener> L putListener(final Class<L> listenerType, final L listener)
+		{
+			lock.lock();
+			try
+			{
+				return delegate.putListener(listenerType, listener);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public <L extends Listener> L getListener(final Class<L> listenerType)
+		{
+			lock.lock();
+			try
+			{
+				return delegate.getListener(listenerType);
+			} finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return delegate.toString();
+		}
+	}
+
+	/**
+	 * Returns a thread-safe view of a given evaluation context, e.g. a Multiple Decision Profile context shared by individual decision requests evaluated in parallel. Each method call is atomic
+	 * (guarded by a {@link ReentrantLock}, which does not pin virtual threads). In particular, {@link EvaluationContext#computeNamedAttributeValueIfAbsent(AttributeFqn, Datatype, MultipleDecisionMemo.Loader)}
+	 * resolves each attribute once: a thread requesting an attribute being resolved by another thread waits for the result. Therefore, attributes must be resolved with this method, since
+	 * sequences of calls are not atomic, e.g. a {@link EvaluationContext#getNamedAttributeValue(AttributeFqn, Datatype)} returning null followed by
+	 * {@link EvaluationContext#putNamedAttributeValue(AttributeFqn, AttributeBag, boolean)}: if two threads do it concurrently, the attribute may be resolved twice.
+	 *
+	 * @param context
+	 *            evaluation context, must not be accessed directly anymore (only via the returned view)
+	 * @return synchronized view of {@code context}
+	 */
+	public static EvaluationContext synchronizedContext(final EvaluationContext context)
+	{
+		Preconditions.checkArgument(context != null, "Undefined context");
+		return context instanceof SynchronizedEvaluationContext ? context : new SynchronizedEvaluationContext(context);
+	}
+}
@@ -18,41 +18,138 @@
 package org.ow2.authzforce.core.pdp.api;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
 import net.sf.saxon.s9api.XdmNode;
 import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
 
 import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * Immutable implementation of {@link DecisionRequest} to be used as input to {@link PdpEngine#evaluate(DecisionRequest)}. Typically, it is used as output request instances by PDP {@link DecisionRequestPreprocessor}
  * extensions, based on JAXB/XACML input requests
+ * <p>
+ * The named attributes are stored in one immutable map per attribute category, therefore requests that have categories in common, e.g. the individual requests of a Multiple Decision request, may
+ * share the same category maps (see {@link #getInstanceByCategory(Map, Map, boolean)}), in which case the memory used by a request - and the time to build it - is proportional to the number of
+ * categories, not attributes.
+ * <p>
+ * The Contents may be parsed lazily (see {@link #getInstanceByCategoryWithLazyContents(Map, Map, boolean)}), i.e. only when first requested with {@link #getExtraContent(String)}, e.g. by an
+ * AttributeSelector or XPath-based function evaluation. Note that {@link #getExtraContentsByCategory()} gets all the Contents, therefore parses them, whereas {@link #equals(Object)},
+ * {@link #hashCode()}, {@link #toString()} and {@link #getFingerprint(DecisionRequestFingerprint.Key)} use the raw Contents (see {@link LazilyParsedContent}), or the serialized Contents if parsed
+ * already by the factory method (see {@link LazilyParsedContent#of(XdmNode)}). Therefore, a request with lazily parsed Contents is equal to the same request with Contents parsed eagerly, provided
+ * that the raw Contents are serialized with {@link LazilyParsedContent#serialize(javax.xml.transform.Source)}.
  */
 public final class ImmutableDecisionRequest implements DecisionRequest
 {
+	private static final class KeyedFingerprint
+	{
+		private final DecisionRequestFingerprint.Key key;
+		private final DecisionRequestFingerprint value;
+
+		private KeyedFingerprint(final DecisionRequestFingerprint.Key key, final DecisionRequestFingerprint value)
+		{
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private static final class Projection
+	{
+		private final PolicyAttributeReferences attributeReferences;
+		private final ImmutableDecisionRequest request;
+
+		private Projection(final PolicyAttributeReferences attributeReferences, final ImmutableDecisionRequest request)
+		{
+			this.attributeReferences = attributeReferences;
+			this.request = request;
+		}
+	}
 
 	// initialized not null by constructors
 	private final Instant creationTimestamp;
-	private final ImmutableMap<AttributeFqn, AttributeBag<?>> namedAttributes;
-	private final ImmutableMap<String, XdmNode> extraContentByCategory;
+	/*
+	 * Non-empty named attribute maps by attribute category (the category of every attribute in a map is the map's key). Sorted maps (category map and attribute maps) iff sortedNamedAttributes.
+	 */
+	private final ImmutableMap<String, ImmutableMap<AttributeFqn, AttributeBag<?>>> namedAttributesByCategory;
+	private final int namedAttributeCount;
+	private final boolean sortedNamedAttributes;
+	/*
+	 * Lazily-parsed contents by category, null if contents parsed already (extraContentByCategory set by constructor)
+	 */
+	private final ImmutableMap<String, LazilyParsedContent> lazyContentsByCategory;
 	private final boolean isApplicablePolicyListReturned;
 
+	/*
+	 * Set by constructor if contents already parsed, else computed on demand by getExtraContentsByCategory()
+	 */
+	private volatile ImmutableMap<String, XdmNode> extraContentByCategory;
+
+	/*
+	 * Contents parsed already by constructor (extraContentByCategory) as LazilyParsedContents for comparison with lazily parsed ones, computed on demand by getComparableContents()
+	 */
+	private transient volatile ImmutableMap<String, LazilyParsedContent> comparableContents = null;
+
+	/*
+	 * Named attributes of all categories merged, computed on demand by getNamedAttributes() (if more than one category)
+	 */
+	private transient volatile ImmutableMap<AttributeFqn, AttributeBag<?>> namedAttributes = null;
 	private transient volatile int hashCode = 0; // Effective Java - Item 9
 	private transient volatile String toString = null;
+	/*
+	 * Fingerprint computed with the last key used (usually the same cache key every time)
+	 */
+	private transient volatile KeyedFingerprint fingerprint = null;
+	/*
+	 * Projection onto the last attribute references used (usually the same cache's every time)
+	 */
+	private transient volatile Projection projection = null;
 
-	private ImmutableDecisionRequest(final ImmutableMap<AttributeFqn, AttributeBag<?>> immutableNamedAttributes, final ImmutableMap<String, XdmNode> immutableContentNodesByCategory,
+	private ImmutableDecisionRequest(final ImmutableMap<String, ImmutableMap<AttributeFqn, AttributeBag<?>>> immutableNamedAttributesByCategory, final boolean sortedNamedAttributes,
+									 final ImmutableMap<String, XdmNode> immutableContentNodesByCategory, final ImmutableMap<String, LazilyParsedContent> lazyContentsByCategory,
 									 final boolean returnApplicablePolicies)
 	{
-		assert immutableNamedAttributes != null && immutableContentNodesByCategory != null;
+		assert immutableNamedAttributesByCategory != null && (immutableContentNodesByCategory == null) != (lazyContentsByCategory == null);
 
 		this.creationTimestamp = Instant.now();
-		this.namedAttributes = immutableNamedAttributes;
+		this.namedAttributesByCategory = immutableNamedAttributesByCategory;
+		int count = 0;
+		for (final ImmutableMap<AttributeFqn, AttributeBag<?>> categoryAttributes : immutableNamedAttributesByCategory.values())
+		{
+			count += categoryAttributes.size();
+		}
+
+		this.namedAttributeCount = count;
+		this.sortedNamedAttributes = sortedNamedAttributes;
 		this.extraContentByCategory = immutableContentNodesByCategory;
+		this.lazyContentsByCategory = lazyContentsByCategory;
 		this.isApplicablePolicyListReturned = returnApplicablePolicies;
 	}
 
+	private static ImmutableMap<String, ImmutableMap<AttributeFqn, AttributeBag<?>>> groupByCategory(final Map<AttributeFqn, AttributeBag<?>> namedAttributes, final boolean sorted)
+	{
+		if (namedAttributes == null || namedAttributes.isEmpty())
+		{
+			return sorted ? ImmutableSortedMap.of() : ImmutableMap.of();
+		}
+
+		// keep the order of categories (by first occurrence)
+		final Map<String, ImmutableMap.Builder<AttributeFqn, AttributeBag<?>>> builders = new LinkedHashMap<>();
+		for (final Entry<AttributeFqn, AttributeBag<?>> namedAttribute : namedAttributes.entrySet())
+		{
+			builders.computeIfAbsent(namedAttribute.getKey().getCategory(), k -> sorted ? ImmutableSortedMap.naturalOrder() : ImmutableMap.builder()).put(namedAttribute);
+		}
+
+		final ImmutableMap.Builder<String, ImmutableMap<AttributeFqn, AttributeBag<?>>> result = sorted ? ImmutableSortedMap.naturalOrder() : ImmutableMap.builderWithExpectedSize(builders.size());
+		builders.forEach((category, builder) -> result.put(category, builder.build()));
+		return result.build();
+	}
+
 	/**
 	 * Create new instance returning unsorted map of named attributes and content nodes by attribute category
 	 * 
@@ -67,8 +164,65 @@ public final class ImmutableDecisionRequest implements DecisionRequest
 	public static ImmutableDecisionRequest getInstance(final Map<AttributeFqn, AttributeBag<?>> namedAttributes, final Map<String, XdmNode> contentNodesByCategory,
 			final boolean returnApplicablePolicies)
 	{
-		return new ImmutableDecisionRequest(namedAttributes == null ? ImmutableMap.of() : ImmutableMap.copyOf(namedAttributes),
-				contentNodesByCategory == null ? ImmutableMap.of() : ImmutableMap.copyOf(contentNodesByCategory), returnApplicablePolicies);
+		return new ImmutableDecisionRequest(groupByCategory(namedAttributes, false), false,
+				contentNodesByCategory == null ? ImmutableMap.of() : ImmutableMap.copyOf(contentNodesByCategory), null, returnApplicablePolicies);
+	}
+
+	private static ImmutableMap<String, ImmutableMap<AttributeFqn, AttributeBag<?>>> toImmutableByCategory(final Map<String, ? extends Map<AttributeFqn, AttributeBag<?>>> namedAttributesByCategory)
+	{
+		if (namedAttributesByCategory == null || namedAttributesByCategory.isEmpty())
+		{
+			return ImmutableMap.of();
+		}
+
+		final ImmutableMap.Builder<String, ImmutableMap<AttributeFqn, AttributeBag<?>>> builder = ImmutableMap.builderWithExpectedSize(namedAttributesByCategory.size());
+		for (final Entry<String, ? extends Map<AttributeFqn, AttributeBag<?>>> categoryAttributes : namedAttributesByCategory.entrySet())
+		{
+			if (!categoryAttributes.getValue().isEmpty())
+			{
+				assert categoryAttributes.getValue().keySet().stream().allMatch(attName -> attName.getCategory().equals(categoryAttributes.getKey()));
+				// no copy if already an ImmutableMap
+				builder.put(categoryAttributes.getKey(), ImmutableMap.copyOf(categoryAttributes.getValue()));
+			}
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * Create new instance from named attributes grouped by category. The category maps are not copied if they are {@link ImmutableMap}s already, therefore can be shared with other requests.
+	 *
+	 * @param namedAttributesByCategory
+	 *            named Attributes (no extra Content element) by attribute category, i.e. the category of every attribute in a map value must be the corresponding key
+	 * @param contentNodesByCategory
+	 *            extra XML Content elements by attribute Category
+	 * @param returnApplicablePolicies
+	 *            return list of applicable policy identifiers; equivalent of XACML Request's ReturnPolicyIdList flag
+	 * @return new instance
+	 */
+	public static ImmutableDecisionRequest getInstanceByCategory(final Map<String, ? extends Map<AttributeFqn, AttributeBag<?>>> namedAttributesByCategory,
+			final Map<String, XdmNode> contentNodesByCategory, final boolean returnApplicablePolicies)
+	{
+		return new ImmutableDecisionRequest(toImmutableByCategory(namedAttributesByCategory), false,
+				contentNodesByCategory == null ? ImmutableMap.of() : ImmutableMap.copyOf(contentNodesByCategory), null, returnApplicablePolicies);
+	}
+
+	/**
+	 * Same as {@link #getInstanceByCategory(Map, Map, boolean)} except the Contents are parsed lazily: each Content is parsed only when first requested, and at most once.
+	 *
+	 * @param namedAttributesByCategory
+	 *            named Attributes (no extra Content element) by attribute category, i.e. the category of every attribute in a map value must be the corresponding key
+	 * @param lazyContentsByCategory
+	 *            extra XML Content elements (parsed lazily) by attribute Category
+	 * @param returnApplicablePolicies
+	 *            return list of applicable policy identifiers; equivalent of XACML Request's ReturnPolicyIdList flag
+	 * @return new instance
+	 */
+	public static ImmutableDecisionRequest getInstanceByCategoryWithLazyContents(final Map<String, ? extends Map<AttributeFqn, AttributeBag<?>>> namedAttributesByCategory,
+			final Map<String, LazilyParsedContent> lazyContentsByCategory, final boolean returnApplicablePolicies)
+	{
+		return new ImmutableDecisionRequest(toImmutableByCategory(namedAttributesByCategory), false, null,
+				lazyContentsByCategory == null ? ImmutableMap.of() : ImmutableMap.copyOf(lazyContentsByCategory), returnApplicablePolicies);
 	}
 
 	/**
@@ -86,8 +240,8 @@ public final class ImmutableDecisionRequest implements DecisionRequest
 	public static ImmutableDecisionRequest getSortedInstance(final Map<AttributeFqn, AttributeBag<?>> namedAttributes, final Map<String, XdmNode> contentNodesByCategory,
 			final boolean returnApplicablePolicies)
 	{
-		return new ImmutableDecisionRequest(namedAttributes == null ? ImmutableSortedMap.of() : ImmutableSortedMap.copyOf(namedAttributes), contentNodesByCategory == null ? ImmutableSortedMap.of()
-				: ImmutableSortedMap.copyOf(contentNodesByCategory), returnApplicablePolicies);
+		return new ImmutableDecisionRequest(groupByCategory(namedAttributes, true), true, contentNodesByCategory == null ? ImmutableSortedMap.of()
+				: ImmutableSortedMap.copyOf(contentNodesByCategory), null, returnApplicablePolicies);
 	}
 
 	@Override
@@ -96,26 +250,208 @@ public final class ImmutableDecisionRequest implements DecisionRequest
 		return this.creationTimestamp;
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see org.ow2.authzforce.core.IndividualDecisionRequest#getNamedAttributes()
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This implementation merges the attribute maps of all categories on the first call (except if there is a single category) and returns the same map afterwards.
 	 */
 	@Override
 	public ImmutableMap<AttributeFqn, AttributeBag<?>> getNamedAttributes()
 	{
-		return this.namedAttributes;
+		if (namedAttributesByCategory.isEmpty())
+		{
+			return sortedNamedAttributes ? ImmutableSortedMap.of() : ImmutableMap.of();
+		}
+
+		if (namedAttributesByCategory.size() == 1)
+		{
+			return namedAttributesByCategory.values().iterator().next();
+		}
+
+		if (namedAttributes == null)
+		{
+			// AttributeFqns are sorted by category first, therefore sorted categories of sorted attributes are sorted attributes
+			final ImmutableMap.Builder<AttributeFqn, AttributeBag<?>> builder = sortedNamedAttributes ? ImmutableSortedMap.naturalOrder() : ImmutableMap.builderWithExpectedSize(namedAttributeCount);
+			for (final ImmutableMap<AttributeFqn, AttributeBag<?>> categoryAttributes : namedAttributesByCategory.values())
+			{
+				builder.putAll(categoryAttributes);
+			}
+
+			namedAttributes = builder.build();
+		}
+
+		return namedAttributes;
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Gets the named attributes grouped by attribute category, as stored internally (no copy).
+	 *
+	 * @return non-empty named attribute maps by attribute category; empty if no named attribute
+	 */
+	public ImmutableMap<String, ImmutableMap<AttributeFqn, AttributeBag<?>>> getNamedAttributesByCategory()
+	{
+		return this.namedAttributesByCategory;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This implementation parses the Contents that are parsed lazily (unless already done).
 	 * 
-	 * @see org.ow2.authzforce.core.IndividualDecisionRequest#getExtraContentsByCategory()
+	 * @throws IllegalArgumentException
+	 *             if a Content parsed lazily is invalid
+	 */
+	@Override
+	public ImmutableMap<String, XdmNode> getExtraContentsByCategory() throws IllegalArgumentException
+	{
+		ImmutableMap<String, XdmNode> result = this.extraContentByCategory;
+		if (result == null)
+		{
+			assert lazyContentsByCategory != null;
+			final ImmutableMap.Builder<String, XdmNode> builder = ImmutableMap.builderWithExpectedSize(lazyContentsByCategory.size());
+			for (final Entry<String, LazilyParsedContent> lazyContent : lazyContentsByCategory.entrySet())
+			{
+				try
+				{
+					builder.put(lazyContent.getKey(), lazyContent.getValue().get());
+				}
+				catch (final IndeterminateEvaluationException e)
+				{
+					throw new IllegalArgumentException("Invalid Content of Attributes[@Category=" + lazyContent.getKey() + "]", e);
+				}
+			}
+
+			result = builder.build();
+			this.extraContentByCategory = result;
+		}
+
+		return result;
+	}
+
+	/*
+	 * Categories of the Contents, without parsing lazily-parsed Contents
+	 */
+	ImmutableSet<String> getExtraContentCategories()
+	{
+		return lazyContentsByCategory == null ? extraContentByCategory.keySet() : lazyContentsByCategory.keySet();
+	}
+
+	/*
+	 * Contents as used by equals(), hashCode() and toString(), without parsing lazily-parsed Contents: LazilyParsedContents (compared by raw Content) whether parsed lazily or not, so that the result
+	 * does not depend on the parsing mode
+	 */
+	private ImmutableMap<String, LazilyParsedContent> getComparableContents()
+	{
+		if (lazyContentsByCategory != null)
+		{
+			return lazyContentsByCategory;
+		}
+
+		ImmutableMap<String, LazilyParsedContent> result = comparableContents;
+		if (result == null)
+		{
+			result = ImmutableMap.copyOf(Maps.transformValues(extraContentByCategory, LazilyParsedContent::of));
+			comparableContents = result;
+		}
+
+		return result;
+	}
+
+	/*
+	 * Serialized Contents by category for fingerprinting, without parsing lazily-parsed Contents unless the raw Content cannot be serialized
+	 */
+	Map<String, String> getSerializedExtraContents() throws IllegalArgumentException
+	{
+		final ImmutableMap<String, LazilyParsedContent> contents = getComparableContents();
+		final Map<String, String> result = HashCollections.newUpdatableMap(contents.size());
+		for (final Entry<String, LazilyParsedContent> content : contents.entrySet())
+		{
+			final String rawContent = content.getValue().getRawContent();
+			result.put(content.getKey(), rawContent == null ? getExtraContentsByCategory().get(content.getKey()).toString() : rawContent);
+		}
+
+		return result;
+	}
+
+	/*
+	 * Same request with only the named attributes in namedAttributesToKeep and the Contents in contentCategoriesToKeep, or this request itself if nothing to remove. The projection is done per
+	 * category: category maps without any attribute to remove are reused as is. Lazy parsing of Contents is preserved.
 	 */
+	ImmutableDecisionRequest project(final Set<AttributeFqn> namedAttributesToKeep, final Set<String> contentCategoriesToKeep)
+	{
+		final ImmutableMap.Builder<String, ImmutableMap<AttributeFqn, AttributeBag<?>>> projectedAttributesBuilder = sortedNamedAttributes ? ImmutableSortedMap.naturalOrder()
+				: ImmutableMap.builderWithExpectedSize(namedAttributesByCategory.size());
+		boolean allAttributesKept = true;
+		for (final Entry<String, ImmutableMap<AttributeFqn, AttributeBag<?>>> categoryAttributes : namedAttributesByCategory.entrySet())
+		{
+			final ImmutableMap<AttributeFqn, AttributeBag<?>> attributes = categoryAttributes.getValue();
+			if (namedAttributesToKeep.containsAll(attributes.keySet()))
+			{
+				// reused as is
+				projectedAttributesBuilder.put(categoryAttributes);
+				continue;
+			}
+
+			allAttributesKept = false;
+			final Map<AttributeFqn, AttributeBag<?>> projectedAttributes = Maps.filterKeys(attributes, namedAttributesToKeep::contains);
+			if (!projectedAttributes.isEmpty())
+			{
+				projectedAttributesBuilder.put(categoryAttributes.getKey(), sortedNamedAttributes ? ImmutableSortedMap.copyOf(projectedAttributes) : ImmutableMap.copyOf(projectedAttributes));
+			}
+		}
+
+		final boolean allContentsKept = contentCategoriesToKeep.containsAll(getExtraContentCategories());
+		if (allAttributesKept && allContentsKept)
+		{
+			return this;
+		}
+
+		final ImmutableMap<String, ImmutableMap<AttributeFqn, AttributeBag<?>>> projectedAttributesByCategory = allAttributesKept ? namedAttributesByCategory : projectedAttributesBuilder.build();
+		if (lazyContentsByCategory == null)
+		{
+			final ImmutableMap<String, XdmNode> projectedContents;
+			if (allContentsKept)
+			{
+				projectedContents = extraContentByCategory;
+			}
+			else
+			{
+				final Map<String, XdmNode> filteredContents = Maps.filterKeys(extraContentByCategory, contentCategoriesToKeep::contains);
+				projectedContents = sortedNamedAttributes ? ImmutableSortedMap.copyOf(filteredContents) : ImmutableMap.copyOf(filteredContents);
+			}
+
+			return new ImmutableDecisionRequest(projectedAttributesByCategory, sortedNamedAttributes, projectedContents, null, isApplicablePolicyListReturned);
+		}
+
+		return new ImmutableDecisionRequest(projectedAttributesByCategory, sortedNamedAttributes, null,
+				allContentsKept ? lazyContentsByCategory : ImmutableMap.copyOf(Maps.filterKeys(lazyContentsByCategory, contentCategoriesToKeep::contains)), isApplicablePolicyListReturned);
+	}
+
 	@Override
-	public ImmutableMap<String, XdmNode> getExtraContentsByCategory()
+	public DecisionRequest getProjection(final PolicyAttributeReferences attributeReferences)
 	{
-		return this.extraContentByCategory;
+		final Projection lastProjection = projection;
+		if (lastProjection != null && lastProjection.attributeReferences == attributeReferences)
+		{
+			return lastProjection.request;
+		}
+
+		final ImmutableDecisionRequest projectedRequest = project(attributeReferences.getNamedAttributes(), attributeReferences.getContentCategories());
+		projection = new Projection(attributeReferences, projectedRequest);
+		return projectedRequest;
+	}
+
+	@Override
+	public XdmNode getExtraContent(final String category) throws IndeterminateEvaluationException
+	{
+		final ImmutableMap<String, XdmNode> contents = this.extraContentByCategory;
+		if (contents != null)
+		{
+			return contents.get(category);
+		}
+
+		final LazilyParsedContent lazyContent = lazyContentsByCategory.get(category);
+		return lazyContent == null ? null : lazyContent.get();
 	}
 
 	/**
@@ -127,6 +463,20 @@ public final class ImmutableDecisionRequest implements DecisionRequest
 		return this.isApplicablePolicyListReturned;
 	}
 
+	@Override
+	public DecisionRequestFingerprint getFingerprint(final DecisionRequestFingerprint.Key key)
+	{
+		final KeyedFingerprint lastFingerprint = fingerprint;
+		if (lastFingerprint != null && lastFingerprint.key == key)
+		{
+			return lastFingerprint.value;
+		}
+
+		final DecisionRequestFingerprint newFingerprint = DecisionRequestFingerprint.of(this, key);
+		fingerprint = new KeyedFingerprint(key, newFingerprint);
+		return newFingerprint;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -137,7 +487,7 @@ public final class ImmutableDecisionRequest implements DecisionRequest
 	{
 		if (toString == null)
 		{
-			toString = "[namedAttributes=" + namedAttributes + ", contentNodesByCategory=" + extraContentByCategory + ", isApplicablePolicyListReturned=" + isApplicablePolicyListReturned + "]";
+			toString = "[namedAttributes=" + getNamedAttributes() + ", contentNodesByCategory=" + getComparableContents() + ", isApplicablePolicyListReturned=" + isApplicablePolicyListReturned + "]";
 		}
 
 		return toString;
@@ -153,7 +503,7 @@ public final class ImmutableDecisionRequest implements DecisionRequest
 	{
 		if (hashCode == 0)
 		{
-			hashCode = Objects.hash(this.namedAttributes, this.extraContentByCategory, this.isApplicablePolicyListReturned);
+			hashCode = Objects.hash(this.namedAttributesByCategory, getComparableContents(), this.isApplicablePolicyListReturned);
 		}
 
 		return hashCode;
@@ -178,8 +528,8 @@ public final class ImmutableDecisionRequest implements DecisionRequest
 		}
 
 		final ImmutableDecisionRequest other = (ImmutableDecisionRequest) obj;
-		return this.isApplicablePolicyListReturned == other.isApplicablePolicyListReturned && this.namedAttributes.equals(other.namedAttributes)
-				&& this.extraContentByCategory.equals(other.extraContentByCategory);
+		return this.isApplicablePolicyListReturned == other.isApplicablePolicyListReturned && this.namedAttributesByCategory.equals(other.namedAttributesByCategory)
+				&& this.getComparableContents().equals(other.getComparableContents());
 	}
 
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Evaluation task completing a {@link CompletableFuture}, and interrupting the thread running the evaluation if the future is completed by other means before the end of the evaluation, e.g.
+ * cancelled or timed out, so that blocking calls (e.g. from attribute providers to remote services) are interrupted as well.
+ *
+ * @param <T>
+ *            type of evaluation result
+ */
+final class InterruptibleEvaluation<T> implements Runnable
+{
+	private final Callable<T> evaluation;
+	private final CompletableFuture<T> future = new CompletableFuture<>();
+
+	/*
+	 * Thread running the evaluation (null if not running). Guarded by 'this'.
+	 */
+	private Thread runner = null;
+	private boolean runnerInterrupted = false;
+
+	private InterruptibleEvaluation(final Callable<T> evaluation)
+	{
+		this.evaluation = evaluation;
+		future.whenComplete((result, error) -> interruptRunner());
+	}
+
+	/**
+	 * Submits an evaluation to an executor
+	 *
+	 * @param evaluation
+	 *            evaluation to be run
+	 * @param executor
+	 *            executor running the evaluation
+	 * @return future result; completed exceptionally if {@code evaluation} throws an exception or the executor rejects it. Cancelling it - or completing it by any other means - interrupts the
+	 *         evaluation if still running.
+	 */
+	static <T> CompletableFuture<T> submit(final Callable<T> evaluation, final Executor executor)
+	{
+		final InterruptibleEvaluation<T> task = new InterruptibleEvaluation<>(evaluation);
+		try
+		{
+			executor.execute(task);
+		} catch (final RejectedExecutionException e)
+		{
+			task.future.completeExceptionally(e);
+		}
+
+		return task.future;
+	}
+
+	/**
+	 * Submits an evaluation to an executor, with a deadline
+	 *
+	 * @param evaluation
+	 *            evaluation to be run
+	 * @param executor
+	 *            executor running the evaluation
+	 * @param timeout
+	 *            maximum evaluation time, after which the evaluation is interrupted if still running
+	 * @param timeoutResult
+	 *            supplier of the result if the deadline is reached, called only in this case
+	 * @return future result; completed like {@link #submit(Callable, Executor)} does, or with {@code timeoutResult} when the deadline is reached. Cancelling it interrupts the evaluation if still
+	 *         running.
+	 */
+	static <T> CompletableFuture<T> submit(final Callable<T> evaluation, final Executor executor, final Duration timeout, final Supplier<T> timeoutResult)
+	{
+		final CompletableFuture<T> evaluationFuture = submit(evaluation, executor).orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+		final CompletableFuture<T> resultFuture = new CompletableFuture<>();
+		evaluationFuture.whenComplete((result, error) -> {
+			if (error == null)
+			{
+				resultFuture.complete(result);
+			} else if (error instanceof TimeoutException)
+			{
+				resultFuture.complete(timeoutResult.get());
+			} else
+			{
+				resultFuture.completeExceptionally(error);
+			}
+		});
+		// propagate cancellation (no-op if the evaluation is already done)
+		resultFuture.whenComplete((result, error) -> evaluationFuture.cancel(true));
+		return resultFuture;
+	}
+
+	private synchronized void interruptRunner()
+	{
+		// the runner itself may complete the future, in which case there is nothing to interrupt
+		if (runner != null && runner != Thread.currentThread())
+		{
+			runner.interrupt();
+			runnerInterrupted = true;
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		synchronized (this)
+		{
+			if (future.isDone())
+			{
+				// cancelled or timed out before start
+				return;
+			}
+
+			runner = Thread.currentThread();
+		}
+
+		try
+		{
+			future.complete(evaluation.call());
+		} catch (final Throwable e)
+		{
+			future.completeExceptionally(e);
+		} finally
+		{
+			final boolean interrupted;
+			synchronized (this)
+			{
+				runner = null;
+				interrupted = runnerInterrupted;
+			}
+
+			if (interrupted)
+			{
+				// do not leak our interrupt to the next tasks run by this (pooled) thread
+				Thread.interrupted();
+			}
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api;
+
+import java.io.StringWriter;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import javax.xml.transform.Source;
+
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
+import net.sf.saxon.s9api.XdmNode;
+
+/**
+ * Attributes/Content parsed into XPath data model lazily, i.e. only when first requested with {@link #get()}, at most once. The outcome of the parsing - the XDM node or the
+ * {@link IndeterminateEvaluationException} - is memoized, so that an invalid Content is reported the same way every time it is requested, without parsing it again.
+ * <p>
+ * {@link #equals(Object)}, {@link #hashCode()}, {@link #toString()} and {@link #getRawContent()} are based on the raw Content, i.e. the Content as serialized before parsing, therefore do not parse it.
+ * If the raw Content cannot be serialized, two instances are equal only if they are the same instance. The raw Content should be serialized with {@link #serialize(Source)}, like the Content of
+ * {@link #of(XdmNode)}, so that the same Content is equal whether parsed lazily or not.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class LazilyParsedContent
+{
+	/**
+	 * Content parser
+	 */
+	@FunctionalInterface
+	public interface Parser
+	{
+		/**
+		 * Parses the Content into XPath data model
+		 * 
+		 * @return the Content node, not null
+		 * @throws IndeterminateEvaluationException
+		 *             if the Content is invalid (syntax error)
+		 */
+		XdmNode parse() throws IndeterminateEvaluationException;
+	}
+
+	private final Supplier<String> rawContentSerializer;
+	private final Parser parser;
+
+	/*
+	 * Outcome of the parsing (XdmNode or IndeterminateEvaluationException), null until parsed
+	 */
+	private volatile Object parsingOutcome;
+
+	/*
+	 * Raw Content serialized on demand by getRawContent(), null until serialized; rawContentSerialized is true iff serialized (rawContent may be null then, if not serializable)
+	 */
+	private volatile String rawContent = null;
+	private volatile boolean rawContentSerialized = false;
+
+	/**
+	 * Creates Content to be parsed lazily
+	 * 
+	 * @param rawContentSerializer
+	 *            serializer of the raw Content to XML, preferably with {@link #serialize(Source)}, called at most once, when first needed by {@link #getRawContent()} (or {@link #equals(Object)}, {@link #hashCode()},
+	 *            {@link #toString()}); may return null if the Content cannot be serialized
+	 * @param parser
+	 *            Content parser, called at most once, when first needed by {@link #get()}
+	 */
+	public LazilyParsedContent(final Supplier<String> rawContentSerializer, final Parser parser)
+	{
+		this.rawContentSerializer = Objects.requireNonNull(rawContentSerializer, "Undefined rawContentSerializer");
+		this.parser = Objects.requireNonNull(parser, "Undefined parser");
+		this.parsingOutcome = null;
+	}
+
+	/**
+	 * Serializes XML Content to the raw Content form expected by this class, i.e. without XML declaration nor indentation, without building any XDM tree if the source is not one.
+	 * 
+	 * @param xml
+	 *            XML Content, e.g. a DOM element (DOMSource) or XDM node ({@link XdmNode#asSource()})
+	 * @return the serialized Content; null if serialization fails
+	 */
+	public static String serialize(final Source xml)
+	{
+		final StringWriter out = new StringWriter();
+		final Serializer serializer = XmlUtils.SAXON_PROCESSOR.newSerializer(out);
+		serializer.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "yes");
+		try
+		{
+			serializer.serialize(xml);
+		}
+		catch (final SaxonApiException e)
+		{
+			return null;
+		}
+
+		return out.toString();
+	}
+
+	private LazilyParsedContent(final XdmNode node)
+	{
+		this.rawContentSerializer = () -> serialize(node.asSource());
+		this.parser = null;
+		this.parsingOutcome = node;
+	}
+
+	/**
+	 * Creates instance from already parsed Content
+	 * 
+	 * @param node
+	 *            Content node
+	 * @return new instance, the raw Content of which is the serialized {@code node} (see {@link #serialize(Source)})
+	 */
+	public static LazilyParsedContent of(final XdmNode node)
+	{
+		return new LazilyParsedContent(Objects.requireNonNull(node, "Undefined Content node"));
+	}
+
+	/**
+	 * Gets the Content parsed into XPath data model, parsing it unless already done
+	 * 
+	 * @return Content node
+	 * @throws IndeterminateEvaluationException
+	 *             if the Content is invalid (the same exception is thrown every time)
+	 */
+	public XdmNode get() throws IndeterminateEvaluationException
+	{
+		Object outcome = parsingOutcome;
+		if (outcome == null)
+		{
+			synchronized (this)
+			{
+				outcome = parsingOutcome;
+				if (outcome == null)
+				{
+					try
+					{
+						outcome = Objects.requireNonNull(parser.parse(), "Content parser returned null");
+					}
+					catch (final IndeterminateEvaluationException e)
+					{
+						outcome = e;
+					}
+
+					parsingOutcome = outcome;
+				}
+			}
+		}
+
+		if (outcome instanceof IndeterminateEvaluationException)
+		{
+			throw (IndeterminateEvaluationException) outcome;
+		}
+
+		return (XdmNode) outcome;
+	}
+
+	/**
+	 * Gets the raw Content, serializing it unless already done (without parsing it)
+	 * 
+	 * @return the serialized raw Content; null if it cannot be serialized
+	 */
+	public String getRawContent()
+	{
+		if (!rawContentSerialized)
+		{
+			// synchronized with the parsing, in case the raw Content (e.g. DOM) is not safe for concurrent access
+			synchronized (this)
+			{
+				if (!rawContentSerialized)
+				{
+					rawContent = rawContentSerializer.get();
+					rawContentSerialized = true;
+				}
+			}
+		}
+
+		return rawContent;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		final String raw = getRawContent();
+		return raw == null ? System.identityHashCode(this) : raw.hashCode();
+	}
+
+	@Override
+	public boolean equals(final Object obj)
+	{
+		if (this == obj)
+		{
+			return true;
+		}
+
+		if (!(obj instanceof LazilyParsedContent))
+		{
+			return false;
+		}
+
+		final String raw = getRawContent();
+		return raw != null && raw.equals(((LazilyParsedContent) obj).getRawContent());
+	}
+
+	@Override
+	public String toString()
+	{
+		final String raw = getRawContent();
+		return raw == null ? "<non-serializable Content>" : raw;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.Bag;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Memo of values computed once per Multiple Decision request and shared by all its Individual Decision requests, attached to the Multiple Decision request context (see
+ * {@link #getInstance(EvaluationContext)}). This applies to any value depending only on inputs that are identical across Individual Decision requests, typically the attributes of a category repeated
+ * once (e.g. the subject) whereas other categories (e.g. the resource) have multiple alternatives: the value is then cached with these inputs as part of the key, e.g. an attribute resolved by an
+ * attribute provider from its dependency attributes (see {@link MultipleDecisionMemoizingAttributeProvider}), or the result of a pure function call from its argument values.
+ * <p>
+ * This class is thread-safe: when Individual Decision requests are evaluated in parallel, a value requested concurrently by several threads is still computed only once, the other threads waiting for
+ * the result. Errors (any {@link Throwable} thrown by the computation) are not cached, but passed on to the threads waiting for the result.
+ * <p>
+ * A computation must not depend on its own result, directly or indirectly (cyclic dependency): {@link #get(Object, Loader)} fails (Indeterminate) if called recursively for the same key in the same
+ * thread, but cannot detect a cycle across threads (e.g. a computation getting the value of key B in thread 1 while the computation of B gets the value of key A in thread 2), which would block
+ * both threads forever.
+ */
+public final class MultipleDecisionMemo
+{
+	/**
+	 * Value computation
+	 *
+	 * @param <V>
+	 *            value type
+	 */
+	@FunctionalInterface
+	public interface Loader<V>
+	{
+		/**
+		 * Computes the value
+		 *
+		 * @return computed value (not null)
+		 * @throws IndeterminateEvaluationException
+		 *             error computing the value
+		 */
+		V load() throws IndeterminateEvaluationException;
+	}
+
+	/*
+	 * Key of the instance in the MDP context properties (EvaluationContext#getOther(String))
+	 */
+	private static final String MDP_CONTEXT_KEY = MultipleDecisionMemo.class.getName();
+
+	/*
+	 * Value being computed or computed, with the thread computing it (to detect recursive computation of the same value)
+	 */
+	private static final class Computation extends CompletableFuture<Object>
+	{
+		private final Thread loaderThread = Thread.currentThread();
+	}
+
+	private final ConcurrentMap<Object, Computation> valuesByKey = new ConcurrentHashMap<>();
+
+	/*
+	 * Use getInstance(EvaluationContext), except for private memos (e.g. in EvaluationContexts)
+	 */
+	MultipleDecisionMemo()
+	{
+		// nothing to initialize
+	}
+
+	/**
+	 * Gets the memo attached to a Multiple Decision request context, creating it if there is none yet
+	 *
+	 * @param mdpContext
+	 *            Multiple Decision request context
+	 * @return the memo of {@code mdpContext}
+	 */
+	public static MultipleDecisionMemo getInstance(final EvaluationContext mdpContext)
+	{
+		Preconditions.checkArgument(mdpContext != null, "Undefined mdpContext");
+		final Object memo = mdpContext.getOther(MDP_CONTEXT_KEY);
+		if (memo instanceof MultipleDecisionMemo)
+		{
+			return (MultipleDecisionMemo) memo;
+		}
+
+		// atomic if mdpContext is shared by concurrent threads (EvaluationContexts#synchronizedContext(...))
+		final MultipleDecisionMemo newMemo = new MultipleDecisionMemo();
+		final Object concurrentMemo = mdpContext.putOtherIfAbsent(MDP_CONTEXT_KEY, newMemo);
+		return concurrentMemo instanceof MultipleDecisionMemo ? (MultipleDecisionMemo) concurrentMemo : newMemo;
+	}
+
+	/**
+	 * Gets the value for a given key, computing it if not already computed (or being computed by another thread)
+	 *
+	 * @param key
+	 *            value key, must identify the value type, the computation and all its inputs, and implement equals/hashCode accordingly
+	 * @param loader
+	 *            value computation, called only if no value is associated with {@code key} yet
+	 * @param <V>
+	 *            value type
+	 * @return the value
+	 * @throws IndeterminateEvaluationException
+	 *             error thrown by {@code loader}, or {@code loader} called recursively - in the same thread - the computation of the same key (cyclic dependency)
+	 */
+	@SuppressWarnings("unchecked")
+	public <V> V get(final Object key, final Loader<V> loader) throws IndeterminateEvaluationException
+	{
+		Preconditions.checkArgument(key != null && loader != null, "Undefined key or loader");
+		final Computation existingValue = valuesByKey.get(key);
+		if (existingValue != null)
+		{
+			return (V) join(key, existingValue);
+		}
+
+		final Computation newValue = new Computation();
+		final Computation concurrentValue = valuesByKey.putIfAbsent(key, newValue);
+		if (concurrentValue != null)
+		{
+			return (V) join(key, concurrentValue);
+		}
+
+		final V value;
+		try
+		{
+			value = loader.load();
+		} catch (final Throwable e)
+		{
+			// including Errors, else the threads waiting for the value would wait forever
+			valuesByKey.remove(key, newValue);
+			newValue.completeExceptionally(e);
+			throw e;
+		}
+
+		newValue.complete(value);
+		return value;
+	}
+
+	private static Object join(final Object key, final Computation value) throws IndeterminateEvaluationException
+	{
+		if (!value.isDone() && value.loaderThread == Thread.currentThread())
+		{
+			throw new IndeterminateEvaluationException("Cyclic dependency: value of key " + key + " requested while computing it", XacmlStatusCode.PROCESSING_ERROR.value());
+		}
+
+		try
+		{
+			return value.join();
+		} catch (final CompletionException e)
+		{
+			final Throwable cause = e.getCause();
+			if (cause instanceof IndeterminateEvaluationException)
+			{
+				throw (IndeterminateEvaluationException) cause;
+			}
+
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the value of a named attribute computed from given input values, e.g. by an attribute provider, computing it if not already computed
+	 *
+	 * @param attributeFqn
+	 *            attribute name
+	 * @param datatype
+	 *            attribute datatype
+	 * @param inputValues
+	 *            all the values the attribute depends on, e.g. attribute provider's dependency attribute values
+	 * @param loader
+	 *            attribute value computation from {@code inputValues}
+	 * @param <AV>
+	 *            attribute value type
+	 * @return attribute value
+	 * @throws IndeterminateEvaluationException
+	 *             error thrown by {@code loader}
+	 */
+	public <AV extends AttributeValue> AttributeBag<AV> getNamedAttributeValue(final AttributeFqn attributeFqn, final Datatype<AV> datatype, final List<? extends Bag<?>> inputValues,
+			final Loader<AttributeBag<AV>> loader) throws IndeterminateEvaluationException
+	{
+		return get(ImmutableList.of(attributeFqn, datatype, ImmutableList.copyOf(inputValues)), loader);
+	}
+
+	/**
+	 * Clears all the values
+	 */
+	public void clear()
+	{
+		valuesByKey.clear();
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+
+import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.Bag;
+import org.ow2.authzforce.core.pdp.api.value.Datatype;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.AttributeDesignatorType;
+
+/**
+ * Attribute provider decorator that resolves each attribute only once per Multiple Decision request for given values of the dependency attributes, using the {@link MultipleDecisionMemo} of the
+ * Multiple Decision request context. For instance, if a Multiple Decision request has a single subject and many resources, and the decorated provider resolves the subject's roles from the subject ID
+ * (its only dependency), the roles are resolved once and reused by all Individual Decision requests. Outside Multiple Decision requests, calls are simply delegated to the decorated provider.
+ * <p>
+ * The declared dependencies must include every request attribute that the decorated provider's results depend on (e.g. the same as returned by
+ * {@link CloseableNamedAttributeProvider.DependencyAwareFactory#getDependencies()}), else different Individual Decision requests may get the same value wrongly.
+ */
+public final class MultipleDecisionMemoizingAttributeProvider implements CloseableNamedAttributeProvider
+{
+	private final CloseableNamedAttributeProvider provider;
+	private final NamedAttributeProvider dependencyAttributeProvider;
+	private final ImmutableMap<AttributeFqn, Datatype<? extends AttributeValue>> dependencies;
+
+	/**
+	 * Creates decorator
+	 *
+	 * @param provider
+	 *            decorated attribute provider
+	 * @param dependencyAttributeProvider
+	 *            provider of the dependency attributes not in the evaluation context yet, typically the {@code dependencyAttributeProvider} passed to
+	 *            {@link CloseableNamedAttributeProvider.DependencyAwareFactory#getInstance(org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry, NamedAttributeProvider)} to create
+	 *            {@code provider}
+	 * @param dependencies
+	 *            datatypes of the dependency attributes of {@code provider} by attribute name
+	 * @throws IllegalArgumentException
+	 *             if any argument is null
+	 */
+	public MultipleDecisionMemoizingAttributeProvider(final CloseableNamedAttributeProvider provider, final NamedAttributeProvider dependencyAttributeProvider,
+			final Map<AttributeFqn, ? extends Datatype<? extends AttributeValue>> dependencies) throws IllegalArgumentException
+	{
+		Preconditions.checkArgument(provider != null, "Undefined provider");
+		Preconditions.checkArgument(dependencyAttributeProvider != null, "Undefined dependencyAttributeProvider");
+		Preconditions.checkArgument(dependencies != null, "Undefined dependencies");
+		this.provider = provider;
+		this.dependencyAttributeProvider = dependencyAttributeProvider;
+		this.dependencies = ImmutableMap.copyOf(dependencies);
+	}
+
+	@Override
+	public Set<AttributeDesignatorType> getProvidedAttributes()
+	{
+		return provider.getProvidedAttributes();
+	}
+
+	@Override
+	public boolean supportsBeginMultipleDecisionRequest()
+	{
+		return provider.supportsBeginMultipleDecisionRequest();
+	}
+
+	@Override
+	public void beginMultipleDecisionRequest(final EvaluationContext mdpContext)
+	{
+		provider.beginMultipleDecisionRequest(mdpContext);
+	}
+
+	@Override
+	public boolean supportsBeginIndividualDecisionRequest()
+	{
+		return provider.supportsBeginIndividualDecisionRequest();
+	}
+
+	@Override
+	public void beginIndividualDecisionRequest(final EvaluationContext individualDecisionContext, final Optional<EvaluationContext> mdpContext) throws IndeterminateEvaluationException
+	{
+		provider.beginIndividualDecisionRequest(individualDecisionContext, mdpContext);
+	}
+
+	private <AV extends AttributeValue> AttributeBag<AV> getDependencyValue(final AttributeFqn attributeFqn, final Datatype<AV> datatype, final EvaluationContext individualDecisionContext,
+			final Optional<EvaluationContext> mdpContext) throws IndeterminateEvaluationException
+	{
+		final AttributeBag<AV> contextValue = individualDecisionContext.getNamedAttributeValue(attributeFqn, datatype);
+		return contextValue != null ? contextValue : dependencyAttributeProvider.get(attributeFqn, datatype, individualDecisionContext, mdpContext);
+	}
+
+	@Override
+	public <AV extends AttributeValue> AttributeBag<AV> get(final AttributeFqn attributeFQN, final Datatype<AV> datatype, final EvaluationContext individualDecisionContext,
+			final Optional<EvaluationContext> mdpContext) throws IndeterminateEvaluationException
+	{
+		if (mdpContext.isEmpty())
+		{
+			return provider.get(attributeFQN, datatype, individualDecisionContext, mdpContext);
+		}
+
+		final List<Bag<?>> dependencyValues = new ArrayList<>(dependencies.size());
+		for (final Entry<AttributeFqn, Datatype<? extends AttributeValue>> dependency : dependencies.entrySet())
+		{
+			dependencyValues.add(getDependencyValue(dependency.getKey(), dependency.getValue(), individualDecisionContext, mdpContext));
+		}
+
+		return MultipleDecisionMemo.getInstance(mdpContext.get()).getNamedAttributeValue(attributeFQN, datatype, dependencyValues,
+				() -> provider.get(attributeFQN, datatype, individualDecisionContext, mdpContext));
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		provider.close();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MultipleDecisionMemoizing" + provider;
+	}
+}
@@ -18,8 +18,11 @@
 package org.ow2.authzforce.core.pdp.api;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 
 import org.ow2.authzforce.core.pdp.api.policy.PrimaryPolicyMetadata;
 
@@ -81,6 +84,63 @@ public interface PdpEngine
 	<INDIVIDUAL_DECISION_REQ_T extends DecisionRequest> Collection<Entry<INDIVIDUAL_DECISION_REQ_T, ? extends DecisionResult>> evaluate(List<INDIVIDUAL_DECISION_REQ_T> requests, EvaluationContext mdpContext)
 			throws IndeterminateEvaluationException;
 
+	/**
+	 * Same as {@link #evaluate(List, EvaluationContext)}, except the individual decision requests may be evaluated concurrently on a given executor. The Multiple Decision request is still begun only
+	 * once - e.g. {@link NamedAttributeProvider#beginMultipleDecisionRequest(EvaluationContext)} called once on each attribute provider - before the individual decision requests are dispatched to
+	 * the executor, so that all of them are evaluated in the same Multiple Decision context (in particular with the same current date/time). The results are returned in the same order as the
+	 * requests.
+	 * <p>
+	 * This implementation ignores {@code executor} and calls {@link #evaluate(List, EvaluationContext)}, i.e. evaluates the requests sequentially. PDP engines supporting concurrent evaluation should
+	 * override it.
+	 * 
+	 * @param requests
+	 *            Individual Decision Requests
+	 * @param mdpContext
+	 *            the context of the Multiple Decision request that the {@code requests} belong to (see {@link #evaluate(List, EvaluationContext)}), thread-safe (see
+	 *            {@link EvaluationContexts#synchronizedContext(EvaluationContext)}). Attributes must be resolved in this context with
+	 *            {@link EvaluationContext#computeNamedAttributeValueIfAbsent(AttributeFqn, org.ow2.authzforce.core.pdp.api.value.Datatype, MultipleDecisionMemo.Loader)} to be resolved only once.
+	 * @param executor
+	 *            executor for evaluating the individual decision requests concurrently, e.g. a fork-join pool or a virtual-thread-per-task executor
+	 * @param <INDIVIDUAL_DECISION_REQ_T>
+	 *            request type
+	 * @return decision request-result pairs, in request order
+	 * @throws IndeterminateEvaluationException
+	 *             error occurred preventing any request evaluation (see {@link #evaluate(List, EvaluationContext)})
+	 */
+	default <INDIVIDUAL_DECISION_REQ_T extends DecisionRequest> Collection<Entry<INDIVIDUAL_DECISION_REQ_T, ? extends DecisionResult>> evaluate(final List<INDIVIDUAL_DECISION_REQ_T> requests,
+			final EvaluationContext mdpContext, final Executor executor) throws IndeterminateEvaluationException
+	{
+		return evaluate(requests, mdpContext);
+	}
+
+	/**
+	 * Same as {@link #evaluate(List, EvaluationContext)}, except the individual decision requests are evaluated lazily, i.e. each one only when the corresponding entry is reached by the returned
+	 * iterator (e.g. to write each result out as soon as it is evaluated). The Multiple Decision request is begun only once - e.g.
+	 * {@link NamedAttributeProvider#beginMultipleDecisionRequest(EvaluationContext)} called once on each attribute provider - by this method, before it returns, so that all individual decision
+	 * requests are evaluated in the same Multiple Decision context. An evaluation error of an individual decision request is returned by the iterator as an Indeterminate result for this request
+	 * only.
+	 * <p>
+	 * The returned iterator may be consumed after this method returns, possibly on another thread, as long as this PDP engine is not closed meanwhile.
+	 * <p>
+	 * This implementation calls {@link #evaluate(List, EvaluationContext)}, i.e. evaluates all the requests eagerly, and returns an iterator over the results. PDP engines supporting lazy
+	 * evaluation should override it.
+	 * 
+	 * @param requests
+	 *            Individual Decision Requests
+	 * @param mdpContext
+	 *            the context of the Multiple Decision request that the {@code requests} belong to (see {@link #evaluate(List, EvaluationContext)})
+	 * @param <INDIVIDUAL_DECISION_REQ_T>
+	 *            request type
+	 * @return iterator over the decision request-result pairs, in request order
+	 * @throws IndeterminateEvaluationException
+	 *             error occurred preventing any request evaluation, e.g. when beginning the Multiple Decision request (see {@link #evaluate(List, EvaluationContext)})
+	 */
+	default <INDIVIDUAL_DECISION_REQ_T extends DecisionRequest> Iterator<Entry<INDIVIDUAL_DECISION_REQ_T, ? extends DecisionResult>> evaluateLazily(final List<INDIVIDUAL_DECISION_REQ_T> requests,
+			final EvaluationContext mdpContext) throws IndeterminateEvaluationException
+	{
+		return evaluate(requests, mdpContext).iterator();
+	}
+
 	/**
 	 * Get the PDP engine's root policy and policies referenced - directly or indirectly - from the root policy, independent of the evaluation context, i.e. assuming all are statically resolved
 	 *
@@ -88,4 +148,15 @@ public interface PdpEngine
 	 */
 	Iterable<PrimaryPolicyMetadata> getApplicablePolicies();
 
+	/**
+	 * Get the attributes that the PDP engine's policies - and attribute providers - may reference, independent of the evaluation context, i.e. assuming all policies are statically resolved. Any
+	 * request attribute not in this set has no effect on the decision.
+	 *
+	 * @return the attributes referenced by the policies; empty if unknown, e.g. some policies are not statically resolved or the implementation does not support this feature (default)
+	 */
+	default Optional<PolicyAttributeReferences> getPolicyAttributeReferences()
+	{
+		return Optional.empty();
+	}
+
 }
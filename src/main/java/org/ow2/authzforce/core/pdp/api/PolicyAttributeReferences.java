@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import net.sf.saxon.s9api.XdmNode;
+import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Set of attributes that the policies loaded in a PDP may reference, directly (AttributeDesignators, AttributeSelectors) or indirectly (attributes that attribute providers depend on to resolve
+ * other attributes), i.e. the only request attributes that may have an effect on the decision.
+ * <p>
+ * This may be used for instance by {@link DecisionCache}s to project the requests onto the referenced attributes (see {@link DecisionRequest#getProjection(PolicyAttributeReferences)}) before computing the cache keys, so that
+ * requests that differ only by attributes ignored by the policies share the same cache entry. Therefore, the PDP must guarantee that the set is complete; else the projection could map requests with
+ * different decisions to the same key.
+ * <p>
+ * Instances are immutable.
+ */
+public final class PolicyAttributeReferences
+{
+	private final ImmutableSet<AttributeFqn> namedAttributes;
+	private final ImmutableSet<AttributeSelectorId> attributeSelectors;
+	private final ImmutableSet<String> contentCategories;
+
+	private transient volatile String toString = null;
+
+	private PolicyAttributeReferences(final ImmutableSet<AttributeFqn> namedAttributes, final ImmutableSet<AttributeSelectorId> attributeSelectors)
+	{
+		this.namedAttributes = namedAttributes;
+		this.attributeSelectors = attributeSelectors;
+		final ImmutableSet.Builder<String> contentCategoriesBuilder = ImmutableSet.builderWithExpectedSize(attributeSelectors.size());
+		for (final AttributeSelectorId attributeSelector : attributeSelectors)
+		{
+			contentCategoriesBuilder.add(attributeSelector.getCategory());
+		}
+
+		this.contentCategories = contentCategoriesBuilder.build();
+	}
+
+	/**
+	 * Creates instance
+	 * 
+	 * @param namedAttributes
+	 *            named attributes that the policies may reference, including the attributes referenced by AttributeSelectors' ContextSelectorId and the ones that attribute providers depend on
+	 * @param attributeSelectors
+	 *            AttributeSelectors that the policies may evaluate, whose categories' Content is therefore relevant to the decision
+	 * @return new instance
+	 */
+	public static PolicyAttributeReferences getInstance(final Set<AttributeFqn> namedAttributes, final Set<AttributeSelectorId> attributeSelectors)
+	{
+		Preconditions.checkArgument(namedAttributes != null, "Undefined namedAttributes");
+		Preconditions.checkArgument(attributeSelectors != null, "Undefined attributeSelectors");
+		return new PolicyAttributeReferences(ImmutableSet.copyOf(namedAttributes), ImmutableSet.copyOf(attributeSelectors));
+	}
+
+	/**
+	 * Get the named attributes that the policies may reference
+	 * 
+	 * @return named attributes
+	 */
+	public ImmutableSet<AttributeFqn> getNamedAttributes()
+	{
+		return namedAttributes;
+	}
+
+	/**
+	 * Get the AttributeSelectors that the policies may evaluate
+	 * 
+	 * @return attribute selectors
+	 */
+	public ImmutableSet<AttributeSelectorId> getAttributeSelectors()
+	{
+		return attributeSelectors;
+	}
+
+	/**
+	 * Get the attribute categories whose Content the policies may select from (categories of {@link #getAttributeSelectors()})
+	 * 
+	 * @return content categories
+	 */
+	public ImmutableSet<String> getContentCategories()
+	{
+		return contentCategories;
+	}
+
+	/**
+	 * Projects a request onto the referenced attributes, i.e. removes the named attributes not in {@link #getNamedAttributes()} and Contents not in {@link #getContentCategories()}. The result is not
+	 * memoized, use {@link DecisionRequest#getProjection(PolicyAttributeReferences)} instead to reuse it (and its fingerprint) for the same request.
+	 * 
+	 * @param request
+	 *            decision request
+	 * @return {@code request} itself if nothing to remove, else a new request with only the referenced attributes and Contents (the creation timestamp is not preserved)
+	 */
+	public DecisionRequest project(final DecisionRequest request)
+	{
+		if (request instanceof ImmutableDecisionRequest immutableRequest)
+		{
+			// projected per category, without parsing the lazily-parsed Contents
+			return immutableRequest.project(namedAttributes, contentCategories);
+		}
+
+		final ImmutableMap<AttributeFqn, AttributeBag<?>> requestAttributes = request.getNamedAttributes();
+		final ImmutableMap<String, XdmNode> requestContents = request.getExtraContentsByCategory();
+		final Map<AttributeFqn, AttributeBag<?>> projectedAttributes = projectMap(requestAttributes, namedAttributes);
+		final Map<String, XdmNode> projectedContents = projectMap(requestContents, contentCategories);
+		if (projectedAttributes == requestAttributes && projectedContents == requestContents)
+		{
+			return request;
+		}
+
+		return ImmutableDecisionRequest.getInstance(projectedAttributes, projectedContents, request.isApplicablePolicyIdListReturned());
+	}
+
+	/*
+	 * Returns the input map itself if all keys are in keysToKeep
+	 */
+	private static <K, V> Map<K, V> projectMap(final ImmutableMap<K, V> map, final ImmutableSet<K> keysToKeep)
+	{
+		if (keysToKeep.containsAll(map.keySet()))
+		{
+			return map;
+		}
+
+		final Map<K, V> projectedMap = HashCollections.newUpdatableMap(Math.min(map.size(), keysToKeep.size()));
+		for (final Entry<K, V> entry : map.entrySet())
+		{
+			if (keysToKeep.contains(entry.getKey()))
+			{
+				projectedMap.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		return projectedMap;
+	}
+
+	@Override
+	public String toString()
+	{
+		if (toString == null)
+		{
+			toString = "[namedAttributes=" + namedAttributes + ", attributeSelectors=" + attributeSelectors + "]";
+		}
+
+		return toString;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return 31 * namedAttributes.hashCode() + attributeSelectors.hashCode();
+	}
+
+	@Override
+	public boolean equals(final Object obj)
+	{
+		if (this == obj)
+		{
+			return true;
+		}
+
+		if (!(obj instanceof PolicyAttributeReferences other))
+		{
+			return false;
+		}
+
+		return namedAttributes.equals(other.namedAttributes) && attributeSelectors.equals(other.attributeSelectors);
+	}
+}
@@ -45,6 +45,8 @@ import java.io.Serializable;
 import java.net.URL;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Utilities for XML-to-JAXB binding
@@ -178,6 +180,97 @@ public final class XmlUtils
         return newXPathCompiler(XPathVersion.fromURI(xpathVersionURI), namespaceURIsByPrefix);
     }
 
+    /**
+     * Reusable {@link XPathSelector}s of a given {@link XPathExecutable}, to avoid loading a new XPathSelector (and its dynamic context) for each evaluation. Each evaluation takes an idle selector
+     * from a bounded pool (or loads a new one if there is none), and gives it back afterwards; therefore a selector is used by one evaluation at a time, as required by Saxon, whatever the
+     * threads (including virtual threads). The variables and context item are set before each evaluation, and reset after each evaluation (to avoid retaining the evaluated XML document and
+     * variable values in the pool).
+     * <p>
+     * The pool belongs to this instance, therefore is released with it. This is meant for XPath expressions compiled once and evaluated for many requests, i.e. coming from the policies (e.g.
+     * AttributeSelectors). For XPath expressions evaluated once per request (e.g. coming from the request), use {@link XPathExecutable#load()} instead.
+     */
+    public static final class ReusableXPathSelector
+    {
+        /*
+         * Context item set after each evaluation, to release the previous one
+         */
+        private static final XdmItem RESET_CONTEXT_ITEM = new XdmAtomicValue("");
+        private static final QName[] NO_VARIABLE_NAMES = {};
+        private static final XdmValue[] NO_VARIABLE_VALUES = {};
+
+        /*
+         * Maximum number of idle selectors kept per XPathExecutable, i.e. number of concurrent evaluations that reuse a selector; extra selectors loaded when more evaluations run concurrently are
+         * dropped afterwards.
+         */
+        private static final int MAX_IDLE_SELECTORS = Runtime.getRuntime().availableProcessors();
+
+        private final XPathExecutable exec;
+        private final BlockingQueue<XPathSelector> idleSelectors = new ArrayBlockingQueue<>(MAX_IDLE_SELECTORS);
+
+        /**
+         * Creates instance
+         *
+         * @param exec XPath executable (policy-scoped)
+         */
+        public ReusableXPathSelector(final XPathExecutable exec)
+        {
+            assert exec != null;
+            this.exec = exec;
+        }
+
+        /**
+         * Evaluates the XPath expression (without variable)
+         *
+         * @param contextItem context item
+         * @return result
+         * @throws SaxonApiException evaluation error
+         */
+        public XdmValue evaluate(final XdmItem contextItem) throws SaxonApiException
+        {
+            return evaluate(contextItem, NO_VARIABLE_NAMES, NO_VARIABLE_VALUES);
+        }
+
+        /**
+         * Evaluates the XPath expression with variables
+         *
+         * @param contextItem    context item
+         * @param variableNames  variable names (all the external variables of the XPath expression)
+         * @param variableValues variable values, in the same order as {@code variableNames}
+         * @return result
+         * @throws SaxonApiException evaluation error
+         */
+        public XdmValue evaluate(final XdmItem contextItem, final QName[] variableNames, final XdmValue[] variableValues) throws SaxonApiException
+        {
+            assert contextItem != null && variableNames.length == variableValues.length;
+            final XPathSelector idleSelector = idleSelectors.poll();
+            final XPathSelector selector = idleSelector == null ? exec.load() : idleSelector;
+            try
+            {
+                for (int i = 0; i < variableNames.length; i++)
+                {
+                    selector.setVariable(variableNames[i], variableValues[i]);
+                }
+
+                selector.setContextItem(contextItem);
+                return selector.evaluate();
+            } finally
+            {
+                selector.setContextItem(RESET_CONTEXT_ITEM);
+                /*
+                 * Saxon does not allow unsetting a variable, therefore the variables are set to the empty sequence (allowed since XPath variables are undeclared, i.e. item()*), and set again
+                 * before the next evaluation.
+                 */
+                for (final QName variableName : variableNames)
+                {
+                    selector.setVariable(variableName, XdmEmptySequence.getInstance());
+                }
+
+                // dropped if the pool is full
+                idleSelectors.offer(selector);
+            }
+        }
+    }
+
     /**
      * Wrapper around XPathExecutable that provides the original XPath expression from which the XPathExecutable was compiled, via toString() method. To be used for XPath-based Expression evaluations,
      * e.g. AttributeSelector, xpathExpression, etc.
@@ -186,6 +279,7 @@ public final class XmlUtils
     {
         private final XPathExecutable exec;
         private final String expr;
+        private final ReusableXPathSelector reusableSelector;
 
         /**
          * Creates instance
@@ -205,6 +299,7 @@ public final class XmlUtils
             }
 
             this.expr = path;
+            this.reusableSelector = new ReusableXPathSelector(exec);
         }
 
         @Override
@@ -221,6 +316,20 @@ public final class XmlUtils
         {
             return exec.load();
         }
+
+        /**
+         * Evaluates the XPath expression (without variable) with a reused XPathSelector (more efficient than {@link #load()} for evaluation of the same XPath, e.g. AttributeSelector,
+         * against each request)
+         *
+         * @param contextItem context item
+         * @return result
+         * @throws SaxonApiException evaluation error
+         * @see ReusableXPathSelector
+         */
+        public XdmValue evaluate(final XdmItem contextItem) throws SaxonApiException
+        {
+            return reusableSelector.evaluate(contextItem);
+        }
     }
 
     /**
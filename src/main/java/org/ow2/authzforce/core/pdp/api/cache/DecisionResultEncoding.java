@@ -0,0 +1,343 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+
+import javax.xml.namespace.QName;
+
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.DecisionType;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.StatusCode;
+import org.ow2.authzforce.core.pdp.api.DecisionResult;
+import org.ow2.authzforce.core.pdp.api.DecisionResults;
+import org.ow2.authzforce.core.pdp.api.HashCollections;
+import org.ow2.authzforce.core.pdp.api.ImmutableXacmlStatus;
+import org.ow2.authzforce.core.pdp.api.PepAction;
+import org.ow2.authzforce.core.pdp.api.PepActionAttributeAssignment;
+import org.ow2.authzforce.core.pdp.api.policy.BasePrimaryPolicyMetadata;
+import org.ow2.authzforce.core.pdp.api.policy.PolicyVersion;
+import org.ow2.authzforce.core.pdp.api.policy.PrimaryPolicyMetadata;
+import org.ow2.authzforce.core.pdp.api.policy.TopLevelPolicyElementType;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactory;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Compact binary encoding of {@link DecisionResult}s for persistent decision caches: decision, status (codes and message), PEP actions (with attribute assignments) and applicable policies (type,
+ * id, version).
+ * <p>
+ * Only results that can be restored exactly are encodable: Indeterminate results (bound to a runtime error cause), results with StatusDetail, and attribute values with non-string content (e.g.
+ * XPath expressions requiring a namespace context) are not.
+ */
+final class DecisionResultEncoding
+{
+	private static final DecisionType[] ENCODABLE_DECISIONS = { DecisionType.PERMIT, DecisionType.DENY, DecisionType.NOT_APPLICABLE };
+	private static final TopLevelPolicyElementType[] POLICY_TYPES = TopLevelPolicyElementType.values();
+
+	private DecisionResultEncoding()
+	{
+		// prevent instantiation
+	}
+
+	/*
+	 * Counts are written as unsigned variable-length integers (7 bits per byte, least significant group first, high bit set on all bytes but the last), therefore not limited to 16 bits.
+	 */
+	private static void writeCount(final DataOutputStream out, final int count) throws IOException
+	{
+		assert count >= 0;
+		int remaining = count;
+		while ((remaining & ~0x7F) != 0)
+		{
+			out.writeByte(remaining & 0x7F | 0x80);
+			remaining >>>= 7;
+		}
+
+		out.writeByte(remaining);
+	}
+
+	private static int readCount(final DataInputStream in) throws IOException
+	{
+		int count = 0;
+		for (int shift = 0; shift < Integer.SIZE; shift += 7)
+		{
+			final int b = in.readUnsignedByte();
+			count |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				// each counted item takes at least one byte
+				if (count < 0 || count > in.available())
+				{
+					throw new IOException("Invalid count: " + count);
+				}
+
+				return count;
+			}
+		}
+
+		throw new IOException("Invalid count: more than " + Integer.SIZE + " bits");
+	}
+
+	private static void writeOptionalString(final DataOutputStream out, final Optional<String> s) throws IOException
+	{
+		out.writeBoolean(s.isPresent());
+		if (s.isPresent())
+		{
+			out.writeUTF(s.get());
+		}
+	}
+
+	private static Optional<String> readOptionalString(final DataInputStream in) throws IOException
+	{
+		return in.readBoolean() ? Optional.of(in.readUTF()) : Optional.empty();
+	}
+
+	private static boolean writeValue(final DataOutputStream out, final AttributeValue value) throws IOException
+	{
+		final List<Serializable> content = value.getContent();
+		writeCount(out, content.size());
+		for (final Serializable contentItem : content)
+		{
+			if (!(contentItem instanceof String s))
+			{
+				return false;
+			}
+
+			out.writeUTF(s);
+		}
+
+		final Map<QName, String> xmlAttributes = value.getXmlAttributes();
+		writeCount(out, xmlAttributes.size());
+		for (final Entry<QName, String> xmlAttribute : xmlAttributes.entrySet())
+		{
+			final QName name = xmlAttribute.getKey();
+			out.writeUTF(name.getNamespaceURI());
+			out.writeUTF(name.getLocalPart());
+			out.writeUTF(name.getPrefix());
+			out.writeUTF(xmlAttribute.getValue());
+		}
+
+		return true;
+	}
+
+	/**
+	 * Encodes a decision result
+	 * 
+	 * @param result
+	 *            decision result
+	 * @return encoded result; or null if the result is not encodable
+	 */
+	static byte[] encode(final DecisionResult result)
+	{
+		int decisionIndex = ENCODABLE_DECISIONS.length - 1;
+		while (decisionIndex >= 0 && ENCODABLE_DECISIONS[decisionIndex] != result.getDecision())
+		{
+			decisionIndex--;
+		}
+
+		if (decisionIndex < 0)
+		{
+			return null;
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try (final DataOutputStream out = new DataOutputStream(bytes))
+		{
+			out.writeByte(decisionIndex);
+			final Optional<ImmutableXacmlStatus> status = result.getStatus();
+			out.writeBoolean(status.isPresent());
+			if (status.isPresent())
+			{
+				if (status.get().getStatusDetail() != null)
+				{
+					return null;
+				}
+
+				final List<String> codes = new ArrayList<>(ImmutableXacmlStatus.MAX_STATUS_CODE_DEPTH);
+				StatusCode code = status.get().getStatusCode();
+				while (code != null)
+				{
+					codes.add(code.getValue());
+					code = code.getStatusCode();
+				}
+
+				writeCount(out, codes.size());
+				for (final String codeValue : codes)
+				{
+					out.writeUTF(codeValue);
+				}
+
+				writeOptionalString(out, Optional.ofNullable(status.get().getStatusMessage()));
+			}
+
+			final ImmutableList<PepAction> pepActions = result.getPepActions();
+			writeCount(out, pepActions.size());
+			for (final PepAction pepAction : pepActions)
+			{
+				out.writeUTF(pepAction.getId());
+				out.writeBoolean(pepAction.isMandatory());
+				final ImmutableList<PepActionAttributeAssignment<?>> assignments = pepAction.getAttributeAssignments();
+				writeCount(out, assignments.size());
+				for (final PepActionAttributeAssignment<?> assignment : assignments)
+				{
+					out.writeUTF(assignment.getAttributeId());
+					writeOptionalString(out, assignment.getCategory());
+					writeOptionalString(out, assignment.getIssuer());
+					out.writeUTF(assignment.getDatatype().getId());
+					if (!writeValue(out, assignment.getValue()))
+					{
+						return null;
+					}
+				}
+			}
+
+			final ImmutableList<PrimaryPolicyMetadata> applicablePolicies = result.getApplicablePolicies();
+			writeCount(out, applicablePolicies == null ? 0 : applicablePolicies.size());
+			if (applicablePolicies != null)
+			{
+				for (final PrimaryPolicyMetadata policy : applicablePolicies)
+				{
+					out.writeByte(policy.getType().ordinal());
+					out.writeUTF(policy.getId());
+					out.writeUTF(policy.getVersion().toString());
+				}
+			}
+		}
+		catch (final IOException e)
+		{
+			// writing to byte array does not throw IOException, except UTFDataFormatException for too long strings
+			return null;
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private static <AV extends AttributeValue> PepActionAttributeAssignment<AV> newAttributeAssignment(final String attributeId, final Optional<String> category, final Optional<String> issuer,
+			final AttributeValueFactory<AV> valueFactory, final List<Serializable> content, final Map<QName, String> xmlAttributes)
+	{
+		return new PepActionAttributeAssignment<>(attributeId, category, issuer, valueFactory.getDatatype(), valueFactory.getInstance(content, xmlAttributes, Optional.empty()));
+	}
+
+	/**
+	 * Decodes a decision result
+	 * 
+	 * @param encodedResult
+	 *            result encoded with {@link #encode(DecisionResult)}
+	 * @param attributeValueFactories
+	 *            factories for restoring attribute values in PEP actions
+	 * @return decoded result
+	 * @throws IllegalArgumentException
+	 *             if the result cannot be decoded, e.g. unknown attribute datatype or invalid value
+	 */
+	static DecisionResult decode(final byte[] encodedResult, final AttributeValueFactoryRegistry attributeValueFactories) throws IllegalArgumentException
+	{
+		try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(encodedResult)))
+		{
+			final DecisionType decision = ENCODABLE_DECISIONS[in.readByte()];
+			final Optional<ImmutableXacmlStatus> status;
+			if (in.readBoolean())
+			{
+				final int codeCount = readCount(in);
+				final List<String> codes = new ArrayList<>(codeCount);
+				for (int i = 0; i < codeCount; i++)
+				{
+					codes.add(in.readUTF());
+				}
+
+				status = Optional.of(new ImmutableXacmlStatus(codes, readOptionalString(in)));
+			}
+			else
+			{
+				status = Optional.empty();
+			}
+
+			final int pepActionCount = readCount(in);
+			final ImmutableList.Builder<PepAction> pepActions = ImmutableList.builderWithExpectedSize(pepActionCount);
+			for (int i = 0; i < pepActionCount; i++)
+			{
+				final String pepActionId = in.readUTF();
+				final boolean isMandatory = in.readBoolean();
+				final int assignmentCount = readCount(in);
+				final ImmutableList.Builder<PepActionAttributeAssignment<?>> assignments = ImmutableList.builderWithExpectedSize(assignmentCount);
+				for (int j = 0; j < assignmentCount; j++)
+				{
+					final String attributeId = in.readUTF();
+					final Optional<String> category = readOptionalString(in);
+					final Optional<String> issuer = readOptionalString(in);
+					final String datatypeId = in.readUTF();
+					final AttributeValueFactory<?> valueFactory = attributeValueFactories.getExtension(datatypeId);
+					if (valueFactory == null)
+					{
+						throw new IllegalArgumentException("Unsupported datatype of cached PEP action attribute assignment: " + datatypeId);
+					}
+
+					final int contentSize = readCount(in);
+					final List<Serializable> content = new ArrayList<>(contentSize);
+					for (int k = 0; k < contentSize; k++)
+					{
+						content.add(in.readUTF());
+					}
+
+					final int xmlAttributeCount = readCount(in);
+					final Map<QName, String> xmlAttributes = xmlAttributeCount == 0 ? Map.of() : HashCollections.newUpdatableMap(xmlAttributeCount);
+					for (int k = 0; k < xmlAttributeCount; k++)
+					{
+						final QName name = new QName(in.readUTF(), in.readUTF(), in.readUTF());
+						xmlAttributes.put(name, in.readUTF());
+					}
+
+					assignments.add(newAttributeAssignment(attributeId, category, issuer, valueFactory, content, xmlAttributes));
+				}
+
+				pepActions.add(new PepAction(pepActionId, isMandatory, assignments.build()));
+			}
+
+			final int policyCount = readCount(in);
+			final ImmutableList.Builder<PrimaryPolicyMetadata> applicablePolicies = ImmutableList.builderWithExpectedSize(policyCount);
+			for (int i = 0; i < policyCount; i++)
+			{
+				applicablePolicies.add(new BasePrimaryPolicyMetadata(POLICY_TYPES[in.readByte()], in.readUTF(), new PolicyVersion(in.readUTF())));
+			}
+
+			switch (decision)
+			{
+				case PERMIT:
+					return DecisionResults.getPermit(status, pepActions.build(), applicablePolicies.build());
+				case DENY:
+					return DecisionResults.getDeny(status, pepActions.build(), applicablePolicies.build());
+				default:
+					return DecisionResults.getNotApplicable(status);
+			}
+		}
+		catch (final IOException | IndexOutOfBoundsException e)
+		{
+			throw new IllegalArgumentException("Invalid encoded decision result", e);
+		}
+	}
+}
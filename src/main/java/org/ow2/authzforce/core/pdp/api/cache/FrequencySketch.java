@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.cache;
+
+import java.util.Arrays;
+
+/**
+ * Frequency sketch used by {@link ShardedInMemoryDecisionCache} for its TinyLFU admission policy: a Count-Min sketch of 4-bit counters (16 counters per {@code long}) estimating how often a given key
+ * has been accessed recently. All counters are periodically halved ("aging") once the number of increments reaches a sample size proportional to the cache capacity, so that the estimates reflect the
+ * recent history only.
+ * <p>
+ * This class is NOT thread-safe; it must be guarded by the lock of the cache segment it belongs to.
+ */
+final class FrequencySketch
+{
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long ONE_MASK = 0x1111111111111111L;
+	private static final int MAX_COUNT = 15;
+
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int size = 0;
+
+	/**
+	 * Creates sketch sized for a given cache capacity
+	 * 
+	 * @param maximumSize
+	 *            maximum number of entries in the cache (segment) using this sketch
+	 */
+	FrequencySketch(final int maximumSize)
+	{
+		assert maximumSize > 0;
+		final int tableSize = Integer.highestOneBit(Math.max(8, Math.min(maximumSize, 1 << 30)) - 1) << 1;
+		this.table = new long[tableSize];
+		this.tableMask = tableSize - 1;
+		this.sampleSize = maximumSize > Integer.MAX_VALUE / 10 ? Integer.MAX_VALUE : 10 * maximumSize;
+	}
+
+	private static int spread(final int hashCode)
+	{
+		int x = hashCode;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+
+	private int indexOf(final int item, final int i)
+	{
+		long hash = (item + SEEDS[i]) * SEEDS[i];
+		hash += hash >>> 32;
+		return ((int) hash) & tableMask;
+	}
+
+	/**
+	 * Returns the estimated access frequency of a key
+	 * 
+	 * @param key
+	 *            cache key
+	 * @return estimated frequency, in the range [0, 15]
+	 */
+	int frequency(final Object key)
+	{
+		final int hash = spread(key.hashCode());
+		final int start = (hash & 3) << 2;
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < 4; i++)
+		{
+			final int index = indexOf(hash, i);
+			final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+
+		return frequency;
+	}
+
+	/**
+	 * Increments the access frequency of a key (unless already at maximum), and ages all counters if the sample size is reached
+	 * 
+	 * @param key
+	 *            cache key
+	 */
+	void increment(final Object key)
+	{
+		final int hash = spread(key.hashCode());
+		final int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++)
+		{
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+
+		if (added && ++size == sampleSize)
+		{
+			reset();
+		}
+	}
+
+	private boolean incrementAt(final int i, final int j)
+	{
+		final int offset = j << 2;
+		final long mask = 0xfL << offset;
+		if ((table[i] & mask) != mask)
+		{
+			table[i] += 1L << offset;
+			return true;
+		}
+
+		return false;
+	}
+
+	private void reset()
+	{
+		int count = 0;
+		for (int i = 0; i < table.length; i++)
+		{
+			count += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+
+		size = (size >>> 1) - (count >>> 2);
+	}
+
+	/**
+	 * Resets all counters to zero
+	 */
+	void clear()
+	{
+		Arrays.fill(table, 0L);
+		size = 0;
+	}
+}
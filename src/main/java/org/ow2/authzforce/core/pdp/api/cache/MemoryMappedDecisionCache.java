@@ -0,0 +1,771 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.cache;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.ow2.authzforce.core.pdp.api.DecisionCache;
+import org.ow2.authzforce.core.pdp.api.DecisionRequest;
+import org.ow2.authzforce.core.pdp.api.DecisionRequestFingerprint;
+import org.ow2.authzforce.core.pdp.api.DecisionResult;
+import org.ow2.authzforce.core.pdp.api.EnvironmentProperties;
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.HashCollections;
+import org.ow2.authzforce.core.pdp.api.PolicyAttributeReferences;
+import org.ow2.authzforce.core.pdp.api.policy.PrimaryPolicyMetadata;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry;
+import org.ow2.authzforce.xmlns.pdp.ext.AbstractDecisionCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Persistent {@link DecisionCache} backed by a memory-mapped, append-only file, so that cached decisions survive PDP restarts.
+ * <p>
+ * The file starts with a header including a policy "epoch" - any value identifying the version of the PDP policies, e.g. computed with {@link #getPolicyEpoch(Iterable)} - and the secret key of
+ * the request fingerprints, randomly generated when the file is (re)initialized, followed by records, each made of a request fingerprint
+ * ({@link DecisionRequest#getFingerprint(DecisionRequestFingerprint.Key)}), an expiration time and the compactly encoded decision result (decision, status, PEP actions and applicable policies),
+ * protected by a CRC32 checksum. When the cache is created, the file is scanned to rebuild the in-memory index (fingerprint to record position). If the epoch in the file differs from the one of
+ * the cache, e.g. the policies have changed since the file was written, all the entries are dropped. Corrupted or truncated records at the end of the file (e.g. after a crash) are dropped as well.
+ * <p>
+ * New entries are always appended to the file. When the file is full, live records (not expired, nor superseded by a more recent one for the same key, nor evicted) are compacted at the beginning of
+ * the file; if that is not enough, the oldest entries are evicted. The number of entries is bounded as well, the oldest ones being evicted first.
+ * <p>
+ * Only Permit, Deny and NotApplicable results are cached; Indeterminate results are not persisted since they are bound to runtime errors. Results that cannot be restored exactly (e.g. with
+ * StatusDetail or XPath expressions in PEP actions) are not cached either. Applicable policies are restored with their type, id and version only.
+ */
+public final class MemoryMappedDecisionCache implements DecisionCache
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(MemoryMappedDecisionCache.class);
+
+	/**
+	 * Default maximum file size (64 MiB)
+	 */
+	public static final int DEFAULT_MAX_FILE_SIZE = 64 << 20;
+
+	/**
+	 * Minimum file size (4 KiB)
+	 */
+	public static final int MIN_FILE_SIZE = 4 << 10;
+
+	// "AZDCACHE" in ASCII
+	private static final long MAGIC = 0x415A444341434845L;
+	private static final int FORMAT_VERSION = 3;
+	private static final int FINGERPRINT_KEY_OFFSET = 8 + 4 + 8;
+	// magic | format version | epoch | fingerprint key
+	private static final int HEADER_SIZE = FINGERPRINT_KEY_OFFSET + DecisionRequestFingerprint.Key.SIZE;
+	// record: length (of the rest of the record) | fingerprint high bits | fingerprint low bits | expiry (epoch millis) | encoded result | CRC32
+	private static final int RECORD_LENGTH_SIZE = 4;
+	private static final int RECORD_KEY_AND_EXPIRY_SIZE = 8 + 8 + 8;
+	private static final int RECORD_CRC_SIZE = 4;
+	private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+	private final Path file;
+	private final long epoch;
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final AttributeValueFactoryRegistry attributeValueFactories;
+	// secret key of request fingerprints, stored in the file header (set when the file is loaded or reset)
+	private volatile DecisionRequestFingerprint.Key fingerprintKey;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	/*
+	 * Position of each live record, in write order (positions are therefore increasing). Guarded by lock.
+	 */
+	private final LinkedHashMap<DecisionRequestFingerprint, Integer> index;
+	// position where the next record is appended. Guarded by lock.
+	private int writePosition;
+
+	private volatile PolicyAttributeReferences attributeReferences = null;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * Creates cache, loading the entries from the file if it exists and was written with the same {@code epoch}
+	 * 
+	 * @param file
+	 *            cache file, created if it does not exist (the parent directory must exist)
+	 * @param epoch
+	 *            policy epoch, identifying the version of the PDP policies (see {@link #getPolicyEpoch(Iterable)})
+	 * @param maxFileSize
+	 *            maximum size of the file, in bytes (the file is allocated with this size), at least {@link #MIN_FILE_SIZE}
+	 * @param maxEntries
+	 *            maximum number of entries
+	 * @param timeToLive
+	 *            maximum time an entry is kept in cache after it has been put, null or zero meaning no expiration
+	 * @param attributeValueFactories
+	 *            factories for restoring the attribute values in PEP actions
+	 * @throws IOException
+	 *             error opening or mapping the file
+	 * @throws IllegalArgumentException
+	 *             if {@code maxFileSize} is too small, {@code maxEntries < 1} or {@code timeToLive} is negative
+	 */
+	public MemoryMappedDecisionCache(final Path file, final long epoch, final int maxFileSize, final int maxEntries, final Duration timeToLive,
+			final AttributeValueFactoryRegistry attributeValueFactories) throws IOException, IllegalArgumentException
+	{
+		Preconditions.checkArgument(file != null, "Undefined cache file");
+		Preconditions.checkArgument(maxFileSize >= MIN_FILE_SIZE, "Invalid cache maxFileSize: %s (expected: >= %s)", maxFileSize, MIN_FILE_SIZE);
+		Preconditions.checkArgument(maxEntries > 0, "Invalid cache maxEntries: %s (expected: > 0)", maxEntries);
+		Preconditions.checkArgument(timeToLive == null || !timeToLive.isNegative(), "Invalid cache timeToLive: %s (expected: >= 0)", timeToLive);
+		Preconditions.checkArgument(attributeValueFactories != null, "Undefined attributeValueFactories");
+
+		this.file = file;
+		this.epoch = epoch;
+		this.maxEntries = maxEntries;
+		this.ttlMillis = timeToLive == null || timeToLive.isZero() ? 0 : timeToLive.toMillis();
+		this.attributeValueFactories = attributeValueFactories;
+		this.index = new LinkedHashMap<>();
+
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try
+		{
+			final long initialFileSize = channel.size();
+			if (initialFileSize > maxFileSize)
+			{
+				channel.truncate(maxFileSize);
+			}
+
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxFileSize);
+			if (initialFileSize >= HEADER_SIZE && buffer.getLong(0) == MAGIC && buffer.getInt(8) == FORMAT_VERSION && buffer.getLong(12) == epoch)
+			{
+				load();
+			}
+			else
+			{
+				if (initialFileSize > 0)
+				{
+					LOGGER.info("Decision cache file '{}' is empty, invalid or written with a different policy epoch than the current one ({}) -> dropping all entries", file, epoch);
+				}
+
+				reset();
+			}
+		}
+		catch (final IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Computes a policy epoch from the PDP policies' identifiers and versions, e.g. from {@link org.ow2.authzforce.core.pdp.api.PdpEngine#getApplicablePolicies()}, so that the epoch changes
+	 * whenever any policy version changes.
+	 * 
+	 * @param policies
+	 *            PDP policies
+	 * @return policy epoch
+	 */
+	public static long getPolicyEpoch(final Iterable<PrimaryPolicyMetadata> policies)
+	{
+		final Hasher hasher = Hashing.murmur3_128().newHasher();
+		for (final PrimaryPolicyMetadata policy : policies)
+		{
+			hasher.putInt(policy.getType().ordinal()).putInt(policy.getId().length()).putString(policy.getId(), StandardCharsets.UTF_8).putString(policy.getVersion().toString(),
+					StandardCharsets.UTF_8).putByte((byte) 0);
+		}
+
+		return hasher.hash().asLong();
+	}
+
+	private static int crc(final MappedByteBuffer buffer, final int offset, final int length)
+	{
+		final CRC32 crc = new CRC32();
+		crc.update(buffer.slice(offset, length));
+		return (int) crc.getValue();
+	}
+
+	private int capacity()
+	{
+		return buffer.capacity();
+	}
+
+	/*
+	 * Writes empty file header. Must be called with write lock held (or from constructor).
+	 */
+	private void reset()
+	{
+		buffer.putLong(0, MAGIC);
+		buffer.putInt(8, FORMAT_VERSION);
+		buffer.putLong(12, epoch);
+		fingerprintKey = DecisionRequestFingerprint.Key.newRandom();
+		buffer.put(FINGERPRINT_KEY_OFFSET, fingerprintKey.getBytes());
+		writePosition = HEADER_SIZE;
+		buffer.putInt(writePosition, 0);
+		index.clear();
+	}
+
+	/*
+	 * Rebuilds the index from the records in the file. Called from constructor only.
+	 */
+	private void load()
+	{
+		final byte[] fingerprintKeyBytes = new byte[DecisionRequestFingerprint.Key.SIZE];
+		buffer.get(FINGERPRINT_KEY_OFFSET, fingerprintKeyBytes);
+		fingerprintKey = DecisionRequestFingerprint.Key.valueOf(fingerprintKeyBytes);
+		final long nowMillis = System.currentTimeMillis();
+		int position = HEADER_SIZE;
+		int expired = 0;
+		while (position + RECORD_LENGTH_SIZE <= capacity())
+		{
+			final int length = buffer.getInt(position);
+			final int dataOffset = position + RECORD_LENGTH_SIZE;
+			if (length < RECORD_KEY_AND_EXPIRY_SIZE + RECORD_CRC_SIZE || length > capacity() - dataOffset)
+			{
+				// end of records, or truncated record
+				break;
+			}
+
+			final int crcOffset = dataOffset + length - RECORD_CRC_SIZE;
+			if (crc(buffer, dataOffset, length - RECORD_CRC_SIZE) != buffer.getInt(crcOffset))
+			{
+				LOGGER.warn("Decision cache file '{}': corrupted record at position {} -> dropping it and any subsequent one", file, position);
+				break;
+			}
+
+			final DecisionRequestFingerprint key = DecisionRequestFingerprint.valueOf(buffer.getLong(dataOffset), buffer.getLong(dataOffset + 8));
+			index.remove(key);
+			if (buffer.getLong(dataOffset + 16) > nowMillis)
+			{
+				index.put(key, position);
+			}
+			else
+			{
+				expired++;
+			}
+
+			position = dataOffset + length;
+		}
+
+		writePosition = position;
+		if (writePosition + RECORD_LENGTH_SIZE <= capacity())
+		{
+			buffer.putInt(writePosition, 0);
+		}
+
+		evictExcessEntries();
+		LOGGER.info("Decision cache file '{}' loaded: {} entries ({} expired dropped)", file, index.size(), expired);
+	}
+
+	/*
+	 * Must be called with write lock held (or from constructor)
+	 */
+	private void evictExcessEntries()
+	{
+		final Iterator<DecisionRequestFingerprint> it = index.keySet().iterator();
+		while (index.size() > maxEntries && it.hasNext())
+		{
+			it.next();
+			it.remove();
+			evictionCount.increment();
+		}
+	}
+
+	/*
+	 * Moves live records to the beginning of the file. Must be called with write lock held.
+	 */
+	private void compact()
+	{
+		final long nowMillis = System.currentTimeMillis();
+		int newWritePosition = HEADER_SIZE;
+		final Iterator<Entry<DecisionRequestFingerprint, Integer>> it = index.entrySet().iterator();
+		while (it.hasNext())
+		{
+			final Entry<DecisionRequestFingerprint, Integer> indexEntry = it.next();
+			final int position = indexEntry.getValue();
+			final int dataOffset = position + RECORD_LENGTH_SIZE;
+			if (buffer.getLong(dataOffset + 16) <= nowMillis)
+			{
+				it.remove();
+				evictionCount.increment();
+				continue;
+			}
+
+			final int recordSize = RECORD_LENGTH_SIZE + buffer.getInt(position);
+			if (position != newWritePosition)
+			{
+				// positions are increasing in index order, so the destination never overlaps a live record not moved yet
+				final byte[] record = new byte[recordSize];
+				buffer.get(position, record);
+				buffer.put(newWritePosition, record);
+				indexEntry.setValue(newWritePosition);
+			}
+
+			newWritePosition += recordSize;
+		}
+
+		writePosition = newWritePosition;
+		buffer.putInt(writePosition, 0);
+	}
+
+	/*
+	 * Must be called with write lock held
+	 */
+	private void append(final DecisionRequestFingerprint key, final long expiryMillis, final byte[] encodedResult)
+	{
+		final int length = RECORD_KEY_AND_EXPIRY_SIZE + encodedResult.length + RECORD_CRC_SIZE;
+		final int recordSize = RECORD_LENGTH_SIZE + length;
+		// keep room for end-of-records marker
+		final int maxRecordSize = capacity() - HEADER_SIZE - RECORD_LENGTH_SIZE;
+		if (recordSize > maxRecordSize)
+		{
+			LOGGER.debug("Decision result too big for cache file '{}' (encoded size: {}) -> not cached", file, recordSize);
+			return;
+		}
+
+		index.remove(key);
+		if (writePosition + recordSize > capacity() - RECORD_LENGTH_SIZE)
+		{
+			compact();
+			// keep at least half of the file free after compaction, to avoid compacting on every append
+			while (writePosition + recordSize > capacity() - RECORD_LENGTH_SIZE || writePosition > capacity() / 2)
+			{
+				LOGGER.debug("Decision cache file '{}' still full after compaction -> evicting oldest entries", file);
+				final Iterator<DecisionRequestFingerprint> it = index.keySet().iterator();
+				for (int i = (index.size() + 3) / 4; i > 0; i--)
+				{
+					it.next();
+					it.remove();
+					evictionCount.increment();
+				}
+
+				compact();
+			}
+		}
+
+		final int position = writePosition;
+		final int dataOffset = position + RECORD_LENGTH_SIZE;
+		buffer.putLong(dataOffset, key.getHigh());
+		buffer.putLong(dataOffset + 8, key.getLow());
+		buffer.putLong(dataOffset + 16, expiryMillis);
+		buffer.put(dataOffset + RECORD_KEY_AND_EXPIRY_SIZE, encodedResult);
+		buffer.putInt(dataOffset + length - RECORD_CRC_SIZE, crc(buffer, dataOffset, length - RECORD_CRC_SIZE));
+		writePosition = dataOffset + length;
+		buffer.putInt(writePosition, 0);
+		// record length written last, so that the record is complete when it is visible to a file scan
+		buffer.putInt(position, length);
+
+		index.put(key, position);
+		evictExcessEntries();
+	}
+
+	/*
+	 * Must be called with (read) lock held
+	 */
+	private DecisionResult read(final DecisionRequestFingerprint key, final long nowMillis)
+	{
+		final Integer position = index.get(key);
+		if (position == null)
+		{
+			return null;
+		}
+
+		final int length = buffer.getInt(position);
+		final int dataOffset = position + RECORD_LENGTH_SIZE;
+		if (buffer.getLong(dataOffset + 16) <= nowMillis)
+		{
+			// expired, to be removed on next compaction
+			return null;
+		}
+
+		final byte[] encodedResult = new byte[length - RECORD_KEY_AND_EXPIRY_SIZE - RECORD_CRC_SIZE];
+		buffer.get(dataOffset + RECORD_KEY_AND_EXPIRY_SIZE, encodedResult);
+		try
+		{
+			return DecisionResultEncoding.decode(encodedResult, attributeValueFactories);
+		}
+		catch (final IllegalArgumentException e)
+		{
+			LOGGER.warn("Decision cache file '{}': cannot decode result at position {} -> ignored", file, position, e);
+			return null;
+		}
+	}
+
+	private DecisionRequestFingerprint keyOf(final DecisionRequest request)
+	{
+		final PolicyAttributeReferences projection = attributeReferences;
+		return (projection == null ? request : request.getProjection(projection)).getFingerprint(fingerprintKey);
+	}
+
+	private long expiryMillis(final long nowMillis, final Optional<Instant> validUntil)
+	{
+		long expiry = ttlMillis == 0 ? NO_EXPIRY : nowMillis + ttlMillis;
+		// validUntil may be Instant.MAX, out of the epoch millis range
+		if (validUntil.isPresent() && validUntil.get().isBefore(Instant.ofEpochMilli(expiry)))
+		{
+			expiry = validUntil.get().toEpochMilli();
+		}
+
+		return expiry;
+	}
+
+	@Override
+	public boolean isEvaluationContextRequired()
+	{
+		return false;
+	}
+
+	@Override
+	public DecisionResult get(final DecisionRequest request, final EvaluationContext evalCtx)
+	{
+		final DecisionRequestFingerprint key = keyOf(request);
+		final DecisionResult result;
+		lock.readLock().lock();
+		try
+		{
+			result = read(key, System.currentTimeMillis());
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		if (result == null)
+		{
+			missCount.increment();
+		}
+		else
+		{
+			hitCount.increment();
+		}
+
+		return result;
+	}
+
+	@Override
+	public <DECISION_REQ_T extends DecisionRequest> Map<DECISION_REQ_T, DecisionResult> getAll(final List<DECISION_REQ_T> requests)
+	{
+		final Map<DECISION_REQ_T, DecisionResult> results = HashCollections.newUpdatableMap(requests.size());
+		final long nowMillis = System.currentTimeMillis();
+		lock.readLock().lock();
+		try
+		{
+			for (final DECISION_REQ_T request : requests)
+			{
+				final DecisionResult result = read(keyOf(request), nowMillis);
+				if (result != null)
+				{
+					results.put(request, result);
+				}
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		hitCount.add(results.size());
+		missCount.add(requests.size() - results.size());
+		return results;
+	}
+
+	@Override
+	public void put(final DecisionRequest request, final DecisionResult result, final EvaluationContext evalCtx)
+	{
+		put(request, result, Optional.empty());
+	}
+
+	@Override
+	public void put(final DecisionRequest request, final DecisionResult result, final EvaluationContext evalCtx, final Optional<Instant> validUntil)
+	{
+		if (evalCtx != null && !evalCtx.isDecisionValidityTracked())
+		{
+			// time-sensitivity unknown
+			return;
+		}
+
+		put(request, result, validUntil);
+	}
+
+	private void put(final DecisionRequest request, final DecisionResult result, final Optional<Instant> validUntil)
+	{
+		final long nowMillis = System.currentTimeMillis();
+		final long expiryMillis = expiryMillis(nowMillis, validUntil);
+		if (expiryMillis <= nowMillis)
+		{
+			return;
+		}
+
+		final byte[] encodedResult = DecisionResultEncoding.encode(result);
+		if (encodedResult == null)
+		{
+			return;
+		}
+
+		final DecisionRequestFingerprint key = keyOf(request);
+		lock.writeLock().lock();
+		try
+		{
+			append(key, expiryMillis, encodedResult);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public <DECISION_REQ_T extends DecisionRequest> void putAll(final Map<DECISION_REQ_T, DecisionResult> resultsByRequest)
+	{
+		putAll(resultsByRequest, Map.of());
+	}
+
+	@Override
+	public <DECISION_REQ_T extends DecisionRequest> void putAll(final Map<DECISION_REQ_T, DecisionResult> resultsByRequest, final Map<DECISION_REQ_T, Instant> validUntilByRequest)
+	{
+		final long nowMillis = System.currentTimeMillis();
+		final Map<DecisionRequestFingerprint, byte[]> encodedResultsByKey = HashCollections.newUpdatableMap(resultsByRequest.size());
+		final Map<DecisionRequestFingerprint, Long> expiriesByKey = HashCollections.newUpdatableMap(resultsByRequest.size());
+		for (final Entry<DECISION_REQ_T, DecisionResult> requestAndResult : resultsByRequest.entrySet())
+		{
+			final long expiryMillis = expiryMillis(nowMillis, Optional.ofNullable(validUntilByRequest.get(requestAndResult.getKey())));
+			if (expiryMillis <= nowMillis)
+			{
+				continue;
+			}
+
+			final byte[] encodedResult = DecisionResultEncoding.encode(requestAndResult.getValue());
+			if (encodedResult != null)
+			{
+				final DecisionRequestFingerprint key = keyOf(requestAndResult.getKey());
+				encodedResultsByKey.put(key, encodedResult);
+				expiriesByKey.put(key, expiryMillis);
+			}
+		}
+
+		lock.writeLock().lock();
+		try
+		{
+			for (final Entry<DecisionRequestFingerprint, byte[]> keyAndEncodedResult : encodedResultsByKey.entrySet())
+			{
+				append(keyAndEncodedResult.getKey(), expiriesByKey.get(keyAndEncodedResult.getKey()), keyAndEncodedResult.getValue());
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The attribute references are expected to be the same for a given policy epoch, since they affect the keys.
+	 */
+	@Override
+	public void setPolicyAttributeReferences(final PolicyAttributeReferences attributeReferences)
+	{
+		Preconditions.checkArgument(attributeReferences != null, "Undefined attributeReferences");
+		this.attributeReferences = attributeReferences;
+	}
+
+	/**
+	 * Get the number of times a cache lookup returned a cached result
+	 * 
+	 * @return hit count
+	 */
+	public long getHitCount()
+	{
+		return hitCount.sum();
+	}
+
+	/**
+	 * Get the number of times a cache lookup did not return any result (no entry or expired entry)
+	 * 
+	 * @return miss count
+	 */
+	public long getMissCount()
+	{
+		return missCount.sum();
+	}
+
+	/**
+	 * Get the number of entries removed from the cache because of the size limits or expiration
+	 * 
+	 * @return eviction count
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount.sum();
+	}
+
+	/**
+	 * Get the current number of entries in cache, including expired ones not evicted yet
+	 * 
+	 * @return number of entries
+	 */
+	public int size()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return index.size();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Flushes the file content to the storage device and closes the file. The entries remain in the file for the next instance of cache using the same file.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			if (channel.isOpen())
+			{
+				buffer.force();
+				channel.close();
+			}
+
+			index.clear();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MemoryMappedDecisionCache[file=" + file + ", epoch=" + epoch + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+	}
+
+	/**
+	 * Skeletal {@link DecisionCache.Factory} of {@link MemoryMappedDecisionCache}s. Since the configuration type must be a concrete JAXB class defined by an XML schema extending
+	 * {@link AbstractDecisionCache} - outside this API - subclasses must provide this class (to the constructor) and implement {@link #getFile(AbstractDecisionCache, EnvironmentProperties)} and
+	 * {@link #getPolicyEpoch(AbstractDecisionCache)} to get these parameters from their own configuration type. The maximum number of entries is
+	 * {@link AbstractDecisionCache#getMaxElementsInMemory()}.
+	 *
+	 * @param <CONF_T>
+	 *            type of extension configuration (initialization parameters)
+	 */
+	public abstract static class Factory<CONF_T extends AbstractDecisionCache> extends DecisionCache.Factory<CONF_T>
+	{
+		private static final BigInteger MAX_INT_SIZE = BigInteger.valueOf(Integer.MAX_VALUE);
+
+		private final Class<CONF_T> jaxbConfClass;
+
+		/**
+		 * Creates factory
+		 * 
+		 * @param jaxbConfClass
+		 *            XML/JAXB class of the configuration
+		 */
+		protected Factory(final Class<CONF_T> jaxbConfClass)
+		{
+			this.jaxbConfClass = Preconditions.checkNotNull(jaxbConfClass, "Undefined jaxbConfClass");
+		}
+
+		@Override
+		public final Class<CONF_T> getJaxbClass()
+		{
+			return jaxbConfClass;
+		}
+
+		/**
+		 * Get the cache file from the configuration
+		 * 
+		 * @param conf
+		 *            extension configuration
+		 * @param envProps
+		 *            environment properties, e.g. to resolve file paths relative to the PDP configuration directory
+		 * @return cache file
+		 */
+		protected abstract Path getFile(CONF_T conf, EnvironmentProperties envProps);
+
+		/**
+		 * Get the policy epoch from the configuration
+		 * 
+		 * @param conf
+		 *            extension configuration
+		 * @return policy epoch
+		 */
+		protected abstract long getPolicyEpoch(CONF_T conf);
+
+		/**
+		 * Get the maximum cache file size from the configuration. This implementation returns {@link MemoryMappedDecisionCache#DEFAULT_MAX_FILE_SIZE}.
+		 * 
+		 * @param conf
+		 *            extension configuration
+		 * @return maximum file size in bytes
+		 */
+		protected int getMaxFileSize(final CONF_T conf)
+		{
+			return DEFAULT_MAX_FILE_SIZE;
+		}
+
+		/**
+		 * Get the cache entries' time-to-live from the configuration. This implementation returns {@link Duration#ZERO} (no expiration).
+		 * 
+		 * @param conf
+		 *            extension configuration
+		 * @return time-to-live; zero for no expiration
+		 */
+		protected Duration getTimeToLive(final CONF_T conf)
+		{
+			return Duration.ZERO;
+		}
+
+		@Override
+		public DecisionCache getInstance(final CONF_T conf, final AttributeValueFactoryRegistry attributeValueFactories, final EnvironmentProperties envProps)
+		{
+			final BigInteger maxElementsInMemory = conf.getMaxElementsInMemory();
+			Preconditions.checkArgument(maxElementsInMemory != null, "Undefined decision cache maxElementsInMemory");
+			final Path file = getFile(conf, envProps);
+			try
+			{
+				return new MemoryMappedDecisionCache(file, getPolicyEpoch(conf), getMaxFileSize(conf), maxElementsInMemory.min(MAX_INT_SIZE).intValue(), getTimeToLive(conf),
+						attributeValueFactories);
+			}
+			catch (final IOException e)
+			{
+				throw new RuntimeException("Error opening decision cache file: " + file, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,802 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.cache;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.ow2.authzforce.core.pdp.api.DecisionCache;
+import org.ow2.authzforce.core.pdp.api.DecisionRequest;
+import org.ow2.authzforce.core.pdp.api.DecisionRequestFingerprint;
+import org.ow2.authzforce.core.pdp.api.DecisionResult;
+import org.ow2.authzforce.core.pdp.api.EnvironmentProperties;
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.HashCollections;
+import org.ow2.authzforce.core.pdp.api.PolicyAttributeReferences;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry;
+import org.ow2.authzforce.xmlns.pdp.ext.AbstractDecisionCache;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Reference in-memory implementation of {@link DecisionCache}, size-bounded with optional time-to-live (TTL) expiration.
+ * <p>
+ * The cache is split into a power-of-two number of segments (shards), each guarded by its own lock, so that concurrent threads accessing different keys rarely contend on the same lock. Each segment
+ * applies the W-TinyLFU eviction policy: a new entry is first added to a small LRU "admission window"; when the window overflows, its least recently used entry becomes a candidate for the main LRU
+ * space, and is admitted only if its access frequency - estimated by a {@link FrequencySketch} - is higher than the one of the main space's eviction victim. This protects frequently requested
+ * decisions from being flushed by bursts of one-time requests.
+ * <p>
+ * {@link #getAll(List)} and {@link #putAll(Map)} group the requests by segment in order to acquire each segment lock at most once per call.
+ * <p>
+ * Hit, miss and eviction counts are maintained for cache sizing and monitoring purposes.
+ * <p>
+ * Depending on the {@link KeyMode}, entries are keyed either by the request itself, or by its {@link DecisionRequestFingerprint} only, in which case the cache does not retain the requests' attributes
+ * and each lookup compares two 128-bit values instead of the full attribute maps. Once {@link #setPolicyAttributeReferences(PolicyAttributeReferences)} has been called, keys are derived from the requests
+ * projected onto the attributes referenced by the policies.
+ * <p>
+ * Time-sensitive decisions put with a validity limit ({@link #put(DecisionRequest, DecisionResult, EvaluationContext, Optional)}) expire at the earliest of this limit and the time-to-live.
+ */
+public final class ShardedInMemoryDecisionCache implements DecisionCache
+{
+	/**
+	 * Default number of segments (shards), to be rounded to the next power of two
+	 */
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 4 * Runtime.getRuntime().availableProcessors();
+
+	/*
+	 * Minimum capacity of a segment, to keep the window/main split meaningful
+	 */
+	private static final int MIN_SEGMENT_CAPACITY = 16;
+
+	/*
+	 * Percentage of segment capacity allocated to the admission window
+	 */
+	private static final int WINDOW_PERCENTAGE = 1;
+
+	private static final Duration MAX_TTL = Duration.ofNanos(Long.MAX_VALUE >>> 1);
+
+	/**
+	 * Type of cache key derived from a {@link DecisionRequest}
+	 */
+	public enum KeyMode
+	{
+		/**
+		 * The request itself is the key, therefore compared with {@link DecisionRequest#equals(Object)} on lookup and kept in memory as long as the entry is cached
+		 */
+		REQUEST,
+
+		/**
+		 * The request fingerprint ({@link DecisionRequest#getFingerprint(DecisionRequestFingerprint.Key)}), with a random key generated for each cache instance, is the key. Much more compact than
+		 * {@link #REQUEST}, at the cost of a negligible probability of collision.
+		 */
+		FINGERPRINT
+	}
+
+	private static final class Entry
+	{
+		private final DecisionResult result;
+		// expiration time in System.nanoTime() reference, or Long.MAX_VALUE if none
+		private final long expiryNanos;
+
+		private Entry(final DecisionResult result, final long expiryNanos)
+		{
+			this.result = result;
+			this.expiryNanos = expiryNanos;
+		}
+
+		private boolean isExpired(final long nowNanos)
+		{
+			return expiryNanos != Long.MAX_VALUE && nowNanos - expiryNanos >= 0;
+		}
+	}
+
+	/*
+	 * What the cache keys depend on, besides the requests
+	 */
+	private static final class KeyContext
+	{
+		// null iff no projection
+		private final PolicyAttributeReferences attributeReferences;
+		/*
+		 * Incremented whenever attributeReferences changes. Keys computed with a KeyContext are only valid in segments with the same generation.
+		 */
+		private final int generation;
+
+		private KeyContext(final PolicyAttributeReferences attributeReferences, final int generation)
+		{
+			this.attributeReferences = attributeReferences;
+			this.generation = generation;
+		}
+	}
+
+	private static final class Segment
+	{
+		private final ReentrantLock lock = new ReentrantLock();
+		/*
+		 * Generation of the KeyContext of the keys in this segment. Guarded by lock.
+		 */
+		private int generation = 0;
+		private final int windowCapacity;
+		private final int mainCapacity;
+		/*
+		 * Access-ordered maps: first entry is the LRU one
+		 */
+		private final LinkedHashMap<Object, Entry> window;
+		private final LinkedHashMap<Object, Entry> main;
+		private final FrequencySketch sketch;
+		private final LongAdder evictionCount;
+
+		private Segment(final int capacity, final LongAdder evictionCount)
+		{
+			/*
+			 * The window and main space together hold at most capacity entries, the main space at least one. No window if capacity == 1: each new entry is a candidate for the main space right away.
+			 */
+			this.windowCapacity = capacity == 1 ? 0 : Math.max(1, capacity * WINDOW_PERCENTAGE / 100);
+			this.mainCapacity = capacity - windowCapacity;
+			this.window = new LinkedHashMap<>(hashMapCapacity(windowCapacity + 1), 0.75f, true);
+			this.main = new LinkedHashMap<>(hashMapCapacity(mainCapacity), 0.75f, true);
+			this.sketch = new FrequencySketch(windowCapacity + mainCapacity);
+			this.evictionCount = evictionCount;
+		}
+
+		/*
+		 * Must be called with lock held
+		 */
+		private DecisionResult getLocked(final Object key, final long nowNanos)
+		{
+			sketch.increment(key);
+			LinkedHashMap<Object, Entry> map = window;
+			Entry entry = window.get(key);
+			if (entry == null)
+			{
+				map = main;
+				entry = main.get(key);
+				if (entry == null)
+				{
+					return null;
+				}
+			}
+
+			if (entry.isExpired(nowNanos))
+			{
+				map.remove(key);
+				evictionCount.increment();
+				return null;
+			}
+
+			return entry.result;
+		}
+
+		/*
+		 * Must be called with lock held
+		 */
+		private void putLocked(final Object key, final Entry entry, final long nowNanos)
+		{
+			sketch.increment(key);
+			if (main.containsKey(key))
+			{
+				main.put(key, entry);
+				return;
+			}
+
+			window.put(key, entry);
+			if (window.size() <= windowCapacity)
+			{
+				return;
+			}
+
+			// window overflow: the window's LRU entry becomes candidate for admission to main space
+			final Iterator<Map.Entry<Object, Entry>> windowIt = window.entrySet().iterator();
+			final Map.Entry<Object, Entry> candidate = windowIt.next();
+			windowIt.remove();
+			if (candidate.getValue().isExpired(nowNanos))
+			{
+				evictionCount.increment();
+				return;
+			}
+
+			if (main.size() < mainCapacity)
+			{
+				main.put(candidate.getKey(), candidate.getValue());
+				return;
+			}
+
+			final Iterator<Map.Entry<Object, Entry>> mainIt = main.entrySet().iterator();
+			final Map.Entry<Object, Entry> victim = mainIt.next();
+			if (victim.getValue().isExpired(nowNanos) || sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey()))
+			{
+				mainIt.remove();
+				main.put(candidate.getKey(), candidate.getValue());
+			}
+
+			// either the victim or the candidate is evicted
+			evictionCount.increment();
+		}
+
+		private int size()
+		{
+			lock.lock();
+			try
+			{
+				return window.size() + main.size();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		private void clear(final int newGeneration)
+		{
+			lock.lock();
+			try
+			{
+				generation = newGeneration;
+				window.clear();
+				main.clear();
+				sketch.clear();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+
+	private final Segment[] segments;
+	private final int segmentMask;
+	private final long ttlNanos;
+	private final KeyMode keyMode;
+	// secret key of request fingerprints (KeyMode.FINGERPRINT)
+	private final DecisionRequestFingerprint.Key fingerprintKey = DecisionRequestFingerprint.Key.newRandom();
+	/*
+	 * Replaced as a whole when the attribute references change
+	 */
+	private volatile KeyContext keyContext = new KeyContext(null, 0);
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * Creates cache with {@link KeyMode#REQUEST} key mode
+	 * 
+	 * @param maxSize
+	 *            maximum number of entries in the cache (split between segments, therefore fewer entries may be cached if the keys are not spread evenly)
+	 * @param timeToLive
+	 *            maximum time an entry is kept in cache after it has been put, null or zero meaning no expiration
+	 * @param concurrencyLevel
+	 *            expected number of threads accessing the cache concurrently, used as hint for the number of segments (rounded to the next power of two and reduced if needed to keep a minimum
+	 *            capacity per segment)
+	 * @throws IllegalArgumentException
+	 *             if {@code maxSize < 1}, {@code concurrencyLevel < 1} or {@code timeToLive} is negative
+	 */
+	public ShardedInMemoryDecisionCache(final int maxSize, final Duration timeToLive, final int concurrencyLevel) throws IllegalArgumentException
+	{
+		this(maxSize, timeToLive, concurrencyLevel, KeyMode.REQUEST);
+	}
+
+	/**
+	 * Creates cache
+	 * 
+	 * @param maxSize
+	 *            maximum number of entries in the cache (split between segments, therefore fewer entries may be cached if the keys are not spread evenly)
+	 * @param timeToLive
+	 *            maximum time an entry is kept in cache after it has been put, null or zero meaning no expiration
+	 * @param concurrencyLevel
+	 *            expected number of threads accessing the cache concurrently, used as hint for the number of segments (rounded to the next power of two and reduced if needed to keep a minimum
+	 *            capacity per segment)
+	 * @param keyMode
+	 *            type of cache key derived from the requests
+	 * @throws IllegalArgumentException
+	 *             if {@code maxSize < 1}, {@code concurrencyLevel < 1}, {@code timeToLive} is negative or {@code keyMode} is null
+	 */
+	public ShardedInMemoryDecisionCache(final int maxSize, final Duration timeToLive, final int concurrencyLevel, final KeyMode keyMode) throws IllegalArgumentException
+	{
+		Preconditions.checkArgument(keyMode != null, "Undefined cache keyMode");
+		Preconditions.checkArgument(maxSize > 0, "Invalid cache maxSize: %s (expected: > 0)", maxSize);
+		Preconditions.checkArgument(concurrencyLevel > 0, "Invalid cache concurrencyLevel: %s (expected: > 0)", concurrencyLevel);
+		Preconditions.checkArgument(timeToLive == null || !timeToLive.isNegative(), "Invalid cache timeToLive: %s (expected: >= 0)", timeToLive);
+
+		int segmentCount = Integer.highestOneBit(Math.min(concurrencyLevel, 1 << 16));
+		if (segmentCount < concurrencyLevel)
+		{
+			segmentCount <<= 1;
+		}
+
+		while (segmentCount > 1 && maxSize / segmentCount < MIN_SEGMENT_CAPACITY)
+		{
+			segmentCount >>>= 1;
+		}
+
+		// the remainder of maxSize is spread over the first segments, so that the segment capacities add up to maxSize
+		final int segmentCapacity = maxSize / segmentCount;
+		final int largerSegmentCount = maxSize % segmentCount;
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+		{
+			this.segments[i] = new Segment(i < largerSegmentCount ? segmentCapacity + 1 : segmentCapacity, evictionCount);
+		}
+
+		this.segmentMask = segmentCount - 1;
+		// TTL beyond MAX_TTL_NANOS (about 146 years) is considered infinite, which also avoids overflows in expiration time comparisons
+		this.ttlNanos = timeToLive == null || timeToLive.compareTo(MAX_TTL) > 0 ? 0 : timeToLive.toNanos();
+		this.keyMode = keyMode;
+	}
+
+	private static int hashMapCapacity(final int expectedSize)
+	{
+		return (int) (expectedSize / 0.75f) + 1;
+	}
+
+	private Object keyOf(final DecisionRequest request, final KeyContext keyCtx)
+	{
+		final DecisionRequest keyRequest = keyCtx.attributeReferences == null ? request : request.getProjection(keyCtx.attributeReferences);
+		return keyMode == KeyMode.FINGERPRINT ? keyRequest.getFingerprint(fingerprintKey) : keyRequest;
+	}
+
+	private int segmentIndexOf(final Object key)
+	{
+		final int h = key.hashCode() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & segmentMask;
+	}
+
+	private long expiryNanos(final long nowNanos)
+	{
+		if (ttlNanos == 0)
+		{
+			return Long.MAX_VALUE;
+		}
+
+		final long expiry = nowNanos + ttlNanos;
+		// Long.MAX_VALUE is reserved for "no expiry"
+		return expiry == Long.MAX_VALUE ? expiry - 1 : expiry;
+	}
+
+	/**
+	 * Groups the indexes of the given keys by segment (counting sort), so that each segment can be processed in a single lock acquisition
+	 * 
+	 * @return array of length {@code keys.length + segments.length + 1}: the first {@code keys.length} items are the key indexes sorted by segment; the remaining items are the start offsets (in the
+	 *         first part) of each segment's key indexes, plus the end offset
+	 */
+	private int[] groupBySegment(final Object[] keys)
+	{
+		final int n = keys.length;
+		final int[] segmentIndexes = new int[n];
+		final int[] result = new int[n + segments.length + 1];
+		for (int i = 0; i < n; i++)
+		{
+			final int segmentIndex = segmentIndexOf(keys[i]);
+			segmentIndexes[i] = segmentIndex;
+			result[n + segmentIndex + 1]++;
+		}
+
+		for (int s = 0; s < segments.length; s++)
+		{
+			result[n + s + 1] += result[n + s];
+		}
+
+		final int[] nextPositions = new int[segments.length];
+		for (int i = 0; i < n; i++)
+		{
+			final int segmentIndex = segmentIndexes[i];
+			result[result[n + segmentIndex] + nextPositions[segmentIndex]++] = i;
+		}
+
+		return result;
+	}
+
+	@Override
+	public boolean isEvaluationContextRequired()
+	{
+		return false;
+	}
+
+	@Override
+	public DecisionResult get(final DecisionRequest request, final EvaluationContext evalCtx)
+	{
+		final KeyContext keyCtx = keyContext;
+		final Object key = keyOf(request, keyCtx);
+		final Segment segment = segments[segmentIndexOf(key)];
+		final DecisionResult result;
+		segment.lock.lock();
+		try
+		{
+			// no result if the segment is not (or no longer) in the same generation as the key
+			result = segment.generation == keyCtx.generation ? segment.getLocked(key, System.nanoTime()) : null;
+		}
+		finally
+		{
+			segment.lock.unlock();
+		}
+
+		if (result == null)
+		{
+			missCount.increment();
+		}
+		else
+		{
+			hitCount.increment();
+		}
+
+		return result;
+	}
+
+	@Override
+	public <DECISION_REQ_T extends DecisionRequest> Map<DECISION_REQ_T, DecisionResult> getAll(final List<DECISION_REQ_T> requests)
+	{
+		final int n = requests.size();
+		final KeyContext keyCtx = keyContext;
+		final Object[] keys = new Object[n];
+		int i = 0;
+		for (final DecisionRequest request : requests)
+		{
+			keys[i++] = keyOf(request, keyCtx);
+		}
+
+		final int[] grouping = groupBySegment(keys);
+		final Map<DECISION_REQ_T, DecisionResult> results = HashCollections.newUpdatableMap(n);
+		final long nowNanos = System.nanoTime();
+		int hits = 0;
+		for (int s = 0; s < segments.length; s++)
+		{
+			final int start = grouping[n + s];
+			final int end = grouping[n + s + 1];
+			if (start == end)
+			{
+				continue;
+			}
+
+			final Segment segment = segments[s];
+			segment.lock.lock();
+			try
+			{
+				if (segment.generation != keyCtx.generation)
+				{
+					continue;
+				}
+
+				for (int j = start; j < end; j++)
+				{
+					final int requestIndex = grouping[j];
+					final DecisionResult result = segment.getLocked(keys[requestIndex], nowNanos);
+					if (result != null)
+					{
+						results.put(requests.get(requestIndex), result);
+						hits++;
+					}
+				}
+			}
+			finally
+			{
+				segment.lock.unlock();
+			}
+		}
+
+		hitCount.add(hits);
+		missCount.add(n - hits);
+		return results;
+	}
+
+	@Override
+	public void put(final DecisionRequest request, final DecisionResult result, final EvaluationContext evalCtx)
+	{
+		final long nowNanos = System.nanoTime();
+		put(request, new Entry(result, expiryNanos(nowNanos)), nowNanos);
+	}
+
+	/*
+	 * New entry put at nowNanos, expiring at the earliest of the TTL and validUntil; or null if the result is already invalid
+	 */
+	private Entry newEntry(final DecisionResult result, final long nowNanos, final Optional<Instant> validUntil)
+	{
+		final long ttlExpiryNanos = expiryNanos(nowNanos);
+		if (validUntil.isEmpty())
+		{
+			return new Entry(result, ttlExpiryNanos);
+		}
+
+		final Duration remainingValidity = Duration.between(Instant.now(), validUntil.get());
+		if (remainingValidity.isNegative() || remainingValidity.isZero())
+		{
+			// already invalid
+			return null;
+		}
+
+		if (remainingValidity.compareTo(MAX_TTL) > 0)
+		{
+			// considered unlimited
+			return new Entry(result, ttlExpiryNanos);
+		}
+
+		final long validityExpiryNanos = nowNanos + remainingValidity.toNanos();
+		final long entryExpiryNanos = ttlExpiryNanos != Long.MAX_VALUE && ttlExpiryNanos - validityExpiryNanos < 0 ? ttlExpiryNanos : validityExpiryNanos;
+		return new Entry(result, entryExpiryNanos == Long.MAX_VALUE ? entryExpiryNanos - 1 : entryExpiryNanos);
+	}
+
+	@Override
+	public void put(final DecisionRequest request, final DecisionResult result, final EvaluationContext evalCtx, final Optional<Instant> validUntil)
+	{
+		if (evalCtx != null && !evalCtx.isDecisionValidityTracked())
+		{
+			// time-sensitivity unknown
+			return;
+		}
+
+		final long nowNanos = System.nanoTime();
+		final Entry entry = newEntry(result, nowNanos, validUntil);
+		if (entry != null)
+		{
+			put(request, entry, nowNanos);
+		}
+	}
+
+	private void put(final DecisionRequest request, final Entry entry, final long nowNanos)
+	{
+		final KeyContext keyCtx = keyContext;
+		final Object key = keyOf(request, keyCtx);
+		final Segment segment = segments[segmentIndexOf(key)];
+		segment.lock.lock();
+		try
+		{
+			// the key is obsolete if the attribute references have changed in the meantime
+			if (segment.generation == keyCtx.generation)
+			{
+				segment.putLocked(key, entry, nowNanos);
+			}
+		}
+		finally
+		{
+			segment.lock.unlock();
+		}
+	}
+
+	@Override
+	public <DECISION_REQ_T extends DecisionRequest> void putAll(final Map<DECISION_REQ_T, DecisionResult> resultsByRequest)
+	{
+		putAll(resultsByRequest, Map.of());
+	}
+
+	@Override
+	public <DECISION_REQ_T extends DecisionRequest> void putAll(final Map<DECISION_REQ_T, DecisionResult> resultsByRequest, final Map<DECISION_REQ_T, Instant> validUntilByRequest)
+	{
+		final KeyContext keyCtx = keyContext;
+		final long nowNanos = System.nanoTime();
+		Object[] keys = new Object[resultsByRequest.size()];
+		Entry[] entries = new Entry[keys.length];
+		int n = 0;
+		for (final Map.Entry<DECISION_REQ_T, DecisionResult> requestAndResult : resultsByRequest.entrySet())
+		{
+			final Entry entry = newEntry(requestAndResult.getValue(), nowNanos, Optional.ofNullable(validUntilByRequest.get(requestAndResult.getKey())));
+			if (entry != null)
+			{
+				keys[n] = keyOf(requestAndResult.getKey(), keyCtx);
+				entries[n] = entry;
+				n++;
+			}
+		}
+
+		if (n < keys.length)
+		{
+			keys = Arrays.copyOf(keys, n);
+			entries = Arrays.copyOf(entries, n);
+		}
+
+		final int[] grouping = groupBySegment(keys);
+		for (int s = 0; s < segments.length; s++)
+		{
+			final int start = grouping[n + s];
+			final int end = grouping[n + s + 1];
+			if (start == end)
+			{
+				continue;
+			}
+
+			final Segment segment = segments[s];
+			segment.lock.lock();
+			try
+			{
+				if (segment.generation != keyCtx.generation)
+				{
+					continue;
+				}
+
+				for (int j = start; j < end; j++)
+				{
+					final int entryIndex = grouping[j];
+					segment.putLocked(keys[entryIndex], entries[entryIndex], nowNanos);
+				}
+			}
+			finally
+			{
+				segment.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Since keys computed before and after the call are not comparable, the cache is cleared if the attribute references change. Concurrent lookups or insertions with keys computed before the change
+	 * are ignored, even if they reach a segment after it has been cleared.
+	 */
+	@Override
+	public synchronized void setPolicyAttributeReferences(final PolicyAttributeReferences attributeReferences)
+	{
+		Preconditions.checkArgument(attributeReferences != null, "Undefined attributeReferences");
+		final KeyContext oldKeyCtx = this.keyContext;
+		if (!attributeReferences.equals(oldKeyCtx.attributeReferences))
+		{
+			final KeyContext newKeyCtx = new KeyContext(attributeReferences, oldKeyCtx.generation + 1);
+			this.keyContext = newKeyCtx;
+			clear(newKeyCtx.generation);
+		}
+	}
+
+	private void clear(final int newGeneration)
+	{
+		for (final Segment segment : segments)
+		{
+			segment.clear(newGeneration);
+		}
+	}
+
+	/**
+	 * Get the number of times a cache lookup returned a cached result
+	 * 
+	 * @return hit count
+	 */
+	public long getHitCount()
+	{
+		return hitCount.sum();
+	}
+
+	/**
+	 * Get the number of times a cache lookup did not return any result (no entry or expired entry)
+	 * 
+	 * @return miss count
+	 */
+	public long getMissCount()
+	{
+		return missCount.sum();
+	}
+
+	/**
+	 * Get the number of entries removed from the cache because of the size limit (including rejected admission candidates) or expiration
+	 * 
+	 * @return eviction count
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount.sum();
+	}
+
+	/**
+	 * Get the current number of entries in cache, including expired ones not evicted yet. Since segments are not locked all at once, this is only an estimate if the cache is modified concurrently.
+	 * 
+	 * @return estimated number of entries
+	 */
+	public long estimatedSize()
+	{
+		long size = 0;
+		for (final Segment segment : segments)
+		{
+			size += segment.size();
+		}
+
+		return size;
+	}
+
+	@Override
+	public synchronized void close()
+	{
+		clear(keyContext.generation);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ShardedInMemoryDecisionCache[segments=" + segments.length + ", keyMode=" + keyMode + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+	}
+
+	/**
+	 * Skeletal {@link DecisionCache.Factory} of {@link ShardedInMemoryDecisionCache}s. Since the configuration type must be a concrete JAXB class defined by an XML schema extending
+	 * {@link AbstractDecisionCache} - outside this API - subclasses must provide this class (to the constructor) and may override {@link #getTimeToLive(AbstractDecisionCache)},
+	 * {@link #getConcurrencyLevel(AbstractDecisionCache)} and {@link #getKeyMode(AbstractDecisionCache)} to get these parameters from their own configuration type. The maximum cache size is {@link AbstractDecisionCache#getMaxElementsInMemory()}.
+	 *
+	 * @param <CONF_T>
+	 *            type of extension configuration (initialization parameters)
+	 */
+	public abstract static class Factory<CONF_T extends AbstractDecisionCache> extends DecisionCache.Factory<CONF_T>
+	{
+		private static final BigInteger MAX_INT_SIZE = BigInteger.valueOf(Integer.MAX_VALUE);
+
+		private final Class<CONF_T> jaxbConfClass;
+
+		/**
+		 * Creates factory
+		 * 
+		 * @param jaxbConfClass
+		 *            XML/JAXB class of the configuration
+		 */
+		protected Factory(final Class<CONF_T> jaxbConfClass)
+		{
+			this.jaxbConfClass = Preconditions.checkNotNull(jaxbConfClass, "Undefined jaxbConfClass");
+		}
+
+		@Override
+		public final Class<CONF_T> getJaxbClass()
+		{
+			return jaxbConfClass;
+		}
+
+		/**
+		 * Get the cache entries' time-to-live from the configuration. This implementation returns {@link Duration#ZERO} (no expiration).
+		 * 
+		 * @param conf
+		 *            extension configuration
+		 * @return time-to-live; zero for no expiration
+		 */
+		protected Duration getTimeToLive(final CONF_T conf)
+		{
+			return Duration.ZERO;
+		}
+
+		/**
+		 * Get the cache concurrency level (number of segments hint) from the configuration. This implementation returns {@link ShardedInMemoryDecisionCache#DEFAULT_CONCURRENCY_LEVEL}.
+		 * 
+		 * @param conf
+		 *            extension configuration
+		 * @return concurrency level
+		 */
+		protected int getConcurrencyLevel(final CONF_T conf)
+		{
+			return DEFAULT_CONCURRENCY_LEVEL;
+		}
+
+		/**
+		 * Get the cache key mode from the configuration. This implementation returns {@link KeyMode#REQUEST}.
+		 * 
+		 * @param conf
+		 *            extension configuration
+		 * @return key mode
+		 */
+		protected KeyMode getKeyMode(final CONF_T conf)
+		{
+			return KeyMode.REQUEST;
+		}
+
+		@Override
+		public DecisionCache getInstance(final CONF_T conf, final AttributeValueFactoryRegistry attributeValueFactories, final EnvironmentProperties envProps)
+		{
+			final BigInteger maxElementsInMemory = conf.getMaxElementsInMemory();
+			Preconditions.checkArgument(maxElementsInMemory != null, "Undefined decision cache maxElementsInMemory");
+			final int maxSize = maxElementsInMemory.min(MAX_INT_SIZE).intValue();
+			return new ShardedInMemoryDecisionCache(maxSize, getTimeToLive(conf), getConcurrencyLevel(conf), getKeyMode(conf));
+		}
+	}
+}
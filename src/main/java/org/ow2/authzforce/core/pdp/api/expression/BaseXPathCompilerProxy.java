@@ -17,18 +17,110 @@
  */
 package org.ow2.authzforce.core.pdp.api.expression;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import net.sf.saxon.s9api.*;
 import org.ow2.authzforce.core.pdp.api.XmlUtils;
 import org.ow2.authzforce.xacml.identifiers.XPathVersion;
 
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Base implementation of {@link XPathCompilerProxy}
+ * <p>
+ * The {@link XPathExecutable}s returned by {@link #compile(String)} are cached (globally) by XPath expression, XPath version and namespace context, since instances of this class are typically
+ * created for each request (e.g. with the request's namespace context) and the same XPath expressions (e.g. XPath-based attribute values) occur in many requests. The cache size is bounded (LRU
+ * eviction), and may be changed with system property {@value #COMPILED_XPATH_CACHE_MAX_SIZE_SYS_PROPERTY_NAME}.
  */
 public abstract class BaseXPathCompilerProxy implements XPathCompilerProxy
 {
+    /**
+     * Name of system property setting the maximum number of cached compiled XPath expressions (int). Default: 1024. Set to 0 to disable the cache.
+     */
+    public static final String COMPILED_XPATH_CACHE_MAX_SIZE_SYS_PROPERTY_NAME = "org.ow2.authzforce.core.pdp.api.expression.BaseXPathCompilerProxy.compiledXPathCacheMaxSize";
+
+    private static final int DEFAULT_COMPILED_XPATH_CACHE_MAX_SIZE = 1024;
+
+    /*
+     * Key of the compiled XPath cache. XPath variables are not part of the key because this class does not declare any when compiling (subclasses supporting XPath variables override
+     * compile(String)).
+     */
+    private static final class CompiledXPathKey
+    {
+        private final String source;
+        private final XPathVersion xPathVersion;
+        private final ImmutableMap<String, String> nsPrefixToUriMap;
+        private final int hashCode;
+
+        private CompiledXPathKey(final String source, final XPathVersion xPathVersion, final ImmutableMap<String, String> nsPrefixToUriMap)
+        {
+            this.source = source;
+            this.xPathVersion = xPathVersion;
+            this.nsPrefixToUriMap = nsPrefixToUriMap;
+            this.hashCode = Objects.hash(source, xPathVersion, nsPrefixToUriMap);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+
+            if (!(obj instanceof CompiledXPathKey))
+            {
+                return false;
+            }
+
+            final CompiledXPathKey other = (CompiledXPathKey) obj;
+            return this.hashCode == other.hashCode && this.xPathVersion == other.xPathVersion && this.source.equals(other.source) && this.nsPrefixToUriMap.equals(other.nsPrefixToUriMap);
+        }
+    }
+
+    /*
+     * XPathExecutables are immutable and thread-safe. Null if cache disabled.
+     */
+    private static final Cache<CompiledXPathKey, XPathExecutable> COMPILED_XPATH_CACHE;
+
+    static
+    {
+        final String maxSizeSysPropVal = System.getProperty(COMPILED_XPATH_CACHE_MAX_SIZE_SYS_PROPERTY_NAME);
+        final int maxSize;
+        if (maxSizeSysPropVal == null)
+        {
+            maxSize = DEFAULT_COMPILED_XPATH_CACHE_MAX_SIZE;
+        }
+        else
+        {
+            try
+            {
+                maxSize = Integer.parseInt(maxSizeSysPropVal);
+            }
+            catch (final NumberFormatException e)
+            {
+                throw new RuntimeException("Invalid value of system property '" + COMPILED_XPATH_CACHE_MAX_SIZE_SYS_PROPERTY_NAME + "': " + maxSizeSysPropVal + ". Expected: int (Java)");
+            }
+
+            if (maxSize < 0)
+            {
+                throw new RuntimeException("Invalid value of system property '" + COMPILED_XPATH_CACHE_MAX_SIZE_SYS_PROPERTY_NAME + "': " + maxSize + ". Expected: non-negative int");
+            }
+        }
+
+        COMPILED_XPATH_CACHE = maxSize == 0 ? null : CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+    }
+
     private static final UnsupportedOperationException UNSUPPORTED_EVALUATE_OPERATION_EXCEPTION = new UnsupportedOperationException("XPathCompiler#evaluate(String, XdmItem) not supported");
     private static final UnsupportedOperationException UNSUPPORTED_EVALUATE_SINGLE_OPERATION_EXCEPTION = new UnsupportedOperationException("XPathCompiler#evaluateSingle(String, XdmItem) not supported");
     private static final UnsupportedOperationException UNSUPPORTED_COMPILE_PATTERN_OPERATION_EXCEPTION = new UnsupportedOperationException("XPathCompiler#compilePattern(String) not supported");
@@ -68,8 +160,27 @@ public abstract class BaseXPathCompilerProxy implements XPathCompilerProxy
         return this.nsPrefixToUriMap;
     }
 
-    @Override
-    public XPathExecutable compile(String source) throws SaxonApiException
+    /**
+     * Get the number of times {@link #compile(String)} returned a cached compiled XPath expression (all instances)
+     *
+     * @return hit count; 0 if the cache is disabled
+     */
+    public static long getCompiledXPathCacheHitCount()
+    {
+        return COMPILED_XPATH_CACHE == null ? 0 : COMPILED_XPATH_CACHE.stats().hitCount();
+    }
+
+    /**
+     * Get the number of times {@link #compile(String)} did not find the compiled XPath expression in the cache (all instances), i.e. compiled it
+     *
+     * @return miss count; 0 if the cache is disabled
+     */
+    public static long getCompiledXPathCacheMissCount()
+    {
+        return COMPILED_XPATH_CACHE == null ? 0 : COMPILED_XPATH_CACHE.stats().missCount();
+    }
+
+    private XPathExecutable compileUncached(final String source) throws SaxonApiException
     {
         /*
          * Why not reuse the same XPathCompiler over and over (make it a class member)? Because it is not immutable, calling XPathCompiler#compile(String) may change the internal state each time, e.g. if there are XPath variables in multiple sources, it is like calling XPathCompiler#declareVariables(...) without reinitializing, i.e. variables add up.
@@ -78,6 +189,35 @@ public abstract class BaseXPathCompilerProxy implements XPathCompilerProxy
         return compiler.compile(source);
     }
 
+    @Override
+    public XPathExecutable compile(String source) throws SaxonApiException
+    {
+        if (COMPILED_XPATH_CACHE == null)
+        {
+            return compileUncached(source);
+        }
+
+        try
+        {
+            // compilation errors are not cached
+            return COMPILED_XPATH_CACHE.get(new CompiledXPathKey(source, xPathVersion, nsPrefixToUriMap), () -> compileUncached(source));
+        }
+        catch (final ExecutionException e)
+        {
+            if (e.getCause() instanceof SaxonApiException)
+            {
+                throw (SaxonApiException) e.getCause();
+            }
+
+            throw new SaxonApiException(e.getCause());
+        }
+        catch (final UncheckedExecutionException e)
+        {
+            // e.g. IllegalArgumentException if invalid namespace context
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
     @Override
     public final XdmValue evaluate(String expression, XdmItem contextItem) throws SaxonApiException
     {
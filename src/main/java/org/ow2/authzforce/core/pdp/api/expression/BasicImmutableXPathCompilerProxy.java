@@ -27,14 +27,34 @@ Basic Immutable XPathCompilerProxy that does not support XPath variables
  */
 public final class BasicImmutableXPathCompilerProxy extends BaseXPathCompilerProxy
 {
+    private final boolean requestScoped;
+
     /**
      * Constructor
      * @param xPathVersion XPath version
      * @param namespaceURIsByPrefix XML namespace URIs, indexed by prefix, usable in XPath expressions for the newly created instance
+     * @param requestScoped true iff the XPath expressions to be compiled come from a XACML request (see {@link #isRequestScoped()})
      */
-    public BasicImmutableXPathCompilerProxy(XPathVersion xPathVersion, Map<String, String> namespaceURIsByPrefix)
+    public BasicImmutableXPathCompilerProxy(XPathVersion xPathVersion, Map<String, String> namespaceURIsByPrefix, boolean requestScoped)
     {
         super(xPathVersion, namespaceURIsByPrefix);
+        this.requestScoped = requestScoped;
+    }
+
+    /**
+     * Constructor of policy-scoped instance, i.e. same as {@link #BasicImmutableXPathCompilerProxy(XPathVersion, Map, boolean)} with {@code requestScoped = false}
+     * @param xPathVersion XPath version
+     * @param namespaceURIsByPrefix XML namespace URIs, indexed by prefix, usable in XPath expressions for the newly created instance
+     */
+    public BasicImmutableXPathCompilerProxy(XPathVersion xPathVersion, Map<String, String> namespaceURIsByPrefix)
+    {
+        this(xPathVersion, namespaceURIsByPrefix, false);
+    }
+
+    @Override
+    public boolean isRequestScoped()
+    {
+        return requestScoped;
     }
 
     @Override
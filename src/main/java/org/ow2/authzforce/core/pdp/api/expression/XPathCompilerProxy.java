@@ -48,6 +48,17 @@ public interface XPathCompilerProxy
      */
     List<VariableReference<?>> getAllowedVariables();
 
+    /**
+     * Whether the XPath expressions compiled with this compiler come from a XACML request (e.g. xpathExpression AttributeValues in the Request, compiled according to the RequestDefaults), as
+     * opposed to the policies. Request-scoped expressions are evaluated for a single request, therefore no reusable evaluation state (XPathSelector) is kept for them.
+     *
+     * @return true iff request-scoped; false by default
+     */
+    default boolean isRequestScoped()
+    {
+        return false;
+    }
+
     /**
      * @see XPathCompiler#compile(String)
      * @param source XPath expression
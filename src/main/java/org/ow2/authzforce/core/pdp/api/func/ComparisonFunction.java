@@ -17,19 +17,39 @@
  */
 package org.ow2.authzforce.core.pdp.api.func;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.Arrays;
 import java.util.Deque;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.ImmutableXacmlStatus;
 import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
 import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.expression.Expressions;
 import org.ow2.authzforce.core.pdp.api.func.BaseFirstOrderFunctionCall.EagerSinglePrimitiveTypeEval;
 import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.BaseTimeValue;
 import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
 import org.ow2.authzforce.core.pdp.api.value.Datatype;
+import org.ow2.authzforce.core.pdp.api.value.DateTimeValue;
+import org.ow2.authzforce.core.pdp.api.value.DateValue;
 import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.Value;
 import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
 
+import com.google.common.collect.ImmutableSet;
+
 /**
  * A superclass of all the standard comparison functions (return a boolean). May be used for non-standard comparison functions as well.
  *
@@ -84,8 +104,116 @@ public class ComparisonFunction<AV extends AttributeValue & Comparable<AV>> exte
 		}
 	}
 
+	/*
+	 * Maximum delay between the evaluation context creation and the date/time value of a time-dependent attribute, for this value to be considered as the current date/time (and not some other value
+	 * computed from it)
+	 */
+	private static final Duration MAX_CURRENT_TIME_LAG = Duration.ofSeconds(1);
+
+	/*
+	 * Datatypes of time-dependent attributes (BaseTimeValue subtypes)
+	 */
+	private static final Set<Datatype<?>> TIME_DATATYPES = ImmutableSet.of(StandardDatatypes.DATETIME, StandardDatatypes.DATE, StandardDatatypes.TIME);
+
+	private static Instant nextMidnight(final LocalDate date, final ZoneOffset offset)
+	{
+		return date.plusDays(1).atStartOfDay().toInstant(offset);
+	}
+
+	private static ZoneOffset offsetOf(final XMLGregorianCalendar cal)
+	{
+		return ZoneOffset.ofTotalSeconds(cal.getTimezone() * 60);
+	}
+
+	private static LocalTime localTimeOf(final XMLGregorianCalendar cal)
+	{
+		final int millis = cal.getMillisecond();
+		return LocalTime.of(cal.getHour(), cal.getMinute(), cal.getSecond(), millis == DatatypeConstants.FIELD_UNDEFINED ? 0 : millis * 1_000_000);
+	}
+
+	/**
+	 * Gets the instant until which the result of comparing the current date/time value with a constant remains the same.
+	 * 
+	 * @param currentValue
+	 *            value of a time-dependent attribute, e.g. XACML current-dateTime
+	 * @param constant
+	 *            constant value compared to {@code currentValue}
+	 * @param currentComparedToConstant
+	 *            sign of {@code currentValue.compareTo(constant)}
+	 * @param now
+	 *            evaluation context creation timestamp
+	 * @return the instant (exclusive) until which the comparison result remains the same, {@link Instant#MAX} if it never changes; or null if {@code currentValue} does not look like the current
+	 *         date/time as of {@code now} (e.g. it has been computed from it), or if the instant cannot be determined safely because of undefined timezones.
+	 */
+	private static Instant nextComparisonChange(final BaseTimeValue<?> currentValue, final BaseTimeValue<?> constant, final int currentComparedToConstant, final Instant now)
+	{
+		final XMLGregorianCalendar current = currentValue.getUnderlyingValue();
+		final XMLGregorianCalendar constantCal = constant.getUnderlyingValue();
+		if (current.getTimezone() == DatatypeConstants.FIELD_UNDEFINED || constantCal.getTimezone() == DatatypeConstants.FIELD_UNDEFINED)
+		{
+			return null;
+		}
+
+		final ZoneOffset offset = offsetOf(current);
+		final OffsetDateTime nowInOffset = now.atOffset(offset);
+		if (currentValue instanceof DateValue)
+		{
+			final LocalDate currentDate = LocalDate.of(current.getYear(), current.getMonth(), current.getDay());
+			if (!currentDate.equals(nowInOffset.toLocalDate()))
+			{
+				return null;
+			}
+
+			// the current date increases at midnight only
+			return currentComparedToConstant > 0 ? Instant.MAX : nextMidnight(currentDate, offset);
+		}
+
+		final Instant currentInstant;
+		if (currentValue instanceof DateTimeValue)
+		{
+			currentInstant = current.toGregorianCalendar().toInstant();
+		}
+		else
+		{
+			// time value, assumed to be of the current day, or the previous one if just before midnight
+			final OffsetDateTime currentDateTime = nowInOffset.with(localTimeOf(current));
+			currentInstant = (currentDateTime.isAfter(nowInOffset) ? currentDateTime.minusDays(1) : currentDateTime).toInstant();
+		}
+
+		if (currentInstant.isAfter(now) || Duration.between(currentInstant, now).compareTo(MAX_CURRENT_TIME_LAG) >= 0)
+		{
+			return null;
+		}
+
+		if (currentComparedToConstant == 0)
+		{
+			// changes right after
+			return currentInstant;
+		}
+
+		if (currentValue instanceof DateTimeValue)
+		{
+			// the current dateTime only increases
+			return currentComparedToConstant > 0 ? Instant.MAX : constantCal.toGregorianCalendar().toInstant();
+		}
+
+		/*
+		 * The current time wraps around at midnight, in its own timezone or in UTC when normalized for comparison, and may reach the constant before that.
+		 */
+		final LocalDate currentDate = currentInstant.atOffset(offset).toLocalDate();
+		final LocalDate currentUtcDate = currentInstant.atOffset(ZoneOffset.UTC).toLocalDate();
+		final OffsetDateTime currentInConstantOffset = currentInstant.atOffset(offsetOf(constantCal));
+		final OffsetDateTime constantSameDay = currentInConstantOffset.with(localTimeOf(constantCal));
+		final Instant nextConstant = (constantSameDay.isAfter(currentInConstantOffset) ? constantSameDay : constantSameDay.plusDays(1)).toInstant();
+		final Instant nextMidnight = nextMidnight(currentDate, offset);
+		final Instant nextUtcMidnight = nextMidnight(currentUtcDate, ZoneOffset.UTC);
+		final Instant nextWrap = nextMidnight.isBefore(nextUtcMidnight) ? nextMidnight : nextUtcMidnight;
+		return nextConstant.isBefore(nextWrap) ? nextConstant : nextWrap;
+	}
+
 	private final PostCondition postCondition;
 	private final String illegalComparisonMsgPrefix;
+	private final Datatype<AV> paramType;
 
 	/**
 	 * Creates a new comparison function. Resulting function ID = {@code paramType.getFuncIdPrefix() + functionSuffix}, where {@code functionSuffix} is:
@@ -111,12 +239,89 @@ public class ComparisonFunction<AV extends AttributeValue & Comparable<AV>> exte
 		super(paramType.getFunctionIdPrefix() + postCondition.functionSuffix, StandardDatatypes.BOOLEAN, false, Arrays.asList(paramType, paramType));
 		this.postCondition = postCondition;
 		this.illegalComparisonMsgPrefix = "Function " + functionSignature.getName() + ": cannot compare arguments: ";
+		this.paramType = paramType;
+	}
+
+	private int compare(final AV arg0, final AV arg1) throws IndeterminateEvaluationException
+	{
+		try
+		{
+			return arg0.compareTo(arg1);
+		} catch (final IllegalArgumentException e)
+		{
+			// See BaseTimeValue#compareTo() for example of comparison throwing such exception
+			throw new IndeterminateEvaluationException(illegalComparisonMsgPrefix + arg0.getContent() + ", " + arg1.getContent(), XacmlStatusCode.PROCESSING_ERROR.value(), e);
+		}
+	}
+
+	/**
+	 * Call of date/time/dateTime comparison function with one constant argument, which declares the validity of the result to the evaluation context (see
+	 * {@link EvaluationContext#restrictDecisionValidity(Instant)}) when the other argument is the current date/time from a time-dependent attribute, e.g. XACML current-dateTime
+	 */
+	private final class ConstantTimeComparisonCall extends BaseFirstOrderFunctionCall<BooleanValue>
+	{
+		private final Expression<?> nonConstantArgExpression;
+		private final AV constantArg;
+		private final boolean isConstantArg0;
+		private final ImmutableXacmlStatus invalidArgErrorStatus;
+
+		private ConstantTimeComparisonCall(final List<Expression<?>> argExpressions, final int constantArgIndex, final AV constantArg) throws IllegalArgumentException
+		{
+			super(functionSignature, argExpressions);
+			this.nonConstantArgExpression = argExpressions.get(1 - constantArgIndex);
+			this.constantArg = constantArg;
+			this.isConstantArg0 = constantArgIndex == 0;
+			this.invalidArgErrorStatus = new ImmutableXacmlStatus(XacmlStatusCode.PROCESSING_ERROR.value(),
+					Optional.of("Function " + functionSignature.getName() + ": Indeterminate arg #" + (1 - constantArgIndex)));
+		}
+
+		@Override
+		public BooleanValue evaluate(final EvaluationContext context, final Optional<EvaluationContext> mdpContext, final AttributeValue... remainingArgs) throws IndeterminateEvaluationException
+		{
+			final int timeDependentUseCountBefore = context.getTimeDependentAttributeUseCount();
+			final AV nonConstantArg;
+			try
+			{
+				nonConstantArg = Expressions.eval(nonConstantArgExpression, context, mdpContext, paramType);
+			}
+			catch (final IndeterminateEvaluationException e)
+			{
+				throw new IndeterminateEvaluationException(invalidArgErrorStatus, e);
+			}
+
+			final int comparResult = isConstantArg0 ? compare(constantArg, nonConstantArg) : compare(nonConstantArg, constantArg);
+			/*
+			 * Declare the validity of the result if the non-constant arg comes from exactly one use of a time-dependent attribute
+			 */
+			if (context.getTimeDependentAttributeUseCount() - timeDependentUseCountBefore == 1)
+			{
+				final int nonConstantComparedToConstant = isConstantArg0 ? -Integer.signum(comparResult) : Integer.signum(comparResult);
+				final Instant resultValidUntil = nextComparisonChange((BaseTimeValue<?>) nonConstantArg, (BaseTimeValue<?>) constantArg, nonConstantComparedToConstant, context.getCreationTimestamp());
+				if (resultValidUntil != null)
+				{
+					context.restrictDecisionValidity(resultValidUntil);
+				}
+			}
+
+			return BooleanValue.valueOf(postCondition.isTrue(comparResult));
+		}
 	}
 
 	@Override
 	public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes)
 	{
 		//return funcCallFactory.getInstance(argExpressions, remainingArgTypes);
+		if (remainingArgTypes.length == 0 && argExpressions.size() == 2
+				&& TIME_DATATYPES.contains(paramType))
+		{
+			final Optional<? extends Value> arg0Value = argExpressions.get(0).getValue();
+			final Optional<? extends Value> arg1Value = argExpressions.get(1).getValue();
+			if (arg0Value.isPresent() != arg1Value.isPresent())
+			{
+				return arg0Value.isPresent() ? new ConstantTimeComparisonCall(argExpressions, 0, paramType.cast(arg0Value.get()))
+						: new ConstantTimeComparisonCall(argExpressions, 1, paramType.cast(arg1Value.get()));
+			}
+		}
 
 		return new EagerSinglePrimitiveTypeEval<>(functionSignature, argExpressions, remainingArgTypes)
 		{
@@ -129,17 +334,8 @@ public class ComparisonFunction<AV extends AttributeValue & Comparable<AV>> exte
 				assert arg0 != null;
 				final AV arg1 = args.poll();
 				assert arg1 != null;
-				final int comparResult;
-				try
-				{
-					comparResult = arg0.compareTo(arg1);
-				} catch (final IllegalArgumentException e)
-				{
-					// See BaseTimeValue#compareTo() for example of comparison throwing such exception
-					throw new IndeterminateEvaluationException(illegalComparisonMsgPrefix + arg0.getContent() + ", " + arg1.getContent(), XacmlStatusCode.PROCESSING_ERROR.value(), e);
-				}
 				// Return the result as a BooleanAttributeValue.
-				return BooleanValue.valueOf(postCondition.isTrue(comparResult));
+				return BooleanValue.valueOf(postCondition.isTrue(compare(arg0, arg1)));
 			}
 		};
 	}
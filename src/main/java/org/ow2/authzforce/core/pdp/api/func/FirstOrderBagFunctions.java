@@ -18,10 +18,14 @@
 package org.ow2.authzforce.core.pdp.api.func;
 
 import java.util.*;
+import java.util.function.Predicate;
 
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
 import org.ow2.authzforce.core.pdp.api.HashCollections;
+import org.ow2.authzforce.core.pdp.api.ImmutableXacmlStatus;
 import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
 import org.ow2.authzforce.core.pdp.api.expression.Expression;
+import org.ow2.authzforce.core.pdp.api.expression.Expressions;
 import org.ow2.authzforce.core.pdp.api.func.BaseFirstOrderFunctionCall.EagerBagEval;
 import org.ow2.authzforce.core.pdp.api.func.BaseFirstOrderFunctionCall.EagerPartlyBagEval;
 import org.ow2.authzforce.core.pdp.api.func.BaseFirstOrderFunctionCall.EagerSinglePrimitiveTypeEval;
@@ -34,10 +38,12 @@ import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
 import org.ow2.authzforce.core.pdp.api.value.Datatype;
 import org.ow2.authzforce.core.pdp.api.value.IntegerValue;
 import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.StringValue;
 import org.ow2.authzforce.core.pdp.api.value.Value;
 import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
 
-import com.google.common.collect.Sets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 
 /**
  * First-order bag functions, as opposed to the higher-order bag functions (see {@link HigherOrderBagFunction}); such as the Bag functions of section A.3.10, and the Set functions of A.3.11 of the
@@ -178,6 +184,18 @@ public final class FirstOrderBagFunctions
 		@Override
 		public FirstOrderFunctionCall<BooleanValue> newCall(final List<Expression<?>> argExpressions, final Datatype<?>... remainingArgTypes) throws IllegalArgumentException
 		{
+			if (argExpressions.size() == 2 && remainingArgTypes.length == 0)
+			{
+				final Optional<? extends Value> constantBag = argExpressions.get(1).getValue();
+				if (constantBag.isPresent())
+				{
+					/*
+					 * The bag is constant, so we can index its values once and for all here
+					 */
+					return new ConstantBagContainsCall<>(functionSignature, argExpressions, bagType.getElementType(), bagType.cast(constantBag.get()));
+				}
+			}
+
 			return new EagerPartlyBagEval<>(functionSignature, bagType, arrayClass, argExpressions, remainingArgTypes)
 			{
 
@@ -204,6 +222,98 @@ public final class FirstOrderBagFunctions
 		{
 			return bag.contains(arg0);
 		}
+
+		/**
+		 * Creates the index of a constant bag's values, specialized for the bag's datatype when possible:
+		 * <ul>
+		 * <li>integer values: sorted array of primitive longs (binary search, no boxing), unless some value is too big to fit in a long;</li>
+		 * <li>string values: (open-addressing) hash set of the underlying Java strings, which cache their hash code;</li>
+		 * <li>else the bag itself, i.e. {@link #eval(AttributeValue, Bag)}.</li>
+		 * </ul>
+		 */
+		private static <V extends AttributeValue> Predicate<V> newConstantBagIndex(final Datatype<V> elementType, final Bag<V> bag)
+		{
+			if (elementType == StandardDatatypes.INTEGER)
+			{
+				final long[] sortedLongs = new long[bag.size()];
+				int i = 0;
+				for (final V val : bag)
+				{
+					try
+					{
+						sortedLongs[i] = ((IntegerValue) val).getUnderlyingValue().longValueExact();
+					}
+					catch (final ArithmeticException e)
+					{
+						// too big to fit in a long
+						return bag::contains;
+					}
+
+					i++;
+				}
+
+				Arrays.sort(sortedLongs);
+				return val -> {
+					final long l;
+					try
+					{
+						l = ((IntegerValue) val).getUnderlyingValue().longValueExact();
+					}
+					catch (final ArithmeticException e)
+					{
+						// too big to fit in a long, therefore not in the bag
+						return false;
+					}
+
+					return Arrays.binarySearch(sortedLongs, l) >= 0;
+				};
+			}
+
+			if (elementType == StandardDatatypes.STRING)
+			{
+				final Set<String> strings = ImmutableSet.copyOf(Iterables.transform(bag, val -> ((StringValue) val).getUnderlyingValue()));
+				return val -> strings.contains(((StringValue) val).getUnderlyingValue());
+			}
+
+			return bag::contains;
+		}
+
+		/**
+		 * Call of {@code *-is-in} function with constant bag argument, indexed at initialization time
+		 */
+		private static final class ConstantBagContainsCall<V extends AttributeValue> extends BaseFirstOrderFunctionCall<BooleanValue>
+		{
+			private final Expression<?> arg0Expression;
+			private final Datatype<V> arg0Type;
+			private final Predicate<V> constantBagIndex;
+			private final ImmutableXacmlStatus invalidArg0ErrorStatus;
+
+			private ConstantBagContainsCall(final FirstOrderFunctionSignature<BooleanValue> functionSig, final List<Expression<?>> argExpressions, final Datatype<V> elementType, final Bag<V> constantBag)
+					throws IllegalArgumentException
+			{
+				super(functionSig, argExpressions);
+				this.arg0Expression = argExpressions.get(0);
+				this.arg0Type = elementType;
+				this.constantBagIndex = newConstantBagIndex(elementType, constantBag);
+				this.invalidArg0ErrorStatus = new ImmutableXacmlStatus(XacmlStatusCode.PROCESSING_ERROR.value(), Optional.of("Function " + functionSig.getName() + ": Indeterminate arg #0"));
+			}
+
+			@Override
+			public BooleanValue evaluate(final EvaluationContext context, final Optional<EvaluationContext> mdpContext, final AttributeValue... remainingArgs) throws IndeterminateEvaluationException
+			{
+				final V arg0;
+				try
+				{
+					arg0 = Expressions.eval(arg0Expression, context, mdpContext, arg0Type);
+				}
+				catch (final IndeterminateEvaluationException e)
+				{
+					throw new IndeterminateEvaluationException(invalidArg0ErrorStatus, e);
+				}
+
+				return BooleanValue.valueOf(constantBagIndex.test(arg0));
+			}
+		}
 	}
 
 	/**
@@ -250,6 +360,28 @@ public final class FirstOrderBagFunctions
 		}
 	}
 
+	/*
+	 * Gets the one-and-only element of a bag of size 1, without iterating over the bag if the Bag implementation supports Bag#getSingleElement()
+	 */
+	private static <V extends AttributeValue> V getSingleElement(final Bag<V> singletonBag)
+	{
+		assert singletonBag.size() == 1;
+		try
+		{
+			final V singleVal = singletonBag.getSingleElement();
+			if (singleVal != null)
+			{
+				return singleVal;
+			}
+		}
+		catch (final UnsupportedOperationException e)
+		{
+			// not supported by this Bag implementation
+		}
+
+		return singletonBag.elements().iterator().next();
+	}
+
 	/**
 	 * 
 	 * Base class of all *-set functions
@@ -345,12 +477,49 @@ public final class FirstOrderBagFunctions
 		@Override
 		protected Bag<AV> eval(final Bag<AV>[] bagArgs)
 		{
-			return Bags.newBag(this.paramType, eval(bagArgs[0], bagArgs[1]));
+			final Bag<AV> smallerBag;
+			final Bag<AV> largerBag;
+			if (bagArgs[0].size() <= bagArgs[1].size())
+			{
+				smallerBag = bagArgs[0];
+				largerBag = bagArgs[1];
+			}
+			else
+			{
+				smallerBag = bagArgs[1];
+				largerBag = bagArgs[0];
+			}
+
+			if (smallerBag.size() == 1)
+			{
+				// the result is either the singleton bag itself or empty
+				return largerBag.contains(getSingleElement(smallerBag)) ? smallerBag : Bags.empty(this.paramType, null);
+			}
+
+			return Bags.newBag(this.paramType, eval(smallerBag, largerBag));
 		}
 
-		private static <V extends AttributeValue> Set<V> eval(final Bag<V> bag0, final Bag<V> bag1)
+		/*
+		 * Iterates over the distinct values of the smaller bag and looks them up in the larger one (hash-based)
+		 */
+		private static <V extends AttributeValue> Collection<V> eval(final Bag<V> smallerBag, final Bag<V> largerBag)
 		{
-			return Sets.intersection(bag0.elements().elementSet(), bag1.elements().elementSet());
+			if (smallerBag.isEmpty())
+			{
+				return Collections.emptyList();
+			}
+
+			final Set<V> smallerBagValues = smallerBag.elements().elementSet();
+			final List<V> result = new ArrayList<>(smallerBagValues.size());
+			for (final V val : smallerBagValues)
+			{
+				if (largerBag.contains(val))
+				{
+					result.add(val);
+				}
+			}
+
+			return result;
 		}
 
 	}
@@ -387,9 +556,35 @@ public final class FirstOrderBagFunctions
 
 		private static <V extends AttributeValue> boolean eval(final Bag<V> bag0, final Bag<V> bag1)
 		{
-			for (final V bag0Val : bag0)
+			/*
+			 * Iterate over the distinct values of the smaller bag and look them up in the larger one (hash-based)
+			 */
+			final Bag<V> smallerBag;
+			final Bag<V> largerBag;
+			if (bag0.size() <= bag1.size())
+			{
+				smallerBag = bag0;
+				largerBag = bag1;
+			}
+			else
 			{
-				if (bag1.contains(bag0Val))
+				smallerBag = bag1;
+				largerBag = bag0;
+			}
+
+			if (smallerBag.isEmpty())
+			{
+				return false;
+			}
+
+			if (smallerBag.size() == 1)
+			{
+				return largerBag.contains(getSingleElement(smallerBag));
+			}
+
+			for (final V val : smallerBag.elements().elementSet())
+			{
+				if (largerBag.contains(val))
 				{
 					return true;
 				}
@@ -435,15 +630,36 @@ public final class FirstOrderBagFunctions
 		@Override
 		protected Bag<AV> eval(final Bag<AV>[] bags)
 		{
-			final Set<AV> result = HashCollections.newUpdatableSet();
+			Bag<AV> nonEmptyBag = null;
+			int nonEmptyBagCount = 0;
+			int maxResultSize = 0;
 			for (final Bag<AV> bag : bags)
 			{
-				for (final AV bagVal : bag)
+				if (!bag.isEmpty())
 				{
-					result.add(bagVal);
+					nonEmptyBag = bag;
+					nonEmptyBagCount++;
+					maxResultSize += bag.elements().elementSet().size();
 				}
 			}
 
+			if (nonEmptyBagCount == 0)
+			{
+				return Bags.empty(this.paramType, null);
+			}
+
+			if (nonEmptyBagCount == 1 && nonEmptyBag.size() == maxResultSize)
+			{
+				// union of a bag without duplicate values and empty bags
+				return nonEmptyBag;
+			}
+
+			final Set<AV> result = HashCollections.newUpdatableSet(maxResultSize);
+			for (final Bag<AV> bag : bags)
+			{
+				result.addAll(bag.elements().elementSet());
+			}
+
 			return Bags.newBag(this.paramType, result);
 		}
 	}
@@ -480,7 +696,34 @@ public final class FirstOrderBagFunctions
 
 		private static <V extends AttributeValue> boolean eval(final Bag<V> bag0, final Bag<V> bag1)
 		{
-			return bag1.elements().containsAll(bag0.elements());
+			if (bag0.isEmpty())
+			{
+				return true;
+			}
+
+			if (bag0.size() == 1)
+			{
+				return bag1.contains(getSingleElement(bag0));
+			}
+
+			/*
+			 * bag0 cannot be a subset of bag1 if it has more distinct values
+			 */
+			final Set<V> bag0Values = bag0.elements().elementSet();
+			if (bag0Values.size() > bag1.elements().elementSet().size())
+			{
+				return false;
+			}
+
+			for (final V val : bag0Values)
+			{
+				if (!bag1.contains(val))
+				{
+					return false;
+				}
+			}
+
+			return true;
 		}
 
 	}
@@ -517,7 +760,27 @@ public final class FirstOrderBagFunctions
 
 		private static <V extends AttributeValue> boolean eval(final Bag<V> bag0, final Bag<V> bag1)
 		{
-			return bag0.elements().elementSet().equals(bag1.elements().elementSet());
+			if (bag0.size() == 1 && bag1.size() == 1)
+			{
+				return getSingleElement(bag0).equals(getSingleElement(bag1));
+			}
+
+			final Set<V> bag0Values = bag0.elements().elementSet();
+			final Set<V> bag1Values = bag1.elements().elementSet();
+			if (bag0Values.size() != bag1Values.size())
+			{
+				return false;
+			}
+
+			for (final V val : bag0Values)
+			{
+				if (!bag1Values.contains(val))
+				{
+					return false;
+				}
+			}
+
+			return true;
 		}
 
 	}
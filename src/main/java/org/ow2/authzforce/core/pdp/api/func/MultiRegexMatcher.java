@@ -0,0 +1,475 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.func;
+
+import com.google.common.collect.ImmutableList;
+import net.sf.saxon.regex.RegularExpression;
+import net.sf.saxon.str.BMPString;
+import net.sf.saxon.str.UnicodeString;
+import net.sf.saxon.trans.XPathException;
+import org.ow2.authzforce.core.pdp.api.HashCollections;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matcher of a string against multiple regular expressions (same syntax as *-regexp-match functions, see {@link RegexpMatchFunctionHelper}) at once, e.g. the constant regular expressions of many
+ * rules matching the same attribute. The regular expressions are compiled once, and indexed by a literal that any matching string must contain (or start with, if the regular expression is anchored
+ * with '^'), in order to pre-filter the candidate regular expressions for a given string: only the regular expressions whose literal is found in the string - and the ones without such literal - are
+ * actually evaluated. Therefore, the matching results are the same as matching each regular expression one by one, e.g. with {@link RegexpMatchFunctionHelper#match(org.ow2.authzforce.core.pdp.api.value.StringValue, org.ow2.authzforce.core.pdp.api.value.SimpleValue)}.
+ * <p>
+ * The literal of a regular expression is extracted conservatively: it is the longest sequence of literal characters at the top level of the regular expression (outside groups and character
+ * classes), not followed by any quantifier, if the top level has no alternation ('|').
+ * <p>
+ * Each regular expression evaluation is limited like {@link RegexpMatchFunctionHelper}'s (see {@link RegexpMatchFunctionHelper#REGEX_MATCH_MAX_STEPS_SYS_PROPERTY_NAME}), since the matched string
+ * typically comes from the request.
+ * <p>
+ * This class is immutable and thread-safe.
+ */
+public final class MultiRegexMatcher
+{
+    /*
+     * Node of the trie of literal prefixes of anchored regular expressions
+     */
+    private static final class PrefixTrieNode
+    {
+        private final Map<Character, PrefixTrieNode> children = HashCollections.newUpdatableMap();
+        // indexes of the regular expressions with the prefix ending at this node
+        private final List<Integer> regexIndexes = new ArrayList<>(1);
+    }
+
+    /*
+     * Literal (required substring) of a regular expression
+     */
+    private static final class RequiredLiteral
+    {
+        private final String literal;
+        private final boolean isPrefix;
+
+        private RequiredLiteral(final String literal, final boolean isPrefix)
+        {
+            this.literal = literal;
+            this.isPrefix = isPrefix;
+        }
+    }
+
+    private static boolean isMetaChar(final char c)
+    {
+        switch (c)
+        {
+            case '\\':
+            case '|':
+            case '.':
+            case '?':
+            case '*':
+            case '+':
+            case '{':
+            case '}':
+            case '(':
+            case ')':
+            case '[':
+            case ']':
+            case '^':
+            case '$':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /*
+     * Returns the character denoted by the single character escape '\' + c, or null if not a single character escape (e.g. character class escape like \d, \p{..}, or back-reference)
+     */
+    private static Character getSingleCharEscape(final char c)
+    {
+        if (isMetaChar(c) || c == '-')
+        {
+            return c;
+        }
+
+        switch (c)
+        {
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            default:
+                return null;
+        }
+    }
+
+    /*
+     * Returns the index after the character class (with nested subtracted classes) starting at index 'start', or -1 if unbalanced
+     */
+    private static int skipCharClass(final String regex, final int start)
+    {
+        assert regex.charAt(start) == '[';
+        int depth = 0;
+        int i = start;
+        while (i < regex.length())
+        {
+            final char c = regex.charAt(i);
+            if (c == '\\')
+            {
+                i += 2;
+                continue;
+            }
+
+            if (c == '[')
+            {
+                depth++;
+            } else if (c == ']')
+            {
+                depth--;
+                if (depth == 0)
+                {
+                    return i + 1;
+                }
+            }
+
+            i++;
+        }
+
+        return -1;
+    }
+
+    /*
+     * Returns the index after the group (with nested groups and character classes) starting at index 'start', or -1 if unbalanced
+     */
+    private static int skipGroup(final String regex, final int start)
+    {
+        assert regex.charAt(start) == '(';
+        int depth = 0;
+        int i = start;
+        while (i < regex.length())
+        {
+            final char c = regex.charAt(i);
+            if (c == '\\')
+            {
+                i += 2;
+                continue;
+            }
+
+            if (c == '[')
+            {
+                i = skipCharClass(regex, i);
+                if (i == -1)
+                {
+                    return -1;
+                }
+
+                continue;
+            }
+
+            if (c == '(')
+            {
+                depth++;
+            } else if (c == ')')
+            {
+                depth--;
+                if (depth == 0)
+                {
+                    return i + 1;
+                }
+            }
+
+            i++;
+        }
+
+        return -1;
+    }
+
+    /*
+     * Returns null if no literal could be extracted
+     */
+    private static RequiredLiteral getRequiredLiteral(final String regex)
+    {
+        final boolean anchored = regex.startsWith("^");
+        String longestRun = "";
+        boolean longestRunIsPrefix = false;
+        final StringBuilder currentRun = new StringBuilder();
+        // true iff the current run starts right after the '^' anchor
+        boolean currentRunIsPrefix = anchored;
+        int i = anchored ? 1 : 0;
+        while (i <= regex.length())
+        {
+            final char c = i < regex.length() ? regex.charAt(i) : 0;
+            final boolean endOfRegex = i == regex.length();
+            if (!endOfRegex && c == '|')
+            {
+                // top-level alternation
+                return null;
+            }
+
+            final boolean isQuantifier = !endOfRegex && (c == '?' || c == '*' || c == '+' || c == '{');
+            if (isQuantifier && currentRun.length() > 0)
+            {
+                // the last literal character is quantified, therefore not part of the required literal
+                currentRun.setLength(currentRun.length() - 1);
+            }
+
+            final Character literalChar;
+            final int next;
+            if (endOfRegex || isQuantifier)
+            {
+                literalChar = null;
+                next = c == '{' ? regex.indexOf('}', i) + 1 : i + 1;
+                if (next == 0)
+                {
+                    return null;
+                }
+            } else if (c == '\\')
+            {
+                if (i + 1 >= regex.length())
+                {
+                    return null;
+                }
+
+                final char escaped = regex.charAt(i + 1);
+                literalChar = getSingleCharEscape(escaped);
+                if ((escaped == 'p' || escaped == 'P') && i + 2 < regex.length() && regex.charAt(i + 2) == '{')
+                {
+                    // skip \p{...} or \P{...}
+                    next = regex.indexOf('}', i) + 1;
+                    if (next == 0)
+                    {
+                        return null;
+                    }
+                } else if (Character.isDigit(escaped))
+                {
+                    // skip back-reference (possibly multi-digit)
+                    int end = i + 2;
+                    while (end < regex.length() && Character.isDigit(regex.charAt(end)))
+                    {
+                        end++;
+                    }
+
+                    next = end;
+                } else
+                {
+                    next = i + 2;
+                }
+            } else if (c == '(' || c == '[')
+            {
+                literalChar = null;
+                next = c == '(' ? skipGroup(regex, i) : skipCharClass(regex, i);
+                if (next == -1)
+                {
+                    return null;
+                }
+            } else if (isMetaChar(c))
+            {
+                // '.', '$', '^' (not at the start)
+                literalChar = null;
+                next = i + 1;
+            } else
+            {
+                literalChar = c;
+                next = i + 1;
+            }
+
+            if (literalChar != null)
+            {
+                currentRun.append(literalChar.charValue());
+            } else
+            {
+                if (currentRun.length() > longestRun.length())
+                {
+                    longestRun = currentRun.toString();
+                    longestRunIsPrefix = currentRunIsPrefix;
+                }
+
+                /*
+                 * The next run is not a prefix unless the current run was and is only broken by a quantifier on its last char (in which case the prefix is complete anyway)
+                 */
+                currentRun.setLength(0);
+                currentRunIsPrefix = false;
+            }
+
+            i = next;
+        }
+
+        return longestRun.isEmpty() ? null : new RequiredLiteral(longestRun, longestRunIsPrefix);
+    }
+
+    private final ImmutableList<String> regexes;
+    private final RegularExpression[] compiledRegexes;
+    // prefixes of the matching error messages, by regex index
+    private final String[] matchErrorMessagePrefixes;
+    private final PrefixTrieNode prefixTrieRoot;
+    // distinct non-prefix literals, and the indexes of the regular expressions requiring them
+    private final String[] literals;
+    private final int[][] regexIndexesByLiteral;
+    // indexes of the regular expressions without literal
+    private final BitSet unindexedRegexes;
+
+    /**
+     * Compiles the regular expressions
+     *
+     * @param regexes regular expressions (XML schema syntax like *-regexp-match functions)
+     * @throws IllegalArgumentException if one of {@code regexes} is not a valid regular expression
+     */
+    public MultiRegexMatcher(final List<String> regexes) throws IllegalArgumentException
+    {
+        this.regexes = ImmutableList.copyOf(regexes);
+        this.compiledRegexes = new RegularExpression[regexes.size()];
+        this.matchErrorMessagePrefixes = new String[regexes.size()];
+        this.prefixTrieRoot = new PrefixTrieNode();
+        this.unindexedRegexes = new BitSet(regexes.size());
+        final Map<String, List<Integer>> regexIndexesByLiteralMap = HashCollections.newUpdatableMap();
+        for (int regexIndex = 0; regexIndex < compiledRegexes.length; regexIndex++)
+        {
+            final String regex = this.regexes.get(regexIndex);
+            try
+            {
+                compiledRegexes[regexIndex] = RegexpMatchFunctionHelper.compile(regex);
+            } catch (final XPathException e)
+            {
+                throw new IllegalArgumentException("Invalid regular expression #" + regexIndex + ": '" + regex + "'", e);
+            }
+
+            matchErrorMessagePrefixes[regexIndex] = "Regular expression #" + regexIndex + " ('" + regex + "'): ";
+
+            final RequiredLiteral requiredLiteral = getRequiredLiteral(regex);
+            if (requiredLiteral == null)
+            {
+                unindexedRegexes.set(regexIndex);
+            } else if (requiredLiteral.isPrefix)
+            {
+                PrefixTrieNode node = prefixTrieRoot;
+                for (int i = 0; i < requiredLiteral.literal.length(); i++)
+                {
+                    node = node.children.computeIfAbsent(requiredLiteral.literal.charAt(i), k -> new PrefixTrieNode());
+                }
+
+                node.regexIndexes.add(regexIndex);
+            } else
+            {
+                regexIndexesByLiteralMap.computeIfAbsent(requiredLiteral.literal, k -> new ArrayList<>(1)).add(regexIndex);
+            }
+        }
+
+        this.literals = new String[regexIndexesByLiteralMap.size()];
+        this.regexIndexesByLiteral = new int[literals.length][];
+        int literalIndex = 0;
+        for (final Map.Entry<String, List<Integer>> entry : regexIndexesByLiteralMap.entrySet())
+        {
+            literals[literalIndex] = entry.getKey();
+            regexIndexesByLiteral[literalIndex] = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            literalIndex++;
+        }
+    }
+
+    /**
+     * Get the regular expressions, in the order of their indexes in the results of {@link #matchAll(String)}
+     *
+     * @return regular expressions
+     */
+    public ImmutableList<String> getRegexes()
+    {
+        return regexes;
+    }
+
+    /*
+     * Get the indexes of the regular expressions that may match the input, i.e. the ones whose literal is found in the input, and the ones without literal
+     */
+    private BitSet getCandidates(final String input)
+    {
+        final BitSet candidates = (BitSet) unindexedRegexes.clone();
+        PrefixTrieNode node = prefixTrieRoot;
+        for (int i = 0; i < input.length(); i++)
+        {
+            node = node.children.get(input.charAt(i));
+            if (node == null)
+            {
+                break;
+            }
+
+            node.regexIndexes.forEach(candidates::set);
+        }
+
+        for (int literalIndex = 0; literalIndex < literals.length; literalIndex++)
+        {
+            if (input.contains(literals[literalIndex]))
+            {
+                for (final int regexIndex : regexIndexesByLiteral[literalIndex])
+                {
+                    candidates.set(regexIndex);
+                }
+            }
+        }
+
+        return candidates;
+    }
+
+    private boolean containsMatch(final int regexIndex, final UnicodeString input) throws IndeterminateEvaluationException
+    {
+        return RegexpMatchFunctionHelper.containsMatch(compiledRegexes[regexIndex], input, matchErrorMessagePrefixes[regexIndex]);
+    }
+
+    /**
+     * Matches a string against all the regular expressions
+     *
+     * @param input string to be matched
+     * @return indexes of the matching regular expressions (in {@link #getRegexes()})
+     * @throws IndeterminateEvaluationException (processing error) if the evaluation of a regular expression exceeded the maximum number of steps (see
+     *                                          {@link RegexpMatchFunctionHelper#REGEX_MATCH_MAX_STEPS_SYS_PROPERTY_NAME}) or the Saxon regex backtracking limit
+     */
+    public BitSet matchAll(final String input) throws IndeterminateEvaluationException
+    {
+        final BitSet candidates = getCandidates(input);
+        final UnicodeString unicodeInput = BMPString.of(input);
+        for (int regexIndex = candidates.nextSetBit(0); regexIndex >= 0; regexIndex = candidates.nextSetBit(regexIndex + 1))
+        {
+            if (!containsMatch(regexIndex, unicodeInput))
+            {
+                candidates.clear(regexIndex);
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Matches a string against the regular expressions, in order, until one matches (e.g. for first-applicable rule combining)
+     *
+     * @param input string to be matched
+     * @return index of the first matching regular expression (in {@link #getRegexes()}); -1 if none
+     * @throws IndeterminateEvaluationException (processing error) if the evaluation of a regular expression exceeded the maximum number of steps (see
+     *                                          {@link RegexpMatchFunctionHelper#REGEX_MATCH_MAX_STEPS_SYS_PROPERTY_NAME}) or the Saxon regex backtracking limit
+     */
+    public int matchFirst(final String input) throws IndeterminateEvaluationException
+    {
+        final BitSet candidates = getCandidates(input);
+        final UnicodeString unicodeInput = BMPString.of(input);
+        for (int regexIndex = candidates.nextSetBit(0); regexIndex >= 0; regexIndex = candidates.nextSetBit(regexIndex + 1))
+        {
+            if (containsMatch(regexIndex, unicodeInput))
+            {
+                return regexIndex;
+            }
+        }
+
+        return -1;
+    }
+}
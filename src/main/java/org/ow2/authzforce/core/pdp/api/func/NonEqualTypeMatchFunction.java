@@ -86,6 +86,7 @@ public class NonEqualTypeMatchFunction<T0 extends AttributeValue, T1 extends Att
 	{
 		private final ImmutableXacmlStatus invalidArgTypesErrorStatus;
 		private final ImmutableXacmlStatus invalidRegexErrorStatus;
+		private final ImmutableXacmlStatus matchErrorStatus;
 		private final Datatype<T0> paramType0;
 		private final Datatype<T1> paramType1;
 		private final Matcher<T0, T1> matcher;
@@ -96,6 +97,7 @@ public class NonEqualTypeMatchFunction<T0 extends AttributeValue, T1 extends Att
 
 			this.invalidArgTypesErrorStatus = new ImmutableXacmlStatus(XacmlStatusCode.PROCESSING_ERROR.value(), Optional.of("Function " + functionSig.getName() + ": Invalid arg types. Expected: " + paramType0 + "," + paramType1));
 			this.invalidRegexErrorStatus = new ImmutableXacmlStatus(XacmlStatusCode.PROCESSING_ERROR.value(), Optional.of("Function " + functionSig.getName() + ": Invalid regular expression in arg#0"));
+			this.matchErrorStatus = new ImmutableXacmlStatus(XacmlStatusCode.PROCESSING_ERROR.value(), Optional.of("Function " + functionSig.getName() + ": Error matching arg#1 against arg#0"));
 			this.paramType0 = paramType0;
 			this.paramType1 = paramType1;
 			this.matcher = matcher;
@@ -137,6 +139,10 @@ public class NonEqualTypeMatchFunction<T0 extends AttributeValue, T1 extends Att
 					} catch (final PatternSyntaxException e)
 					{
 						throw new IndeterminateEvaluationException(invalidRegexErrorStatus, e);
+					} catch (final IllegalArgumentException e)
+					{
+						// e.g. regular expression matching aborted (too many steps)
+						throw new IndeterminateEvaluationException(matchErrorStatus, e);
 					}
 
 					return BooleanValue.valueOf(isMatched);
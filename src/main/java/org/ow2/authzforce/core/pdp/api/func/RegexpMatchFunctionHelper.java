@@ -17,10 +17,16 @@
  */
 package org.ow2.authzforce.core.pdp.api.func;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import net.sf.saxon.Version;
 import net.sf.saxon.regex.RegularExpression;
 import net.sf.saxon.str.BMPString;
+import net.sf.saxon.str.UnicodeString;
+import net.sf.saxon.trans.UncheckedXPathException;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.z.IntIterator;
 import org.ow2.authzforce.core.pdp.api.EvaluationContext;
 import org.ow2.authzforce.core.pdp.api.ImmutableXacmlStatus;
 import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
@@ -32,6 +38,8 @@ import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntPredicate;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -52,9 +60,199 @@ import java.util.regex.PatternSyntaxException;
  * <pre>
  * [\i-[:]][\c-[:]]*
  * </pre>
+ * <p>
+ * Regular expressions that are not constant (e.g. from attributes or variables) are compiled by {@link #match(StringValue, SimpleValue)} with a bounded (LRU) cache shared by all *-regexp-match
+ * functions, the maximum size of which may be changed with system property {@value #REGEX_CACHE_MAX_SIZE_SYS_PROPERTY_NAME}. Since such regular expressions may come from the request, their length
+ * is limited with system property {@value #DYNAMIC_REGEX_MAX_LENGTH_SYS_PROPERTY_NAME}.
+ * <p>
+ * The Saxon regex engine is a backtracking one, therefore some regular expressions take exponential time on some strings (catastrophic backtracking). To mitigate regular expression denial of
+ * service, the number of steps (characters read by the regex engine) of each match is limited with system property {@value #REGEX_MATCH_MAX_STEPS_SYS_PROPERTY_NAME}; the function call is
+ * Indeterminate if the limit is exceeded (as well as if the Saxon regex backtracking limit, set by Saxon configuration, is exceeded).
  */
 public final class RegexpMatchFunctionHelper
 {
+    /**
+     * Name of system property setting the maximum number of cached compiled regular expressions (int) used by {@link #match(StringValue, SimpleValue)}. Default: 256. Set to 0 to disable the cache.
+     */
+    public static final String REGEX_CACHE_MAX_SIZE_SYS_PROPERTY_NAME = "org.ow2.authzforce.core.pdp.api.func.RegexpMatchFunctionHelper.regexCacheMaxSize";
+
+    /**
+     * Name of system property setting the maximum length (int) of regular expressions passed to {@link #match(StringValue, SimpleValue)}, i.e. not constant. Default: 1024. Set to 0 for no limit.
+     */
+    public static final String DYNAMIC_REGEX_MAX_LENGTH_SYS_PROPERTY_NAME = "org.ow2.authzforce.core.pdp.api.func.RegexpMatchFunctionHelper.dynamicRegexMaxLength";
+
+    /**
+     * Name of system property setting the maximum number of steps (int), i.e. characters read by the regex engine (including when backtracking), of each match of a string against a regular
+     * expression. Default: 1000000. Set to 0 for no limit.
+     */
+    public static final String REGEX_MATCH_MAX_STEPS_SYS_PROPERTY_NAME = "org.ow2.authzforce.core.pdp.api.func.RegexpMatchFunctionHelper.regexMatchMaxSteps";
+
+    private static final int DEFAULT_REGEX_CACHE_MAX_SIZE = 256;
+    private static final int DEFAULT_DYNAMIC_REGEX_MAX_LENGTH = 1024;
+    private static final int DEFAULT_REGEX_MATCH_MAX_STEPS = 1_000_000;
+
+    private static int getNonNegativeIntSysProperty(final String propertyName, final int defaultValue)
+    {
+        final String sysPropVal = System.getProperty(propertyName);
+        if (sysPropVal == null)
+        {
+            return defaultValue;
+        }
+
+        final int value;
+        try
+        {
+            value = Integer.parseInt(sysPropVal);
+        } catch (final NumberFormatException e)
+        {
+            throw new RuntimeException("Invalid value of system property '" + propertyName + "': " + sysPropVal + ". Expected: int (Java)");
+        }
+
+        if (value < 0)
+        {
+            throw new RuntimeException("Invalid value of system property '" + propertyName + "': " + value + ". Expected: non-negative int");
+        }
+
+        return value;
+    }
+
+    private static final int DYNAMIC_REGEX_MAX_LENGTH;
+    private static final int REGEX_MATCH_MAX_STEPS = getNonNegativeIntSysProperty(REGEX_MATCH_MAX_STEPS_SYS_PROPERTY_NAME, DEFAULT_REGEX_MATCH_MAX_STEPS);
+
+    static
+    {
+        final int dynamicRegexMaxLength = getNonNegativeIntSysProperty(DYNAMIC_REGEX_MAX_LENGTH_SYS_PROPERTY_NAME, DEFAULT_DYNAMIC_REGEX_MAX_LENGTH);
+        DYNAMIC_REGEX_MAX_LENGTH = dynamicRegexMaxLength == 0 ? Integer.MAX_VALUE : dynamicRegexMaxLength;
+    }
+
+    private static final IllegalArgumentException REGEX_MATCH_MAX_STEPS_EXCEEDED_EXCEPTION = new IllegalArgumentException(
+            "Regular expression matching aborted: too many steps (max: " + REGEX_MATCH_MAX_STEPS + "), possibly catastrophic backtracking");
+
+    /*
+     * Thrown by StepLimitedString when the maximum number of steps is reached, always caught in this class (no stack trace)
+     */
+    private static final class MaxStepsExceededException extends RuntimeException
+    {
+        private static final MaxStepsExceededException INSTANCE = new MaxStepsExceededException();
+
+        private MaxStepsExceededException()
+        {
+            super("Maximum number of regular expression matching steps exceeded", null, false, false);
+        }
+    }
+
+    /*
+     * String counting the characters read by the regex engine (which reads the matched string with codePointAt(long) when matching, and backtracking), not thread-safe. New instance for each match.
+     */
+    private static final class StepLimitedString extends UnicodeString
+    {
+        private final UnicodeString delegate;
+        private long remainingSteps;
+
+        private StepLimitedString(final UnicodeString delegate, final long maxSteps)
+        {
+            this.delegate = delegate;
+            this.remainingSteps = maxSteps;
+        }
+
+        @Override
+        public int codePointAt(final long index)
+        {
+            if (--remainingSteps < 0)
+            {
+                throw MaxStepsExceededException.INSTANCE;
+            }
+
+            return delegate.codePointAt(index);
+        }
+
+        @Override
+        public long length()
+        {
+            return delegate.length();
+        }
+
+        @Override
+        public int getWidth()
+        {
+            return delegate.getWidth();
+        }
+
+        @Override
+        public long indexOf(final int codePoint, final long from)
+        {
+            return delegate.indexOf(codePoint, from);
+        }
+
+        @Override
+        public long indexWhere(final IntPredicate predicate, final long from)
+        {
+            return delegate.indexWhere(predicate, from);
+        }
+
+        @Override
+        public IntIterator codePoints()
+        {
+            return delegate.codePoints();
+        }
+
+        @Override
+        public UnicodeString substring(final long start, final long end)
+        {
+            return delegate.substring(start, end);
+        }
+    }
+
+    /*
+     * Returns true iff any substring of the input matches the regex
+     */
+    private static boolean containsMatch(final RegularExpression compiledRegex, final UnicodeString input) throws MaxStepsExceededException
+    {
+        return compiledRegex.containsMatch(REGEX_MATCH_MAX_STEPS == 0 ? input : new StepLimitedString(input, REGEX_MATCH_MAX_STEPS));
+    }
+
+    private static boolean containsMatch(final RegularExpression compiledRegex, final String input) throws MaxStepsExceededException
+    {
+        return containsMatch(compiledRegex, BMPString.of(input));
+    }
+
+    /*
+     * Same as containsMatch(RegularExpression, UnicodeString) but reports the matching errors - maximum number of steps or Saxon regex backtracking limit exceeded - as Indeterminate (processing
+     * error), the message starting with errorMessagePrefix
+     */
+    static boolean containsMatch(final RegularExpression compiledRegex, final UnicodeString input, final String errorMessagePrefix) throws IndeterminateEvaluationException
+    {
+        try
+        {
+            return containsMatch(compiledRegex, input);
+        } catch (final MaxStepsExceededException e)
+        {
+            throw new IndeterminateEvaluationException(errorMessagePrefix + REGEX_MATCH_MAX_STEPS_EXCEEDED_EXCEPTION.getMessage(), XacmlStatusCode.PROCESSING_ERROR.value());
+        } catch (final UncheckedXPathException e)
+        {
+            // e.g. Saxon regex backtracking limit exceeded
+            throw new IndeterminateEvaluationException(errorMessagePrefix + "error matching the regular expression", XacmlStatusCode.PROCESSING_ERROR.value(), e);
+        }
+    }
+
+    private static PatternSyntaxException newInvalidRegexException(final String regex, final Throwable cause)
+    {
+        final PatternSyntaxException e = new PatternSyntaxException("Invalid regular expression arg: " + cause.getMessage(), regex, -1);
+        e.initCause(cause);
+        return e;
+    }
+
+    /*
+     * Compiled regular expressions (immutable, thread-safe) by regex string. Null if cache disabled.
+     */
+    private static final Cache<String, RegularExpression> REGEX_CACHE;
+
+    static
+    {
+        final int cacheMaxSize = getNonNegativeIntSysProperty(REGEX_CACHE_MAX_SIZE_SYS_PROPERTY_NAME, DEFAULT_REGEX_CACHE_MAX_SIZE);
+        REGEX_CACHE = cacheMaxSize == 0 ? null : CacheBuilder.newBuilder().maximumSize(cacheMaxSize).recordStats().build();
+    }
+
     private final String indeterminateArg1TypeMessage;
     private final FirstOrderFunctionSignature<BooleanValue> funcSig;
     private final Datatype<? extends SimpleValue<String>> matchedValueType;
@@ -79,23 +277,74 @@ public final class RegexpMatchFunctionHelper
      * @param regex regular expression
      * @param arg1  string value
      * @return true iff {@code arg1} matches {@code regex}
-     * @throws IllegalArgumentException {@code regex} is not a valid regular expression
+     * @throws IllegalArgumentException {@code regex} is not a valid regular expression ({@link PatternSyntaxException}), or the matching exceeded the maximum number of steps (see
+     *                                  {@value #REGEX_MATCH_MAX_STEPS_SYS_PROPERTY_NAME})
      */
     public static boolean match(final StringValue regex, final SimpleValue<String> arg1) throws IllegalArgumentException
     {
-        /*
-         * From Saxon xf:matches() implementation: Matches#evaluateItem() / evalMatches()
-         */
+        final String regexStr = regex.getUnderlyingValue();
+        if (regexStr.length() > DYNAMIC_REGEX_MAX_LENGTH)
+        {
+            throw new PatternSyntaxException("Regular expression arg too long (max length: " + DYNAMIC_REGEX_MAX_LENGTH + ")", regexStr, -1);
+        }
+
         final RegularExpression compiledRegex;
         try
         {
-            compiledRegex = Version.platform.compileRegularExpression(XmlUtils.SAXON_PROCESSOR.getUnderlyingConfiguration(), BMPString.of(regex.getUnderlyingValue()), "", "XP20", null);
+            // compilation errors are not cached
+            compiledRegex = REGEX_CACHE == null ? compile(regexStr) : REGEX_CACHE.get(regexStr, () -> compile(regexStr));
         } catch (final XPathException e)
         {
-            throw new PatternSyntaxException("Invalid regular expression arg", regex.getUnderlyingValue(), -1);
+            throw newInvalidRegexException(regexStr, e);
+        } catch (final ExecutionException e)
+        {
+            // XPathException thrown by compile(String)
+            throw newInvalidRegexException(regexStr, e.getCause());
+        } catch (final UncheckedExecutionException e)
+        {
+            // unexpected error (not a syntax error) from the regex compiler
+            throw (RuntimeException) e.getCause();
         }
 
-        return compiledRegex.containsMatch(BMPString.of(arg1.getUnderlyingValue()));
+        try
+        {
+            return containsMatch(compiledRegex, arg1.getUnderlyingValue());
+        } catch (final MaxStepsExceededException e)
+        {
+            throw REGEX_MATCH_MAX_STEPS_EXCEEDED_EXCEPTION;
+        } catch (final UncheckedXPathException e)
+        {
+            // e.g. Saxon regex backtracking limit exceeded
+            throw new IllegalArgumentException("Error matching regular expression arg: '" + regexStr + "'", e);
+        }
+    }
+
+    static RegularExpression compile(final String regex) throws XPathException
+    {
+        /*
+         * From Saxon xf:matches() implementation: Matches#evaluateItem() / evalMatches()
+         */
+        return Version.platform.compileRegularExpression(XmlUtils.SAXON_PROCESSOR.getUnderlyingConfiguration(), BMPString.of(regex), "", "XP20", null);
+    }
+
+    /**
+     * Get the number of times {@link #match(StringValue, SimpleValue)} found the compiled regular expression in the cache
+     *
+     * @return hit count; 0 if the cache is disabled
+     */
+    public static long getRegexCacheHitCount()
+    {
+        return REGEX_CACHE == null ? 0 : REGEX_CACHE.stats().hitCount();
+    }
+
+    /**
+     * Get the number of times {@link #match(StringValue, SimpleValue)} did not find the compiled regular expression in the cache, i.e. compiled it
+     *
+     * @return miss count; 0 if the cache is disabled
+     */
+    public static long getRegexCacheMissCount()
+    {
+        return REGEX_CACHE == null ? 0 : REGEX_CACHE.stats().missCount();
     }
 
     /**
@@ -131,10 +380,7 @@ public final class RegexpMatchFunctionHelper
                 final String regex = ((StringValue) constantValue).getUnderlyingValue();
                 try
                 {
-                    /*
-                     * From Saxon xf:matches() implementation: Matches#evaluateItem() / evalMatches()
-                     */
-                    compiledRegex = Version.platform.compileRegularExpression(XmlUtils.SAXON_PROCESSOR.getUnderlyingConfiguration(), BMPString.of(regex), "", "XP20", null);
+                    compiledRegex = compile(regex);
                 } catch (final XPathException e)
                 {
                     throw new IllegalArgumentException(invalidRegexMsg + regex + "'", e);
@@ -164,6 +410,8 @@ public final class RegexpMatchFunctionHelper
         private final Datatype<? extends SimpleValue<String>> matchedValType;
         private final ImmutableXacmlStatus invalidRemainingArg1TypeErrorStatus;
         private final ImmutableXacmlStatus invalidArg1ErrorStatus;
+        private final IndeterminateEvaluationException maxStepsExceededException;
+        private final ImmutableXacmlStatus matchErrorStatus;
 
         private CompiledRegexMatchFunctionCall(final FirstOrderFunctionSignature<BooleanValue> functionSig, final List<Expression<?>> argExpressions, final Datatype<?>[] remainingArgTypes,
                                                final RegularExpression compiledRegex, final Datatype<? extends SimpleValue<String>> matchedValueType, final String invalidRemainingArg1TypeMsg) throws IllegalArgumentException
@@ -178,6 +426,9 @@ public final class RegexpMatchFunctionHelper
             this.matchedValType = matchedValueType;
             this.invalidRemainingArg1TypeErrorStatus = new ImmutableXacmlStatus(XacmlStatusCode.PROCESSING_ERROR.value(), Optional.of(invalidRemainingArg1TypeMsg));
             this.invalidArg1ErrorStatus = new ImmutableXacmlStatus(XacmlStatusCode.PROCESSING_ERROR.value(), Optional.of("Function " + functionSig.getName() + ": Indeterminate arg #1"));
+            this.maxStepsExceededException = new IndeterminateEvaluationException("Function " + functionSig.getName() + ": " + REGEX_MATCH_MAX_STEPS_EXCEEDED_EXCEPTION.getMessage(),
+                    XacmlStatusCode.PROCESSING_ERROR.value());
+            this.matchErrorStatus = new ImmutableXacmlStatus(XacmlStatusCode.PROCESSING_ERROR.value(), Optional.of("Function " + functionSig.getName() + ": Error matching arg #1 against the regular expression"));
         }
 
         @Override
@@ -205,7 +456,17 @@ public final class RegexpMatchFunctionHelper
                 }
             }
 
-            return BooleanValue.valueOf(compiledRegex.containsMatch(BMPString.of(arg1.getUnderlyingValue())));
+            try
+            {
+                return BooleanValue.valueOf(containsMatch(compiledRegex, arg1.getUnderlyingValue()));
+            } catch (final MaxStepsExceededException e)
+            {
+                throw maxStepsExceededException;
+            } catch (final UncheckedXPathException e)
+            {
+                // e.g. Saxon regex backtracking limit exceeded
+                throw new IndeterminateEvaluationException(matchErrorStatus, e);
+            }
 
         }
     }
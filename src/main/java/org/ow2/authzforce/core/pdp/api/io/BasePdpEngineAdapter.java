@@ -21,8 +21,10 @@ import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Executor;
 
 import net.sf.saxon.s9api.XdmNode;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.DecisionType;
 import org.ow2.authzforce.core.pdp.api.*;
 import org.ow2.authzforce.core.pdp.api.expression.AttributeSelectorExpression;
 import org.ow2.authzforce.core.pdp.api.policy.PrimaryPolicyMetadata;
@@ -82,12 +84,100 @@ public final class BasePdpEngineAdapter<ADAPTER_INPUT_DECISION_REQUEST, ADAPTEE_
 		}
 	}
 
+	/*
+	 * Single-pass collection of the results of individual decision requests (Multiple Decision request), each evaluated only when reached by the iterator, for result postprocessors supporting
+	 * DecisionResultPostprocessor.Features#LAZY_RESULTS. Wraps the iterator returned by a single call to PdpEngine#evaluateLazily(List, EvaluationContext), and maps any runtime error from it to
+	 * Indeterminate results, so that the result postprocessor - which may iterate while writing the response out - only gets results.
+	 */
+	private static final class LazilyEvaluatedResults<REQ extends DecisionRequest> extends AbstractCollection<Entry<REQ, ? extends DecisionResult>>
+	{
+		private final List<REQ> individualDecisionRequests;
+		private final Iterator<Entry<REQ, ? extends DecisionResult>> evaluatedResults;
+		private boolean iterated = false;
+
+		private LazilyEvaluatedResults(final List<REQ> individualDecisionRequests, final Iterator<Entry<REQ, ? extends DecisionResult>> evaluatedResults)
+		{
+			this.individualDecisionRequests = individualDecisionRequests;
+			this.evaluatedResults = evaluatedResults;
+		}
+
+		@Override
+		public int size()
+		{
+			return individualDecisionRequests.size();
+		}
+
+		@Override
+		public Iterator<Entry<REQ, ? extends DecisionResult>> iterator()
+		{
+			if (iterated)
+			{
+				throw new IllegalStateException("Lazily evaluated results already iterated");
+			}
+
+			iterated = true;
+			return new Iterator<>()
+			{
+				private int nextIndex = 0;
+				/*
+				 * Evaluation error, after which the results of the remaining requests are Indeterminate (the state of evaluatedResults is undefined)
+				 */
+				private IndeterminateEvaluationException error = null;
+
+				@Override
+				public boolean hasNext()
+				{
+					return nextIndex < individualDecisionRequests.size();
+				}
+
+				@Override
+				public Entry<REQ, ? extends DecisionResult> next()
+				{
+					if (!hasNext())
+					{
+						throw new NoSuchElementException();
+					}
+
+					final REQ individualDecisionRequest = individualDecisionRequests.get(nextIndex);
+					nextIndex++;
+					if (error == null)
+					{
+						try
+						{
+							return evaluatedResults.next();
+						} catch (final RuntimeException e)
+						{
+							LOGGER.error("Individual decision request evaluation error", e);
+							error = new IndeterminateEvaluationException("Internal error evaluating individual decision request(s)", XacmlStatusCode.PROCESSING_ERROR.value(), e);
+						}
+					}
+
+					return new AbstractMap.SimpleImmutableEntry<>(individualDecisionRequest, DecisionResults.newIndeterminate(DecisionType.INDETERMINATE, error, null));
+				}
+			};
+		}
+	}
+
 	private final CloseablePdpEngine adaptee;
 	private final DecisionRequestPreprocessor<ADAPTER_INPUT_DECISION_REQUEST, ADAPTEE_INPUT_DECISION_REQUEST> reqPreproc;
 	private final DecisionResultPostprocessor<ADAPTEE_INPUT_DECISION_REQUEST, ADAPTER_OUTPUT_DECISION_RESULT> resultPostproc;
 
+	/*
+	 * Executor for parallel evaluation of Multiple Decision requests (null iff sequential)
+	 */
+	private final Executor mdpExecutor;
+
+	/*
+	 * True iff the result postprocessor supports lazily-evaluated results
+	 */
+	private final boolean lazyResults;
+
 	/**
-	 * Constructor
+	 * Constructor for parallel evaluation of Multiple Decision requests (XACML Multiple Decision Profile). The individual decision requests of such request are passed - all at once - to the adapted
+	 * PDP engine's {@link PdpEngine#evaluate(List, EvaluationContext, Executor)} method, which begins the Multiple Decision request once and may evaluate the individual decision requests
+	 * concurrently on {@code mdpExecutor}, in a Multiple Decision context made thread-safe with {@link EvaluationContexts#synchronizedContext(EvaluationContext)}. The results are returned in the
+	 * same order as the individual decision requests, as in sequential evaluation. (The results are not evaluated lazily in this case, even if {@code resultPostproc} supports
+	 * {@link DecisionResultPostprocessor.Features#LAZY_RESULTS}, unless {@code mdpExecutor == null}.)
 	 * 
 	 * @param adaptedPdpEngine
 	 *            adapted PDP engine
@@ -96,11 +186,13 @@ public final class BasePdpEngineAdapter<ADAPTER_INPUT_DECISION_REQUEST, ADAPTEE_
 	 *            Decision request preprocessor, transforming to XACML Request prior to policy evaluation. is used.
 	 * @param resultPostproc
 	 *            Decision result postprocessor, transforming to XACML Result after policy evaluation.
+	 * @param mdpExecutor
+	 *            executor for parallel evaluation of Multiple Decision requests, e.g. a fork-join pool or a virtual-thread-per-task executor; null for sequential evaluation
 	 * @throws java.lang.IllegalArgumentException
-	 *             if any parameter is null
+	 *             if {@code adaptedPdpEngine}, {@code requestPreproc} or {@code resultPostproc} is null
 	 */
 	public BasePdpEngineAdapter(final CloseablePdpEngine adaptedPdpEngine, final DecisionRequestPreprocessor<ADAPTER_INPUT_DECISION_REQUEST, ADAPTEE_INPUT_DECISION_REQUEST> requestPreproc,
-			final DecisionResultPostprocessor<ADAPTEE_INPUT_DECISION_REQUEST, ADAPTER_OUTPUT_DECISION_RESULT> resultPostproc) throws IllegalArgumentException
+			final DecisionResultPostprocessor<ADAPTEE_INPUT_DECISION_REQUEST, ADAPTER_OUTPUT_DECISION_RESULT> resultPostproc, final Executor mdpExecutor) throws IllegalArgumentException
 	{
 		Preconditions.checkNotNull(adaptedPdpEngine, "Undefined adaptedPdpEngine arg (adapted PDP engine)");
 		Preconditions.checkNotNull(requestPreproc, "Undefined requestPreproc arg (decision request preprocessor)");
@@ -108,6 +200,30 @@ public final class BasePdpEngineAdapter<ADAPTER_INPUT_DECISION_REQUEST, ADAPTEE_
 		this.adaptee = adaptedPdpEngine;
 		this.reqPreproc = requestPreproc;
 		this.resultPostproc = resultPostproc;
+		this.mdpExecutor = mdpExecutor;
+		this.lazyResults = resultPostproc.getFeatures().contains(DecisionResultPostprocessor.Features.LAZY_RESULTS);
+	}
+
+	/**
+	 * Constructor (sequential evaluation of Multiple Decision requests). If {@code resultPostproc} supports {@link DecisionResultPostprocessor.Features#LAZY_RESULTS}, each individual decision
+	 * request of a Multiple Decision request is evaluated - with {@link PdpEngine#evaluateLazily(List, EvaluationContext)} - only when the result postprocessor gets to the corresponding result, e.g.
+	 * to write it out before the next ones are evaluated. In this case, the evaluation may go on after {@link #evaluate(Object, Map)} returns, e.g. while the caller writes the response out,
+	 * therefore this adapter (and the adapted PDP engine) must not be closed before the response is fully processed.
+	 * 
+	 * @param adaptedPdpEngine
+	 *            adapted PDP engine
+	 *
+	 * @param requestPreproc
+	 *            Decision request preprocessor, transforming to XACML Request prior to policy evaluation. is used.
+	 * @param resultPostproc
+	 *            Decision result postprocessor, transforming to XACML Result after policy evaluation.
+	 * @throws java.lang.IllegalArgumentException
+	 *             if any parameter is null
+	 */
+	public BasePdpEngineAdapter(final CloseablePdpEngine adaptedPdpEngine, final DecisionRequestPreprocessor<ADAPTER_INPUT_DECISION_REQUEST, ADAPTEE_INPUT_DECISION_REQUEST> requestPreproc,
+			final DecisionResultPostprocessor<ADAPTEE_INPUT_DECISION_REQUEST, ADAPTER_OUTPUT_DECISION_RESULT> resultPostproc) throws IllegalArgumentException
+	{
+		this(adaptedPdpEngine, requestPreproc, resultPostproc, null);
 	}
 
 	@Override
@@ -169,7 +285,14 @@ public final class BasePdpEngineAdapter<ADAPTER_INPUT_DECISION_REQUEST, ADAPTEE_
 			final EvaluationContext mdpCtx = new MdpEvaluationContext(req0.getCreationTimestamp(), req0.isApplicablePolicyIdListReturned());
 			try
 			{
-				resultsByRequest = this.adaptee.evaluate(individualDecisionRequests, mdpCtx);
+				if (this.lazyResults && this.mdpExecutor == null)
+				{
+					// each individual decision request evaluated when the result postprocessor gets to it, the Multiple Decision request begun once here
+					return this.resultPostproc.process(new LazilyEvaluatedResults<>(individualDecisionRequests, this.adaptee.evaluateLazily(individualDecisionRequests, mdpCtx)));
+				}
+
+				resultsByRequest = this.mdpExecutor == null ? this.adaptee.evaluate(individualDecisionRequests, mdpCtx)
+						: this.adaptee.evaluate(individualDecisionRequests, EvaluationContexts.synchronizedContext(mdpCtx), this.mdpExecutor);
 			} catch (final IndeterminateEvaluationException e)
 			{
 				LOGGER.info("Individual decision request evaluation error", e);
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.io;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+
+import org.ow2.authzforce.core.pdp.api.AttributeFqn;
+import org.ow2.authzforce.core.pdp.api.AttributeFqns;
+import org.ow2.authzforce.core.pdp.api.AttributeSources;
+import org.ow2.authzforce.core.pdp.api.DecisionRequestPreprocessor;
+import org.ow2.authzforce.core.pdp.api.HashCollections;
+import org.ow2.authzforce.core.pdp.api.ImmutableDecisionRequest;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.io.BinaryDecisionWireFormat.Decoder;
+import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactory;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry;
+import org.ow2.authzforce.core.pdp.api.value.Bags;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+/**
+ * {@link DecisionRequestPreprocessor} for request messages in {@link BinaryDecisionWireFormat}, i.e. the input is the payload of a request frame (e.g. returned by
+ * {@link BinaryDecisionWireFormat#nextFrame(ByteBuffer)}), and the output is the list of individual decision requests in the message, in the same order. The attribute values are created directly by
+ * the datatype factories from the {@link AttributeValueFactoryRegistry}, from their binary form if boolean, integer or double.
+ * <p>
+ * The same attribute (Category, Issuer, AttributeId) may not occur more than once in the same individual decision request. If {@code strictAttributeIssuerMatch == false}, the values of each
+ * attribute with Issuer are also copied to the same attribute without Issuer (like {@link IssuedToNonIssuedCopyingLaxXacmlAttributeParser} does).
+ * <p>
+ * This preprocessor is thread-safe.
+ */
+public final class BinaryDecisionRequestPreprocessor implements DecisionRequestPreprocessor<ByteBuffer, ImmutableDecisionRequest>
+{
+	private static final IllegalArgumentException NULL_REQUEST_EXCEPTION = new IllegalArgumentException("Undefined input decision request");
+
+	private final AttributeValueFactoryRegistry valueFactoryRegistry;
+	private final boolean strictAttributeIssuerMatch;
+
+	/**
+	 * Creates instance
+	 *
+	 * @param valueFactoryRegistry
+	 *            attribute datatype factories
+	 * @param strictAttributeIssuerMatch
+	 *            true iff it is required that AttributeDesignator without Issuer only match request Attributes without Issuer, i.e. the values of attributes with Issuer are not copied to the
+	 *            attributes without Issuer
+	 * @throws IllegalArgumentException
+	 *             if {@code valueFactoryRegistry == null}
+	 */
+	public BinaryDecisionRequestPreprocessor(final AttributeValueFactoryRegistry valueFactoryRegistry, final boolean strictAttributeIssuerMatch) throws IllegalArgumentException
+	{
+		Preconditions.checkArgument(valueFactoryRegistry != null, "Undefined valueFactoryRegistry");
+		this.valueFactoryRegistry = valueFactoryRegistry;
+		this.strictAttributeIssuerMatch = strictAttributeIssuerMatch;
+	}
+
+	@Override
+	public Class<ByteBuffer> getInputRequestType()
+	{
+		return ByteBuffer.class;
+	}
+
+	@Override
+	public Class<ImmutableDecisionRequest> getOutputRequestType()
+	{
+		return ImmutableDecisionRequest.class;
+	}
+
+	private static <AV extends AttributeValue> AttributeBag<AV> readValues(final Decoder in, final AttributeValueFactory<AV> valueFactory) throws IllegalArgumentException
+	{
+		final int valueCount = in.readCount();
+		final List<AV> values = new ArrayList<>(valueCount);
+		for (int i = 0; i < valueCount; i++)
+		{
+			values.add(BinaryDecisionWireFormat.readValue(in, valueFactory));
+		}
+
+		return Bags.newAttributeBag(valueFactory.getDatatype(), values, AttributeSources.REQUEST);
+	}
+
+	private static <AV extends AttributeValue> AttributeBag<AV> merge(final AttributeBag<AV> bag1, final AttributeBag<?> bag2, final AttributeFqn attributeFqn) throws IllegalArgumentException
+	{
+		if (!bag1.getElementDatatype().equals(bag2.getElementDatatype()))
+		{
+			throw new IllegalArgumentException("Conflicting datatypes of values of attribute " + attributeFqn + " (with and without Issuer): " + bag1.getElementDatatype() + " and "
+					+ bag2.getElementDatatype());
+		}
+
+		final List<AV> values = new ArrayList<>(bag1.size() + bag2.size());
+		bag1.forEach(values::add);
+		for (final AttributeValue value : bag2)
+		{
+			values.add(bag1.getElementDatatype().cast(value));
+		}
+
+		return Bags.newAttributeBag(bag1.getElementDatatype(), values, AttributeSources.REQUEST);
+	}
+
+	private ImmutableDecisionRequest readIndividualRequest(final Decoder in) throws IllegalArgumentException
+	{
+		final boolean returnApplicablePolicies = (in.readByte() & BinaryDecisionWireFormat.RETURN_POLICY_ID_LIST_FLAG) != 0;
+		final int attributeCount = in.readCount();
+		final Map<AttributeFqn, AttributeBag<?>> namedAttributes = HashCollections.newUpdatableMap(attributeCount);
+		// values of attributes with Issuer to be copied to the corresponding attributes without Issuer (iff !strictAttributeIssuerMatch)
+		final Map<AttributeFqn, AttributeBag<?>> issuedAttributeCopies = strictAttributeIssuerMatch ? null : HashCollections.newUpdatableMap();
+		for (int i = 0; i < attributeCount; i++)
+		{
+			final String category = in.readStringRef("Category");
+			final Optional<String> issuer = Optional.ofNullable(in.readOptionalStringRef());
+			final String attributeId = in.readStringRef("AttributeId");
+			final AttributeValueFactory<?> valueFactory = BinaryDecisionWireFormat.getValueFactory(valueFactoryRegistry, in.readStringRef("DataType"));
+			final AttributeFqn attributeFqn = AttributeFqns.newInstance(category, issuer, attributeId);
+			final AttributeBag<?> values = readValues(in, valueFactory);
+			if (namedAttributes.putIfAbsent(attributeFqn, values) != null)
+			{
+				throw new IllegalArgumentException("Duplicate attribute in individual decision request: " + attributeFqn);
+			}
+
+			if (issuedAttributeCopies != null && issuer.isPresent())
+			{
+				final AttributeFqn nonIssuedAttributeFqn = AttributeFqns.newInstance(category, Optional.empty(), attributeId);
+				final AttributeBag<?> previousCopy = issuedAttributeCopies.get(nonIssuedAttributeFqn);
+				issuedAttributeCopies.put(nonIssuedAttributeFqn, previousCopy == null ? values : merge(previousCopy, values, nonIssuedAttributeFqn));
+			}
+		}
+
+		if (issuedAttributeCopies != null)
+		{
+			for (final Entry<AttributeFqn, AttributeBag<?>> issuedAttributeCopy : issuedAttributeCopies.entrySet())
+			{
+				final AttributeBag<?> nonIssuedValues = namedAttributes.get(issuedAttributeCopy.getKey());
+				namedAttributes.put(issuedAttributeCopy.getKey(),
+						nonIssuedValues == null ? issuedAttributeCopy.getValue() : merge(nonIssuedValues, issuedAttributeCopy.getValue(), issuedAttributeCopy.getKey()));
+			}
+		}
+
+		return ImmutableDecisionRequest.getInstance(namedAttributes, null, returnApplicablePolicies);
+	}
+
+	/**
+	 * Decodes the request message
+	 *
+	 * @param req
+	 *            request frame payload (the position of this buffer is not changed)
+	 * @param namespaceURIsByPrefix
+	 *            ignored (xpathExpression values are not supported)
+	 * @return individual decision requests
+	 * @throws IndeterminateEvaluationException
+	 *             if the input is not a valid request message, or uses an unsupported datatype
+	 */
+	@Override
+	public List<ImmutableDecisionRequest> process(final ByteBuffer req, final Map<String, String> namespaceURIsByPrefix) throws IndeterminateEvaluationException
+	{
+		if (req == null)
+		{
+			throw NULL_REQUEST_EXCEPTION;
+		}
+
+		try
+		{
+			final Decoder in = new Decoder(req, BinaryDecisionWireFormat.REQUEST_MESSAGE_TYPE);
+			final int individualRequestCount = in.readCount();
+			final List<ImmutableDecisionRequest> individualRequests = new ArrayList<>(individualRequestCount);
+			for (int i = 0; i < individualRequestCount; i++)
+			{
+				individualRequests.add(readIndividualRequest(in));
+			}
+
+			in.checkEnd();
+			return individualRequests;
+		}
+		catch (final IllegalArgumentException e)
+		{
+			throw new IndeterminateEvaluationException("Invalid binary decision request", XacmlStatusCode.SYNTAX_ERROR.value(), e);
+		}
+		catch (final BufferUnderflowException e)
+		{
+			throw new IndeterminateEvaluationException("Truncated binary decision request", XacmlStatusCode.SYNTAX_ERROR.value(), e);
+		}
+	}
+
+	/**
+	 * {@link DecisionRequestPreprocessor.Factory} of {@link BinaryDecisionRequestPreprocessor}s
+	 */
+	public static final class Factory implements DecisionRequestPreprocessor.Factory<ByteBuffer, ImmutableDecisionRequest>
+	{
+		/**
+		 * Factory ID
+		 */
+		public static final String ID = "urn:ow2:authzforce:feature:pdp:request-preproc:binary:default";
+
+		@Override
+		public String getId()
+		{
+			return ID;
+		}
+
+		@Override
+		public Class<ByteBuffer> getInputRequestType()
+		{
+			return ByteBuffer.class;
+		}
+
+		@Override
+		public Class<ImmutableDecisionRequest> getOutputRequestType()
+		{
+			return ImmutableDecisionRequest.class;
+		}
+
+		@Override
+		public DecisionRequestPreprocessor<ByteBuffer, ImmutableDecisionRequest> getInstance(final AttributeValueFactoryRegistry datatypeFactoryRegistry, final boolean strictAttributeIssuerMatch,
+				final boolean requireContentForXPath, final Set<String> extraPdpEngineFeatures)
+		{
+			return new BinaryDecisionRequestPreprocessor(datatypeFactoryRegistry, strictAttributeIssuerMatch);
+		}
+	}
+}
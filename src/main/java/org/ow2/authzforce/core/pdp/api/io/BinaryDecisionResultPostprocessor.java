@@ -0,0 +1,199 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.io;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map.Entry;
+import java.util.Optional;
+
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.DecisionType;
+
+import org.ow2.authzforce.core.pdp.api.DecisionResult;
+import org.ow2.authzforce.core.pdp.api.DecisionResultPostprocessor;
+import org.ow2.authzforce.core.pdp.api.ImmutableDecisionRequest;
+import org.ow2.authzforce.core.pdp.api.ImmutableXacmlStatus;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.io.BinaryDecisionWireFormat.Encoder;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+/**
+ * {@link DecisionResultPostprocessor} producing response messages in {@link BinaryDecisionWireFormat}, i.e. the output is a response frame (length-prefixed) ready to be written to the connection,
+ * with one result per individual decision request, in the same order. Combined decisions are not supported. A result that cannot be encoded in this format (e.g. obligation/advice value with
+ * non-text content) is replaced with an Indeterminate result (with the corresponding extended Indeterminate) with status code {@code processing-error}, the other results being unaffected.
+ * <p>
+ * This postprocessor is thread-safe.
+ */
+public final class BinaryDecisionResultPostprocessor implements DecisionResultPostprocessor<ImmutableDecisionRequest, ByteBuffer>
+{
+	private static final IllegalArgumentException ILLEGAL_RESULTS_ARGUMENT_EXCEPTION = new IllegalArgumentException("Undefined resultsByRequest arg");
+	private static final IllegalArgumentException ILLEGAL_ERROR_ARG_EXCEPTION = new IllegalArgumentException("Undefined input error arg");
+	private static final Optional<ImmutableXacmlStatus> UNSUPPORTED_RESULT_STATUS = Optional.of(new ImmutableXacmlStatus(XacmlStatusCode.PROCESSING_ERROR.value(),
+			Optional.of("Result not supported by the binary wire format")));
+
+	/*
+	 * Initial capacity of the output buffer per result
+	 */
+	private static final int INITIAL_CAPACITY_PER_RESULT = 32;
+
+	private final int maxDepthOfErrorCauseIncludedInResult;
+
+	/**
+	 * Constructor
+	 *
+	 * @param clientRequestErrorVerbosityLevel
+	 *            Level of verbosity of the error message trace returned in case of client request errors, e.g. invalid requests. If zero, the status message is the one of the top-level status of
+	 *            the error, else the error message followed by the messages of the causes up to this depth in the stacktrace.
+	 * @throws IllegalArgumentException
+	 *             if {@code clientRequestErrorVerbosityLevel < 0}
+	 */
+	public BinaryDecisionResultPostprocessor(final int clientRequestErrorVerbosityLevel) throws IllegalArgumentException
+	{
+		if (clientRequestErrorVerbosityLevel < 0)
+		{
+			throw new IllegalArgumentException("Invalid clientRequestErrorVerbosityLevel: " + clientRequestErrorVerbosityLevel + ". Expected: non-negative.");
+		}
+
+		this.maxDepthOfErrorCauseIncludedInResult = clientRequestErrorVerbosityLevel;
+	}
+
+	@Override
+	public Class<ImmutableDecisionRequest> getRequestType()
+	{
+		return ImmutableDecisionRequest.class;
+	}
+
+	@Override
+	public Class<ByteBuffer> getResponseType()
+	{
+		return ByteBuffer.class;
+	}
+
+	@Override
+	public ByteBuffer process(final Collection<Entry<ImmutableDecisionRequest, ? extends DecisionResult>> resultsByRequest)
+	{
+		if (resultsByRequest == null)
+		{
+			throw ILLEGAL_RESULTS_ARGUMENT_EXCEPTION;
+		}
+
+		final Encoder out = new Encoder(BinaryDecisionWireFormat.RESPONSE_MESSAGE_TYPE, resultsByRequest.size() * INITIAL_CAPACITY_PER_RESULT);
+		out.writeVarLong(resultsByRequest.size());
+		for (final Entry<ImmutableDecisionRequest, ? extends DecisionResult> resultByRequest : resultsByRequest)
+		{
+			final DecisionResult result = resultByRequest.getValue();
+			out.mark();
+			try
+			{
+				BinaryDecisionWireFormat.writeResult(out, result.getDecision(), result.getExtendedIndeterminate(), result.getStatus(), result.getPepActions(), result.getApplicablePolicies());
+			}
+			catch (final IllegalArgumentException e)
+			{
+				/*
+				 * e.g. obligation/advice value with non-text content, not supported by the wire format. Replace this result only (partially written) with Indeterminate, to keep one result per
+				 * individual request.
+				 */
+				out.reset();
+				final DecisionType extendedIndeterminate = result.getDecision() == DecisionType.INDETERMINATE ? result.getExtendedIndeterminate() : result.getDecision();
+				BinaryDecisionWireFormat.writeResult(out, DecisionType.INDETERMINATE, extendedIndeterminate, UNSUPPORTED_RESULT_STATUS, null, null);
+			}
+		}
+
+		return out.toFrame();
+	}
+
+	private static ByteBuffer toIndeterminateResponse(final ImmutableXacmlStatus status)
+	{
+		final Encoder out = new Encoder(BinaryDecisionWireFormat.RESPONSE_MESSAGE_TYPE, INITIAL_CAPACITY_PER_RESULT);
+		out.writeVarLong(1);
+		BinaryDecisionWireFormat.writeResult(out, DecisionType.INDETERMINATE, DecisionType.INDETERMINATE, Optional.of(status), null, null);
+		return out.toFrame();
+	}
+
+	@Override
+	public ByteBuffer processClientError(final IndeterminateEvaluationException error)
+	{
+		if (error == null)
+		{
+			throw ILLEGAL_ERROR_ARG_EXCEPTION;
+		}
+
+		final ImmutableXacmlStatus topLevelStatus = error.getTopLevelStatus();
+		if (maxDepthOfErrorCauseIncludedInResult == 0)
+		{
+			return toIndeterminateResponse(topLevelStatus);
+		}
+
+		final StringBuilder message = new StringBuilder(String.valueOf(error.getMessage()));
+		Throwable cause = error.getCause();
+		for (int depth = 1; cause != null && depth <= maxDepthOfErrorCauseIncludedInResult; depth++)
+		{
+			message.append("; caused by: ").append(cause.getMessage());
+			cause = cause.getCause();
+		}
+
+		return toIndeterminateResponse(new ImmutableXacmlStatus(Collections.singletonList(topLevelStatus.getStatusCode().getValue()), Optional.of(message.toString())));
+	}
+
+	@Override
+	public ByteBuffer processInternalError(final IndeterminateEvaluationException error)
+	{
+		if (error == null)
+		{
+			throw ILLEGAL_ERROR_ARG_EXCEPTION;
+		}
+
+		return toIndeterminateResponse(error.getTopLevelStatus());
+	}
+
+	/**
+	 * {@link DecisionResultPostprocessor.Factory} of {@link BinaryDecisionResultPostprocessor}s
+	 */
+	public static final class Factory implements DecisionResultPostprocessor.Factory<ImmutableDecisionRequest, ByteBuffer>
+	{
+		/**
+		 * Factory ID
+		 */
+		public static final String ID = "urn:ow2:authzforce:feature:pdp:result-postproc:binary:default";
+
+		@Override
+		public String getId()
+		{
+			return ID;
+		}
+
+		@Override
+		public Class<ImmutableDecisionRequest> getRequestType()
+		{
+			return ImmutableDecisionRequest.class;
+		}
+
+		@Override
+		public Class<ByteBuffer> getResponseType()
+		{
+			return ByteBuffer.class;
+		}
+
+		@Override
+		public DecisionResultPostprocessor<ImmutableDecisionRequest, ByteBuffer> getInstance(final int clientRequestErrorVerbosityLevel)
+		{
+			return new BinaryDecisionResultPostprocessor(clientRequestErrorVerbosityLevel);
+		}
+	}
+}
@@ -0,0 +1,902 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.io;
+
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+
+import javax.xml.namespace.QName;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.DecisionType;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.StatusCode;
+
+import org.ow2.authzforce.core.pdp.api.AttributeFqn;
+import org.ow2.authzforce.core.pdp.api.CloseablePdpEngine;
+import org.ow2.authzforce.core.pdp.api.DecisionRequest;
+import org.ow2.authzforce.core.pdp.api.DecisionResult;
+import org.ow2.authzforce.core.pdp.api.DecisionResults;
+import org.ow2.authzforce.core.pdp.api.HashCollections;
+import org.ow2.authzforce.core.pdp.api.ImmutableDecisionRequest;
+import org.ow2.authzforce.core.pdp.api.ImmutableXacmlStatus;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.PepAction;
+import org.ow2.authzforce.core.pdp.api.PepActionAttributeAssignment;
+import org.ow2.authzforce.core.pdp.api.policy.BasePrimaryPolicyMetadata;
+import org.ow2.authzforce.core.pdp.api.policy.PolicyVersion;
+import org.ow2.authzforce.core.pdp.api.policy.PrimaryPolicyMetadata;
+import org.ow2.authzforce.core.pdp.api.policy.TopLevelPolicyElementType;
+import org.ow2.authzforce.core.pdp.api.value.ArbitrarilyBigInteger;
+import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactory;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.DoubleValue;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.GenericInteger;
+import org.ow2.authzforce.core.pdp.api.value.IntegerValue;
+import org.ow2.authzforce.core.pdp.api.value.StringValue;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+/**
+ * Compact binary encoding of decision requests and results, for PEP-to-PDP traffic where XACML/XML or XACML/JSON verbosity is not needed (e.g. service-to-service authorization).
+ * <p>
+ * Every message is sent in a frame made of the payload length (4-byte big-endian signed integer) followed by the payload, so that many requests can be pipelined over the same connection (use
+ * {@link #nextFrame(ByteBuffer)} to split the incoming bytes into frames). A payload starts with the format version ({@value #VERSION}) and the message type, followed by:
+ * <ul>
+ * <li>for a request message: the individual decision requests, each made of a flag byte (bit 0: return the applicable policies) and the named attributes, each attribute made of its Category, Issuer
+ * (optional), AttributeId, DataType, and values;</li>
+ * <li>for a response message: one result per individual decision request, in the same order, each made of the decision (and extended Indeterminate), the status (codes and message, the StatusDetail is
+ * not supported), the obligations/advice and the applicable policies.</li>
+ * </ul>
+ * Counts and lengths are unsigned variable-length integers (7 bits per byte, least significant group first). Strings that are likely to be repeated (attribute categories, IDs, issuers, datatypes,
+ * status codes, policy IDs...) are interned in a table per message: the first occurrence is written in full (UTF-8) and the next ones only as a reference to the table. Boolean, integer (in the long
+ * range) and double values are written in binary form and passed as such to the datatype factories by the decoder; any other value is written as text with its XML attributes (if any), e.g. the
+ * XPathCategory of xpathExpression values (in obligations/advice only: xpathExpression values are not supported in requests). Values with non-text (XML) content, and Attributes/Content, are
+ * not supported.
+ * <p>
+ * The PDP side is provided by {@link BinaryDecisionRequestPreprocessor} and {@link BinaryDecisionResultPostprocessor} (see {@link #newPdpEngineAdapter(CloseablePdpEngine, AttributeValueFactoryRegistry, boolean, int)}), and the PEP side by
+ * {@link #encodeRequest(List)} and {@link #decodeResults(ByteBuffer, AttributeValueFactoryRegistry)}.
+ */
+public final class BinaryDecisionWireFormat
+{
+	/**
+	 * Version of the wire format, i.e. first byte of every payload
+	 */
+	public static final byte VERSION = 1;
+
+	/**
+	 * Length of a frame header, i.e. the payload length
+	 */
+	public static final int FRAME_HEADER_LENGTH = 4;
+
+	static final byte REQUEST_MESSAGE_TYPE = 'Q';
+	static final byte RESPONSE_MESSAGE_TYPE = 'R';
+
+	/*
+	 * Individual decision request flags
+	 */
+	static final int RETURN_POLICY_ID_LIST_FLAG = 1;
+
+	/*
+	 * Tags of attribute values
+	 */
+	private static final byte TEXT_VALUE_TAG = 0;
+	private static final byte TEXT_WITH_XML_ATTRIBUTES_VALUE_TAG = 1;
+	private static final byte FALSE_VALUE_TAG = 2;
+	private static final byte TRUE_VALUE_TAG = 3;
+	private static final byte INTEGER_VALUE_TAG = 4;
+	private static final byte DOUBLE_VALUE_TAG = 5;
+
+	/*
+	 * Decisions by code (index)
+	 */
+	private static final DecisionType[] DECISIONS = { DecisionType.PERMIT, DecisionType.DENY, DecisionType.INDETERMINATE, DecisionType.NOT_APPLICABLE };
+
+	private static final IllegalArgumentException NULL_FRAME_ARGUMENT_EXCEPTION = new IllegalArgumentException("Undefined input frame (payload)");
+	private static final IllegalArgumentException UNEXPECTED_TRAILING_DATA_EXCEPTION = new IllegalArgumentException("Unexpected data after the end of the message in the frame");
+
+	private BinaryDecisionWireFormat()
+	{
+		// prevent instantiation
+	}
+
+	/**
+	 * Message encoder, writing to a growing byte array, starting with the frame header (payload length set by {@link #toFrame()}).
+	 */
+	static final class Encoder
+	{
+		private final Map<String, Integer> stringRefs = HashCollections.newUpdatableMap();
+		private byte[] buf;
+		private int length = FRAME_HEADER_LENGTH;
+		/*
+		 * Position and string table size saved by mark()
+		 */
+		private int markedLength = FRAME_HEADER_LENGTH;
+		private int markedStringRefCount = 0;
+
+		Encoder(final byte messageType, final int initialCapacity)
+		{
+			this.buf = new byte[Math.max(initialCapacity, FRAME_HEADER_LENGTH + 2)];
+			buf[length++] = VERSION;
+			buf[length++] = messageType;
+		}
+
+		private void ensureCapacity(final int extraLength)
+		{
+			if (length + extraLength > buf.length)
+			{
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + extraLength));
+			}
+		}
+
+		void writeByte(final int b)
+		{
+			ensureCapacity(1);
+			buf[length++] = (byte) b;
+		}
+
+		void writeBoolean(final boolean b)
+		{
+			writeByte(b ? 1 : 0);
+		}
+
+		/*
+		 * Unsigned variable-length integer
+		 */
+		void writeVarLong(final long l)
+		{
+			ensureCapacity(10);
+			long remaining = l;
+			while ((remaining & ~0x7FL) != 0)
+			{
+				buf[length++] = (byte) ((remaining & 0x7F) | 0x80);
+				remaining >>>= 7;
+			}
+
+			buf[length++] = (byte) remaining;
+		}
+
+		/*
+		 * Signed variable-length integer (zigzag encoding, so that small negative values are short as well)
+		 */
+		void writeZigZagLong(final long l)
+		{
+			writeVarLong((l << 1) ^ (l >> 63));
+		}
+
+		void writeDouble(final double d)
+		{
+			ensureCapacity(8);
+			final long bits = Double.doubleToRawLongBits(d);
+			for (int shift = 56; shift >= 0; shift -= 8)
+			{
+				buf[length++] = (byte) (bits >>> shift);
+			}
+		}
+
+		/**
+		 * Writes the string in UTF-8 prefixed with its length in bytes, without intermediate byte array. Unpaired surrogates (invalid in XML anyway) are replaced with '?' like
+		 * {@link String#getBytes(java.nio.charset.Charset)} does.
+		 */
+		void writeString(final String s)
+		{
+			final int charCount = s.length();
+			int utf8Length = 0;
+			for (int i = 0; i < charCount; i++)
+			{
+				final char c = s.charAt(i);
+				if (c < 0x80)
+				{
+					utf8Length += 1;
+				}
+				else if (c < 0x800)
+				{
+					utf8Length += 2;
+				}
+				else if (Character.isHighSurrogate(c) && i + 1 < charCount && Character.isLowSurrogate(s.charAt(i + 1)))
+				{
+					utf8Length += 4;
+					i++;
+				}
+				else
+				{
+					utf8Length += Character.isSurrogate(c) ? 1 : 3;
+				}
+			}
+
+			writeVarLong(utf8Length);
+			ensureCapacity(utf8Length);
+			for (int i = 0; i < charCount; i++)
+			{
+				final char c = s.charAt(i);
+				if (c < 0x80)
+				{
+					buf[length++] = (byte) c;
+				}
+				else if (c < 0x800)
+				{
+					buf[length++] = (byte) (0xC0 | (c >> 6));
+					buf[length++] = (byte) (0x80 | (c & 0x3F));
+				}
+				else if (Character.isHighSurrogate(c) && i + 1 < charCount && Character.isLowSurrogate(s.charAt(i + 1)))
+				{
+					final int codePoint = Character.toCodePoint(c, s.charAt(++i));
+					buf[length++] = (byte) (0xF0 | (codePoint >> 18));
+					buf[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					buf[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					buf[length++] = (byte) (0x80 | (codePoint & 0x3F));
+				}
+				else if (Character.isSurrogate(c))
+				{
+					buf[length++] = '?';
+				}
+				else
+				{
+					buf[length++] = (byte) (0xE0 | (c >> 12));
+					buf[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					buf[length++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+		}
+
+		/**
+		 * Writes a reference to an interned string: 0 if {@code s == null}, 1 followed by the string if first occurrence in the message, else 2 + index of the string in the table.
+		 */
+		void writeStringRef(final String s)
+		{
+			if (s == null)
+			{
+				writeVarLong(0);
+				return;
+			}
+
+			final Integer index = stringRefs.get(s);
+			if (index == null)
+			{
+				stringRefs.put(s, stringRefs.size());
+				writeVarLong(1);
+				writeString(s);
+			}
+			else
+			{
+				writeVarLong(index.longValue() + 2);
+			}
+		}
+
+		/**
+		 * Marks the current position, to which {@link #reset()} goes back
+		 */
+		void mark()
+		{
+			markedLength = length;
+			markedStringRefCount = stringRefs.size();
+		}
+
+		/**
+		 * Discards what has been written since the last {@link #mark()}, including the strings added to the string table since then (not defined in the message anymore)
+		 */
+		void reset()
+		{
+			length = markedLength;
+			if (stringRefs.size() > markedStringRefCount)
+			{
+				stringRefs.values().removeIf(index -> index >= markedStringRefCount);
+			}
+		}
+
+		/**
+		 * Sets the frame header and returns the frame
+		 *
+		 * @return the frame ready to be written (position = 0, limit = frame length)
+		 */
+		ByteBuffer toFrame()
+		{
+			final int payloadLength = length - FRAME_HEADER_LENGTH;
+			buf[0] = (byte) (payloadLength >>> 24);
+			buf[1] = (byte) (payloadLength >>> 16);
+			buf[2] = (byte) (payloadLength >>> 8);
+			buf[3] = (byte) payloadLength;
+			return ByteBuffer.wrap(buf, 0, length);
+		}
+	}
+
+	/**
+	 * Message decoder, reading from a frame payload. Every method throws {@link IllegalArgumentException} if the input is invalid, or {@link BufferUnderflowException} if it is truncated.
+	 */
+	static final class Decoder
+	{
+		private final List<String> strings = new ArrayList<>();
+		private final ByteBuffer in;
+
+		Decoder(final ByteBuffer payload, final byte expectedMessageType) throws IllegalArgumentException
+		{
+			if (payload == null)
+			{
+				throw NULL_FRAME_ARGUMENT_EXCEPTION;
+			}
+
+			this.in = payload.duplicate();
+			final byte version = in.get();
+			if (version != VERSION)
+			{
+				throw new IllegalArgumentException("Unsupported wire format version: " + version + " (expected: " + VERSION + ")");
+			}
+
+			final byte messageType = in.get();
+			if (messageType != expectedMessageType)
+			{
+				throw new IllegalArgumentException("Invalid message type: '" + (char) messageType + "' (expected: '" + (char) expectedMessageType + "')");
+			}
+		}
+
+		byte readByte()
+		{
+			return in.get();
+		}
+
+		boolean readBoolean()
+		{
+			return in.get() != 0;
+		}
+
+		long readVarLong() throws IllegalArgumentException
+		{
+			long result = 0;
+			for (int shift = 0; shift < 64; shift += 7)
+			{
+				final byte b = in.get();
+				result |= (long) (b & 0x7F) << shift;
+				if (b >= 0)
+				{
+					return result;
+				}
+			}
+
+			throw new IllegalArgumentException("Malformed variable-length integer at offset " + in.position());
+		}
+
+		long readZigZagLong() throws IllegalArgumentException
+		{
+			final long l = readVarLong();
+			return (l >>> 1) ^ -(l & 1);
+		}
+
+		double readDouble()
+		{
+			return in.getDouble();
+		}
+
+		/**
+		 * Reads a count of items, or a length in bytes, that cannot be greater than the number of remaining bytes (each item takes one byte at least), to prevent huge allocations from invalid input
+		 */
+		int readCount() throws IllegalArgumentException
+		{
+			final long count = readVarLong();
+			if (count < 0 || count > in.remaining())
+			{
+				throw new IllegalArgumentException("Invalid count/length at offset " + in.position() + ": " + count + " (remaining bytes: " + in.remaining() + ")");
+			}
+
+			return (int) count;
+		}
+
+		String readString() throws IllegalArgumentException
+		{
+			final int byteLength = readCount();
+			final String s;
+			if (in.hasArray())
+			{
+				s = new String(in.array(), in.arrayOffset() + in.position(), byteLength, StandardCharsets.UTF_8);
+				in.position(in.position() + byteLength);
+			}
+			else
+			{
+				final byte[] bytes = new byte[byteLength];
+				in.get(bytes);
+				s = new String(bytes, StandardCharsets.UTF_8);
+			}
+
+			return s;
+		}
+
+		/**
+		 * Reads a reference to an interned string (see {@link Encoder#writeStringRef(String)})
+		 *
+		 * @return the string, null if absent
+		 */
+		String readOptionalStringRef() throws IllegalArgumentException
+		{
+			final long ref = readVarLong();
+			if (ref == 0)
+			{
+				return null;
+			}
+
+			if (ref == 1)
+			{
+				final String s = readString();
+				strings.add(s);
+				return s;
+			}
+
+			if (ref - 2 >= strings.size() || ref < 0)
+			{
+				throw new IllegalArgumentException("Invalid string reference at offset " + in.position() + ": " + ref);
+			}
+
+			return strings.get((int) (ref - 2));
+		}
+
+		String readStringRef(final String name) throws IllegalArgumentException
+		{
+			final String s = readOptionalStringRef();
+			if (s == null)
+			{
+				throw new IllegalArgumentException("Missing " + name + " at offset " + in.position());
+			}
+
+			return s;
+		}
+
+		void checkEnd() throws IllegalArgumentException
+		{
+			if (in.hasRemaining())
+			{
+				throw UNEXPECTED_TRAILING_DATA_EXCEPTION;
+			}
+		}
+	}
+
+	/**
+	 * Gets the next frame from the input, e.g. bytes received from a connection, if complete.
+	 *
+	 * @param in
+	 *            input, read from its position; the position is moved to the end of the frame iff the frame is complete
+	 * @return the frame payload (shared content, independent position and limit), or null if {@code in} does not contain a complete frame (yet), in which case {@code in} is unchanged
+	 * @throws IllegalArgumentException
+	 *             if {@code in == null} or the frame header is invalid (negative length)
+	 */
+	public static ByteBuffer nextFrame(final ByteBuffer in) throws IllegalArgumentException
+	{
+		Preconditions.checkArgument(in != null, "Undefined input buffer");
+		final int start = in.position();
+		if (in.remaining() < FRAME_HEADER_LENGTH)
+		{
+			return null;
+		}
+
+		final int payloadLength = in.getInt(start);
+		if (payloadLength < 0)
+		{
+			throw new IllegalArgumentException("Invalid frame length: " + payloadLength);
+		}
+
+		if (in.remaining() - FRAME_HEADER_LENGTH < payloadLength)
+		{
+			return null;
+		}
+
+		final ByteBuffer payload = in.slice(start + FRAME_HEADER_LENGTH, payloadLength);
+		in.position(start + FRAME_HEADER_LENGTH + payloadLength);
+		return payload;
+	}
+
+	static void writeValue(final Encoder out, final AttributeValue value) throws IllegalArgumentException
+	{
+		if (value instanceof BooleanValue)
+		{
+			out.writeByte(((BooleanValue) value).getUnderlyingValue() ? TRUE_VALUE_TAG : FALSE_VALUE_TAG);
+			return;
+		}
+
+		if (value instanceof IntegerValue)
+		{
+			final GenericInteger i = ((IntegerValue) value).getUnderlyingValue();
+			// ArbitrarilyBigInteger is used only for values out of the long range
+			if (!(i instanceof ArbitrarilyBigInteger))
+			{
+				out.writeByte(INTEGER_VALUE_TAG);
+				out.writeZigZagLong(i.longValue());
+				return;
+			}
+		}
+		else if (value instanceof DoubleValue)
+		{
+			out.writeByte(DOUBLE_VALUE_TAG);
+			out.writeDouble(((DoubleValue) value).getUnderlyingValue());
+			return;
+		}
+		else if (value instanceof StringValue)
+		{
+			out.writeByte(TEXT_VALUE_TAG);
+			out.writeString(((StringValue) value).getUnderlyingValue());
+			return;
+		}
+
+		final List<Serializable> content = value.getContent();
+		final String text;
+		if (content.isEmpty())
+		{
+			text = "";
+		}
+		else if (content.size() == 1 && content.get(0) instanceof String)
+		{
+			text = (String) content.get(0);
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unsupported value (non-text content) in binary wire format: " + value);
+		}
+
+		final Map<QName, String> xmlAttributes = value.getXmlAttributes();
+		if (xmlAttributes.isEmpty())
+		{
+			out.writeByte(TEXT_VALUE_TAG);
+			out.writeString(text);
+			return;
+		}
+
+		out.writeByte(TEXT_WITH_XML_ATTRIBUTES_VALUE_TAG);
+		out.writeString(text);
+		out.writeVarLong(xmlAttributes.size());
+		for (final Entry<QName, String> xmlAttribute : xmlAttributes.entrySet())
+		{
+			final QName name = xmlAttribute.getKey();
+			out.writeStringRef(name.getNamespaceURI());
+			out.writeStringRef(name.getLocalPart());
+			out.writeString(xmlAttribute.getValue());
+		}
+	}
+
+	/**
+	 * Reads a value, passing boolean, integer and double values as Boolean, Long and Double respectively to the datatype factory, instead of strings
+	 */
+	static <AV extends AttributeValue> AV readValue(final Decoder in, final AttributeValueFactory<AV> valueFactory) throws IllegalArgumentException
+	{
+		final byte tag = in.readByte();
+		final Serializable content;
+		final Map<QName, String> xmlAttributes;
+		switch (tag)
+		{
+			case TEXT_VALUE_TAG:
+				content = in.readString();
+				xmlAttributes = Collections.emptyMap();
+				break;
+			case TEXT_WITH_XML_ATTRIBUTES_VALUE_TAG:
+				content = in.readString();
+				final int xmlAttributeCount = in.readCount();
+				xmlAttributes = HashCollections.newUpdatableMap(xmlAttributeCount);
+				for (int i = 0; i < xmlAttributeCount; i++)
+				{
+					final String namespaceUri = in.readOptionalStringRef();
+					final String localName = in.readStringRef("XML attribute name");
+					xmlAttributes.put(new QName(namespaceUri, localName), in.readString());
+				}
+				break;
+			case FALSE_VALUE_TAG:
+				content = Boolean.FALSE;
+				xmlAttributes = Collections.emptyMap();
+				break;
+			case TRUE_VALUE_TAG:
+				content = Boolean.TRUE;
+				xmlAttributes = Collections.emptyMap();
+				break;
+			case INTEGER_VALUE_TAG:
+				content = in.readZigZagLong();
+				xmlAttributes = Collections.emptyMap();
+				break;
+			case DOUBLE_VALUE_TAG:
+				content = in.readDouble();
+				xmlAttributes = Collections.emptyMap();
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid attribute value tag: " + tag);
+		}
+
+		return valueFactory.getInstance(Collections.singletonList(content), xmlAttributes, Optional.empty());
+	}
+
+	static AttributeValueFactory<?> getValueFactory(final AttributeValueFactoryRegistry valueFactoryRegistry, final String datatypeId) throws IllegalArgumentException
+	{
+		final AttributeValueFactory<?> valueFactory = valueFactoryRegistry.getExtension(datatypeId);
+		if (valueFactory == null)
+		{
+			throw new IllegalArgumentException("Unsupported datatype: " + datatypeId);
+		}
+
+		return valueFactory;
+	}
+
+	/**
+	 * Encodes individual decision requests into a request message, i.e. (PEP side) encoding of the input of {@link BinaryDecisionRequestPreprocessor}
+	 *
+	 * @param individualRequests
+	 *            individual decision requests
+	 * @return the request frame, ready to be written (position = 0, limit = frame length)
+	 * @throws IllegalArgumentException
+	 *             if {@code individualRequests} is null or empty, or one of them has Attributes/Content, or an xpathExpression attribute, or a value with non-text content
+	 */
+	public static ByteBuffer encodeRequest(final List<? extends DecisionRequest> individualRequests) throws IllegalArgumentException
+	{
+		Preconditions.checkArgument(individualRequests != null && !individualRequests.isEmpty(), "Undefined/empty individualRequests");
+		final Encoder out = new Encoder(REQUEST_MESSAGE_TYPE, 256);
+		out.writeVarLong(individualRequests.size());
+		for (final DecisionRequest individualRequest : individualRequests)
+		{
+			Preconditions.checkArgument(individualRequest.getExtraContentsByCategory().isEmpty(), "Unsupported Attributes/Content in binary wire format");
+			out.writeByte(individualRequest.isApplicablePolicyIdListReturned() ? RETURN_POLICY_ID_LIST_FLAG : 0);
+			final Map<AttributeFqn, AttributeBag<?>> namedAttributes = individualRequest.getNamedAttributes();
+			out.writeVarLong(namedAttributes.size());
+			for (final Entry<AttributeFqn, AttributeBag<?>> namedAttribute : namedAttributes.entrySet())
+			{
+				final AttributeFqn attributeFqn = namedAttribute.getKey();
+				final AttributeBag<?> values = namedAttribute.getValue();
+				Preconditions.checkArgument(!StandardDatatypes.XPATH.equals(values.getElementDatatype()), "Unsupported xpathExpression attribute in binary wire format: %s", attributeFqn);
+				out.writeStringRef(attributeFqn.getCategory());
+				out.writeStringRef(attributeFqn.getIssuer().orElse(null));
+				out.writeStringRef(attributeFqn.getId());
+				out.writeStringRef(values.getElementDatatype().getId());
+				out.writeVarLong(values.size());
+				for (final AttributeValue value : values)
+				{
+					writeValue(out, value);
+				}
+			}
+		}
+
+		return out.toFrame();
+	}
+
+	private static int toDecisionCode(final DecisionType decision)
+	{
+		for (int i = 0; i < DECISIONS.length; i++)
+		{
+			if (DECISIONS[i] == decision)
+			{
+				return i;
+			}
+		}
+
+		throw new IllegalArgumentException("Unsupported decision: " + decision);
+	}
+
+	private static DecisionType readDecision(final Decoder in) throws IllegalArgumentException
+	{
+		final byte code = in.readByte();
+		if (code < 0 || code >= DECISIONS.length)
+		{
+			throw new IllegalArgumentException("Invalid decision code: " + code);
+		}
+
+		return DECISIONS[code];
+	}
+
+	/**
+	 * Writes a decision result; the extended Indeterminate is written iff {@code decision == INDETERMINATE}
+	 */
+	static void writeResult(final Encoder out, final DecisionType decision, final DecisionType extendedIndeterminate, final Optional<ImmutableXacmlStatus> status, final List<PepAction> pepActions,
+			final List<PrimaryPolicyMetadata> applicablePolicies) throws IllegalArgumentException
+	{
+		out.writeByte(toDecisionCode(decision));
+		if (decision == DecisionType.INDETERMINATE)
+		{
+			out.writeByte(toDecisionCode(extendedIndeterminate == null ? DecisionType.INDETERMINATE : extendedIndeterminate));
+		}
+
+		if (status.isEmpty())
+		{
+			out.writeVarLong(0);
+		}
+		else
+		{
+			int codeCount = 0;
+			for (StatusCode code = status.get().getStatusCode(); code != null; code = code.getStatusCode())
+			{
+				codeCount++;
+			}
+
+			out.writeVarLong(codeCount);
+			for (StatusCode code = status.get().getStatusCode(); code != null; code = code.getStatusCode())
+			{
+				out.writeStringRef(code.getValue());
+			}
+
+			out.writeStringRef(status.get().getStatusMessage());
+		}
+
+		if (pepActions == null)
+		{
+			out.writeVarLong(0);
+		}
+		else
+		{
+			out.writeVarLong(pepActions.size());
+			for (final PepAction pepAction : pepActions)
+			{
+				out.writeStringRef(pepAction.getId());
+				out.writeBoolean(pepAction.isMandatory());
+				final List<PepActionAttributeAssignment<?>> attributeAssignments = pepAction.getAttributeAssignments();
+				out.writeVarLong(attributeAssignments.size());
+				for (final PepActionAttributeAssignment<?> attributeAssignment : attributeAssignments)
+				{
+					out.writeStringRef(attributeAssignment.getCategory().orElse(null));
+					out.writeStringRef(attributeAssignment.getIssuer().orElse(null));
+					out.writeStringRef(attributeAssignment.getAttributeId());
+					out.writeStringRef(attributeAssignment.getDatatype().getId());
+					writeValue(out, attributeAssignment.getValue());
+				}
+			}
+		}
+
+		if (applicablePolicies == null)
+		{
+			out.writeVarLong(0);
+		}
+		else
+		{
+			out.writeVarLong(applicablePolicies.size());
+			for (final PrimaryPolicyMetadata applicablePolicy : applicablePolicies)
+			{
+				out.writeBoolean(applicablePolicy.getType() == TopLevelPolicyElementType.POLICY_SET);
+				out.writeStringRef(applicablePolicy.getId());
+				out.writeStringRef(applicablePolicy.getVersion().toString());
+			}
+		}
+	}
+
+	private static <AV extends AttributeValue> PepActionAttributeAssignment<AV> readAttributeAssignment(final Decoder in, final String attributeId, final Optional<String> category,
+			final Optional<String> issuer, final AttributeValueFactory<AV> valueFactory)
+	{
+		return new PepActionAttributeAssignment<>(attributeId, category, issuer, valueFactory.getDatatype(), readValue(in, valueFactory));
+	}
+
+	private static DecisionResult readResult(final Decoder in, final AttributeValueFactoryRegistry valueFactoryRegistry) throws IllegalArgumentException
+	{
+		final DecisionType decision = readDecision(in);
+		final DecisionType extendedIndeterminate = decision == DecisionType.INDETERMINATE ? readDecision(in) : DecisionType.NOT_APPLICABLE;
+
+		final int statusCodeCount = in.readCount();
+		final Optional<ImmutableXacmlStatus> status;
+		if (statusCodeCount == 0)
+		{
+			status = Optional.empty();
+		}
+		else
+		{
+			final List<String> codes = new ArrayList<>(statusCodeCount);
+			for (int i = 0; i < statusCodeCount; i++)
+			{
+				codes.add(in.readStringRef("StatusCode"));
+			}
+
+			status = Optional.of(new ImmutableXacmlStatus(codes, Optional.ofNullable(in.readOptionalStringRef())));
+		}
+
+		final int pepActionCount = in.readCount();
+		final ImmutableList.Builder<PepAction> pepActions = ImmutableList.builderWithExpectedSize(pepActionCount);
+		for (int i = 0; i < pepActionCount; i++)
+		{
+			final String pepActionId = in.readStringRef("Obligation/Advice ID");
+			final boolean isMandatory = in.readBoolean();
+			final int attributeAssignmentCount = in.readCount();
+			final ImmutableList.Builder<PepActionAttributeAssignment<?>> attributeAssignments = ImmutableList.builderWithExpectedSize(attributeAssignmentCount);
+			for (int j = 0; j < attributeAssignmentCount; j++)
+			{
+				final Optional<String> category = Optional.ofNullable(in.readOptionalStringRef());
+				final Optional<String> issuer = Optional.ofNullable(in.readOptionalStringRef());
+				final String attributeId = in.readStringRef("AttributeId");
+				final AttributeValueFactory<?> valueFactory = getValueFactory(valueFactoryRegistry, in.readStringRef("DataType"));
+				attributeAssignments.add(readAttributeAssignment(in, attributeId, category, issuer, valueFactory));
+			}
+
+			pepActions.add(new PepAction(pepActionId, isMandatory, attributeAssignments.build()));
+		}
+
+		final int applicablePolicyCount = in.readCount();
+		final ImmutableList.Builder<PrimaryPolicyMetadata> applicablePolicies = ImmutableList.builderWithExpectedSize(applicablePolicyCount);
+		for (int i = 0; i < applicablePolicyCount; i++)
+		{
+			final TopLevelPolicyElementType policyType = in.readBoolean() ? TopLevelPolicyElementType.POLICY_SET : TopLevelPolicyElementType.POLICY;
+			final String policyId = in.readStringRef("policy ID");
+			applicablePolicies.add(new BasePrimaryPolicyMetadata(policyType, policyId, new PolicyVersion(in.readStringRef("policy version"))));
+		}
+
+		switch (decision)
+		{
+			case PERMIT:
+				return DecisionResults.getPermit(status, pepActions.build(), applicablePolicies.build());
+			case DENY:
+				return DecisionResults.getDeny(status, pepActions.build(), applicablePolicies.build());
+			case NOT_APPLICABLE:
+				return DecisionResults.getNotApplicable(status);
+			default:
+				final IndeterminateEvaluationException cause = new IndeterminateEvaluationException(
+						status.orElseGet(() -> new ImmutableXacmlStatus(XacmlStatusCode.PROCESSING_ERROR.value(), Optional.empty())));
+				return DecisionResults.newIndeterminate(extendedIndeterminate, cause, applicablePolicies.build());
+		}
+	}
+
+	/**
+	 * Decodes a response message, i.e. (PEP side) decoding of the output of {@link BinaryDecisionResultPostprocessor}
+	 *
+	 * @param payload
+	 *            response frame payload, e.g. returned by {@link #nextFrame(ByteBuffer)} (the position of this buffer is not changed)
+	 * @param valueFactoryRegistry
+	 *            factories of the datatypes used in the obligations/advice
+	 * @return the decision results, in the same order as the individual decision requests in the request message (a single Indeterminate result if the request was rejected)
+	 * @throws IllegalArgumentException
+	 *             if the payload is not a valid response message
+	 */
+	public static List<DecisionResult> decodeResults(final ByteBuffer payload, final AttributeValueFactoryRegistry valueFactoryRegistry) throws IllegalArgumentException
+	{
+		Preconditions.checkArgument(valueFactoryRegistry != null, "Undefined valueFactoryRegistry");
+		try
+		{
+			final Decoder in = new Decoder(payload, RESPONSE_MESSAGE_TYPE);
+			final int resultCount = in.readCount();
+			final List<DecisionResult> results = new ArrayList<>(resultCount);
+			for (int i = 0; i < resultCount; i++)
+			{
+				results.add(readResult(in, valueFactoryRegistry));
+			}
+
+			in.checkEnd();
+			return results;
+		}
+		catch (final BufferUnderflowException e)
+		{
+			throw new IllegalArgumentException("Truncated response message", e);
+		}
+	}
+
+	/**
+	 * Creates a PDP engine adapter for the binary wire format, i.e. that takes request frame payloads (e.g. returned by {@link #nextFrame(ByteBuffer)}) as input, and returns response frames, using
+	 * {@link BinaryDecisionRequestPreprocessor} and {@link BinaryDecisionResultPostprocessor}.
+	 *
+	 * @param adaptedPdpEngine
+	 *            adapted PDP engine
+	 * @param valueFactoryRegistry
+	 *            attribute datatype factories
+	 * @param strictAttributeIssuerMatch
+	 *            true iff it is required that AttributeDesignator without Issuer only match request Attributes without Issuer (see
+	 *            {@link org.ow2.authzforce.core.pdp.api.DecisionRequestPreprocessor.Factory#getInstance(AttributeValueFactoryRegistry, boolean, boolean, java.util.Set)})
+	 * @param clientRequestErrorVerbosityLevel
+	 *            level of verbosity of the error message trace returned in case of client request errors (see {@link BinaryDecisionResultPostprocessor#BinaryDecisionResultPostprocessor(int)})
+	 * @return PDP engine adapter
+	 * @throws IllegalArgumentException
+	 *             if {@code adaptedPdpEngine == null || valueFactoryRegistry == null || clientRequestErrorVerbosityLevel < 0}
+	 */
+	public static PdpEngineInoutAdapter<ByteBuffer, ByteBuffer> newPdpEngineAdapter(final CloseablePdpEngine adaptedPdpEngine, final AttributeValueFactoryRegistry valueFactoryRegistry,
+			final boolean strictAttributeIssuerMatch, final int clientRequestErrorVerbosityLevel) throws IllegalArgumentException
+	{
+		return new BasePdpEngineAdapter<ByteBuffer, ImmutableDecisionRequest, ByteBuffer>(adaptedPdpEngine, new BinaryDecisionRequestPreprocessor(valueFactoryRegistry, strictAttributeIssuerMatch),
+				new BinaryDecisionResultPostprocessor(clientRequestErrorVerbosityLevel));
+	}
+}
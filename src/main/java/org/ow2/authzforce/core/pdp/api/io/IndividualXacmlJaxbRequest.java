@@ -23,7 +23,10 @@ import net.sf.saxon.s9api.XdmNode;
 import oasis.names.tc.xacml._3_0.core.schema.wd_17.Attributes;
 import org.ow2.authzforce.core.pdp.api.AttributeFqn;
 import org.ow2.authzforce.core.pdp.api.DecisionRequest;
+import org.ow2.authzforce.core.pdp.api.DecisionRequestFingerprint;
 import org.ow2.authzforce.core.pdp.api.ImmutableDecisionRequest;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.PolicyAttributeReferences;
 import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
 
 import java.time.Instant;
@@ -74,12 +77,36 @@ public final class IndividualXacmlJaxbRequest implements DecisionRequest
 		return baseRequest.getExtraContentsByCategory();
 	}
 
+	@Override
+	public XdmNode getExtraContent(final String category) throws IndeterminateEvaluationException
+	{
+		return baseRequest.getExtraContent(category);
+	}
+
 	@Override
 	public boolean isApplicablePolicyIdListReturned()
 	{
 		return baseRequest.isApplicablePolicyIdListReturned();
 	}
 
+	@Override
+	public DecisionRequestFingerprint getFingerprint(final DecisionRequestFingerprint.Key key)
+	{
+		/*
+		 * attributesToBeReturned ignored like in hashCode()
+		 */
+		return baseRequest.getFingerprint(key);
+	}
+
+	@Override
+	public DecisionRequest getProjection(final PolicyAttributeReferences attributeReferences)
+	{
+		/*
+		 * attributesToBeReturned ignored like in hashCode()
+		 */
+		return baseRequest.getProjection(attributeReferences);
+	}
+
 	/**
 	 * Attributes elements to be included in corresponding result.
 	 * 
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal pull tokenizer of JSON (RFC 8259) text, for streaming request preprocessors. Tokens are read one by one from the underlying {@link Reader} (through an internal buffer), without building
+ * any object tree. The structure (brackets, commas and colons) is checked on the fly.
+ * <p>
+ * Not thread-safe.
+ */
+final class JsonTokenizer
+{
+	/**
+	 * JSON token type
+	 */
+	enum Token
+	{
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, TRUE, FALSE, NULL, END_DOCUMENT
+	}
+
+	private static final Pattern NUMBER_PATTERN = Pattern.compile("-?(?:0|[1-9][0-9]*)(?:\\.[0-9]+)?(?:[eE][+-]?[0-9]+)?");
+
+	/*
+	 * Maximum nesting depth of objects/arrays
+	 */
+	private static final int MAX_DEPTH = 256;
+
+	/*
+	 * Parsing states, one per nesting level
+	 */
+	private static final byte DOCUMENT_EMPTY = 0;
+	private static final byte DOCUMENT_DONE = 1;
+	private static final byte OBJECT_EMPTY = 2;
+	private static final byte OBJECT_NAME_READ = 3;
+	private static final byte OBJECT_VALUE_READ = 4;
+	private static final byte ARRAY_EMPTY = 5;
+	private static final byte ARRAY_VALUE_READ = 6;
+
+	private final Reader in;
+	private final char[] buffer = new char[8192];
+	private int pos = 0;
+	private int limit = 0;
+	private long offsetOfBuffer = 0;
+
+	private byte[] states = new byte[16];
+	private int depth = 0;
+
+	private final StringBuilder text = new StringBuilder();
+	private boolean isIntegralNumber = false;
+
+	JsonTokenizer(final Reader in)
+	{
+		assert in != null;
+		this.in = in;
+		this.states[0] = DOCUMENT_EMPTY;
+	}
+
+	private IllegalArgumentException syntaxError(final String message)
+	{
+		return new IllegalArgumentException("Invalid JSON at character offset " + (offsetOfBuffer + pos) + ": " + message);
+	}
+
+	/*
+	 * Next char, or -1 if end of input
+	 */
+	private int read() throws IOException
+	{
+		if (pos == limit)
+		{
+			offsetOfBuffer += limit;
+			pos = 0;
+			limit = 0;
+			final int n = in.read(buffer);
+			if (n <= 0)
+			{
+				return -1;
+			}
+
+			limit = n;
+		}
+
+		return buffer[pos++];
+	}
+
+	private int readNonWhitespace() throws IOException
+	{
+		int c;
+		do
+		{
+			c = read();
+		}
+		while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+		return c;
+	}
+
+	private void push(final byte state)
+	{
+		if (depth + 1 >= MAX_DEPTH)
+		{
+			throw syntaxError("too deep nesting (max: " + MAX_DEPTH + ")");
+		}
+
+		depth++;
+		if (depth == states.length)
+		{
+			states = Arrays.copyOf(states, states.length * 2);
+		}
+
+		states[depth] = state;
+	}
+
+	private void readString() throws IOException
+	{
+		text.setLength(0);
+		while (true)
+		{
+			final int c = read();
+			switch (c)
+			{
+				case -1:
+					throw syntaxError("unterminated string");
+				case '"':
+					return;
+				case '\\':
+					final int escaped = read();
+					switch (escaped)
+					{
+						case '"':
+						case '\\':
+						case '/':
+							text.append((char) escaped);
+							break;
+						case 'b':
+							text.append('\b');
+							break;
+						case 'f':
+							text.append('\f');
+							break;
+						case 'n':
+							text.append('\n');
+							break;
+						case 'r':
+							text.append('\r');
+							break;
+						case 't':
+							text.append('\t');
+							break;
+						case 'u':
+							int codeUnit = 0;
+							for (int i = 0; i < 4; i++)
+							{
+								final int digit = Character.digit(read(), 16);
+								if (digit < 0)
+								{
+									throw syntaxError("invalid \\u escape sequence");
+								}
+
+								codeUnit = (codeUnit << 4) | digit;
+							}
+
+							text.append((char) codeUnit);
+							break;
+						default:
+							throw syntaxError("invalid escape sequence");
+					}
+					break;
+				default:
+					if (c < 0x20)
+					{
+						throw syntaxError("unescaped control character in string");
+					}
+
+					text.append((char) c);
+			}
+		}
+	}
+
+	private void readNumber(final int firstChar) throws IOException
+	{
+		text.setLength(0);
+		text.append((char) firstChar);
+		isIntegralNumber = true;
+		while (true)
+		{
+			if (pos == limit && read() != -1)
+			{
+				// buffer refilled, unread the first char
+				pos--;
+			}
+
+			if (pos == limit)
+			{
+				// end of input
+				break;
+			}
+
+			final char c = buffer[pos];
+			if (c >= '0' && c <= '9' || c == '-' || c == '+')
+			{
+				text.append(c);
+			}
+			else if (c == '.' || c == 'e' || c == 'E')
+			{
+				text.append(c);
+				isIntegralNumber = false;
+			}
+			else
+			{
+				break;
+			}
+
+			pos++;
+		}
+
+		if (!NUMBER_PATTERN.matcher(text).matches())
+		{
+			throw syntaxError("invalid number: " + text);
+		}
+	}
+
+	private void readLiteral(final String literal) throws IOException
+	{
+		// first char already read
+		for (int i = 1; i < literal.length(); i++)
+		{
+			if (read() != literal.charAt(i))
+			{
+				throw syntaxError("invalid literal (expected: " + literal + ")");
+			}
+		}
+	}
+
+	private Token readValue(final int c) throws IOException
+	{
+		switch (c)
+		{
+			case '{':
+				push(OBJECT_EMPTY);
+				return Token.BEGIN_OBJECT;
+			case '[':
+				push(ARRAY_EMPTY);
+				return Token.BEGIN_ARRAY;
+			case '"':
+				readString();
+				return Token.STRING;
+			case 't':
+				readLiteral("true");
+				return Token.TRUE;
+			case 'f':
+				readLiteral("false");
+				return Token.FALSE;
+			case 'n':
+				readLiteral("null");
+				return Token.NULL;
+			case -1:
+				throw syntaxError("unexpected end of input");
+			default:
+				if (c == '-' || c >= '0' && c <= '9')
+				{
+					readNumber(c);
+					return Token.NUMBER;
+				}
+
+				throw syntaxError("unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private Token readName(final int c) throws IOException
+	{
+		if (c != '"')
+		{
+			throw syntaxError("expected member name");
+		}
+
+		readString();
+		if (readNonWhitespace() != ':')
+		{
+			throw syntaxError("expected ':' after member name");
+		}
+
+		states[depth] = OBJECT_NAME_READ;
+		return Token.NAME;
+	}
+
+	/**
+	 * Reads the next token
+	 *
+	 * @return next token; {@link Token#END_DOCUMENT} at the end of the input (after the top-level value)
+	 * @throws IOException
+	 *             error reading the input
+	 * @throws IllegalArgumentException
+	 *             invalid JSON
+	 */
+	Token next() throws IOException, IllegalArgumentException
+	{
+		final int c = readNonWhitespace();
+		switch (states[depth])
+		{
+			case OBJECT_EMPTY:
+				if (c == '}')
+				{
+					depth--;
+					return Token.END_OBJECT;
+				}
+
+				return readName(c);
+			case OBJECT_VALUE_READ:
+				if (c == '}')
+				{
+					depth--;
+					return Token.END_OBJECT;
+				}
+
+				if (c != ',')
+				{
+					throw syntaxError("expected ',' or '}'");
+				}
+
+				return readName(readNonWhitespace());
+			case OBJECT_NAME_READ:
+				states[depth] = OBJECT_VALUE_READ;
+				return readValue(c);
+			case ARRAY_EMPTY:
+				if (c == ']')
+				{
+					depth--;
+					return Token.END_ARRAY;
+				}
+
+				states[depth] = ARRAY_VALUE_READ;
+				return readValue(c);
+			case ARRAY_VALUE_READ:
+				if (c == ']')
+				{
+					depth--;
+					return Token.END_ARRAY;
+				}
+
+				if (c != ',')
+				{
+					throw syntaxError("expected ',' or ']'");
+				}
+
+				return readValue(readNonWhitespace());
+			case DOCUMENT_EMPTY:
+				states[0] = DOCUMENT_DONE;
+				return readValue(c);
+			default:
+				// DOCUMENT_DONE
+				if (c != -1)
+				{
+					throw syntaxError("unexpected data after top-level value");
+				}
+
+				return Token.END_DOCUMENT;
+		}
+	}
+
+	/**
+	 * Skips the rest of the value starting with {@code firstToken}, i.e. up to the matching end token if {@code firstToken} is {@link Token#BEGIN_OBJECT} or {@link Token#BEGIN_ARRAY}
+	 *
+	 * @param firstToken
+	 *            first token of the value, i.e. last token returned by {@link #next()}
+	 * @throws IOException
+	 *             error reading the input
+	 * @throws IllegalArgumentException
+	 *             invalid JSON
+	 */
+	void skipValue(final Token firstToken) throws IOException, IllegalArgumentException
+	{
+		if (firstToken != Token.BEGIN_OBJECT && firstToken != Token.BEGIN_ARRAY)
+		{
+			return;
+		}
+
+		final int targetDepth = depth - 1;
+		while (depth > targetDepth)
+		{
+			next();
+		}
+	}
+
+	/**
+	 * Gets the text of the last {@link Token#NAME}, {@link Token#STRING} or {@link Token#NUMBER} (unescaped), as returned by {@link #next()}
+	 *
+	 * @return text
+	 */
+	String getText()
+	{
+		return text.toString();
+	}
+
+	/**
+	 * Returns whether the last {@link Token#NUMBER} has no fraction or exponent part
+	 *
+	 * @return true iff integral number
+	 */
+	boolean isIntegralNumber()
+	{
+		return isIntegralNumber;
+	}
+}
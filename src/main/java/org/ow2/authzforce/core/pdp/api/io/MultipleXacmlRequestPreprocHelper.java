@@ -18,14 +18,14 @@
 package org.ow2.authzforce.core.pdp.api.io;
 
 import com.google.common.collect.ImmutableList;
-import net.sf.saxon.s9api.XdmNode;
+import com.google.common.collect.ImmutableMap;
 import org.ow2.authzforce.core.pdp.api.*;
 import org.ow2.authzforce.core.pdp.api.expression.XPathCompilerProxy;
 import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
 import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
 
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.function.Consumer;
 
 /**
  * Multiple Decision Request preprocessing helper, for supporting the Multiple Decision Profile scheme "Repeated attribute categories".
@@ -41,6 +41,10 @@ import java.util.Map.Entry;
  */
 public abstract class MultipleXacmlRequestPreprocHelper<R extends DecisionRequest, VALIDATOR_INPUT_ATTRIBUTE_CATEGORY_OBJECT, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT>
 {
+	/*
+	 * Max number of individual decision requests returned by process(...) as a list (close to max array size)
+	 */
+	private static final long MAX_INDIVIDUAL_REQUEST_LIST_SIZE = Integer.MAX_VALUE - 8;
 
 	/**
 	 * (Mutable) {@link IndividualXacmlJaxbRequest} builder. Allows updating attribute categories and rebuild (immutable) Individual Decision Requests over and over again. Useful especially for
@@ -60,8 +64,14 @@ public abstract class MultipleXacmlRequestPreprocHelper<R extends DecisionReques
 		/*
 		 * Initialized not null by constructors
 		 */
-		private final Map<AttributeFqn, AttributeBag<?>> namedAttributes;
-		private final Map<String, XdmNode> contentNodesByCategory;
+		/*
+		 * Immutable attribute maps by category, shared with the base request builder (if any) and the requests built from it, since they are never modified
+		 */
+		private final Map<String, ImmutableMap<AttributeFqn, AttributeBag<?>>> namedAttributesByCategory;
+		/*
+		 * Contents (possibly parsed lazily) by category
+		 */
+		private final Map<String, LazilyParsedContent> contentNodesByCategory;
 		private final List<INPUT_ATTRIBUTE_CATEGORY> attributesToIncludeInResult;
 		private final boolean isApplicablePolicyIdListReturned;
 		private final IndividualXacmlRequestFactory<R, INPUT_ATTRIBUTE_CATEGORY> decisionReqFactory;
@@ -77,7 +87,7 @@ public abstract class MultipleXacmlRequestPreprocHelper<R extends DecisionReques
 		private UpdatableIndividualXacmlRequestBuilder(final boolean returnPolicyIdList, final IndividualXacmlRequestFactory<R, INPUT_ATTRIBUTE_CATEGORY> individualIoDecisionRequestFactory)
 		{
 			// these maps/lists may be updated later by put(...) method defined in this class
-			namedAttributes = HashCollections.newUpdatableMap();
+			namedAttributesByCategory = new LinkedHashMap<>();
 			contentNodesByCategory = HashCollections.newUpdatableMap();
 			attributesToIncludeInResult = new ArrayList<>();
 			isApplicablePolicyIdListReturned = returnPolicyIdList;
@@ -85,7 +95,7 @@ public abstract class MultipleXacmlRequestPreprocHelper<R extends DecisionReques
 		}
 
 		/**
-		 * Create new instance as a clone of an existing request.
+		 * Create new instance as a clone of an existing request. Only the map of categories is copied, not the attributes in each category.
 		 *
 		 * @param baseRequest
 		 *            replicated existing request. Further changes to it are not reflected back to this new instance.
@@ -95,7 +105,7 @@ public abstract class MultipleXacmlRequestPreprocHelper<R extends DecisionReques
 			assert baseRequest != null;
 
 			// these maps/lists may be updated later by put(...) method defined in this class
-			namedAttributes = HashCollections.newUpdatableMap(baseRequest.namedAttributes);
+			namedAttributesByCategory = new LinkedHashMap<>(baseRequest.namedAttributesByCategory);
 			contentNodesByCategory = HashCollections.newUpdatableMap(baseRequest.contentNodesByCategory);
 			isApplicablePolicyIdListReturned = baseRequest.isApplicablePolicyIdListReturned;
 			attributesToIncludeInResult = new ArrayList<>(baseRequest.attributesToIncludeInResult);
@@ -126,10 +136,11 @@ public abstract class MultipleXacmlRequestPreprocHelper<R extends DecisionReques
 
 			// extraContentsByCategory initialized not null by constructors
 			assert contentNodesByCategory != null;
-			final XdmNode newContentNode = categorySpecificAttributes.getExtraContent();
+			// do not parse the Content (if parsed lazily)
+			final LazilyParsedContent newContentNode = categorySpecificAttributes.getLazyExtraContent();
 			if (newContentNode != null)
 			{
-				final XdmNode duplicate = contentNodesByCategory.putIfAbsent(categoryName, newContentNode);
+				final LazilyParsedContent duplicate = contentNodesByCategory.putIfAbsent(categoryName, newContentNode);
 				if (duplicate != null)
 				{
 					throw new IllegalArgumentException("Duplicate Attributes[@Category] in Individual Decision Request (not allowed): " + categoryName);
@@ -141,10 +152,13 @@ public abstract class MultipleXacmlRequestPreprocHelper<R extends DecisionReques
 			 * mandated by the XACML spec, section 7.3.5: <p> <i>
 			 * "Regardless of any dynamic modifications of the request context during policy evaluation, the PDP SHALL behave as if each bag of attribute values is fully populated in the context before it is first tested, and is thereafter immutable during evaluation. (That is, every subsequent test of that attribute shall use the same bag of values that was initially tested.)"
 			 * </i></p>
+			 * The resulting map is computed once per categorySpecificAttributes, and shared by all requests with these attributes.
 			 */
-			for (final Entry<AttributeFqn, AttributeBag<?>> attrEntry : categorySpecificAttributes)
+			final ImmutableMap<AttributeFqn, AttributeBag<?>> newCategoryAttributes = categorySpecificAttributes.getNamedAttributeMap();
+			if (!newCategoryAttributes.isEmpty())
 			{
-				namedAttributes.put(attrEntry.getKey(), attrEntry.getValue());
+				namedAttributesByCategory.merge(categoryName, newCategoryAttributes, (oldAttributes, newAttributes) -> ImmutableMap.<AttributeFqn, AttributeBag<?>> builder().putAll(oldAttributes)
+						.putAll(newAttributes).buildKeepingLast());
 			}
 
 			final INPUT_ATTRIBUTE_CATEGORY catSpecificAttrsToIncludeInResult = categorySpecificAttributes.getAttributesToIncludeInResult();
@@ -162,13 +176,135 @@ public abstract class MultipleXacmlRequestPreprocHelper<R extends DecisionReques
 		 */
 		public R build()
 		{
-			return this.decisionReqFactory.newInstance(ImmutableDecisionRequest.getInstance(this.namedAttributes, this.contentNodesByCategory, this.isApplicablePolicyIdListReturned),
+			return this.decisionReqFactory.newInstance(ImmutableDecisionRequest.getInstanceByCategoryWithLazyContents(this.namedAttributesByCategory, this.contentNodesByCategory, this.isApplicablePolicyIdListReturned),
 			        ImmutableList.copyOf(this.attributesToIncludeInResult));
 		}
 
 	}
 
-	private static final ImmutableXacmlStatus INVALID_XPATH_VERSION_ERROR_STATUS = new ImmutableXacmlStatus(XacmlStatusCode.SYNTAX_ERROR.value(), Optional.of("Invalid RequestDefaults/XPathVersion"));
+	/**
+	 * Lazy generator of the individual decision requests - one per combination of repeated attribute categories - of a Multiple Decision Request, in the order of
+	 * {@link MultipleXacmlRequestPreprocHelper#process(Iterable, SingleCategoryXacmlAttributesParser, boolean, Optional)}, i.e. combinations sorted in lexicographic order of the alternatives' index
+	 * in each category (categories in order of first occurrence).
+	 * <p>
+	 * Consecutive combinations share the alternatives of their first categories, therefore the builders for these common prefixes are kept and reused: generating the next request only re-applies
+	 * the categories after the first one that differs from the previous request, typically the last one.
+	 *
+	 * @param <R>
+	 *            type of individual decision request
+	 * @param <INPUT_ATTRIBUTE_CATEGORY>
+	 *            type of input attribute category in original format
+	 */
+	private static final class IndividualRequestSpliterator<R extends DecisionRequest, INPUT_ATTRIBUTE_CATEGORY> implements Spliterator<R>
+	{
+		private final List<String> categoryNames;
+		private final List<List<SingleCategoryAttributes<?, INPUT_ATTRIBUTE_CATEGORY>>> alternativesByCategory;
+		private final boolean isApplicablePolicyIdListReturned;
+		private final IndividualXacmlRequestFactory<R, INPUT_ATTRIBUTE_CATEGORY> decisionReqFactory;
+
+		/*
+		 * Range of combination indexes [nextIndex, endIndex) left to generate
+		 */
+		private long nextIndex;
+		private final long endIndex;
+
+		/*
+		 * prefixBuilders.get(k) has the alternatives of categories 0..k-1 given by currentAlternatives[0..k-1], valid for k < validPrefixCount (prefixBuilders.get(0) is the empty request)
+		 */
+		private final List<UpdatableIndividualXacmlRequestBuilder<R, INPUT_ATTRIBUTE_CATEGORY>> prefixBuilders;
+		private final int[] currentAlternatives;
+		private final int[] nextAlternatives;
+		private int validPrefixCount;
+
+		private IndividualRequestSpliterator(final List<String> categoryNames, final List<List<SingleCategoryAttributes<?, INPUT_ATTRIBUTE_CATEGORY>>> alternativesByCategory,
+				final boolean isApplicablePolicyIdListReturned, final IndividualXacmlRequestFactory<R, INPUT_ATTRIBUTE_CATEGORY> decisionReqFactory, final long startIndex, final long endIndex)
+		{
+			assert !categoryNames.isEmpty() && categoryNames.size() == alternativesByCategory.size() && startIndex <= endIndex;
+			this.categoryNames = categoryNames;
+			this.alternativesByCategory = alternativesByCategory;
+			this.isApplicablePolicyIdListReturned = isApplicablePolicyIdListReturned;
+			this.decisionReqFactory = decisionReqFactory;
+			this.nextIndex = startIndex;
+			this.endIndex = endIndex;
+			final int categoryCount = categoryNames.size();
+			this.prefixBuilders = new ArrayList<>(Collections.nCopies(categoryCount, null));
+			this.prefixBuilders.set(0, new UpdatableIndividualXacmlRequestBuilder<>(isApplicablePolicyIdListReturned, decisionReqFactory));
+			this.currentAlternatives = new int[categoryCount];
+			this.nextAlternatives = new int[categoryCount];
+			this.validPrefixCount = 1;
+		}
+
+		@Override
+		public boolean tryAdvance(final Consumer<? super R> action)
+		{
+			if (nextIndex >= endIndex)
+			{
+				return false;
+			}
+
+			// mixed-radix decomposition of nextIndex, the last category being the least significant
+			long quotient = nextIndex;
+			for (int k = nextAlternatives.length - 1; k >= 0; k--)
+			{
+				final int alternativeCount = alternativesByCategory.get(k).size();
+				nextAlternatives[k] = (int) (quotient % alternativeCount);
+				quotient /= alternativeCount;
+			}
+
+			int level = 1;
+			while (level < validPrefixCount && nextAlternatives[level - 1] == currentAlternatives[level - 1])
+			{
+				level++;
+			}
+
+			for (; level < nextAlternatives.length; level++)
+			{
+				prefixBuilders.set(level, newBuilder(prefixBuilders.get(level - 1), level - 1, nextAlternatives[level - 1]));
+			}
+
+			System.arraycopy(nextAlternatives, 0, currentAlternatives, 0, nextAlternatives.length);
+			validPrefixCount = nextAlternatives.length;
+			final int lastCategory = nextAlternatives.length - 1;
+			nextIndex++;
+			action.accept(newBuilder(prefixBuilders.get(lastCategory), lastCategory, nextAlternatives[lastCategory]).build());
+			return true;
+		}
+
+		private UpdatableIndividualXacmlRequestBuilder<R, INPUT_ATTRIBUTE_CATEGORY> newBuilder(final UpdatableIndividualXacmlRequestBuilder<R, INPUT_ATTRIBUTE_CATEGORY> base, final int category,
+				final int alternative)
+		{
+			final UpdatableIndividualXacmlRequestBuilder<R, INPUT_ATTRIBUTE_CATEGORY> builder = new UpdatableIndividualXacmlRequestBuilder<>(base);
+			builder.put(categoryNames.get(category), alternativesByCategory.get(category).get(alternative));
+			return builder;
+		}
+
+		@Override
+		public Spliterator<R> trySplit()
+		{
+			final long remaining = endIndex - nextIndex;
+			if (remaining < 2)
+			{
+				return null;
+			}
+
+			final long splitIndex = nextIndex + remaining / 2;
+			final Spliterator<R> prefix = new IndividualRequestSpliterator<>(categoryNames, alternativesByCategory, isApplicablePolicyIdListReturned, decisionReqFactory, nextIndex, splitIndex);
+			nextIndex = splitIndex;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize()
+		{
+			return endIndex - nextIndex;
+		}
+
+		@Override
+		public int characteristics()
+		{
+			return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+		}
+	}
 
 	private final IndividualXacmlRequestFactory<R, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT> individualXacmlReqFactory;
 
@@ -213,6 +349,42 @@ public abstract class MultipleXacmlRequestPreprocHelper<R extends DecisionReques
 	public final List<R> process(final Iterable<VALIDATOR_INPUT_ATTRIBUTE_CATEGORY_OBJECT> inputRequestAttributeCategoryObjects,
 								 final SingleCategoryXacmlAttributesParser<VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT> xacmlAttrsParser, final boolean isApplicablePolicyIdListReturned,
 								 final Optional<XPathCompilerProxy> xPathCompiler) throws IndeterminateEvaluationException
+	{
+		final Spliterator<R> individualRequests = processLazily(inputRequestAttributeCategoryObjects, xacmlAttrsParser, isApplicablePolicyIdListReturned, xPathCompiler);
+		if (individualRequests.estimateSize() > MAX_INDIVIDUAL_REQUEST_LIST_SIZE)
+		{
+			throw new IndeterminateEvaluationException("Too many Individual Decision Requests in Multiple Decision Request (" + individualRequests.estimateSize() + ") for list-based processing",
+					XacmlStatusCode.PROCESSING_ERROR.value());
+		}
+
+		final List<R> finalIndividualRequests = new ArrayList<>((int) individualRequests.estimateSize());
+		individualRequests.forEachRemaining(finalIndividualRequests::add);
+		return finalIndividualRequests;
+	}
+
+	/**
+	 * Same as {@link #process(Iterable, SingleCategoryXacmlAttributesParser, boolean, Optional)}, except the individual decision requests are generated on demand by the returned
+	 * {@link Spliterator}, in the same order, instead of being all created upfront. Therefore, the caller may start evaluating the first requests right away, and keep only a bounded number of them in
+	 * memory at any time, e.g. with {@link Spliterators#iterator(Spliterator)}; or split the requests for parallel processing, e.g. with {@link java.util.stream.StreamSupport#stream(Spliterator,
+	 * boolean)}. The input attributes are still parsed and validated before this method returns, therefore any syntax error is reported immediately.
+	 * <p>
+	 * Individual requests generated consecutively share the (builders of the) attribute categories they have in common.
+	 *
+	 * @param inputRequestAttributeCategoryObjects
+	 *            XACML Attribute Category objects (e.g. XACML/XML Attributes elements or XACML/JSON objects from 'Attribute' array), null if none
+	 * @param xacmlAttrsParser
+	 *            XACML Attributes element Parser instance, used to parse each Attributes in {@code attributesList}.
+	 * @param isApplicablePolicyIdListReturned
+	 *            XACML Request's property {@code returnPolicyIdList}.
+	 * @param xPathCompiler
+	 *            xpathExpression compiler, corresponding to the XACML RequestDefaults element, or undefined if no RequestDefaults element or XPath support disabled by PDP configuration.
+	 * @return individual decision requests generator (ordered, sized, splittable, not thread-safe)
+	 * @throws IndeterminateEvaluationException
+	 *             if some feature requested in the Request is not supported by this pre-processor, or the number of individual decision requests exceeds {@link Long#MAX_VALUE}
+	 */
+	public final Spliterator<R> processLazily(final Iterable<VALIDATOR_INPUT_ATTRIBUTE_CATEGORY_OBJECT> inputRequestAttributeCategoryObjects,
+			final SingleCategoryXacmlAttributesParser<VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT> xacmlAttrsParser, final boolean isApplicablePolicyIdListReturned,
+			final Optional<XPathCompilerProxy> xPathCompiler) throws IndeterminateEvaluationException
 	{
 		/*
 		 * Parse Request attributes and group possibly repeated categories to implement Multiple Decision Profile, §2.3.
@@ -224,7 +396,7 @@ public abstract class MultipleXacmlRequestPreprocHelper<R extends DecisionReques
 		 * a simpler Map implementation not preserving iteration order. Unfortunately, Koloboke - that we are using as HashMap alternative to JDK - does not support LinkedHashMap equivalent at the
 		 * moment: https://github.com/leventov/Koloboke/issues/47 (we should keep an eye on it). So until this resolved, we use JDK LinkedHashMap.
 		 */
-		final Map<String, Queue<SingleCategoryAttributes<?, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT>>> multiReqAttrAlternativesByCategory = new LinkedHashMap<>();
+		final Map<String, List<SingleCategoryAttributes<?, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT>>> multiReqAttrAlternativesByCategory = new LinkedHashMap<>();
 		for (final VALIDATOR_INPUT_ATTRIBUTE_CATEGORY_OBJECT inputRequestAttributeCategoryObject : inputRequestAttributeCategoryObjects)
 		{
 			final VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT inputRequestAttCatObj = validate(inputRequestAttributeCategoryObject);
@@ -235,103 +407,39 @@ public abstract class MultipleXacmlRequestPreprocHelper<R extends DecisionReques
 				continue;
 			}
 
-			final String categoryId = categoryAttributesAlternative.getCategoryId();
-			final Queue<SingleCategoryAttributes<?, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT>> oldAttrAlternatives = multiReqAttrAlternativesByCategory.get(categoryId);
-			final Queue<SingleCategoryAttributes<?, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT>> newAttrAlternatives;
-			if (oldAttrAlternatives == null)
-			{
-				newAttrAlternatives = new ArrayDeque<>();
-				multiReqAttrAlternativesByCategory.put(categoryId, newAttrAlternatives);
-			}
-			else
-			{
-				newAttrAlternatives = oldAttrAlternatives;
-			}
-
-			newAttrAlternatives.add(categoryAttributesAlternative);
+			multiReqAttrAlternativesByCategory.computeIfAbsent(categoryAttributesAlternative.getCategoryId(), k -> new ArrayList<>()).add(categoryAttributesAlternative);
 		}
 
-		/*
-		 * Create mutable initial individual request from which all others will be created/cloned
-		 */
-		final UpdatableIndividualXacmlRequestBuilder<R, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT> initialIndividualReqBuilder;
-		try
-		{
-			initialIndividualReqBuilder = new UpdatableIndividualXacmlRequestBuilder<>(isApplicablePolicyIdListReturned, individualXacmlReqFactory);
-		}
-		catch (final IllegalArgumentException e)
+		if (multiReqAttrAlternativesByCategory.isEmpty())
 		{
-			throw new IndeterminateEvaluationException(INVALID_XPATH_VERSION_ERROR_STATUS, e);
+			return Spliterators.emptySpliterator();
 		}
-		/*
-		 * Generate the Multiple Individual Decision Requests starting with initialIndividualReq and cloning/adding new attributes/content for each new attribute category's Attributes alternative in
-		 * requestAttrAlternativesByCategory
-		 */
+
 		/*
 		 * XACML Multiple Decision Profile, § 2.3.3: "For each combination of repeated <Attributes> elements, one Individual Decision Request SHALL be created. This Individual Request SHALL be
 		 * identical to the original request context with one exception: only one <Attributes> element of each repeated category SHALL be present." In JSON Profile, the <Attributes> element is
 		 * represented by a JSON object.
 		 */
-		final List<UpdatableIndividualXacmlRequestBuilder<R, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT>> individualRequestBuilders = new ArrayList<>();
-		individualRequestBuilders.add(initialIndividualReqBuilder);
-		/*
-		 * In order to create the final individual decision requests, for each attribute category, add each alternative to individual request builders.
-		 */
-		final List<R> finalIndividualRequests = new ArrayList<>();
-		/*
-		 * As explained at the beginning of the method, at this point, we want to make sure that entries are returned in the same order (of first occurrence in the case of Multiple Decision Request)
-		 * as the categories in the request, where each category matches the key in the entry; because "Clients generally appreciate having things returned in the same order they were presented." So
-		 * the map should guarantee that the iteration order is the same as insertion order used previously (e.g. LinkedHashMap).
-		 */
-		final Iterator<Entry<String, Queue<SingleCategoryAttributes<?, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT>>>> multiReqAttrAlternativesByCategoryIterator = multiReqAttrAlternativesByCategory
-		        .entrySet().iterator();
-		boolean isLastCategory = !multiReqAttrAlternativesByCategoryIterator.hasNext();
-		while (!isLastCategory)
+		long combinationCount = 1;
+		for (final List<SingleCategoryAttributes<?, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT>> categoryAlternatives : multiReqAttrAlternativesByCategory.values())
 		{
-			final Entry<String, Queue<SingleCategoryAttributes<?, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT>>> multiReqAttrAlternativesByCategoryEntry = multiReqAttrAlternativesByCategoryIterator
-			        .next();
-			final String categoryName = multiReqAttrAlternativesByCategoryEntry.getKey();
-			final Queue<SingleCategoryAttributes<?, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT>> categorySpecificAlternatives = multiReqAttrAlternativesByCategoryEntry.getValue();
-			isLastCategory = !multiReqAttrAlternativesByCategoryIterator.hasNext();
-			final ListIterator<UpdatableIndividualXacmlRequestBuilder<R, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT>> individualRequestsIterator = individualRequestBuilders.listIterator();
-			while (individualRequestsIterator.hasNext())
+			try
 			{
-				final UpdatableIndividualXacmlRequestBuilder<R, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT> oldIndividualReqBuilder = individualRequestsIterator.next();
-				/*
-				 * New newIndividualReqBuilders created below from this $oldIndividualReqBuilder will replace it in the list of $individualRequestBuilders (and will be used in their turn as
-				 * $oldIndividualReqBuilders). So remove current $oldIndividualReqBuilder from the list
-				 */
-				individualRequestsIterator.remove();
-
-				/*
-				 * Before we add the first category alternative (categoryAlternative0) to the oldReq already created (the "old" one), we clone it for every other alternative, then add this other
-				 * alternative to the new clone. Note that we called categoryAlternatives.poll() before, removing the first alternative, so categoryAlternatives only contains the other alternatives
-				 * now.
-				 */
-				for (final SingleCategoryAttributes<?, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT> otherCategoryAlternative : categorySpecificAlternatives)
-				{
-					// clone the request
-					final UpdatableIndividualXacmlRequestBuilder<R, VALIDATOR_OUTPUT_ATTRIBUTE_CATEGORY_OBJECT> newIndividualReqBuilder = new UpdatableIndividualXacmlRequestBuilder<>(
-					        oldIndividualReqBuilder);
-					newIndividualReqBuilder.put(categoryName, otherCategoryAlternative);
-					if (isLastCategory)
-					{
-						// we can finalize the request build
-						finalIndividualRequests.add(newIndividualReqBuilder.build());
-					}
-					else
-					{
-						/*
-						 * add the new request builder to the list of builders for the next round
-						 */
-						individualRequestsIterator.add(newIndividualReqBuilder);
-					}
-				}
+				combinationCount = Math.multiplyExact(combinationCount, categoryAlternatives.size());
+			}
+			catch (final ArithmeticException e)
+			{
+				throw new IndeterminateEvaluationException("Too many Individual Decision Requests in Multiple Decision Request", XacmlStatusCode.PROCESSING_ERROR.value(), e);
 			}
-
 		}
 
-		return finalIndividualRequests;
+		/*
+		 * As explained at the beginning of the method, at this point, we want to make sure that entries are returned in the same order (of first occurrence in the case of Multiple Decision Request)
+		 * as the categories in the request, where each category matches the key in the entry; because "Clients generally appreciate having things returned in the same order they were presented." So
+		 * the map should guarantee that the iteration order is the same as insertion order used previously (e.g. LinkedHashMap).
+		 */
+		return new IndividualRequestSpliterator<>(ImmutableList.copyOf(multiReqAttrAlternativesByCategory.keySet()), ImmutableList.copyOf(multiReqAttrAlternativesByCategory.values()),
+				isApplicablePolicyIdListReturned, individualXacmlReqFactory, 0, combinationCount);
 	}
 
 }
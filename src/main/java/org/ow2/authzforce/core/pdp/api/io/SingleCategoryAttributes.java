@@ -20,14 +20,20 @@ package org.ow2.authzforce.core.pdp.api.io;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import net.sf.saxon.s9api.XdmNode;
 
 import org.ow2.authzforce.core.pdp.api.AttributeFqn;
+import org.ow2.authzforce.core.pdp.api.ImmutableDecisionRequest;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.LazilyParsedContent;
 import org.ow2.authzforce.core.pdp.api.MutableAttributeBag;
 import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
 import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
@@ -138,9 +144,14 @@ public final class SingleCategoryAttributes<AV_BAG extends Iterable<? extends At
 
 	/*
 	 * Corresponds to Attributes/Content marshalled to XPath data model for XPath evaluation (e.g. AttributeSelector or XPath-based evaluation). This is set to null if no Content provided or no
-	 * feature using XPath evaluation against Content is enabled.
+	 * feature using XPath evaluation against Content is enabled. The Content may be parsed lazily, on first request only.
 	 */
-	private final XdmNode extraContent;
+	private final LazilyParsedContent extraContent;
+
+	/*
+	 * Named attributes as immutable map, computed once on demand by getNamedAttributeMap()
+	 */
+	private volatile ImmutableMap<AttributeFqn, AttributeBag<?>> namedAttributeMap = null;
 
 	/**
 	 * Instantiates this class
@@ -160,9 +171,14 @@ public final class SingleCategoryAttributes<AV_BAG extends Iterable<? extends At
 	 *             iff {@code namedAttributes != null && !namedAttributes.isEmpty() && namedAttributeIteratorConverter == null} (namedAttributeIteratorConverter required if namedAttributes not
 	 *             null/empty)
 	 */
-	@SuppressFBWarnings(value="EI_EXPOSE_REP2", justification="XdmNode considered immutable")
 	public SingleCategoryAttributes(final String categoryId, final Set<Entry<AttributeFqn, AV_BAG>> namedAttributes, final NamedAttributeIteratorConverter<AV_BAG> namedAttributeIteratorConverter,
 			final RETURNED_ATTRIBUTE_CATEGORY returnedAttributeCategory, final XdmNode extraContent) throws IllegalArgumentException
+	{
+		this(categoryId, namedAttributes, namedAttributeIteratorConverter, returnedAttributeCategory, extraContent == null ? null : LazilyParsedContent.of(extraContent));
+	}
+
+	private SingleCategoryAttributes(final String categoryId, final Set<Entry<AttributeFqn, AV_BAG>> namedAttributes, final NamedAttributeIteratorConverter<AV_BAG> namedAttributeIteratorConverter,
+			final RETURNED_ATTRIBUTE_CATEGORY returnedAttributeCategory, final LazilyParsedContent extraContent) throws IllegalArgumentException
 	{
 		this.categoryId = categoryId;
 		// Reminder: XACML <Attribute> element is not mandatory in XACML <Attributes>
@@ -186,6 +202,32 @@ public final class SingleCategoryAttributes<AV_BAG extends Iterable<? extends At
 		this.extraContent = extraContent;
 	}
 
+	/**
+	 * Instantiates this class with Attributes/Content parsed lazily, i.e. only when the Content is first requested (by {@link #getExtraContent()} or by evaluation of the resulting individual
+	 * decision request), at most once.
+	 * 
+	 * @param categoryId
+	 *            category ID
+	 * @param namedAttributes
+	 *            Named attributes (in the XACML sense) where each entry consists of the identifier of the attribute and its value bag
+	 * @param namedAttributeIteratorConverter
+	 *            converts the iterator of {@code namedAttributes} into constant-valued attribute iterator
+	 * @param returnedAttributeCategory
+	 *            corresponding attribute Category output containing only the subset of this category-specific attributes that had IncludeInResult = 'true' in the XACML request
+	 * @param extraContent
+	 *            Attributes/Content to be parsed into XPath data model for XPath evaluation; null if no Content
+	 * @return new instance
+	 * @throws IllegalArgumentException
+	 *             iff {@code namedAttributes != null && !namedAttributes.isEmpty() && namedAttributeIteratorConverter == null} (namedAttributeIteratorConverter required if namedAttributes not
+	 *             null/empty)
+	 */
+	public static <AV_BAG extends Iterable<? extends AttributeValue>, RETURNED_ATTRIBUTE_CATEGORY> SingleCategoryAttributes<AV_BAG, RETURNED_ATTRIBUTE_CATEGORY> newInstanceWithLazyContent(
+			final String categoryId, final Set<Entry<AttributeFqn, AV_BAG>> namedAttributes, final NamedAttributeIteratorConverter<AV_BAG> namedAttributeIteratorConverter,
+			final RETURNED_ATTRIBUTE_CATEGORY returnedAttributeCategory, final LazilyParsedContent extraContent) throws IllegalArgumentException
+	{
+		return new SingleCategoryAttributes<>(categoryId, namedAttributes, namedAttributeIteratorConverter, returnedAttributeCategory, extraContent);
+	}
+
 	/**
 	 * Gets the category ID
 	 * 
@@ -197,12 +239,38 @@ public final class SingleCategoryAttributes<AV_BAG extends Iterable<? extends At
 	}
 
 	/**
-	 * Gets the Content parsed into XPath data model for XPath evaluation; or null if no Content
+	 * Gets the Content parsed into XPath data model for XPath evaluation; or null if no Content. If the Content is parsed lazily (see {@link #newInstanceWithLazyContent(String, Set,
+	 * NamedAttributeIteratorConverter, Object, LazilyParsedContent)}), this parses it unless already done; use {@link #getLazyExtraContent()} instead to get the parsing error as
+	 * {@link IndeterminateEvaluationException}.
 	 * 
 	 * @return the Content in XPath data model
+	 * @throws IllegalArgumentException
+	 *             if the Content is parsed lazily and is invalid
 	 */
 	@SuppressFBWarnings(value="EI_EXPOSE_REP", justification="XdmNode considered immutable")
-	public XdmNode getExtraContent()
+	public XdmNode getExtraContent() throws IllegalArgumentException
+	{
+		if (extraContent == null)
+		{
+			return null;
+		}
+
+		try
+		{
+			return extraContent.get();
+		}
+		catch (final IndeterminateEvaluationException e)
+		{
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Gets the Content to be parsed into XPath data model, without parsing it if parsed lazily; or null if no Content
+	 * 
+	 * @return the Content
+	 */
+	public LazilyParsedContent getLazyExtraContent()
 	{
 		return extraContent;
 	}
@@ -217,6 +285,30 @@ public final class SingleCategoryAttributes<AV_BAG extends Iterable<? extends At
 		return attrsToIncludeInResult;
 	}
 
+	/**
+	 * Gets the (constant-valued) named attributes as an immutable map, computed once and for all on the first call. Therefore, the same map instance can be shared by all the individual decision
+	 * requests containing these attributes, e.g. in a Multiple Decision request (see {@link ImmutableDecisionRequest#getInstanceByCategory(Map, Map, boolean)}).
+	 *
+	 * @return named attributes (the last value wins if the same attribute occurs more than once)
+	 */
+	public ImmutableMap<AttributeFqn, AttributeBag<?>> getNamedAttributeMap()
+	{
+		ImmutableMap<AttributeFqn, AttributeBag<?>> result = namedAttributeMap;
+		if (result == null)
+		{
+			final Map<AttributeFqn, AttributeBag<?>> mutableResult = new LinkedHashMap<>();
+			for (final Entry<AttributeFqn, AttributeBag<?>> namedAttribute : this)
+			{
+				mutableResult.put(namedAttribute.getKey(), namedAttribute.getValue());
+			}
+
+			result = ImmutableMap.copyOf(mutableResult);
+			namedAttributeMap = result;
+		}
+
+		return result;
+	}
+
 	@Override
 	public Iterator<Entry<AttributeFqn, AttributeBag<?>>> iterator()
 	{
@@ -0,0 +1,676 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.io;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.sf.saxon.s9api.BuildingStreamWriter;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+
+import org.ow2.authzforce.core.pdp.api.DecisionRequestPreprocessor;
+import org.ow2.authzforce.core.pdp.api.DecisionResultPostprocessor;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.XmlUtils;
+import org.ow2.authzforce.core.pdp.api.expression.BasicImmutableXPathCompilerProxy;
+import org.ow2.authzforce.core.pdp.api.expression.XPathCompilerProxy;
+import org.ow2.authzforce.core.pdp.api.io.StreamedXacmlAttributes.StreamedAttribute;
+import org.ow2.authzforce.core.pdp.api.io.StreamedXacmlAttributes.StreamedAttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactory;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry;
+import org.ow2.authzforce.xacml.identifiers.XPathVersion;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+/**
+ * XACML/XML {@link DecisionRequestPreprocessor} that parses the XACML Request directly from the XML input stream with StAX, i.e. without unmarshalling a JAXB {@code Request} object first (unlike
+ * {@link BaseXacmlJaxbRequestPreprocessor}). The AttributeValues are parsed by the {@link AttributeValueFactory}s as soon as the enclosing Attributes element is complete, and no JAXB object is
+ * created, except for the Attribute elements with IncludeInResult="true" that must be included in the Result (see {@link IndividualXacmlJaxbRequest#getAttributesToBeReturned()}). Attributes/Content
+ * is streamed directly into the XPath data model if {@code requireContentForXPath} is true, else skipped.
+ * <p>
+ * Repeated attribute categories are supported as defined in Multiple Decision Profile, §2.3 (see {@link MultipleXacmlRequestPreprocHelper}), but not MultiRequests (§2.4). The XML input is not
+ * validated against the XACML schema: the element order and the required XML attributes are checked on the fly; unknown elements, and XML attributes in the XACML namespace (the XACML schema
+ * attributes are unqualified) on XACML elements, are rejected. DTDs and external entities are not supported.
+ * <p>
+ * The root element of an Attributes/Content is given all the namespace declarations in scope in the XACML Request, like the DOM element of the Content unmarshalled by JAXB, so that the Content
+ * is the same as in {@link BaseXacmlJaxbRequestPreprocessor}'s.
+ * <p>
+ * This preprocessor is thread-safe.
+ */
+public final class StaxXacmlRequestPreprocessor implements DecisionRequestPreprocessor<InputStream, IndividualXacmlJaxbRequest>
+{
+	private static final String XACML_3_0_NAMESPACE_URI = "urn:oasis:names:tc:xacml:3.0:core:schema:wd-17";
+
+	private static final String REQUEST_ELEMENT_NAME = "Request";
+	private static final String REQUEST_DEFAULTS_ELEMENT_NAME = "RequestDefaults";
+	private static final String XPATH_VERSION_ELEMENT_NAME = "XPathVersion";
+	private static final String ATTRIBUTES_ELEMENT_NAME = "Attributes";
+	private static final String CONTENT_ELEMENT_NAME = "Content";
+	private static final String ATTRIBUTE_ELEMENT_NAME = "Attribute";
+	private static final String ATTRIBUTE_VALUE_ELEMENT_NAME = "AttributeValue";
+	private static final String MULTI_REQUESTS_ELEMENT_NAME = "MultiRequests";
+
+	private static final String RETURN_POLICY_ID_LIST_XML_ATTRIBUTE_NAME = "ReturnPolicyIdList";
+	private static final String COMBINED_DECISION_XML_ATTRIBUTE_NAME = "CombinedDecision";
+	private static final String CATEGORY_XML_ATTRIBUTE_NAME = "Category";
+	private static final String ATTRIBUTE_ID_XML_ATTRIBUTE_NAME = "AttributeId";
+	private static final String ISSUER_XML_ATTRIBUTE_NAME = "Issuer";
+	private static final String INCLUDE_IN_RESULT_XML_ATTRIBUTE_NAME = "IncludeInResult";
+	private static final String DATATYPE_XML_ATTRIBUTE_NAME = "DataType";
+
+	/*
+	 * XMLInputFactory is thread-safe once configured
+	 */
+	private static final XMLInputFactory XML_INPUT_FACTORY;
+
+	static
+	{
+		XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+		XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+	}
+
+	private static final IndeterminateEvaluationException UNSUPPORTED_COMBINED_DECISION_EXCEPTION = new IndeterminateEvaluationException("Unsupported CombinedDecision value in Request: 'true'",
+			XacmlStatusCode.SYNTAX_ERROR.value());
+	private static final IndeterminateEvaluationException UNSUPPORTED_MULTI_REQUESTS_EXCEPTION = new IndeterminateEvaluationException("Unsupported element in Request: <MultiRequests>",
+			XacmlStatusCode.SYNTAX_ERROR.value());
+	private static final IllegalArgumentException NULL_REQUEST_EXCEPTION = new IllegalArgumentException("Undefined input decision request");
+
+	private static IndeterminateEvaluationException newSyntaxErrorException(final String message, final Throwable cause)
+	{
+		return new IndeterminateEvaluationException(message, XacmlStatusCode.SYNTAX_ERROR.value(), cause);
+	}
+
+	private static IndeterminateEvaluationException newSyntaxErrorException(final String message)
+	{
+		return new IndeterminateEvaluationException(message, XacmlStatusCode.SYNTAX_ERROR.value());
+	}
+
+	private static String locationOf(final XMLStreamReader reader)
+	{
+		final Location location = reader.getLocation();
+		return "line " + location.getLineNumber() + ", column " + location.getColumnNumber();
+	}
+
+	private static boolean isXacmlElement(final XMLStreamReader reader, final String localName)
+	{
+		return XACML_3_0_NAMESPACE_URI.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+	}
+
+	/*
+	 * Rejects XML attributes in the XACML namespace on the current (XACML) element
+	 */
+	private static void checkXmlAttributes(final XMLStreamReader reader) throws IndeterminateEvaluationException
+	{
+		for (int i = 0; i < reader.getAttributeCount(); i++)
+		{
+			if (XACML_3_0_NAMESPACE_URI.equals(reader.getAttributeNamespace(i)))
+			{
+				throw newSyntaxErrorException("Invalid XACML Request: unknown XML attribute " + reader.getAttributeName(i) + " of <" + reader.getLocalName() + "> at " + locationOf(reader));
+			}
+		}
+	}
+
+	/*
+	 * Checks the current element is the expected XACML element, with valid XML attributes (see checkXmlAttributes())
+	 */
+	private static void requireXacmlElement(final XMLStreamReader reader, final String localName) throws IndeterminateEvaluationException
+	{
+		if (!reader.isStartElement() || !isXacmlElement(reader, localName))
+		{
+			throw newSyntaxErrorException("Invalid XACML Request: expected <" + localName + "> at " + locationOf(reader) + " but got: "
+					+ (reader.hasName() ? reader.getName() : "event type " + reader.getEventType()));
+		}
+
+		checkXmlAttributes(reader);
+	}
+
+	/*
+	 * Namespace declarations in scope on the current element, given the ones in scope on its parent element
+	 */
+	private static Map<String, String> getInScopeNamespaces(final XMLStreamReader reader, final Map<String, String> parentInScopeNamespaces)
+	{
+		final int nsCount = reader.getNamespaceCount();
+		if (nsCount == 0)
+		{
+			return parentInScopeNamespaces;
+		}
+
+		final Map<String, String> inScopeNamespaces = new HashMap<>(parentInScopeNamespaces);
+		for (int i = 0; i < nsCount; i++)
+		{
+			inScopeNamespaces.put(nullToEmpty(reader.getNamespacePrefix(i)), nullToEmpty(reader.getNamespaceURI(i)));
+		}
+
+		return inScopeNamespaces;
+	}
+
+	/*
+	 * Value of unqualified XML attribute of the current element; or null if undefined
+	 */
+	private static String getXmlAttribute(final XMLStreamReader reader, final String localName)
+	{
+		return reader.getAttributeValue(null, localName);
+	}
+
+	private static String getRequiredXmlAttribute(final XMLStreamReader reader, final String localName) throws IndeterminateEvaluationException
+	{
+		final String value = reader.getAttributeValue(null, localName);
+		if (value == null)
+		{
+			throw newSyntaxErrorException("Invalid XACML Request: missing required XML attribute '" + localName + "' of <" + reader.getLocalName() + "> at " + locationOf(reader));
+		}
+
+		return value;
+	}
+
+	/*
+	 * Parses xs:boolean
+	 */
+	private static boolean parseBoolean(final String value, final String xmlAttributeName) throws IndeterminateEvaluationException
+	{
+		switch (value.strip())
+		{
+			case "true":
+			case "1":
+				return true;
+			case "false":
+			case "0":
+				return false;
+			default:
+				throw newSyntaxErrorException("Invalid XACML Request: invalid xs:boolean value of XML attribute '" + xmlAttributeName + "': '" + value + "'");
+		}
+	}
+
+	/*
+	 * Skips the current element, i.e. moves the reader to the matching END_ELEMENT
+	 */
+	private static void skipElement(final XMLStreamReader reader) throws XMLStreamException
+	{
+		assert reader.isStartElement();
+		int depth = 1;
+		while (depth > 0)
+		{
+			final int eventType = reader.next();
+			if (eventType == XMLStreamConstants.START_ELEMENT)
+			{
+				depth++;
+			}
+			else if (eventType == XMLStreamConstants.END_ELEMENT)
+			{
+				depth--;
+			}
+		}
+	}
+
+	private static String nullToEmpty(final String s)
+	{
+		return s == null ? "" : s;
+	}
+
+	/*
+	 * Streams the current element (subtree) into the XPath data model, and moves the reader to the matching END_ELEMENT. Returns the element node, with the namespace declarations of the input
+	 * (whether used or not), including the ones in scope on its parent element (inheritedNamespaces, as prefix-URI pairs) on the element itself.
+	 */
+	private static XdmNode copyToXdm(final XMLStreamReader reader, final Map<String, String> inheritedNamespaces) throws XMLStreamException, SaxonApiException
+	{
+		assert reader.isStartElement();
+		// Saxon's BuildingStreamWriter always repairs namespaces, i.e. declares the namespaces in use
+		final BuildingStreamWriter writer = XmlUtils.SAXON_PROCESSOR.newDocumentBuilder().newBuildingStreamWriter();
+		writer.writeStartDocument();
+		int depth = 0;
+		do
+		{
+			switch (reader.getEventType())
+			{
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					writer.writeStartElement(nullToEmpty(reader.getPrefix()), reader.getLocalName(), nullToEmpty(reader.getNamespaceURI()));
+					final Map<String, String> namespaces = depth == 1 ? getInScopeNamespaces(reader, inheritedNamespaces) : getInScopeNamespaces(reader, Map.of());
+					for (final Map.Entry<String, String> ns : namespaces.entrySet())
+					{
+						// no need to undeclare the default namespace on the root
+						if (!ns.getValue().isEmpty() || depth > 1)
+						{
+							writer.writeNamespace(ns.getKey(), ns.getValue());
+						}
+					}
+
+					for (int i = 0; i < reader.getAttributeCount(); i++)
+					{
+						writer.writeAttribute(nullToEmpty(reader.getAttributePrefix(i)), nullToEmpty(reader.getAttributeNamespace(i)), reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					depth--;
+					writer.writeEndElement();
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					writer.writeCharacters(reader.getText());
+					break;
+				case XMLStreamConstants.COMMENT:
+					writer.writeComment(reader.getText());
+					break;
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+					break;
+				default:
+					// ignore other events
+			}
+
+			if (depth > 0)
+			{
+				reader.next();
+			}
+		}
+		while (depth > 0);
+
+		writer.writeEndDocument();
+		for (final XdmNode child : writer.getDocumentNode().children())
+		{
+			if (child.getNodeKind() == XdmNodeKind.ELEMENT)
+			{
+				return child;
+			}
+		}
+
+		throw new AssertionError("No element in XDM document built from element " + reader.getName());
+	}
+
+	/**
+	 * Parses standalone XML (e.g. Content of a XACML/JSON Category) into the XPath data model, with the same parser settings as XACML/XML requests (no DTD)
+	 *
+	 * @param xml
+	 *            XML input
+	 * @param categoryId
+	 *            attribute category of the Content, for error messages
+	 * @return the root element in the XPath data model
+	 * @throws IndeterminateEvaluationException
+	 *             XML parsing error
+	 */
+	static XdmNode parseXmlContent(final Reader xml, final String categoryId) throws IndeterminateEvaluationException
+	{
+		XMLStreamReader reader = null;
+		try
+		{
+			reader = XML_INPUT_FACTORY.createXMLStreamReader(xml);
+			reader.nextTag();
+			return copyToXdm(reader, Map.of());
+		}
+		catch (final XMLStreamException | SaxonApiException e)
+		{
+			throw newSyntaxErrorException("Error parsing Content of Attributes[@Category=" + categoryId + "] for XPath evaluation", e);
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (final XMLStreamException e)
+				{
+					// nothing else to release
+				}
+			}
+		}
+	}
+
+	private final SingleCategoryXacmlAttributesParser<StreamedXacmlAttributes> xacmlAttrsParser;
+	private final boolean requireContentForXPath;
+	private final boolean isCombinedDecisionSupported;
+
+	/**
+	 * Creates instance of request pre-processor.
+	 *
+	 * @param attributeValueFactoryRegistry
+	 *            registry of datatype-specific attribute value parsers
+	 * @param strictAttributeIssuerMatch
+	 *            true iff it is required that AttributeDesignator without Issuer only match request Attributes without Issuer (see
+	 *            {@link BaseXacmlJaxbRequestPreprocessor#BaseXacmlJaxbRequestPreprocessor(AttributeValueFactoryRegistry, boolean, boolean, boolean, Set)})
+	 * @param allowAttributeDuplicates
+	 *            true iff the pre-processor should allow defining multivalued attributes by repeating the same XACML Attribute (same AttributeId) within a XACML Attributes element (same Category)
+	 *            (see {@link BaseXacmlJaxbRequestPreprocessor#BaseXacmlJaxbRequestPreprocessor(AttributeValueFactoryRegistry, boolean, boolean, boolean, Set)})
+	 * @param requireContentForXPath
+	 *            true iff Attributes/Content parsing (into XDM) for XPath evaluation is required
+	 * @param extraPdpFeatures
+	 *            extra - non-mandatory per XACML 3.0 core specification - features supported by PDP engine. Any feature requested by any request is checked against this before processing the
+	 *            request further. If some feature is not supported, an Indeterminate Result is returned.
+	 * @throws UnsupportedOperationException
+	 *             if {@code strictAttributeIssuerMatch == false && allowAttributeDuplicates == false} which is not supported
+	 */
+	public StaxXacmlRequestPreprocessor(final AttributeValueFactoryRegistry attributeValueFactoryRegistry, final boolean strictAttributeIssuerMatch, final boolean allowAttributeDuplicates,
+			final boolean requireContentForXPath, final Set<String> extraPdpFeatures) throws UnsupportedOperationException
+	{
+		this.xacmlAttrsParser = StreamedXacmlAttributes.newParser(attributeValueFactoryRegistry, strictAttributeIssuerMatch, allowAttributeDuplicates);
+		this.requireContentForXPath = requireContentForXPath;
+		this.isCombinedDecisionSupported = extraPdpFeatures.contains(DecisionResultPostprocessor.Features.XACML_MULTIPLE_DECISION_PROFILE_COMBINED_DECISION);
+	}
+
+	@Override
+	public Class<InputStream> getInputRequestType()
+	{
+		return InputStream.class;
+	}
+
+	@Override
+	public Class<IndividualXacmlJaxbRequest> getOutputRequestType()
+	{
+		return IndividualXacmlJaxbRequest.class;
+	}
+
+	private StreamedAttribute parseAttribute(final XMLStreamReader reader) throws XMLStreamException, IndeterminateEvaluationException
+	{
+		final String attributeId = getRequiredXmlAttribute(reader, ATTRIBUTE_ID_XML_ATTRIBUTE_NAME);
+		final String issuer = getXmlAttribute(reader, ISSUER_XML_ATTRIBUTE_NAME);
+		final boolean includeInResult = parseBoolean(getRequiredXmlAttribute(reader, INCLUDE_IN_RESULT_XML_ATTRIBUTE_NAME), INCLUDE_IN_RESULT_XML_ATTRIBUTE_NAME);
+
+		final List<StreamedAttributeValue> values = new ArrayList<>(1);
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+		{
+			requireXacmlElement(reader, ATTRIBUTE_VALUE_ELEMENT_NAME);
+			String dataType = null;
+			final Map<QName, String> otherAttributes = new HashMap<>(reader.getAttributeCount());
+			for (int i = 0; i < reader.getAttributeCount(); i++)
+			{
+				final String xmlAttNs = reader.getAttributeNamespace(i);
+				if ((xmlAttNs == null || xmlAttNs.isEmpty()) && DATATYPE_XML_ATTRIBUTE_NAME.equals(reader.getAttributeLocalName(i)))
+				{
+					dataType = reader.getAttributeValue(i);
+				}
+				else
+				{
+					otherAttributes.put(reader.getAttributeName(i), reader.getAttributeValue(i));
+				}
+			}
+
+			if (dataType == null)
+			{
+				throw newSyntaxErrorException("Invalid XACML Request: missing required XML attribute '" + DATATYPE_XML_ATTRIBUTE_NAME + "' of <" + ATTRIBUTE_VALUE_ELEMENT_NAME + "> at "
+						+ locationOf(reader));
+			}
+
+			/*
+			 * Mixed/element content (only used by custom datatypes) is not supported, getElementText() fails on it.
+			 */
+			final String text = reader.getElementText();
+			values.add(new StreamedAttributeValue(dataType, text.isEmpty() ? List.of() : List.of(text), otherAttributes));
+		}
+
+		if (values.isEmpty())
+		{
+			throw newSyntaxErrorException("Invalid XACML Request: no <" + ATTRIBUTE_VALUE_ELEMENT_NAME + "> in <" + ATTRIBUTE_ELEMENT_NAME + "> at " + locationOf(reader));
+		}
+
+		return new StreamedAttribute(attributeId, issuer, includeInResult, values);
+	}
+
+	/*
+	 * requestNamespaces: namespace declarations in scope on the Request element
+	 */
+	private StreamedXacmlAttributes parseAttributes(final XMLStreamReader reader, final Map<String, String> requestNamespaces) throws XMLStreamException, IndeterminateEvaluationException
+	{
+		final String categoryId = getRequiredXmlAttribute(reader, CATEGORY_XML_ATTRIBUTE_NAME);
+		final String id = reader.getAttributeValue(XMLConstants.XML_NS_URI, "id");
+		final Map<String, String> attributesNamespaces = getInScopeNamespaces(reader, requestNamespaces);
+		XdmNode extraContent = null;
+		final List<StreamedAttribute> attributes = new ArrayList<>();
+		int eventType = reader.nextTag();
+		if (eventType == XMLStreamConstants.START_ELEMENT && isXacmlElement(reader, CONTENT_ELEMENT_NAME))
+		{
+			checkXmlAttributes(reader);
+			if (requireContentForXPath)
+			{
+				final Map<String, String> contentNamespaces = getInScopeNamespaces(reader, attributesNamespaces);
+				// XACML spec, 7.3.7: the document node must be the single child element of Content.
+				if (reader.nextTag() != XMLStreamConstants.START_ELEMENT)
+				{
+					throw newSyntaxErrorException("Invalid Content of Attributes[@Category=" + categoryId + "] for XPath evaluation: no child element");
+				}
+
+				try
+				{
+					extraContent = copyToXdm(reader, contentNamespaces);
+				}
+				catch (final SaxonApiException e)
+				{
+					throw newSyntaxErrorException("Error parsing Content of Attributes[@Category=" + categoryId + "] for XPath evaluation", e);
+				}
+
+				// skip anything after the child element until </Content>
+				while (reader.next() != XMLStreamConstants.END_ELEMENT)
+				{
+					if (reader.isStartElement())
+					{
+						skipElement(reader);
+					}
+				}
+			}
+			else
+			{
+				skipElement(reader);
+			}
+
+			eventType = reader.nextTag();
+		}
+
+		while (eventType == XMLStreamConstants.START_ELEMENT)
+		{
+			requireXacmlElement(reader, ATTRIBUTE_ELEMENT_NAME);
+			attributes.add(parseAttribute(reader));
+			eventType = reader.nextTag();
+		}
+
+		return new StreamedXacmlAttributes(categoryId, id, attributes, extraContent);
+	}
+
+	private Optional<XPathCompilerProxy> parseRequestDefaults(final XMLStreamReader reader, final Map<String, String> namespaceURIsByPrefix) throws XMLStreamException,
+			IndeterminateEvaluationException
+	{
+		checkXmlAttributes(reader);
+		/*
+		 * XPathVersion is optional in RequestDefaults (xs:choice minOccurs=0)
+		 */
+		if (reader.nextTag() == XMLStreamConstants.END_ELEMENT)
+		{
+			return Optional.empty();
+		}
+
+		requireXacmlElement(reader, XPATH_VERSION_ELEMENT_NAME);
+		final String xPathVersionUri = reader.getElementText().strip();
+		if (reader.nextTag() != XMLStreamConstants.END_ELEMENT)
+		{
+			throw newSyntaxErrorException("Invalid XACML Request: unexpected element after <" + XPATH_VERSION_ELEMENT_NAME + "> at " + locationOf(reader));
+		}
+
+		try
+		{
+			return Optional.of(new BasicImmutableXPathCompilerProxy(XPathVersion.fromURI(xPathVersionUri), namespaceURIsByPrefix, true));
+		}
+		catch (final IllegalArgumentException e)
+		{
+			throw newSyntaxErrorException("Invalid/unsupported XPathVersion in Request/RequestDefaults: '" + xPathVersionUri + "'", e);
+		}
+	}
+
+	/**
+	 * Parses the XACML Request from the XML input and pre-processes it, i.e. validates it and creates one individual decision request per combination of repeated attribute categories (Multiple
+	 * Decision Profile, §2.3).
+	 *
+	 * @param req
+	 *            XACML Request XML input (not closed by this method)
+	 * @param namespaceURIsByPrefix
+	 *            namespace prefix-URI mappings used as part of the context for XPath evaluation; if null or empty, the namespace declarations on the root Request element are used instead
+	 * @return individual decision requests
+	 * @throws IndeterminateEvaluationException
+	 *             if the XML input is not a (well-formed) XACML Request, or some feature requested in the Request is not supported by this pre-processor
+	 */
+	@Override
+	public List<IndividualXacmlJaxbRequest> process(final InputStream req, final Map<String, String> namespaceURIsByPrefix) throws IndeterminateEvaluationException
+	{
+		if (req == null)
+		{
+			throw NULL_REQUEST_EXCEPTION;
+		}
+
+		XMLStreamReader reader = null;
+		try
+		{
+			reader = XML_INPUT_FACTORY.createXMLStreamReader(req);
+			reader.nextTag();
+			requireXacmlElement(reader, REQUEST_ELEMENT_NAME);
+
+			/*
+			 * No support for CombinedDecision = true if no decisionCombiner defined. (The use of the CombinedDecision attribute is specified in Multiple Decision Profile.)
+			 */
+			final boolean combinedDecision = parseBoolean(getRequiredXmlAttribute(reader, COMBINED_DECISION_XML_ATTRIBUTE_NAME), COMBINED_DECISION_XML_ATTRIBUTE_NAME);
+			if (combinedDecision && !this.isCombinedDecisionSupported)
+			{
+				throw UNSUPPORTED_COMBINED_DECISION_EXCEPTION;
+			}
+
+			final boolean returnPolicyIdList = parseBoolean(getRequiredXmlAttribute(reader, RETURN_POLICY_ID_LIST_XML_ATTRIBUTE_NAME), RETURN_POLICY_ID_LIST_XML_ATTRIBUTE_NAME);
+
+			final Map<String, String> requestNamespaces = getInScopeNamespaces(reader, Map.of());
+			final Map<String, String> nsPrefixToUriMap = namespaceURIsByPrefix == null || namespaceURIsByPrefix.isEmpty() ? requestNamespaces : namespaceURIsByPrefix;
+
+			int eventType = reader.nextTag();
+			Optional<XPathCompilerProxy> xPathCompiler = Optional.empty();
+			if (eventType == XMLStreamConstants.START_ELEMENT && isXacmlElement(reader, REQUEST_DEFAULTS_ELEMENT_NAME))
+			{
+				xPathCompiler = parseRequestDefaults(reader, nsPrefixToUriMap);
+				eventType = reader.nextTag();
+			}
+
+			final List<StreamedXacmlAttributes> attributesList = new ArrayList<>();
+			while (eventType == XMLStreamConstants.START_ELEMENT)
+			{
+				if (isXacmlElement(reader, MULTI_REQUESTS_ELEMENT_NAME))
+				{
+					/*
+					 * According to 7.19.1 Unsupported functionality, return Indeterminate with syntax-error code for unsupported element
+					 */
+					throw UNSUPPORTED_MULTI_REQUESTS_EXCEPTION;
+				}
+
+				requireXacmlElement(reader, ATTRIBUTES_ELEMENT_NAME);
+				attributesList.add(parseAttributes(reader, requestNamespaces));
+				eventType = reader.nextTag();
+			}
+
+			if (attributesList.isEmpty())
+			{
+				throw newSyntaxErrorException("Invalid XACML Request: no <" + ATTRIBUTES_ELEMENT_NAME + ">");
+			}
+
+			return StreamedXacmlAttributes.toIndividualRequests(attributesList, xacmlAttrsParser, returnPolicyIdList, xPathCompiler);
+		}
+		catch (final XMLStreamException e)
+		{
+			throw newSyntaxErrorException("Invalid XACML Request: XML parsing error", e);
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (final XMLStreamException e)
+				{
+					// the input stream itself is not closed by this, nothing else to release
+				}
+			}
+		}
+	}
+
+	/**
+	 * {@link DecisionRequestPreprocessor.Factory} of {@link StaxXacmlRequestPreprocessor}s
+	 */
+	public static final class Factory implements DecisionRequestPreprocessor.Factory<InputStream, IndividualXacmlJaxbRequest>
+	{
+		/**
+		 * ID of the factory creating preprocessors that allow repeated Attribute elements with same meta-data in the same Attributes element (allowAttributeDuplicates == true)
+		 */
+		public static final String LAX_VARIANT_ID = "urn:ow2:authzforce:feature:pdp:request-preproc:xacml-xml-stax:multiple:repeated-attribute-categories-lax";
+
+		/**
+		 * ID of the factory creating preprocessors that do not allow repeated Attribute elements with same meta-data in the same Attributes element (allowAttributeDuplicates == false)
+		 */
+		public static final String STRICT_VARIANT_ID = "urn:ow2:authzforce:feature:pdp:request-preproc:xacml-xml-stax:multiple:repeated-attribute-categories-strict";
+
+		private final boolean allowAttributeDuplicates;
+
+		/**
+		 * Creates the factory
+		 *
+		 * @param allowAttributeDuplicates
+		 *            true iff the created preprocessors allow repeated Attribute elements with same meta-data in the same Attributes element
+		 */
+		public Factory(final boolean allowAttributeDuplicates)
+		{
+			this.allowAttributeDuplicates = allowAttributeDuplicates;
+		}
+
+		@Override
+		public String getId()
+		{
+			return allowAttributeDuplicates ? LAX_VARIANT_ID : STRICT_VARIANT_ID;
+		}
+
+		@Override
+		public Class<InputStream> getInputRequestType()
+		{
+			return InputStream.class;
+		}
+
+		@Override
+		public Class<IndividualXacmlJaxbRequest> getOutputRequestType()
+		{
+			return IndividualXacmlJaxbRequest.class;
+		}
+
+		@Override
+		public DecisionRequestPreprocessor<InputStream, IndividualXacmlJaxbRequest> getInstance(final AttributeValueFactoryRegistry datatypeFactoryRegistry, final boolean strictAttributeIssuerMatch,
+				final boolean requireContentForXPath, final Set<String> extraPdpEngineFeatures)
+		{
+			return new StaxXacmlRequestPreprocessor(datatypeFactoryRegistry, strictAttributeIssuerMatch, allowAttributeDuplicates, requireContentForXPath, extraPdpEngineFeatures);
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.io;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.xml.namespace.QName;
+
+import com.google.common.collect.ImmutableList;
+import net.sf.saxon.s9api.XdmNode;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Attribute;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.AttributeValueType;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Attributes;
+
+import org.ow2.authzforce.core.pdp.api.AttributeFqn;
+import org.ow2.authzforce.core.pdp.api.AttributeFqns;
+import org.ow2.authzforce.core.pdp.api.HashCollections;
+import org.ow2.authzforce.core.pdp.api.ImmutableXacmlStatus;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.MutableAttributeBag;
+import org.ow2.authzforce.core.pdp.api.expression.XPathCompilerProxy;
+import org.ow2.authzforce.core.pdp.api.io.SingleCategoryAttributes.NamedAttributeIteratorConverter;
+import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactory;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+/**
+ * XACML attribute category (Attributes element in XACML/XML, Category object in XACML/JSON) as read by the streaming request preprocessors ({@link StaxXacmlRequestPreprocessor},
+ * {@link XacmlJsonRequestPreprocessor}), i.e. with the raw AttributeValues not parsed by the {@link AttributeValueFactory}s yet. Also used as input attribute category type for
+ * {@link MultipleXacmlRequestPreprocHelper}, in which case {@link #attributesToIncludeInResult} is the only part used to build the final {@link IndividualXacmlJaxbRequest}.
+ */
+final class StreamedXacmlAttributes
+{
+	private static final UnsupportedOperationException UNSUPPORTED_MODE_EXCEPTION = new UnsupportedOperationException(
+			"Unsupported request preprocessor mode: allowAttributeDuplicates == false && strictAttributeIssuerMatch == false");
+	private static final IllegalArgumentException NULL_ATTRIBUTE_CATEGORY_ARGUMENT_EXCEPTION = new IllegalArgumentException("Undefined XACML attribute category");
+	private static final IllegalArgumentException NULL_INPUT_ATTRIBUTE_ARGUMENT_EXCEPTION = new IllegalArgumentException("Undefined input XACML attribute arg (inputXacmlAttribute)");
+	private static final IllegalArgumentException NO_ATTRIBUTE_VALUE_LIST_ARGUMENT_EXCEPTION = new IllegalArgumentException("Input XACML attribute values null/empty");
+	private static final ImmutableXacmlStatus INVALID_ATT_ERROR_STATUS = new ImmutableXacmlStatus(XacmlStatusCode.SYNTAX_ERROR.value(), Optional.of("Invalid Attributes/Attribute element"));
+
+	/**
+	 * Raw XACML AttributeValue, i.e. input to {@link AttributeValueFactory#getInstance(List, Map, Optional)}
+	 */
+	static final class StreamedAttributeValue
+	{
+		private final String dataType;
+		private final List<Serializable> content;
+		private final Map<QName, String> otherAttributes;
+
+		StreamedAttributeValue(final String dataType, final List<Serializable> content, final Map<QName, String> otherAttributes)
+		{
+			assert dataType != null && content != null && otherAttributes != null;
+			this.dataType = dataType;
+			this.content = content;
+			this.otherAttributes = otherAttributes;
+		}
+	}
+
+	/**
+	 * XACML Attribute with raw values
+	 */
+	static final class StreamedAttribute
+	{
+		private final String attributeId;
+		private final String issuer;
+		private final boolean includeInResult;
+		private final List<StreamedAttributeValue> values;
+
+		StreamedAttribute(final String attributeId, final String issuer, final boolean includeInResult, final List<StreamedAttributeValue> values)
+		{
+			assert attributeId != null && values != null;
+			this.attributeId = attributeId;
+			this.issuer = issuer;
+			this.includeInResult = includeInResult;
+			this.values = values;
+		}
+
+		private Attribute toJaxb()
+		{
+			final List<AttributeValueType> jaxbValues = new ArrayList<>(values.size());
+			for (final StreamedAttributeValue value : values)
+			{
+				jaxbValues.add(new AttributeValueType(value.content, value.dataType, value.otherAttributes));
+			}
+
+			return new Attribute(jaxbValues, attributeId, issuer, includeInResult);
+		}
+	}
+
+	/**
+	 * Named Attribute parser for {@link StreamedAttribute}s
+	 */
+	private static final class NamedStreamedAttributeParser extends NamedXacmlAttributeParser<StreamedAttribute>
+	{
+		private static <AV extends AttributeValue> NamedXacmlAttributeParsingResult<AV> parseNamedAttribute(final AttributeFqn attName, final List<StreamedAttributeValue> nonEmptyInputXacmlAttValues,
+				final AttributeValueFactory<AV> attValFactory, final Optional<XPathCompilerProxy> xPathCompiler)
+		{
+			assert attName != null && nonEmptyInputXacmlAttValues != null && !nonEmptyInputXacmlAttValues.isEmpty() && attValFactory != null;
+
+			final ImmutableList.Builder<AV> attValues = ImmutableList.builderWithExpectedSize(nonEmptyInputXacmlAttValues.size());
+			for (final StreamedAttributeValue inputXacmlAttValue : nonEmptyInputXacmlAttValues)
+			{
+				attValues.add(attValFactory.getInstance(inputXacmlAttValue.content, inputXacmlAttValue.otherAttributes, xPathCompiler));
+			}
+
+			return new ImmutableNamedXacmlAttributeParsingResult<>(attName, attValFactory.getDatatype(), attValues.build());
+		}
+
+		private NamedStreamedAttributeParser(final AttributeValueFactoryRegistry attributeValueFactoryRegistry)
+		{
+			super(attributeValueFactoryRegistry);
+		}
+
+		@Override
+		protected NamedXacmlAttributeParsingResult<?> parseNamedAttribute(final String attributeCategoryId, final StreamedAttribute inputXacmlAttribute, final Optional<XPathCompilerProxy> xPathCompiler)
+		{
+			if (attributeCategoryId == null)
+			{
+				throw NULL_ATTRIBUTE_CATEGORY_ARGUMENT_EXCEPTION;
+			}
+
+			if (inputXacmlAttribute == null)
+			{
+				throw NULL_INPUT_ATTRIBUTE_ARGUMENT_EXCEPTION;
+			}
+
+			if (inputXacmlAttribute.values.isEmpty())
+			{
+				throw NO_ATTRIBUTE_VALUE_LIST_ARGUMENT_EXCEPTION;
+			}
+
+			final AttributeFqn attName = AttributeFqns.newInstance(attributeCategoryId, Optional.ofNullable(inputXacmlAttribute.issuer), inputXacmlAttribute.attributeId);
+			// same datatype for all values in a bag (XACML 3.0, §7.3.2), so we get it from the first value
+			final AttributeValueFactory<?> attValFactory = getAttributeValueFactory(inputXacmlAttribute.values.get(0).dataType, attName);
+			return parseNamedAttribute(attName, inputXacmlAttribute.values, attValFactory, xPathCompiler);
+		}
+	}
+
+	/**
+	 * Parser of {@link StreamedXacmlAttributes}
+	 *
+	 * @param <BAG>
+	 *            type of bag resulting from parsing XACML AttributeValues
+	 */
+	private static final class Parser<BAG extends Iterable<? extends AttributeValue>> implements SingleCategoryXacmlAttributesParser<StreamedXacmlAttributes>
+	{
+		private final XacmlRequestAttributeParser<StreamedAttribute, BAG> xacmlReqAttributeParser;
+		private final NamedAttributeIteratorConverter<BAG> namedAttrIterConverter;
+
+		private Parser(final XacmlRequestAttributeParser<StreamedAttribute, BAG> xacmlRequestAttributeParser, final NamedAttributeIteratorConverter<BAG> namedAttributeIteratorConverter)
+		{
+			assert xacmlRequestAttributeParser != null && namedAttributeIteratorConverter != null;
+			this.xacmlReqAttributeParser = xacmlRequestAttributeParser;
+			this.namedAttrIterConverter = namedAttributeIteratorConverter;
+		}
+
+		@Override
+		public SingleCategoryAttributes<BAG, StreamedXacmlAttributes> parseAttributes(final StreamedXacmlAttributes xacmlAttributes, final Optional<XPathCompilerProxy> xPathCompiler)
+				throws IndeterminateEvaluationException
+		{
+			assert xacmlAttributes != null;
+			if (xacmlAttributes.attributes.isEmpty())
+			{
+				// skip this category if no Attribute and no extra Content parsed
+				return xacmlAttributes.extraContent == null ? null
+						: new SingleCategoryAttributes<>(xacmlAttributes.categoryId, Collections.emptySet(), namedAttrIterConverter, null, xacmlAttributes.extraContent);
+			}
+
+			final Map<AttributeFqn, BAG> attrMap = HashCollections.newUpdatableMap();
+			final List<Attribute> returnedAttributes = new ArrayList<>(xacmlAttributes.attributes.size());
+			for (final StreamedAttribute attr : xacmlAttributes.attributes)
+			{
+				try
+				{
+					xacmlReqAttributeParser.parseNamedAttribute(xacmlAttributes.categoryId, attr, xPathCompiler, attrMap);
+				}
+				catch (final IllegalArgumentException e)
+				{
+					throw new IndeterminateEvaluationException(INVALID_ATT_ERROR_STATUS, e);
+				}
+
+				if (attr.includeInResult)
+				{
+					returnedAttributes.add(attr.toJaxb());
+				}
+			}
+
+			/*
+			 * If there are Attributes to include, create an <Attributes> with these but without Content to include in the Result.
+			 */
+			if (!returnedAttributes.isEmpty())
+			{
+				xacmlAttributes.attributesToIncludeInResult = new Attributes(null, returnedAttributes, xacmlAttributes.categoryId, xacmlAttributes.id);
+			}
+
+			return new SingleCategoryAttributes<>(xacmlAttributes.categoryId, attrMap.entrySet(), namedAttrIterConverter, returnedAttributes.isEmpty() ? null : xacmlAttributes,
+					xacmlAttributes.extraContent);
+		}
+	}
+
+	private static final IndividualXacmlRequestFactory<IndividualXacmlJaxbRequest, StreamedXacmlAttributes> INDIVIDUAL_REQUEST_FACTORY = (pdpEngineIndividualRequest, inputAttributeCategories) -> {
+		final ImmutableList.Builder<Attributes> attributesToBeReturned = ImmutableList.builderWithExpectedSize(inputAttributeCategories.size());
+		for (final StreamedXacmlAttributes inputAttributeCategory : inputAttributeCategories)
+		{
+			attributesToBeReturned.add(inputAttributeCategory.attributesToIncludeInResult);
+		}
+
+		return new IndividualXacmlJaxbRequest(pdpEngineIndividualRequest, attributesToBeReturned.build());
+	};
+
+	private static final MultipleXacmlRequestPreprocHelper<IndividualXacmlJaxbRequest, StreamedXacmlAttributes, StreamedXacmlAttributes> MDP_HELPER = new MultipleXacmlRequestPreprocHelper<>(
+			INDIVIDUAL_REQUEST_FACTORY)
+	{
+		@Override
+		protected StreamedXacmlAttributes validate(final StreamedXacmlAttributes inputRawAttributeCategoryObject)
+		{
+			// already checked while reading the input
+			return inputRawAttributeCategoryObject;
+		}
+	};
+
+	/**
+	 * Creates a parser of {@link StreamedXacmlAttributes}, in the same modes as {@link BaseXacmlJaxbRequestPreprocessor}
+	 *
+	 * @param attributeValueFactoryRegistry
+	 *            registry of datatype-specific attribute value parsers
+	 * @param strictAttributeIssuerMatch
+	 *            true iff it is required that AttributeDesignator without Issuer only match request Attributes without Issuer
+	 * @param allowAttributeDuplicates
+	 *            true iff the same Attribute may be repeated in the same category
+	 * @return parser
+	 * @throws UnsupportedOperationException
+	 *             if {@code strictAttributeIssuerMatch == false && allowAttributeDuplicates == false} which is not supported
+	 */
+	static SingleCategoryXacmlAttributesParser<StreamedXacmlAttributes> newParser(final AttributeValueFactoryRegistry attributeValueFactoryRegistry, final boolean strictAttributeIssuerMatch,
+			final boolean allowAttributeDuplicates) throws UnsupportedOperationException
+	{
+		final NamedXacmlAttributeParser<StreamedAttribute> namedXacmlAttParser = new NamedStreamedAttributeParser(attributeValueFactoryRegistry);
+		if (allowAttributeDuplicates)
+		{
+			final XacmlRequestAttributeParser<StreamedAttribute, MutableAttributeBag<?>> xacmlAttributeParser = strictAttributeIssuerMatch
+					? new NonIssuedLikeIssuedLaxXacmlAttributeParser<>(namedXacmlAttParser)
+					: new IssuedToNonIssuedCopyingLaxXacmlAttributeParser<>(namedXacmlAttParser);
+			return new Parser<>(xacmlAttributeParser, SingleCategoryAttributes.MUTABLE_TO_CONSTANT_ATTRIBUTE_ITERATOR_CONVERTER);
+		}
+
+		if (strictAttributeIssuerMatch)
+		{
+			final XacmlRequestAttributeParser<StreamedAttribute, AttributeBag<?>> xacmlAttributeParser = new NonIssuedLikeIssuedStrictXacmlAttributeParser<>(namedXacmlAttParser);
+			return new Parser<>(xacmlAttributeParser, SingleCategoryAttributes.IDENTITY_ATTRIBUTE_ITERATOR_CONVERTER);
+		}
+
+		// same limitation as BaseXacmlJaxbRequestPreprocessor
+		throw UNSUPPORTED_MODE_EXCEPTION;
+	}
+
+	/**
+	 * Parses the attribute values and creates the individual decision requests - one per combination of repeated attribute categories (Multiple Decision Profile, §2.3)
+	 *
+	 * @param attributeCategories
+	 *            attribute categories in the order of the input request
+	 * @param parser
+	 *            parser created by {@link #newParser(AttributeValueFactoryRegistry, boolean, boolean)}
+	 * @param isApplicablePolicyIdListReturned
+	 *            XACML Request's property {@code returnPolicyIdList}
+	 * @param xPathCompiler
+	 *            XPath compiler corresponding to XPathVersion in the request, if any
+	 * @return individual decision requests
+	 * @throws IndeterminateEvaluationException
+	 *             if some attribute value is invalid, or too many individual decision requests
+	 */
+	static List<IndividualXacmlJaxbRequest> toIndividualRequests(final List<StreamedXacmlAttributes> attributeCategories, final SingleCategoryXacmlAttributesParser<StreamedXacmlAttributes> parser,
+			final boolean isApplicablePolicyIdListReturned, final Optional<XPathCompilerProxy> xPathCompiler) throws IndeterminateEvaluationException
+	{
+		return MDP_HELPER.process(attributeCategories, parser, isApplicablePolicyIdListReturned, xPathCompiler);
+	}
+
+	private final String categoryId;
+	private final String id;
+	private final List<StreamedAttribute> attributes;
+	private final XdmNode extraContent;
+	private Attributes attributesToIncludeInResult = null;
+
+	/**
+	 * Creates instance
+	 *
+	 * @param categoryId
+	 *            category ID
+	 * @param id
+	 *            identifier of the category element in the request (xml:id in XACML/XML, Id in XACML/JSON), null if none
+	 * @param attributes
+	 *            attributes
+	 * @param extraContent
+	 *            Content parsed into XPath data model for XPath evaluation; null if none or not parsed
+	 */
+	StreamedXacmlAttributes(final String categoryId, final String id, final List<StreamedAttribute> attributes, final XdmNode extraContent)
+	{
+		assert categoryId != null && attributes != null;
+		this.categoryId = categoryId;
+		this.id = id;
+		this.attributes = attributes;
+		this.extraContent = extraContent;
+	}
+}
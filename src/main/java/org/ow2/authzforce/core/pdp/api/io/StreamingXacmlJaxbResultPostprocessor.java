@@ -0,0 +1,265 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.io;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.google.common.collect.Iterables;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Result;
+
+import org.ow2.authzforce.core.pdp.api.DecisionResult;
+import org.ow2.authzforce.core.pdp.api.DecisionResultPostprocessor;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.xacml.Xacml3JaxbHelper;
+
+/**
+ * {@link DecisionResultPostprocessor} writing the XACML/XML Response incrementally, one Result at a time, instead of building the whole JAXB {@link oasis.names.tc.xacml._3_0.core.schema.wd_17.Response}
+ * like {@link BaseXacmlJaxbResultPostprocessor}. The output of {@link #process(Collection)} is a {@link StreamedResponse} that converts and writes each Result when its individual decision request is
+ * reached, so that at most one JAXB Result is held in memory at a time. Besides, this postprocessor supports {@link DecisionResultPostprocessor.Features#LAZY_RESULTS}, so that each individual decision
+ * request of a Multiple Decision request may be evaluated only when the Response is written (e.g. by {@link BasePdpEngineAdapter}), i.e. the first Results are written before the last ones are
+ * evaluated.
+ * <p>
+ * This postprocessor is thread-safe, but each {@link StreamedResponse} may be written only once, by a single thread.
+ */
+public final class StreamingXacmlJaxbResultPostprocessor implements DecisionResultPostprocessor<IndividualXacmlJaxbRequest, StreamingXacmlJaxbResultPostprocessor.StreamedResponse>
+{
+	private static final IllegalArgumentException ILLEGAL_RESULTS_ARGUMENT_EXCEPTION = new IllegalArgumentException("Undefined resultsByRequest arg");
+
+	private static final String XACML_3_0_NAMESPACE_URI = "urn:oasis:names:tc:xacml:3.0:core:schema:wd-17";
+
+	/**
+	 * Default size of the output buffer (bytes)
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/*
+	 * XMLOutputFactory is thread-safe once configured
+	 */
+	private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+	/**
+	 * XACML Response written incrementally, one Result at a time, when {@link #writeTo(XMLStreamWriter)} or {@link #writeTo(OutputStream)} is called
+	 */
+	public static final class StreamedResponse
+	{
+		private final Iterable<Result> results;
+		private final int bufferSize;
+		private boolean written = false;
+
+		private StreamedResponse(final Iterable<Result> results, final int bufferSize)
+		{
+			this.results = results;
+			this.bufferSize = bufferSize;
+		}
+
+		/**
+		 * Writes the Response element, flushing the writer after each Result. The caller is responsible for writing the start and end of the XML document, if needed.
+		 *
+		 * @param out
+		 *            XML output
+		 * @throws XMLStreamException
+		 *             error writing the Response
+		 * @throws IllegalStateException
+		 *             if this Response has already been written
+		 */
+		public void writeTo(final XMLStreamWriter out) throws XMLStreamException, IllegalStateException
+		{
+			if (written)
+			{
+				throw new IllegalStateException("XACML Response already written");
+			}
+
+			written = true;
+			final Marshaller marshaller;
+			try
+			{
+				marshaller = Xacml3JaxbHelper.createXacml3Marshaller();
+				marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+			}
+			catch (final JAXBException e)
+			{
+				// Should not happen
+				throw new RuntimeException("Failed to create XACML/JAXB marshaller for Results", e);
+			}
+
+			out.setDefaultNamespace(XACML_3_0_NAMESPACE_URI);
+			out.writeStartElement(XACML_3_0_NAMESPACE_URI, "Response");
+			out.writeDefaultNamespace(XACML_3_0_NAMESPACE_URI);
+			for (final Result result : results)
+			{
+				try
+				{
+					marshaller.marshal(result, out);
+				}
+				catch (final JAXBException e)
+				{
+					throw new XMLStreamException("Failed to marshall XACML Result", e);
+				}
+
+				out.flush();
+			}
+
+			out.writeEndElement();
+			out.flush();
+		}
+
+		/**
+		 * Writes the XML document (UTF-8) with the Response as root element. The output is buffered with a bounded buffer (see
+		 * {@link StreamingXacmlJaxbResultPostprocessor#StreamingXacmlJaxbResultPostprocessor(int, int)}), i.e. bytes are written to {@code out} whenever the buffer is full and at the end.
+		 *
+		 * @param out
+		 *            output stream (not closed by this method)
+		 * @throws IOException
+		 *             error writing to {@code out}
+		 * @throws IllegalStateException
+		 *             if this Response has already been written
+		 */
+		public void writeTo(final OutputStream out) throws IOException, IllegalStateException
+		{
+			final BufferedOutputStream bufferedOut = new BufferedOutputStream(out, bufferSize);
+			try
+			{
+				final XMLStreamWriter xmlWriter = XML_OUTPUT_FACTORY.createXMLStreamWriter(bufferedOut, StandardCharsets.UTF_8.name());
+				xmlWriter.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+				writeTo(xmlWriter);
+				xmlWriter.writeEndDocument();
+				// does not close the underlying output stream
+				xmlWriter.close();
+			}
+			catch (final XMLStreamException e)
+			{
+				throw new IOException("Failed to write XACML Response", e);
+			}
+
+			bufferedOut.flush();
+		}
+	}
+
+	private final BaseXacmlJaxbResultPostprocessor errorResultPostprocessor;
+	private final int bufferSize;
+
+	/**
+	 * Constructor
+	 *
+	 * @param clientRequestErrorVerbosityLevel
+	 *            Level of verbosity of the error message trace returned in case of client request errors (see {@link BaseXacmlJaxbResultPostprocessor#BaseXacmlJaxbResultPostprocessor(int)})
+	 * @param bufferSize
+	 *            size of the output buffer in bytes (used by {@link StreamedResponse#writeTo(OutputStream)})
+	 * @throws IllegalArgumentException
+	 *             if {@code clientRequestErrorVerbosityLevel < 0 || bufferSize <= 0}
+	 */
+	public StreamingXacmlJaxbResultPostprocessor(final int clientRequestErrorVerbosityLevel, final int bufferSize) throws IllegalArgumentException
+	{
+		if (bufferSize <= 0)
+		{
+			throw new IllegalArgumentException("Invalid bufferSize: " + bufferSize + ". Expected: positive.");
+		}
+
+		this.errorResultPostprocessor = new BaseXacmlJaxbResultPostprocessor(clientRequestErrorVerbosityLevel);
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	public Class<IndividualXacmlJaxbRequest> getRequestType()
+	{
+		return IndividualXacmlJaxbRequest.class;
+	}
+
+	@Override
+	public Class<StreamedResponse> getResponseType()
+	{
+		return StreamedResponse.class;
+	}
+
+	@Override
+	public Set<String> getFeatures()
+	{
+		return Set.of(DecisionResultPostprocessor.Features.LAZY_RESULTS);
+	}
+
+	@Override
+	public StreamedResponse process(final Collection<Entry<IndividualXacmlJaxbRequest, ? extends DecisionResult>> resultsByRequest)
+	{
+		if (resultsByRequest == null)
+		{
+			throw ILLEGAL_RESULTS_ARGUMENT_EXCEPTION;
+		}
+
+		// converted to JAXB Results one at a time, while writing
+		return new StreamedResponse(Iterables.transform(resultsByRequest, entry -> BaseXacmlJaxbResultPostprocessor.convert(entry.getKey(), entry.getValue())), bufferSize);
+	}
+
+	@Override
+	public StreamedResponse processClientError(final IndeterminateEvaluationException error)
+	{
+		return new StreamedResponse(errorResultPostprocessor.processClientError(error).getResults(), bufferSize);
+	}
+
+	@Override
+	public StreamedResponse processInternalError(final IndeterminateEvaluationException error)
+	{
+		return new StreamedResponse(errorResultPostprocessor.processInternalError(error).getResults(), bufferSize);
+	}
+
+	/**
+	 * {@link DecisionResultPostprocessor.Factory} of {@link StreamingXacmlJaxbResultPostprocessor}s, with {@link #DEFAULT_BUFFER_SIZE}
+	 */
+	public static final class Factory implements DecisionResultPostprocessor.Factory<IndividualXacmlJaxbRequest, StreamedResponse>
+	{
+		/**
+		 * Factory ID
+		 */
+		public static final String ID = "urn:ow2:authzforce:feature:pdp:result-postproc:xacml-xml:streaming";
+
+		@Override
+		public String getId()
+		{
+			return ID;
+		}
+
+		@Override
+		public Class<IndividualXacmlJaxbRequest> getRequestType()
+		{
+			return IndividualXacmlJaxbRequest.class;
+		}
+
+		@Override
+		public Class<StreamedResponse> getResponseType()
+		{
+			return StreamedResponse.class;
+		}
+
+		@Override
+		public DecisionResultPostprocessor<IndividualXacmlJaxbRequest, StreamedResponse> getInstance(final int clientRequestErrorVerbosityLevel)
+		{
+			return new StreamingXacmlJaxbResultPostprocessor(clientRequestErrorVerbosityLevel, DEFAULT_BUFFER_SIZE);
+		}
+	}
+}
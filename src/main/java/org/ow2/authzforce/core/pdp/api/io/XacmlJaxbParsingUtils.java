@@ -21,7 +21,12 @@ import com.google.common.collect.ImmutableList;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Unmarshaller;
 import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.dom.DOMSender;
+import net.sf.saxon.event.ReceiverOption;
 import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.tiny.TinyBuilder;
 import oasis.names.tc.xacml._3_0.core.schema.wd_17.*;
 import org.ow2.authzforce.core.pdp.api.*;
 import org.ow2.authzforce.core.pdp.api.XmlUtils.NoXmlnsFilteringParser;
@@ -45,6 +50,8 @@ import java.io.Serializable;
 import java.util.*;
 import java.util.stream.Collectors;
 
+import javax.xml.transform.dom.DOMSource;
+
 /**
  * XACML/XML parsing utilities based on JAXB API. Mostly parse XACML/XML objects into AuthzForce data model's equivalents.
  * 
@@ -173,11 +180,11 @@ public final class XacmlJaxbParsingUtils
 		 * @param jaxbContent
 		 *            the &lt;Attributes&gt;/Content node
 		 * 
-		 * @return null if Content parsing not supported or disabled
+		 * @return the parsed Content (may be parsed lazily, on first request); null if no Content or Content parsing not supported or disabled
 		 * @throws IndeterminateEvaluationException
 		 *             if any Content parsing error occurs
 		 */
-		protected abstract XdmNode parseContent(String categoryName, Content jaxbContent) throws IndeterminateEvaluationException;
+		protected abstract LazilyParsedContent parseContent(String categoryName, Content jaxbContent) throws IndeterminateEvaluationException;
 
 		@Override
 		public SingleCategoryAttributes<BAG, Attributes> parseAttributes(final Attributes xacmlAttributes, final Optional<XPathCompilerProxy> xPathCompiler) throws IndeterminateEvaluationException
@@ -190,7 +197,7 @@ public final class XacmlJaxbParsingUtils
 			final List<Attribute> categoryAttrs = xacmlAttributes.getAttributes();
 			assert categoryAttrs != null;
 			final Content jaxbAttrsContent = xacmlAttributes.getContent();
-			final XdmNode extraContent = parseContent(categoryId, jaxbAttrsContent);
+			final LazilyParsedContent extraContent = parseContent(categoryId, jaxbAttrsContent);
 
 			final Map<AttributeFqn, BAG> attrMap;
 			final Attributes attrsToIncludeInResult;
@@ -250,7 +257,7 @@ public final class XacmlJaxbParsingUtils
 				attrsToIncludeInResult = returnedAttributes.isEmpty() ? null : new Attributes(null, returnedAttributes, categoryId, xacmlAttributes.getId());
 			}
 
-			return new SingleCategoryAttributes<>(categoryId, attrMap.entrySet(), namedAttrIterConverter, attrsToIncludeInResult, extraContent);
+			return SingleCategoryAttributes.newInstanceWithLazyContent(categoryId, attrMap.entrySet(), namedAttrIterConverter, attrsToIncludeInResult, extraContent);
 		}
 	}
 
@@ -263,7 +270,7 @@ public final class XacmlJaxbParsingUtils
 		}
 
 		@Override
-		protected XdmNode parseContent(final String categoryName, final Content jaxbContent)
+		protected LazilyParsedContent parseContent(final String categoryName, final Content jaxbContent)
 		{
 			// Content parsing not supported
 			return null;
@@ -312,17 +319,71 @@ public final class XacmlJaxbParsingUtils
 	{
 		// XML document builder for parsing Content to XPath data model for XPath evaluation
 		private final DocumentBuilder xmlDocBuilder;
+		private final boolean lazyContentParsing;
+		private final boolean tinyTreeContent;
 
 		private FullXacmlJaxbAttributesParser(final XacmlRequestAttributeParser<Attribute, BAG> xacmlReqAttributeParser, final NamedAttributeIteratorConverter<BAG> namedAttributeIteratorConverter,
-		        final DocumentBuilder xmlDocBuilder)
+		        final DocumentBuilder xmlDocBuilder, final boolean lazyContentParsing, final boolean tinyTreeContent)
 		{
 			super(xacmlReqAttributeParser, namedAttributeIteratorConverter);
 			assert xmlDocBuilder != null;
 			this.xmlDocBuilder = xmlDocBuilder;
+			this.lazyContentParsing = lazyContentParsing;
+			this.tinyTreeContent = tinyTreeContent;
+		}
+
+		/*
+		 * Copies the DOM element to a new Saxon TinyTree document, and returns the element node (child of the document node) like wrap() for consistent XPath evaluation
+		 */
+		private static XdmNode copyToTinyTree(final Element contentElt) throws XPathException
+		{
+			final TinyBuilder treeBuilder = new TinyBuilder(XmlUtils.SAXON_PROCESSOR.getUnderlyingConfiguration().makePipelineConfiguration());
+			treeBuilder.open();
+			treeBuilder.startDocument(ReceiverOption.NONE);
+			new DOMSender(contentElt, treeBuilder).send();
+			treeBuilder.endDocument();
+			treeBuilder.close();
+			for (final XdmNode child : new XdmNode(treeBuilder.getCurrentRoot()).children())
+			{
+				if (child.getNodeKind() == XdmNodeKind.ELEMENT)
+				{
+					return child;
+				}
+			}
+
+			throw new AssertionError("No element in XDM document built from DOM element " + contentElt.getTagName());
+		}
+
+		private XdmNode toXdm(final String categoryName, final Element contentElt) throws IndeterminateEvaluationException
+		{
+			if (tinyTreeContent)
+			{
+				try
+				{
+					return copyToTinyTree(contentElt);
+				}
+				catch (final XPathException e)
+				{
+					throw new IndeterminateEvaluationException("Error parsing Content of Attributes[@Category=" + categoryName + "] for XPath evaluation", XacmlStatusCode.SYNTAX_ERROR.value(), e);
+				}
+			}
+
+			try
+			{
+				// the content may be parsed lazily by another thread (evaluating the request)
+				synchronized (xmlDocBuilder)
+				{
+					return xmlDocBuilder.wrap(contentElt);
+				}
+			}
+			catch (final IllegalArgumentException e)
+			{
+				throw new IndeterminateEvaluationException("Error parsing Content of Attributes[@Category=" + categoryName + "] for XPath evaluation", XacmlStatusCode.SYNTAX_ERROR.value(), e);
+			}
 		}
 
 		@Override
-		public XdmNode parseContent(final String categoryName, final Content jaxbContent) throws IndeterminateEvaluationException
+		public LazilyParsedContent parseContent(final String categoryName, final Content jaxbContent) throws IndeterminateEvaluationException
 		{
 			if (jaxbContent == null)
 			{
@@ -346,15 +407,14 @@ public final class XacmlJaxbParsingUtils
 				throw new IndeterminateEvaluationException("Invalid Content of Attributes[@Category=" + categoryName + "] for XPath evaluation: no child element", XacmlStatusCode.SYNTAX_ERROR.value());
 			}
 
-			try
+			if (lazyContentParsing)
 			{
-				return xmlDocBuilder.wrap(childElt);
-			}
-			catch (final IllegalArgumentException e)
-			{
-				throw new IndeterminateEvaluationException("Error parsing Content of Attributes[@Category=" + categoryName + "] for XPath evaluation",XacmlStatusCode.SYNTAX_ERROR.value(), e);
+				final Element contentElt = childElt;
+				return new LazilyParsedContent(() -> LazilyParsedContent.serialize(new DOMSource(contentElt)), () -> toXdm(categoryName, contentElt));
 			}
 
+			return LazilyParsedContent.of(toXdm(categoryName, childElt));
+
 		}
 
 	}
@@ -362,6 +422,14 @@ public final class XacmlJaxbParsingUtils
 	/**
 	 * 
 	 * Factory for JAXB/XACML &lt;Attributes&gt; Parser that parses the named attributes (Attribute elements), and the free-form Content
+	 * <p>
+	 * In lazy Content parsing mode, the Content is checked for a child element (the XML document root) but converted to XPath data model only when first requested (e.g. by
+	 * {@link DecisionRequest#getExtraContent(String)} when evaluating an AttributeSelector), therefore not at all if no policy selects from it. In this case, a Content parsing error is raised
+	 * as {@link IndeterminateEvaluationException} (syntax error) whenever the Content is requested (see {@link LazilyParsedContent}).
+	 * <p>
+	 * By default, the Content is converted to XPath data model by wrapping the DOM element (unmarshalled by JAXB) with Saxon, which is cheap but makes XPath evaluation much slower than on Saxon's
+	 * native TinyTree, and keeps the DOM (therefore the whole JAXB Request) in memory as long as the Content is. In TinyTree mode, the DOM element is copied to a TinyTree instead, which costs more
+	 * upfront (proportional to the Content size) but pays off when the Content is selected from more than a few times per request (e.g. several AttributeSelectors, or XPath-based functions).
 	 * 
 	 * @param <BAG>
 	 *            resulting from parsing XACML AttributeValues
@@ -370,9 +438,11 @@ public final class XacmlJaxbParsingUtils
 	{
 		private final XacmlRequestAttributeParser<Attribute, BAG> xacmlReqAttributeParser;
 		private final NamedAttributeIteratorConverter<BAG> namedAttrIterConverter;
+		private final boolean lazyContentParsing;
+		private final boolean tinyTreeContent;
 
 		/**
-		 * Creates instance
+		 * Creates instance with eager Content parsing, i.e. the Content is converted to XPath data model when the Attributes are parsed
 		 * 
 		 * @param xacmlReqAttributeParser
 		 *            parser used to parse each JAXB/XACML &lt;Attribute&gt;
@@ -383,6 +453,26 @@ public final class XacmlJaxbParsingUtils
 		 */
 		public FullXacmlJaxbAttributesParserFactory(final XacmlRequestAttributeParser<Attribute, BAG> xacmlReqAttributeParser,
 		        final NamedAttributeIteratorConverter<BAG> namedAttributeIteratorConverter)
+		{
+			this(xacmlReqAttributeParser, namedAttributeIteratorConverter, false, false);
+		}
+
+		/**
+		 * Creates instance
+		 * 
+		 * @param xacmlReqAttributeParser
+		 *            parser used to parse each JAXB/XACML &lt;Attribute&gt;
+		 * @param namedAttributeIteratorConverter
+		 *            converts iterator over attributes with values produced by {@code jaxbAttributeParser}, into constant-valued/immutable attribute iterator
+		 * @param lazyContentParsing
+		 *            true iff the Content is converted to XPath data model only when first requested
+		 * @param tinyTreeContent
+		 *            true iff the Content is copied to a Saxon TinyTree, instead of wrapping the DOM element
+		 * @throws IllegalArgumentException error
+		 *             {@code if(jaxbAttributeParser == null || namedAttributeIteratorConverter == null)}
+		 */
+		public FullXacmlJaxbAttributesParserFactory(final XacmlRequestAttributeParser<Attribute, BAG> xacmlReqAttributeParser,
+		        final NamedAttributeIteratorConverter<BAG> namedAttributeIteratorConverter, final boolean lazyContentParsing, final boolean tinyTreeContent)
 		{
 			if (xacmlReqAttributeParser == null)
 			{
@@ -396,14 +486,47 @@ public final class XacmlJaxbParsingUtils
 
 			this.xacmlReqAttributeParser = xacmlReqAttributeParser;
 			this.namedAttrIterConverter = namedAttributeIteratorConverter;
+			this.lazyContentParsing = lazyContentParsing;
+			this.tinyTreeContent = tinyTreeContent;
 		}
 
 		@Override
 		public SingleCategoryXacmlAttributesParser<Attributes> getInstance()
 		{
 			// create instance of inner class (has access to this.xmlProc)
-			return new FullXacmlJaxbAttributesParser<>(xacmlReqAttributeParser, namedAttrIterConverter, XmlUtils.SAXON_PROCESSOR.newDocumentBuilder());
+			return new FullXacmlJaxbAttributesParser<>(xacmlReqAttributeParser, namedAttrIterConverter, XmlUtils.SAXON_PROCESSOR.newDocumentBuilder(), lazyContentParsing,
+			        tinyTreeContent);
+		}
+	}
+
+	/**
+	 * Creates the JAXB/XACML &lt;Attributes&gt; parser factory fit for the policies, i.e. a {@link ContentSkippingXacmlJaxbAttributesParserFactory} if the policies are known not to select
+	 * from any Content (no AttributeSelector), else a {@link FullXacmlJaxbAttributesParserFactory}.
+	 * 
+	 * @param xacmlReqAttributeParser
+	 *            parser used to parse each JAXB/XACML &lt;Attribute&gt;
+	 * @param namedAttributeIteratorConverter
+	 *            converts iterator over attributes with values produced by {@code jaxbAttributeParser}, into constant-valued/immutable attribute iterator
+	 * @param policyAttributeReferences
+	 *            attributes referenced by the policies, if known
+	 * @param lazyContentParsing
+	 *            true iff the Content is converted to XPath data model only when first requested (applies to {@link FullXacmlJaxbAttributesParserFactory} only)
+	 * @param tinyTreeContent
+	 *            true iff the Content is copied to a Saxon TinyTree, instead of wrapping the DOM element (applies to {@link FullXacmlJaxbAttributesParserFactory} only)
+	 * @return Attributes parser factory
+	 * @throws IllegalArgumentException
+	 *             {@code if(jaxbAttributeParser == null || namedAttributeIteratorConverter == null)}
+	 */
+	public static <BAG extends Iterable<? extends AttributeValue>> SingleCategoryXacmlAttributesParser.Factory<Attributes> newXacmlJaxbAttributesParserFactory(
+	        final XacmlRequestAttributeParser<Attribute, BAG> xacmlReqAttributeParser, final NamedAttributeIteratorConverter<BAG> namedAttributeIteratorConverter,
+	        final Optional<PolicyAttributeReferences> policyAttributeReferences, final boolean lazyContentParsing, final boolean tinyTreeContent) throws IllegalArgumentException
+	{
+		if (policyAttributeReferences.isPresent() && policyAttributeReferences.get().getContentCategories().isEmpty())
+		{
+			return new ContentSkippingXacmlJaxbAttributesParserFactory<>(xacmlReqAttributeParser, namedAttributeIteratorConverter);
 		}
+
+		return new FullXacmlJaxbAttributesParserFactory<>(xacmlReqAttributeParser, namedAttributeIteratorConverter, lazyContentParsing, tinyTreeContent);
 	}
 
 	private static <AV extends AttributeValue> PepActionAttributeAssignment<AV> newPepActionAttributeAssignment(final String attributeId, final Optional<String> category,
@@ -0,0 +1,667 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.ow2.authzforce.core.pdp.api.DecisionRequestPreprocessor;
+import org.ow2.authzforce.core.pdp.api.DecisionResultPostprocessor;
+import org.ow2.authzforce.core.pdp.api.HashCollections;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.BasicImmutableXPathCompilerProxy;
+import org.ow2.authzforce.core.pdp.api.expression.XPathCompilerProxy;
+import org.ow2.authzforce.core.pdp.api.io.JsonTokenizer.Token;
+import org.ow2.authzforce.core.pdp.api.io.StreamedXacmlAttributes.StreamedAttribute;
+import org.ow2.authzforce.core.pdp.api.io.StreamedXacmlAttributes.StreamedAttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry;
+import org.ow2.authzforce.core.pdp.api.value.XPathValue;
+import org.ow2.authzforce.xacml.identifiers.XPathVersion;
+import org.ow2.authzforce.xacml.identifiers.XacmlAttributeCategory;
+import org.ow2.authzforce.xacml.identifiers.XacmlDatatypeId;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+/**
+ * {@link DecisionRequestPreprocessor} for XACML/JSON requests as defined by the JSON Profile of XACML 3.0 (version 1.1), parsing the JSON input stream token by token (UTF-8), without any
+ * intermediate JSON object tree. Like {@link StaxXacmlRequestPreprocessor}, the AttributeValues are parsed by the datatype-specific factories from the {@link AttributeValueFactoryRegistry}, and JAXB
+ * objects are created only for the attributes with IncludeInResult = true, returned by {@link IndividualXacmlJaxbRequest#getAttributesToBeReturned()}.
+ * <p>
+ * Supported features of the JSON Profile:
+ * <ul>
+ * <li>generic Category objects and shorthand categories (AccessSubject, Action, Resource, Environment, RecipientSubject, IntermediarySubject, Codebase, RequestingMachine), as single objects or arrays;
+ * repeated categories are handled as defined in Multiple Decision Profile, §2.3 (MultiRequests are not supported);</li>
+ * <li>shorthand DataType identifiers (e.g. "string" for "http://www.w3.org/2001/XMLSchema#string");</li>
+ * <li>DataType inference from the JSON type of the Value(s) when DataType is missing: string, boolean, integer (JSON number without fraction or exponent), or double (any other number, or mix of
+ * integers and doubles in the same array);</li>
+ * <li>xpathExpression values as objects with XPathCategory and XPath members (namespaces are taken from the {@code namespaceURIsByPrefix} argument of {@link #process(InputStream, Map)}, not from the
+ * Namespaces member, which is not supported);</li>
+ * <li>Content as XML string or base64-encoded XML, parsed only if {@code requireContentForXPath} is true.</li>
+ * </ul>
+ * <p>
+ * This preprocessor is thread-safe.
+ */
+public final class XacmlJsonRequestPreprocessor implements DecisionRequestPreprocessor<InputStream, IndividualXacmlJaxbRequest>
+{
+	private static final IndeterminateEvaluationException UNSUPPORTED_COMBINED_DECISION_EXCEPTION = new IndeterminateEvaluationException("Unsupported CombinedDecision value in Request: 'true'",
+			XacmlStatusCode.SYNTAX_ERROR.value());
+	private static final IndeterminateEvaluationException UNSUPPORTED_MULTI_REQUESTS_EXCEPTION = new IndeterminateEvaluationException("Unsupported member of Request: MultiRequests",
+			XacmlStatusCode.SYNTAX_ERROR.value());
+	private static final IllegalArgumentException NULL_REQUEST_EXCEPTION = new IllegalArgumentException("Undefined input decision request");
+
+	/*
+	 * Category IDs by shorthand name (JSON Profile, §4.2.2.1)
+	 */
+	private static final Map<String, String> SHORTHAND_CATEGORY_IDS = HashCollections.newImmutableMap(Map.of(
+			"AccessSubject", XacmlAttributeCategory.XACML_1_0_ACCESS_SUBJECT.value(),
+			"Action", XacmlAttributeCategory.XACML_3_0_ACTION.value(),
+			"Resource", XacmlAttributeCategory.XACML_3_0_RESOURCE.value(),
+			"Environment", XacmlAttributeCategory.XACML_3_0_ENVIRONMENT.value(),
+			"RecipientSubject", XacmlAttributeCategory.XACML_1_0_RECIPIENT_SUBJECT.value(),
+			"IntermediarySubject", XacmlAttributeCategory.XACML_1_0_INTERMEDIARY_SUBJECT.value(),
+			"Codebase", XacmlAttributeCategory.XACML_1_0_SUBJECT_CODEBASE.value(),
+			"RequestingMachine", XacmlAttributeCategory.XACML_1_0_SUBJECT_REQUESTING_MACHINE.value()));
+
+	/*
+	 * Datatype IDs by shorthand name (JSON Profile, §3.3.1), i.e. the last part of the standard datatype ID, e.g. "string" for "http://www.w3.org/2001/XMLSchema#string", "rfc822Name" for
+	 * "urn:oasis:names:tc:xacml:1.0:data-type:rfc822Name"
+	 */
+	private static final Map<String, String> SHORTHAND_DATATYPE_IDS;
+
+	static
+	{
+		final Map<String, String> mutableMap = HashCollections.newUpdatableMap(XacmlDatatypeId.values().length);
+		for (final XacmlDatatypeId datatypeId : XacmlDatatypeId.values())
+		{
+			final String id = datatypeId.value();
+			mutableMap.put(id.substring(Math.max(id.lastIndexOf('#'), id.lastIndexOf(':')) + 1), id);
+		}
+
+		SHORTHAND_DATATYPE_IDS = HashCollections.newImmutableMap(mutableMap);
+	}
+
+	private static IndeterminateEvaluationException newSyntaxErrorException(final String message, final Throwable cause)
+	{
+		return new IndeterminateEvaluationException(message, XacmlStatusCode.SYNTAX_ERROR.value(), cause);
+	}
+
+	private static IndeterminateEvaluationException newSyntaxErrorException(final String message)
+	{
+		return new IndeterminateEvaluationException(message, XacmlStatusCode.SYNTAX_ERROR.value());
+	}
+
+	private static void requireToken(final Token actual, final Token expected, final String memberName) throws IndeterminateEvaluationException
+	{
+		if (actual != expected)
+		{
+			throw newSyntaxErrorException("Invalid XACML/JSON Request: invalid '" + memberName + "' (expected JSON " + expected + ", got " + actual + ")");
+		}
+	}
+
+	private static String readString(final JsonTokenizer tokenizer, final String memberName) throws IOException, IndeterminateEvaluationException
+	{
+		requireToken(tokenizer.next(), Token.STRING, memberName);
+		return tokenizer.getText();
+	}
+
+	private static boolean readBoolean(final JsonTokenizer tokenizer, final String memberName) throws IOException, IndeterminateEvaluationException
+	{
+		final Token token = tokenizer.next();
+		if (token == Token.TRUE)
+		{
+			return true;
+		}
+
+		requireToken(token, Token.FALSE, memberName);
+		return false;
+	}
+
+	/**
+	 * Attribute value as read from the JSON input, before DataType resolution
+	 */
+	private static final class JsonAttributeValue
+	{
+		private final Token type;
+		private final String text;
+		private final boolean isIntegral;
+		// XPathCategory of xpathExpression (JSON object), else null
+		private final String xpathCategory;
+
+		private JsonAttributeValue(final Token type, final String text, final boolean isIntegral, final String xpathCategory)
+		{
+			this.type = type;
+			this.text = text;
+			this.isIntegral = isIntegral;
+			this.xpathCategory = xpathCategory;
+		}
+	}
+
+	private static JsonAttributeValue readAttributeValue(final Token firstToken, final JsonTokenizer tokenizer) throws IOException, IndeterminateEvaluationException
+	{
+		switch (firstToken)
+		{
+			case STRING:
+			case NUMBER:
+				return new JsonAttributeValue(firstToken, tokenizer.getText(), tokenizer.isIntegralNumber(), null);
+			case TRUE:
+				return new JsonAttributeValue(firstToken, "true", false, null);
+			case FALSE:
+				return new JsonAttributeValue(firstToken, "false", false, null);
+			case BEGIN_OBJECT:
+				// xpathExpression (JSON Profile, §3.3.2)
+				String xpathCategory = null;
+				String xpath = null;
+				while (tokenizer.next() == Token.NAME)
+				{
+					final String name = tokenizer.getText();
+					switch (name)
+					{
+						case "XPathCategory":
+							xpathCategory = readString(tokenizer, name);
+							break;
+						case "XPath":
+							xpath = readString(tokenizer, name);
+							break;
+						default:
+							throw newSyntaxErrorException("Invalid/unsupported member of xpathExpression Value: '" + name + "'");
+					}
+				}
+
+				if (xpathCategory == null || xpath == null)
+				{
+					throw newSyntaxErrorException("Invalid xpathExpression Value: missing XPathCategory or XPath");
+				}
+
+				return new JsonAttributeValue(firstToken, xpath, false, xpathCategory);
+			default:
+				throw newSyntaxErrorException("Invalid XACML/JSON Request: invalid attribute Value (JSON " + firstToken + ")");
+		}
+	}
+
+	/*
+	 * DataType inferred from the JSON type of a single value (JSON Profile, §3.3.1)
+	 */
+	private static XacmlDatatypeId inferDatatype(final JsonAttributeValue value)
+	{
+		switch (value.type)
+		{
+			case STRING:
+				return XacmlDatatypeId.STRING;
+			case TRUE:
+			case FALSE:
+				return XacmlDatatypeId.BOOLEAN;
+			case BEGIN_OBJECT:
+				return XacmlDatatypeId.XPATH_EXPRESSION;
+			default:
+				// NUMBER
+				return value.isIntegral ? XacmlDatatypeId.INTEGER : XacmlDatatypeId.DOUBLE;
+		}
+	}
+
+	/*
+	 * DataType inference (JSON Profile, §3.3.1): all values must have the same inferred DataType, except that integers mixed with doubles are all doubles
+	 */
+	private static String inferDatatype(final List<JsonAttributeValue> values) throws IndeterminateEvaluationException
+	{
+		XacmlDatatypeId datatype = null;
+		for (final JsonAttributeValue value : values)
+		{
+			final XacmlDatatypeId valueDatatype = inferDatatype(value);
+			if (datatype == null || datatype == XacmlDatatypeId.INTEGER && valueDatatype == XacmlDatatypeId.DOUBLE)
+			{
+				datatype = valueDatatype;
+			}
+			else if (valueDatatype != datatype && !(datatype == XacmlDatatypeId.DOUBLE && valueDatatype == XacmlDatatypeId.INTEGER))
+			{
+				throw newSyntaxErrorException("Invalid XACML/JSON Request: cannot infer DataType of attribute values of mixed JSON types");
+			}
+		}
+
+		assert datatype != null;
+		return datatype.value();
+	}
+
+	private static StreamedAttribute readAttribute(final JsonTokenizer tokenizer) throws IOException, IndeterminateEvaluationException
+	{
+		String attributeId = null;
+		String issuer = null;
+		String dataType = null;
+		boolean includeInResult = false;
+		final List<JsonAttributeValue> jsonValues = new ArrayList<>(1);
+		while (tokenizer.next() == Token.NAME)
+		{
+			final String name = tokenizer.getText();
+			switch (name)
+			{
+				case "AttributeId":
+					attributeId = readString(tokenizer, name);
+					break;
+				case "Issuer":
+					issuer = readString(tokenizer, name);
+					break;
+				case "DataType":
+					dataType = readString(tokenizer, name);
+					break;
+				case "IncludeInResult":
+					includeInResult = readBoolean(tokenizer, name);
+					break;
+				case "Value":
+					final Token token = tokenizer.next();
+					if (token == Token.BEGIN_ARRAY)
+					{
+						Token itemToken;
+						while ((itemToken = tokenizer.next()) != Token.END_ARRAY)
+						{
+							jsonValues.add(readAttributeValue(itemToken, tokenizer));
+						}
+					}
+					else
+					{
+						jsonValues.add(readAttributeValue(token, tokenizer));
+					}
+					break;
+				default:
+					throw newSyntaxErrorException("Invalid XACML/JSON Request: unknown member of Attribute object: '" + name + "'");
+			}
+		}
+
+		if (attributeId == null)
+		{
+			throw newSyntaxErrorException("Invalid XACML/JSON Request: missing AttributeId in Attribute object");
+		}
+
+		if (jsonValues.isEmpty())
+		{
+			throw newSyntaxErrorException("Invalid XACML/JSON Request: missing/empty Value of Attribute '" + attributeId + "'");
+		}
+
+		final String finalDataType = dataType == null ? inferDatatype(jsonValues) : SHORTHAND_DATATYPE_IDS.getOrDefault(dataType, dataType);
+		final List<StreamedAttributeValue> values = new ArrayList<>(jsonValues.size());
+		for (final JsonAttributeValue jsonValue : jsonValues)
+		{
+			final List<Serializable> content = jsonValue.text.isEmpty() ? List.of() : List.of(jsonValue.text);
+			final Map<QName, String> otherAttributes = jsonValue.xpathCategory == null ? Map.of() : Map.of(XPathValue.XPATH_CATEGORY_ATTRIBUTE_QNAME, jsonValue.xpathCategory);
+			values.add(new StreamedAttributeValue(finalDataType, content, otherAttributes));
+		}
+
+		return new StreamedAttribute(attributeId, issuer, includeInResult, values);
+	}
+
+	private static Optional<String> getCategoryId(final String categoryIdMember, final String shorthandCategoryId) throws IndeterminateEvaluationException
+	{
+		if (shorthandCategoryId == null)
+		{
+			return Optional.ofNullable(categoryIdMember);
+		}
+
+		if (categoryIdMember != null && !categoryIdMember.equals(shorthandCategoryId))
+		{
+			throw newSyntaxErrorException("Invalid XACML/JSON Request: CategoryId '" + categoryIdMember + "' inconsistent with shorthand category (" + shorthandCategoryId + ")");
+		}
+
+		return Optional.of(shorthandCategoryId);
+	}
+
+	private final SingleCategoryXacmlAttributesParser<StreamedXacmlAttributes> xacmlAttrsParser;
+	private final boolean requireContentForXPath;
+	private final boolean isCombinedDecisionSupported;
+
+	/**
+	 * Creates instance of request pre-processor.
+	 *
+	 * @param attributeValueFactoryRegistry
+	 *            registry of datatype-specific attribute value parsers
+	 * @param strictAttributeIssuerMatch
+	 *            true iff it is required that AttributeDesignator without Issuer only match request Attributes without Issuer (see
+	 *            {@link BaseXacmlJaxbRequestPreprocessor#BaseXacmlJaxbRequestPreprocessor(AttributeValueFactoryRegistry, boolean, boolean, boolean, Set)})
+	 * @param allowAttributeDuplicates
+	 *            true iff the pre-processor should allow defining multivalued attributes by repeating the same Attribute (same AttributeId) within a Category object (see
+	 *            {@link BaseXacmlJaxbRequestPreprocessor#BaseXacmlJaxbRequestPreprocessor(AttributeValueFactoryRegistry, boolean, boolean, boolean, Set)})
+	 * @param requireContentForXPath
+	 *            true iff Content parsing (into XDM) for XPath evaluation is required
+	 * @param extraPdpFeatures
+	 *            extra - non-mandatory per XACML 3.0 core specification - features supported by PDP engine. Any feature requested by any request is checked against this before processing the
+	 *            request further. If some feature is not supported, an Indeterminate Result is returned.
+	 * @throws UnsupportedOperationException
+	 *             if {@code strictAttributeIssuerMatch == false && allowAttributeDuplicates == false} which is not supported
+	 */
+	public XacmlJsonRequestPreprocessor(final AttributeValueFactoryRegistry attributeValueFactoryRegistry, final boolean strictAttributeIssuerMatch, final boolean allowAttributeDuplicates,
+			final boolean requireContentForXPath, final Set<String> extraPdpFeatures) throws UnsupportedOperationException
+	{
+		this.xacmlAttrsParser = StreamedXacmlAttributes.newParser(attributeValueFactoryRegistry, strictAttributeIssuerMatch, allowAttributeDuplicates);
+		this.requireContentForXPath = requireContentForXPath;
+		this.isCombinedDecisionSupported = extraPdpFeatures.contains(DecisionResultPostprocessor.Features.XACML_MULTIPLE_DECISION_PROFILE_COMBINED_DECISION);
+	}
+
+	@Override
+	public Class<InputStream> getInputRequestType()
+	{
+		return InputStream.class;
+	}
+
+	@Override
+	public Class<IndividualXacmlJaxbRequest> getOutputRequestType()
+	{
+		return IndividualXacmlJaxbRequest.class;
+	}
+
+	private XdmNode parseContent(final String content, final String categoryId) throws IndeterminateEvaluationException
+	{
+		final String xml;
+		if (content.stripLeading().startsWith("<"))
+		{
+			xml = content;
+		}
+		else
+		{
+			// base64-encoded XML (JSON Profile, §4.2.3.2)
+			try
+			{
+				xml = new String(Base64.getMimeDecoder().decode(content), StandardCharsets.UTF_8);
+			}
+			catch (final IllegalArgumentException e)
+			{
+				throw newSyntaxErrorException("Invalid Content of Category '" + categoryId + "': neither XML nor base64-encoded", e);
+			}
+		}
+
+		return StaxXacmlRequestPreprocessor.parseXmlContent(new StringReader(xml), categoryId);
+	}
+
+	/*
+	 * Reads a Category object (after its BEGIN_OBJECT)
+	 */
+	private StreamedXacmlAttributes readCategory(final JsonTokenizer tokenizer, final String shorthandCategoryId) throws IOException, IndeterminateEvaluationException
+	{
+		String categoryIdMember = null;
+		String id = null;
+		String content = null;
+		final List<StreamedAttribute> attributes = new ArrayList<>();
+		while (tokenizer.next() == Token.NAME)
+		{
+			final String name = tokenizer.getText();
+			switch (name)
+			{
+				case "CategoryId":
+					categoryIdMember = readString(tokenizer, name);
+					break;
+				case "Id":
+					id = readString(tokenizer, name);
+					break;
+				case "Content":
+					if (requireContentForXPath)
+					{
+						content = readString(tokenizer, name);
+					}
+					else
+					{
+						tokenizer.skipValue(tokenizer.next());
+					}
+					break;
+				case "Attribute":
+					final Token token = tokenizer.next();
+					if (token == Token.BEGIN_ARRAY)
+					{
+						Token itemToken;
+						while ((itemToken = tokenizer.next()) != Token.END_ARRAY)
+						{
+							requireToken(itemToken, Token.BEGIN_OBJECT, name);
+							attributes.add(readAttribute(tokenizer));
+						}
+					}
+					else
+					{
+						requireToken(token, Token.BEGIN_OBJECT, name);
+						attributes.add(readAttribute(tokenizer));
+					}
+					break;
+				default:
+					throw newSyntaxErrorException("Invalid XACML/JSON Request: unknown member of Category object: '" + name + "'");
+			}
+		}
+
+		final Optional<String> categoryId = getCategoryId(categoryIdMember, shorthandCategoryId);
+		if (categoryId.isEmpty())
+		{
+			throw newSyntaxErrorException("Invalid XACML/JSON Request: missing CategoryId in Category object");
+		}
+
+		final XdmNode extraContent = content == null ? null : parseContent(content, categoryId.get());
+		return new StreamedXacmlAttributes(categoryId.get(), id, attributes, extraContent);
+	}
+
+	/*
+	 * Reads a Category object or array of Category objects
+	 */
+	private void readCategories(final JsonTokenizer tokenizer, final String memberName, final String shorthandCategoryId, final List<StreamedXacmlAttributes> categories) throws IOException,
+			IndeterminateEvaluationException
+	{
+		final Token token = tokenizer.next();
+		if (token == Token.BEGIN_ARRAY)
+		{
+			Token itemToken;
+			while ((itemToken = tokenizer.next()) != Token.END_ARRAY)
+			{
+				requireToken(itemToken, Token.BEGIN_OBJECT, memberName);
+				categories.add(readCategory(tokenizer, shorthandCategoryId));
+			}
+		}
+		else
+		{
+			requireToken(token, Token.BEGIN_OBJECT, memberName);
+			categories.add(readCategory(tokenizer, shorthandCategoryId));
+		}
+	}
+
+	private List<IndividualXacmlJaxbRequest> readRequest(final JsonTokenizer tokenizer, final Map<String, String> namespaceURIsByPrefix) throws IOException, IndeterminateEvaluationException
+	{
+		boolean returnPolicyIdList = false;
+		boolean combinedDecision = false;
+		String xPathVersionUri = null;
+		final List<StreamedXacmlAttributes> categories = new ArrayList<>();
+		while (tokenizer.next() == Token.NAME)
+		{
+			final String name = tokenizer.getText();
+			switch (name)
+			{
+				case "ReturnPolicyIdList":
+					returnPolicyIdList = readBoolean(tokenizer, name);
+					break;
+				case "CombinedDecision":
+					combinedDecision = readBoolean(tokenizer, name);
+					break;
+				case "XPathVersion":
+					xPathVersionUri = readString(tokenizer, name);
+					break;
+				case "Category":
+					readCategories(tokenizer, name, null, categories);
+					break;
+				case "MultiRequests":
+					/*
+					 * According to 7.19.1 Unsupported functionality, return Indeterminate with syntax-error code for unsupported element
+					 */
+					throw UNSUPPORTED_MULTI_REQUESTS_EXCEPTION;
+				default:
+					final String shorthandCategoryId = SHORTHAND_CATEGORY_IDS.get(name);
+					if (shorthandCategoryId == null)
+					{
+						throw newSyntaxErrorException("Invalid XACML/JSON Request: unknown member of Request object: '" + name + "'");
+					}
+
+					readCategories(tokenizer, name, shorthandCategoryId, categories);
+			}
+		}
+
+		/*
+		 * No support for CombinedDecision = true if no decisionCombiner defined. (The use of the CombinedDecision attribute is specified in Multiple Decision Profile.)
+		 */
+		if (combinedDecision && !this.isCombinedDecisionSupported)
+		{
+			throw UNSUPPORTED_COMBINED_DECISION_EXCEPTION;
+		}
+
+		if (categories.isEmpty())
+		{
+			throw newSyntaxErrorException("Invalid XACML/JSON Request: no attribute category");
+		}
+
+		final Optional<XPathCompilerProxy> xPathCompiler;
+		if (xPathVersionUri == null)
+		{
+			xPathCompiler = Optional.empty();
+		}
+		else
+		{
+			try
+			{
+				xPathCompiler = Optional.of(new BasicImmutableXPathCompilerProxy(XPathVersion.fromURI(xPathVersionUri), namespaceURIsByPrefix == null ? Map.of() : namespaceURIsByPrefix, true));
+			}
+			catch (final IllegalArgumentException e)
+			{
+				throw newSyntaxErrorException("Invalid/unsupported XPathVersion in Request: '" + xPathVersionUri + "'", e);
+			}
+		}
+
+		return StreamedXacmlAttributes.toIndividualRequests(categories, xacmlAttrsParser, returnPolicyIdList, xPathCompiler);
+	}
+
+	/**
+	 * Parses the XACML/JSON Request from the (UTF-8) input and pre-processes it, i.e. validates it and creates one individual decision request per combination of repeated attribute categories
+	 * (Multiple Decision Profile, §2.3).
+	 *
+	 * @param req
+	 *            XACML/JSON Request input (not closed by this method)
+	 * @param namespaceURIsByPrefix
+	 *            namespace prefix-URI mappings used as part of the context for XPath evaluation (xpathExpression values); may be null
+	 * @return individual decision requests
+	 * @throws IndeterminateEvaluationException
+	 *             if the input is not a valid XACML/JSON Request, or some feature requested in the Request is not supported by this pre-processor
+	 */
+	@Override
+	public List<IndividualXacmlJaxbRequest> process(final InputStream req, final Map<String, String> namespaceURIsByPrefix) throws IndeterminateEvaluationException
+	{
+		if (req == null)
+		{
+			throw NULL_REQUEST_EXCEPTION;
+		}
+
+		final JsonTokenizer tokenizer = new JsonTokenizer(new InputStreamReader(req, StandardCharsets.UTF_8));
+		try
+		{
+			requireToken(tokenizer.next(), Token.BEGIN_OBJECT, "(root)");
+			List<IndividualXacmlJaxbRequest> individualRequests = null;
+			while (tokenizer.next() == Token.NAME)
+			{
+				if (!tokenizer.getText().equals("Request") || individualRequests != null)
+				{
+					throw newSyntaxErrorException("Invalid XACML/JSON Request: unexpected member of root object: '" + tokenizer.getText() + "'");
+				}
+
+				requireToken(tokenizer.next(), Token.BEGIN_OBJECT, "Request");
+				individualRequests = readRequest(tokenizer, namespaceURIsByPrefix);
+			}
+
+			if (individualRequests == null)
+			{
+				throw newSyntaxErrorException("Invalid XACML/JSON Request: missing Request");
+			}
+
+			if (tokenizer.next() != Token.END_DOCUMENT)
+			{
+				throw newSyntaxErrorException("Invalid XACML/JSON Request: unexpected data after root object");
+			}
+
+			return individualRequests;
+		}
+		catch (final IllegalArgumentException e)
+		{
+			throw newSyntaxErrorException("Invalid XACML/JSON Request", e);
+		}
+		catch (final IOException e)
+		{
+			throw newSyntaxErrorException("Error reading XACML/JSON Request", e);
+		}
+	}
+
+	/**
+	 * {@link DecisionRequestPreprocessor.Factory} of {@link XacmlJsonRequestPreprocessor}s
+	 */
+	public static final class Factory implements DecisionRequestPreprocessor.Factory<InputStream, IndividualXacmlJaxbRequest>
+	{
+		/**
+		 * ID of the factory creating preprocessors that allow repeated Attributes with same meta-data in the same Category object (allowAttributeDuplicates == true)
+		 */
+		public static final String LAX_VARIANT_ID = "urn:ow2:authzforce:feature:pdp:request-preproc:xacml-json:multiple:repeated-attribute-categories-lax";
+
+		/**
+		 * ID of the factory creating preprocessors that do not allow repeated Attributes with same meta-data in the same Category object (allowAttributeDuplicates == false)
+		 */
+		public static final String STRICT_VARIANT_ID = "urn:ow2:authzforce:feature:pdp:request-preproc:xacml-json:multiple:repeated-attribute-categories-strict";
+
+		private final boolean allowAttributeDuplicates;
+
+		/**
+		 * Creates the factory
+		 *
+		 * @param allowAttributeDuplicates
+		 *            true iff the created preprocessors allow repeated Attributes with same meta-data in the same Category object
+		 */
+		public Factory(final boolean allowAttributeDuplicates)
+		{
+			this.allowAttributeDuplicates = allowAttributeDuplicates;
+		}
+
+		@Override
+		public String getId()
+		{
+			return allowAttributeDuplicates ? LAX_VARIANT_ID : STRICT_VARIANT_ID;
+		}
+
+		@Override
+		public Class<InputStream> getInputRequestType()
+		{
+			return InputStream.class;
+		}
+
+		@Override
+		public Class<IndividualXacmlJaxbRequest> getOutputRequestType()
+		{
+			return IndividualXacmlJaxbRequest.class;
+		}
+
+		@Override
+		public DecisionRequestPreprocessor<InputStream, IndividualXacmlJaxbRequest> getInstance(final AttributeValueFactoryRegistry datatypeFactoryRegistry, final boolean strictAttributeIssuerMatch,
+				final boolean requireContentForXPath, final Set<String> extraPdpEngineFeatures)
+		{
+			return new XacmlJsonRequestPreprocessor(datatypeFactoryRegistry, strictAttributeIssuerMatch, allowAttributeDuplicates, requireContentForXPath, extraPdpEngineFeatures);
+		}
+	}
+}
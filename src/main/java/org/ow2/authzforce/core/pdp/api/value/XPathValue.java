@@ -28,6 +28,7 @@ import net.sf.saxon.type.BuiltInAtomicType;
 import org.ow2.authzforce.core.pdp.api.EvaluationContext;
 import org.ow2.authzforce.core.pdp.api.ImmutableXacmlStatus;
 import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.XmlUtils;
 import org.ow2.authzforce.core.pdp.api.expression.VariableReference;
 import org.ow2.authzforce.core.pdp.api.expression.XPathCompilerProxy;
 import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
@@ -89,6 +90,11 @@ public final class XPathValue extends SimpleValue<String>
      */
     private final transient XPathExecutable xPathEvaluator;
     private final transient List<VariableReference<?>> xpathVariables;
+    private final transient net.sf.saxon.s9api.QName[] xpathVariableNames;
+    /*
+     * Null if request-scoped (see XPathCompilerProxy#isRequestScoped()), in which case a new XPathSelector is loaded for each evaluation
+     */
+    private final transient XmlUtils.ReusableXPathSelector reusableXPathSelector;
 
     private final transient IndeterminateEvaluationException missingAttributesContentException;
 
@@ -156,6 +162,9 @@ public final class XPathValue extends SimpleValue<String>
             xpathVariables.add(varRef.get());
         }
 
+        this.xpathVariableNames = xpathVariables.stream().map(VariableReference::getXPathVariableName).toArray(net.sf.saxon.s9api.QName[]::new);
+        this.reusableXPathSelector = xPathCompiler.isRequestScoped() ? null : new XmlUtils.ReusableXPathSelector(xPathEvaluator);
+
         this.missingAttributesContentException = new IndeterminateEvaluationException(this + ": No <Content> element found in Attributes of Category=" + xpathCategory, XacmlStatusCode.SYNTAX_ERROR.value());
         this.xpathEvalExceptionStatus = new ImmutableXacmlStatus(XacmlStatusCode.SYNTAX_ERROR.value(), Optional.of(this + ": Error evaluating XPath against XML node from Content of Attributes Category='" + xpathCategory + "'"));
         this.missingContextException = new IndeterminateEvaluationException(new ImmutableXacmlStatus(XacmlStatusCode.PROCESSING_ERROR.value(), Optional.of(this + ":  undefined evaluation context: XPath value cannot be evaluated")));
@@ -184,19 +193,32 @@ public final class XPathValue extends SimpleValue<String>
         }
 
         /*
-         * An XPathExecutable is immutable, and therefore thread-safe. It is simpler to load a new XPathSelector each time the expression is to be evaluated. However, the XPathSelector is serially
-         * reusable within a single thread. See Saxon Javadoc.
+         * The XPathSelector is serially reusable (see Saxon Javadoc), therefore reused (pooled) if policy-scoped. Variable values are computed before using the selector, since computing them may
+         * evaluate this same XPathValue.
          */
-        final XPathSelector xpathSelector = xPathEvaluator.load();
+        final XdmValue[] xpathVariableValues = new XdmValue[xpathVariableNames.length];
+        for (int i = 0; i < xpathVariableValues.length; i++)
+        {
+            final VariableReference<?> xpathVar = xpathVariables.get(i);
+            final Value val = context.getVariableValue(xpathVar.getVariableId(), xpathVar.getReturnType());
+            xpathVariableValues[i] = val.getXdmValue();
+        }
+
         try
         {
-            for (final VariableReference<?> xpathVar : xpathVariables)
+            if (reusableXPathSelector == null)
             {
-                final Value val = context.getVariableValue(xpathVar.getVariableId(), xpathVar.getReturnType());
-                xpathSelector.setVariable(xpathVar.getXPathVariableName(), val.getXdmValue());
+                final XPathSelector selector = xPathEvaluator.load();
+                for (int i = 0; i < xpathVariableValues.length; i++)
+                {
+                    selector.setVariable(xpathVariableNames[i], xpathVariableValues[i]);
+                }
+
+                selector.setContextItem(contentNode);
+                return selector.evaluate();
             }
-            xpathSelector.setContextItem(contentNode);
-            return xpathSelector.evaluate();
+
+            return reusableXPathSelector.evaluate(contentNode, xpathVariableNames, xpathVariableValues);
         } catch (final SaxonApiException e)
         {
             throw new IndeterminateEvaluationException(this.xpathEvalExceptionStatus, e);
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMSource;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.junit.Test;
+import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
+import org.ow2.authzforce.core.pdp.api.value.Bags;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.StringValue;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Tests of {@link ImmutableDecisionRequest} equality, whether the Contents are parsed lazily or not
+ */
+public class ImmutableDecisionRequestTest
+{
+	private static final String RESOURCE_CATEGORY = "urn:oasis:names:tc:xacml:3.0:attribute-category:resource";
+	private static final Map<String, Map<AttributeFqn, AttributeBag<?>>> NAMED_ATTRIBUTES = Map.of(RESOURCE_CATEGORY, Map.of(AttributeFqns.newInstance(RESOURCE_CATEGORY, Optional.empty(),
+			"urn:oasis:names:tc:xacml:1.0:resource:resource-id"), Bags.singletonAttributeBag(StandardDatatypes.STRING, new StringValue("doc"))));
+
+	/*
+	 * Content element (child of the XACML Content element) as unmarshalled by JAXB, i.e. with namespace declarations inherited from the XACML Request
+	 */
+	private static Element newContentElement(final String title) throws Exception
+	{
+		final String xml = "<Request xmlns='urn:oasis:names:tc:xacml:3.0:core:schema:wd-17' xmlns:ex='urn:example'><Attributes Category='" + RESOURCE_CATEGORY + "'><Content>\n"
+				+ "<doc xmlns='urn:example:doc' a='1'>\n\t<ex:title>" + title + "</ex:title><!-- comment --></doc>\n</Content></Attributes></Request>";
+		final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		final Element content = (Element) factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).getDocumentElement().getFirstChild()
+				.getFirstChild();
+		for (Node child = content.getFirstChild(); child != null; child = child.getNextSibling())
+		{
+			if (child instanceof Element)
+			{
+				return (Element) child;
+			}
+		}
+
+		throw new AssertionError("No Content element");
+	}
+
+	private static ImmutableDecisionRequest newEagerRequest(final Element contentElt)
+	{
+		final XdmNode content = XmlUtils.SAXON_PROCESSOR.newDocumentBuilder().wrap(contentElt);
+		return ImmutableDecisionRequest.getInstanceByCategory(NAMED_ATTRIBUTES, Map.of(RESOURCE_CATEGORY, content), false);
+	}
+
+	private static ImmutableDecisionRequest newLazyRequest(final Element contentElt, final AtomicInteger parsingCount)
+	{
+		final LazilyParsedContent content = new LazilyParsedContent(() -> LazilyParsedContent.serialize(new DOMSource(contentElt)), () -> {
+			parsingCount.incrementAndGet();
+			return XmlUtils.SAXON_PROCESSOR.newDocumentBuilder().wrap(contentElt);
+		});
+		return ImmutableDecisionRequest.getInstanceByCategoryWithLazyContents(NAMED_ATTRIBUTES, Map.of(RESOURCE_CATEGORY, content), false);
+	}
+
+	@Test
+	public void lazyEqualsEager() throws Exception
+	{
+		final AtomicInteger parsingCount = new AtomicInteger();
+		final ImmutableDecisionRequest lazyRequest = newLazyRequest(newContentElement("Report"), parsingCount);
+		final ImmutableDecisionRequest eagerRequest = newEagerRequest(newContentElement("Report"));
+		assertEquals(eagerRequest, lazyRequest);
+		assertEquals(lazyRequest, eagerRequest);
+		assertEquals(eagerRequest.hashCode(), lazyRequest.hashCode());
+		final DecisionRequestFingerprint.Key key = DecisionRequestFingerprint.Key.newRandom();
+		assertEquals(eagerRequest.getFingerprint(key), lazyRequest.getFingerprint(key));
+		// not parsed to be compared
+		assertEquals(0, parsingCount.get());
+
+		// same once parsed
+		lazyRequest.getExtraContent(RESOURCE_CATEGORY);
+		assertEquals(1, parsingCount.get());
+		assertEquals(eagerRequest, lazyRequest);
+	}
+
+	@Test
+	public void differentContentsNotEqual() throws Exception
+	{
+		final ImmutableDecisionRequest lazyRequest = newLazyRequest(newContentElement("Report"), new AtomicInteger());
+		final ImmutableDecisionRequest eagerRequest = newEagerRequest(newContentElement("Other report"));
+		assertNotEquals(eagerRequest, lazyRequest);
+		assertNotEquals(lazyRequest, eagerRequest);
+		final DecisionRequestFingerprint.Key key = DecisionRequestFingerprint.Key.newRandom();
+		assertNotEquals(eagerRequest.getFingerprint(key), lazyRequest.getFingerprint(key));
+	}
+
+	@Test
+	public void eagerRequestsEqual() throws Exception
+	{
+		// different XDM nodes of the same Content
+		assertEquals(newEagerRequest(newContentElement("Report")), newEagerRequest(newContentElement("Report")));
+		assertEquals(newEagerRequest(newContentElement("Report")).hashCode(), newEagerRequest(newContentElement("Report")).hashCode());
+	}
+}
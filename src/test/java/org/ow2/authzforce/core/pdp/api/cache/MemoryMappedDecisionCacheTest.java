@@ -0,0 +1,256 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ow2.authzforce.core.pdp.api.AttributeFqns;
+import org.ow2.authzforce.core.pdp.api.DecisionRequest;
+import org.ow2.authzforce.core.pdp.api.DecisionResult;
+import org.ow2.authzforce.core.pdp.api.DecisionResults;
+import org.ow2.authzforce.core.pdp.api.EvaluationContext;
+import org.ow2.authzforce.core.pdp.api.ImmutableDecisionRequest;
+import org.ow2.authzforce.core.pdp.api.ImmutableXacmlStatus;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.PepAction;
+import org.ow2.authzforce.core.pdp.api.PepActionAttributeAssignment;
+import org.ow2.authzforce.core.pdp.api.policy.BasePrimaryPolicyMetadata;
+import org.ow2.authzforce.core.pdp.api.policy.PolicyVersion;
+import org.ow2.authzforce.core.pdp.api.policy.PrimaryPolicyMetadata;
+import org.ow2.authzforce.core.pdp.api.policy.TopLevelPolicyElementType;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry;
+import org.ow2.authzforce.core.pdp.api.value.Bags;
+import org.ow2.authzforce.core.pdp.api.value.StandardAttributeValueFactories;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.StringValue;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests of {@link MemoryMappedDecisionCache} persistence: append, reload, CRC check and compaction; and of the {@link DecisionResultEncoding} used for the records
+ */
+public class MemoryMappedDecisionCacheTest
+{
+	private static final long EPOCH = 1;
+	// header: magic (8 bytes) | format version (4) | epoch (8) | fingerprint key (32)
+	private static final int HEADER_SIZE = 8 + 4 + 8 + 32;
+	private static final AttributeValueFactoryRegistry ATTRIBUTE_VALUE_FACTORIES = StandardAttributeValueFactories.getRegistry(false, Optional.empty());
+
+	@Rule
+	public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	private static DecisionRequest newRequest(final String subjectId)
+	{
+		return ImmutableDecisionRequest.getInstance(Map.of(AttributeFqns.newInstance("urn:oasis:names:tc:xacml:1.0:subject-category:access-subject", Optional.empty(),
+				"urn:oasis:names:tc:xacml:1.0:subject:subject-id"), Bags.singletonAttributeBag(StandardDatatypes.STRING, new StringValue(subjectId))), null, false);
+	}
+
+	private static PepActionAttributeAssignment<StringValue> newAttributeAssignment(final String value)
+	{
+		return new PepActionAttributeAssignment<>("urn:example:attribute", Optional.of("urn:example:category"), Optional.empty(), StandardDatatypes.STRING, new StringValue(value));
+	}
+
+	private static DecisionResult newPermit(final String obligationValue)
+	{
+		final PepAction obligation = new PepAction("urn:example:obligation", true, ImmutableList.of(newAttributeAssignment(obligationValue)));
+		final PrimaryPolicyMetadata policy = new BasePrimaryPolicyMetadata(TopLevelPolicyElementType.POLICY, "urn:example:policy", new PolicyVersion("1.0"));
+		return DecisionResults.getPermit(Optional.of(new ImmutableXacmlStatus(XacmlStatusCode.OK.value(), Optional.of("ok"))), ImmutableList.of(obligation), ImmutableList.of(policy));
+	}
+
+	private MemoryMappedDecisionCache newCache(final Path file, final long epoch, final int maxFileSize) throws IOException
+	{
+		return new MemoryMappedDecisionCache(file, epoch, maxFileSize, 1000, Duration.ZERO, ATTRIBUTE_VALUE_FACTORIES);
+	}
+
+	private static void assertSameResult(final DecisionResult expected, final DecisionResult actual)
+	{
+		assertNotNull(actual);
+		assertEquals(expected, actual);
+		assertEquals(expected.getApplicablePolicies(), actual.getApplicablePolicies());
+	}
+
+	@Test
+	public void appendAndReload() throws IOException
+	{
+		final Path file = tmpFolder.getRoot().toPath().resolve("cache.bin");
+		final DecisionResult permit = newPermit("a");
+		try (MemoryMappedDecisionCache cache = newCache(file, EPOCH, MemoryMappedDecisionCache.MIN_FILE_SIZE))
+		{
+			cache.put(newRequest("alice"), permit, null);
+			cache.put(newRequest("bob"), DecisionResults.SIMPLE_DENY, null);
+			// not encodable
+			cache.put(newRequest("carol"), DecisionResults.newIndeterminate(null, new IndeterminateEvaluationException("error", XacmlStatusCode.PROCESSING_ERROR.value()),
+					ImmutableList.of()), null);
+			assertSameResult(permit, cache.get(newRequest("alice"), null));
+			assertEquals(2, cache.size());
+		}
+
+		try (MemoryMappedDecisionCache cache = newCache(file, EPOCH, MemoryMappedDecisionCache.MIN_FILE_SIZE))
+		{
+			assertEquals(2, cache.size());
+			assertSameResult(permit, cache.get(newRequest("alice"), null));
+			assertSameResult(DecisionResults.SIMPLE_DENY, cache.get(newRequest("bob"), null));
+			assertNull(cache.get(newRequest("carol"), null));
+		}
+
+		// different policy epoch: entries dropped
+		try (MemoryMappedDecisionCache cache = newCache(file, EPOCH + 1, MemoryMappedDecisionCache.MIN_FILE_SIZE))
+		{
+			assertEquals(0, cache.size());
+			assertNull(cache.get(newRequest("alice"), null));
+		}
+	}
+
+	@Test
+	public void corruptedRecordRejectedOnReload() throws IOException
+	{
+		final Path file = tmpFolder.getRoot().toPath().resolve("cache.bin");
+		try (MemoryMappedDecisionCache cache = newCache(file, EPOCH, MemoryMappedDecisionCache.MIN_FILE_SIZE))
+		{
+			cache.put(newRequest("alice"), newPermit("a"), null);
+			cache.put(newRequest("bob"), newPermit("b"), null);
+			cache.put(newRequest("carol"), newPermit("c"), null);
+		}
+
+		// flip the last byte of the encoded result of the second record (just before the CRC)
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE))
+		{
+			final ByteBuffer length = ByteBuffer.allocate(4);
+			channel.read(length, HEADER_SIZE);
+			final long secondRecordPosition = HEADER_SIZE + 4 + length.flip().getInt();
+			channel.read(length.clear(), secondRecordPosition);
+			final long corruptedBytePosition = secondRecordPosition + 4 + length.flip().getInt() - 4 - 1;
+			final ByteBuffer b = ByteBuffer.allocate(1);
+			channel.read(b, corruptedBytePosition);
+			channel.write(ByteBuffer.wrap(new byte[] { (byte) ~b.get(0) }), corruptedBytePosition);
+		}
+
+		// the corrupted record and any subsequent one are dropped
+		try (MemoryMappedDecisionCache cache = newCache(file, EPOCH, MemoryMappedDecisionCache.MIN_FILE_SIZE))
+		{
+			assertEquals(1, cache.size());
+			assertSameResult(newPermit("a"), cache.get(newRequest("alice"), null));
+			assertNull(cache.get(newRequest("bob"), null));
+			assertNull(cache.get(newRequest("carol"), null));
+
+			// appending works again after the last valid record
+			cache.put(newRequest("bob"), newPermit("b2"), null);
+		}
+
+		try (MemoryMappedDecisionCache cache = newCache(file, EPOCH, MemoryMappedDecisionCache.MIN_FILE_SIZE))
+		{
+			assertEquals(2, cache.size());
+			assertSameResult(newPermit("b2"), cache.get(newRequest("bob"), null));
+		}
+	}
+
+	@Test
+	public void compaction() throws IOException
+	{
+		final Path file = tmpFolder.getRoot().toPath().resolve("cache.bin");
+		final int updateCount = 1000;
+		try (MemoryMappedDecisionCache cache = newCache(file, EPOCH, MemoryMappedDecisionCache.MIN_FILE_SIZE))
+		{
+			cache.put(newRequest("alice"), newPermit("a"), null);
+			// the superseded records fill the file many times over, so compaction is required to make room
+			for (int i = 0; i < updateCount; i++)
+			{
+				cache.put(newRequest("bob"), newPermit("b" + i), null);
+			}
+
+			assertEquals(2, cache.size());
+			assertEquals(0, cache.getEvictionCount());
+			assertSameResult(newPermit("a"), cache.get(newRequest("alice"), null));
+			assertSameResult(newPermit("b" + (updateCount - 1)), cache.get(newRequest("bob"), null));
+		}
+
+		try (MemoryMappedDecisionCache cache = newCache(file, EPOCH, MemoryMappedDecisionCache.MIN_FILE_SIZE))
+		{
+			assertEquals(2, cache.size());
+			assertSameResult(newPermit("a"), cache.get(newRequest("alice"), null));
+			assertSameResult(newPermit("b" + (updateCount - 1)), cache.get(newRequest("bob"), null));
+		}
+	}
+
+	@Test
+	public void untrackedDecisionValidityNotCached() throws IOException
+	{
+		// context relying on the EvaluationContext interface defaults, i.e. not tracking the use of time-dependent attributes
+		final EvaluationContext untrackedCtx = (EvaluationContext) Proxy.newProxyInstance(EvaluationContext.class.getClassLoader(), new Class<?>[] { EvaluationContext.class },
+				(proxy, method, args) -> {
+					if (method.isDefault())
+					{
+						return InvocationHandler.invokeDefault(proxy, method, args);
+					}
+
+					if (method.getName().equals("getCreationTimestamp"))
+					{
+						return Instant.now();
+					}
+
+					throw new UnsupportedOperationException(method.getName());
+				});
+		final Path file = tmpFolder.getRoot().toPath().resolve("cache.bin");
+		try (MemoryMappedDecisionCache cache = newCache(file, EPOCH, MemoryMappedDecisionCache.MIN_FILE_SIZE))
+		{
+			cache.put(newRequest("alice"), newPermit("a"), untrackedCtx, untrackedCtx.getDecisionValidUntil());
+			// even if the caller claims the result is time-independent
+			cache.put(newRequest("bob"), newPermit("b"), untrackedCtx, Optional.empty());
+			// no context to tell: validUntil applies
+			cache.put(newRequest("carol"), newPermit("c"), null, Optional.empty());
+			assertNull(cache.get(newRequest("alice"), null));
+			assertNull(cache.get(newRequest("bob"), null));
+			assertSameResult(newPermit("c"), cache.get(newRequest("carol"), null));
+			assertEquals(1, cache.size());
+		}
+	}
+
+	@Test
+	public void encodingOfCountsBeyond16Bits()
+	{
+		final int assignmentCount = 70_000;
+		final ImmutableList.Builder<PepActionAttributeAssignment<?>> assignments = ImmutableList.builderWithExpectedSize(assignmentCount);
+		for (int i = 0; i < assignmentCount; i++)
+		{
+			assignments.add(newAttributeAssignment(Integer.toString(i)));
+		}
+
+		final DecisionResult result = DecisionResults.getDeny(Optional.empty(), ImmutableList.of(new PepAction("urn:example:obligation", true, assignments.build())), ImmutableList.of());
+		final byte[] encodedResult = DecisionResultEncoding.encode(result);
+		assertNotNull(encodedResult);
+		assertSameResult(result, DecisionResultEncoding.decode(encodedResult, ATTRIBUTE_VALUE_FACTORIES));
+	}
+}
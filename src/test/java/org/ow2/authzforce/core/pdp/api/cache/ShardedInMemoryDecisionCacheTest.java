@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Test;
+import org.ow2.authzforce.core.pdp.api.AttributeFqns;
+import org.ow2.authzforce.core.pdp.api.DecisionRequest;
+import org.ow2.authzforce.core.pdp.api.DecisionResult;
+import org.ow2.authzforce.core.pdp.api.DecisionResults;
+import org.ow2.authzforce.core.pdp.api.ImmutableDecisionRequest;
+import org.ow2.authzforce.core.pdp.api.value.Bags;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.StringValue;
+
+/**
+ * Tests of {@link ShardedInMemoryDecisionCache}: size bound, W-TinyLFU admission, expiration and statistics
+ */
+public class ShardedInMemoryDecisionCacheTest
+{
+	private static final DecisionResult RESULT = DecisionResults.SIMPLE_PERMIT;
+
+	private static DecisionRequest newRequest(final String subjectId)
+	{
+		return ImmutableDecisionRequest.getInstance(Map.of(AttributeFqns.newInstance("urn:oasis:names:tc:xacml:1.0:subject-category:access-subject", Optional.empty(),
+				"urn:oasis:names:tc:xacml:1.0:subject:subject-id"), Bags.singletonAttributeBag(StandardDatatypes.STRING, new StringValue(subjectId))), null, false);
+	}
+
+	private static void assertMaxSize(final int maxSize, final int concurrencyLevel)
+	{
+		final ShardedInMemoryDecisionCache cache = new ShardedInMemoryDecisionCache(maxSize, null, concurrencyLevel);
+		final int putCount = 20 * maxSize;
+		for (int i = 0; i < putCount; i++)
+		{
+			cache.put(newRequest("user" + i), RESULT, null);
+		}
+
+		// every segment is full
+		assertEquals(cache.toString(), maxSize, cache.estimatedSize());
+		assertEquals(cache.toString(), putCount - maxSize, cache.getEvictionCount());
+	}
+
+	@Test
+	public void maxSize()
+	{
+		// single segment, including without admission window (maxSize = 1)
+		assertMaxSize(1, 1);
+		assertMaxSize(2, 1);
+		assertMaxSize(17, 1);
+		// multiple segments, maxSize not multiple of the segment count
+		assertMaxSize(64, 4);
+		assertMaxSize(70, 4);
+		assertMaxSize(1000, 16);
+	}
+
+	@Test
+	public void admission()
+	{
+		// single segment: admission window of 1, main space of 99
+		final ShardedInMemoryDecisionCache cache = new ShardedInMemoryDecisionCache(100, null, 1);
+		final DecisionRequest frequentRequest = newRequest("frequent");
+		cache.put(frequentRequest, RESULT, null);
+		for (int i = 0; i < 9; i++)
+		{
+			assertSame(RESULT, cache.get(frequentRequest, null));
+		}
+
+		// burst of one-time requests: the frequent one (least recently used) is not evicted in favor of less frequent ones
+		final int burstSize = 300;
+		for (int i = 0; i < burstSize; i++)
+		{
+			cache.put(newRequest("user" + i), RESULT, null);
+		}
+
+		assertSame(RESULT, cache.get(frequentRequest, null));
+		// the first ones filled the main space, the next ones were rejected except the last one, still in the admission window
+		assertSame(RESULT, cache.get(newRequest("user0"), null));
+		assertNull(cache.get(newRequest("user" + (burstSize / 2)), null));
+		assertSame(RESULT, cache.get(newRequest("user" + (burstSize - 1)), null));
+		assertEquals(100, cache.estimatedSize());
+		assertEquals(burstSize + 1 - 100, cache.getEvictionCount());
+	}
+
+	@Test
+	public void admissionWithoutWindow()
+	{
+		final ShardedInMemoryDecisionCache cache = new ShardedInMemoryDecisionCache(1, null, 1);
+		final DecisionRequest request1 = newRequest("user1");
+		final DecisionRequest request2 = newRequest("user2");
+		cache.put(request1, RESULT, null);
+		assertSame(RESULT, cache.get(request1, null));
+		// less frequent than request1, therefore rejected
+		cache.put(request2, RESULT, null);
+		assertNull(cache.get(request2, null));
+		assertSame(RESULT, cache.get(request1, null));
+		assertEquals(1, cache.estimatedSize());
+	}
+
+	@Test
+	public void expiration() throws InterruptedException
+	{
+		final ShardedInMemoryDecisionCache cache = new ShardedInMemoryDecisionCache(10, Duration.ofMillis(1000), 1);
+		final DecisionRequest request1 = newRequest("user1");
+		final DecisionRequest request2 = newRequest("user2");
+		final DecisionRequest request3 = newRequest("user3");
+		final DecisionRequest request4 = newRequest("user4");
+		cache.put(request1, RESULT, null);
+		// validity limit before the TTL
+		cache.put(request2, RESULT, null, Optional.of(Instant.now().plusMillis(250)));
+		// validity limit after the TTL
+		cache.put(request3, RESULT, null, Optional.of(Instant.now().plusSeconds(60)));
+		// already invalid: not cached
+		cache.put(request4, RESULT, null, Optional.of(Instant.now().minusMillis(1)));
+		assertEquals(3, cache.estimatedSize());
+		assertNull(cache.get(request4, null));
+
+		Thread.sleep(500);
+		assertSame(RESULT, cache.get(request1, null));
+		assertNull(cache.get(request2, null));
+		assertSame(RESULT, cache.get(request3, null));
+
+		Thread.sleep(750);
+		assertNull(cache.get(request1, null));
+		assertNull(cache.get(request3, null));
+		// expired entries are evicted on lookup
+		assertEquals(0, cache.estimatedSize());
+		assertEquals(3, cache.getEvictionCount());
+	}
+
+	@Test
+	public void stats()
+	{
+		final ShardedInMemoryDecisionCache cache = new ShardedInMemoryDecisionCache(100, null, 4);
+		final DecisionRequest request1 = newRequest("user1");
+		final DecisionRequest request2 = newRequest("user2");
+		final DecisionRequest request3 = newRequest("user3");
+		assertNull(cache.get(request1, null));
+		cache.putAll(Map.of(request1, RESULT, request2, DecisionResults.SIMPLE_DENY));
+		assertSame(RESULT, cache.get(request1, null));
+		final Map<DecisionRequest, DecisionResult> results = cache.getAll(List.of(request1, request2, request3));
+		assertEquals(Map.of(request1, RESULT, request2, DecisionResults.SIMPLE_DENY), results);
+		assertEquals(3, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(0, cache.getEvictionCount());
+		assertEquals(2, cache.estimatedSize());
+	}
+}
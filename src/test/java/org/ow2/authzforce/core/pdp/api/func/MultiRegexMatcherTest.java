@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.func;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.value.StringValue;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+/**
+ * Tests of {@link MultiRegexMatcher}: results compared with matching each regular expression one by one with {@link RegexpMatchFunctionHelper#match(StringValue, org.ow2.authzforce.core.pdp.api.value.SimpleValue)}
+ */
+public class MultiRegexMatcherTest
+{
+	/*
+	 * Regular expressions with literal prefixes (anchored), required literals, no literal (alternation, quantified literal, groups, classes), shared literals, escapes and XML schema syntax
+	 */
+	private static final List<String> REGEXES = List.of("^/api/users/[0-9]+$", "^/api/users", "^/api/", "^/api/orders/[a-z]+/items", "/items", "users", "^/static/.*\\.css$", "\\.css$",
+			"^/(api|static)/", "ab|cd", "a?b?c", "(abc)+x", "[a-c]+d", "^abc", "^abcd", "^ab*c", "^/api/users/42$", "x{2,3}y", "\\.", "^$", "^[\\i-[:]][\\c-[:]]*$", "orders/[^/]+/items$",
+			"^/api/users/1\\d", "(a|b)c", "^a.c", "z$");
+
+	private static final String[] INPUT_FRAGMENTS = { "/api", "/users", "/orders", "/items", "/static", "/", "42", "17", "abc", "abcd", "ab", "cd", "x", "xx", "xxxy", ".css", "z", "a", "b",
+			"c", "d", ":" };
+
+	private static String randomInput(final Random random)
+	{
+		final StringBuilder input = new StringBuilder();
+		final int fragmentCount = random.nextInt(6);
+		for (int i = 0; i < fragmentCount; i++)
+		{
+			input.append(INPUT_FRAGMENTS[random.nextInt(INPUT_FRAGMENTS.length)]);
+		}
+
+		return input.toString();
+	}
+
+	private static BitSet matchOneByOne(final String input)
+	{
+		final BitSet matches = new BitSet(REGEXES.size());
+		for (int i = 0; i < REGEXES.size(); i++)
+		{
+			if (RegexpMatchFunctionHelper.match(new StringValue(REGEXES.get(i)), new StringValue(input)))
+			{
+				matches.set(i);
+			}
+		}
+
+		return matches;
+	}
+
+	@Test
+	public void matchAllAndFirstSameAsOneByOne() throws IndeterminateEvaluationException
+	{
+		final MultiRegexMatcher matcher = new MultiRegexMatcher(REGEXES);
+		final Random random = new Random(0);
+		int matchingInputCount = 0;
+		for (int i = 0; i < 5000; i++)
+		{
+			final String input = randomInput(random);
+			final BitSet expectedMatches = matchOneByOne(input);
+			assertEquals("matchAll('" + input + "')", expectedMatches, matcher.matchAll(input));
+			assertEquals("matchFirst('" + input + "')", expectedMatches.nextSetBit(0), matcher.matchFirst(input));
+			if (!expectedMatches.isEmpty())
+			{
+				matchingInputCount++;
+			}
+		}
+
+		// make sure the inputs are relevant
+		assertTrue(matchingInputCount > 1000);
+	}
+
+	@Test
+	public void matchNoRegex() throws IndeterminateEvaluationException
+	{
+		final MultiRegexMatcher matcher = new MultiRegexMatcher(List.of());
+		assertTrue(matcher.matchAll("abc").isEmpty());
+		assertEquals(-1, matcher.matchFirst("abc"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidRegex()
+	{
+		new MultiRegexMatcher(List.of("^abc", "(("));
+	}
+
+	@Test
+	public void catastrophicBacktrackingIndeterminate()
+	{
+		final MultiRegexMatcher matcher = new MultiRegexMatcher(List.of("^b", "^(a+)+$"));
+		final String input = "a".repeat(40) + "!";
+		try
+		{
+			matcher.matchAll(input);
+			fail("matchAll did not fail on catastrophic backtracking");
+		} catch (final IndeterminateEvaluationException e)
+		{
+			assertEquals(XacmlStatusCode.PROCESSING_ERROR.value(), e.getStatus().getStatusCode().getValue());
+		}
+
+		try
+		{
+			matcher.matchFirst(input);
+			fail("matchFirst did not fail on catastrophic backtracking");
+		} catch (final IndeterminateEvaluationException e)
+		{
+			assertEquals(XacmlStatusCode.PROCESSING_ERROR.value(), e.getStatus().getStatusCode().getValue());
+		}
+	}
+}
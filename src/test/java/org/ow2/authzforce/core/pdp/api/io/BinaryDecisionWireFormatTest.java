@@ -0,0 +1,221 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.xml.namespace.QName;
+
+import com.google.common.collect.ImmutableList;
+import net.sf.saxon.s9api.ItemType;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmItem;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.DecisionType;
+
+import org.junit.Test;
+import org.ow2.authzforce.core.pdp.api.AttributeFqn;
+import org.ow2.authzforce.core.pdp.api.AttributeFqns;
+import org.ow2.authzforce.core.pdp.api.DecisionResult;
+import org.ow2.authzforce.core.pdp.api.DecisionResults;
+import org.ow2.authzforce.core.pdp.api.ImmutableDecisionRequest;
+import org.ow2.authzforce.core.pdp.api.ImmutableXacmlStatus;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.PepAction;
+import org.ow2.authzforce.core.pdp.api.PepActionAttributeAssignment;
+import org.ow2.authzforce.core.pdp.api.policy.BasePrimaryPolicyMetadata;
+import org.ow2.authzforce.core.pdp.api.policy.PolicyVersion;
+import org.ow2.authzforce.core.pdp.api.policy.PrimaryPolicyMetadata;
+import org.ow2.authzforce.core.pdp.api.policy.TopLevelPolicyElementType;
+import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
+import org.ow2.authzforce.core.pdp.api.value.AttributeDatatype;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry;
+import org.ow2.authzforce.core.pdp.api.value.Bags;
+import org.ow2.authzforce.core.pdp.api.value.BooleanValue;
+import org.ow2.authzforce.core.pdp.api.value.DoubleValue;
+import org.ow2.authzforce.core.pdp.api.value.IntegerValue;
+import org.ow2.authzforce.core.pdp.api.value.StandardAttributeValueFactories;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.StringValue;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+/**
+ * Round-trip tests of {@link BinaryDecisionWireFormat}: PEP-side request encoding, PDP-side request decoding ({@link BinaryDecisionRequestPreprocessor}), PDP-side result encoding
+ * ({@link BinaryDecisionResultPostprocessor}) and PEP-side result decoding
+ */
+public class BinaryDecisionWireFormatTest
+{
+	private static final AttributeValueFactoryRegistry VALUE_FACTORIES = StandardAttributeValueFactories.getRegistry(false, Optional.empty());
+
+	private static final String SUBJECT_CATEGORY = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+	private static final String ACTION_CATEGORY = "urn:oasis:names:tc:xacml:3.0:attribute-category:action";
+
+	/*
+	 * Value with mixed content (not supported by the binary wire format)
+	 */
+	private static final class MixedContentValue implements AttributeValue
+	{
+		private static final AttributeDatatype<MixedContentValue> DATATYPE = new AttributeDatatype<>(MixedContentValue.class, "urn:example:datatype:mixed", "urn:example:function:mixed",
+				ItemType.STRING);
+
+		private final List<Serializable> content;
+
+		private MixedContentValue(final String... content)
+		{
+			this.content = List.of(content);
+		}
+
+		@Override
+		public XdmItem getXdmItem()
+		{
+			return new XdmAtomicValue(content.toString());
+		}
+
+		@Override
+		public List<Serializable> getContent()
+		{
+			return content;
+		}
+
+		@Override
+		public Map<QName, String> getXmlAttributes()
+		{
+			return Map.of();
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return content.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object obj)
+		{
+			return obj instanceof MixedContentValue && content.equals(((MixedContentValue) obj).content);
+		}
+	}
+
+	private static ByteBuffer toPayload(final ByteBuffer frame)
+	{
+		final ByteBuffer payload = BinaryDecisionWireFormat.nextFrame(frame);
+		assertNotNull(payload);
+		assertEquals(0, frame.remaining());
+		return payload;
+	}
+
+	private static List<ImmutableDecisionRequest> newRequests()
+	{
+		final AttributeFqn subjectId = AttributeFqns.newInstance(SUBJECT_CATEGORY, Optional.empty(), "urn:oasis:names:tc:xacml:1.0:subject:subject-id");
+		final AttributeFqn subjectRole = AttributeFqns.newInstance(SUBJECT_CATEGORY, Optional.of("urn:example:issuer"), "urn:example:role");
+		final AttributeFqn actionId = AttributeFqns.newInstance(ACTION_CATEGORY, Optional.empty(), "urn:oasis:names:tc:xacml:1.0:action:action-id");
+		final AttributeFqn actionCount = AttributeFqns.newInstance(ACTION_CATEGORY, Optional.empty(), "urn:example:count");
+		final AttributeFqn actionWeight = AttributeFqns.newInstance(ACTION_CATEGORY, Optional.empty(), "urn:example:weight");
+		final AttributeFqn actionForced = AttributeFqns.newInstance(ACTION_CATEGORY, Optional.empty(), "urn:example:forced");
+		final Map<AttributeFqn, AttributeBag<?>> request1 = Map.of(subjectId, Bags.singletonAttributeBag(StandardDatatypes.STRING, new StringValue("alice")), subjectRole,
+				Bags.newAttributeBag(StandardDatatypes.STRING, List.of(new StringValue("admin"), new StringValue("é😀"))), actionId,
+				Bags.singletonAttributeBag(StandardDatatypes.STRING, new StringValue("read")), actionCount,
+				Bags.newAttributeBag(StandardDatatypes.INTEGER, List.of(IntegerValue.valueOf(-1), IntegerValue.valueOf(Integer.MIN_VALUE))), actionWeight,
+				Bags.singletonAttributeBag(StandardDatatypes.DOUBLE, new DoubleValue(0.5)), actionForced, Bags.singletonAttributeBag(StandardDatatypes.BOOLEAN, BooleanValue.TRUE));
+		final Map<AttributeFqn, AttributeBag<?>> request2 = Map.of(subjectId, Bags.singletonAttributeBag(StandardDatatypes.STRING, new StringValue("bob")), actionId,
+				Bags.singletonAttributeBag(StandardDatatypes.STRING, new StringValue("read")));
+		return List.of(ImmutableDecisionRequest.getInstance(request1, null, true), ImmutableDecisionRequest.getInstance(request2, null, false));
+	}
+
+	@Test
+	public void requestRoundTrip() throws IndeterminateEvaluationException
+	{
+		final List<ImmutableDecisionRequest> requests = newRequests();
+		final List<ImmutableDecisionRequest> decodedRequests = new BinaryDecisionRequestPreprocessor(VALUE_FACTORIES, true).process(toPayload(BinaryDecisionWireFormat.encodeRequest(requests)),
+				null);
+		assertEquals(requests.size(), decodedRequests.size());
+		for (int i = 0; i < requests.size(); i++)
+		{
+			assertEquals(requests.get(i).getNamedAttributes(), decodedRequests.get(i).getNamedAttributes());
+			assertEquals(requests.get(i).isApplicablePolicyIdListReturned(), decodedRequests.get(i).isApplicablePolicyIdListReturned());
+		}
+	}
+
+	private static <AV extends AttributeValue> PepAction newObligation(final String attributeId, final AttributeDatatype<AV> datatype, final AV value)
+	{
+		return new PepAction("urn:example:obligation", true, ImmutableList.of(new PepActionAttributeAssignment<>(attributeId, Optional.of(SUBJECT_CATEGORY), Optional.empty(), datatype, value)));
+	}
+
+	@Test
+	public void resultRoundTrip() throws IndeterminateEvaluationException
+	{
+		// results for the requests decoded by the PDP
+		final List<ImmutableDecisionRequest> requests = new BinaryDecisionRequestPreprocessor(VALUE_FACTORIES, true).process(toPayload(BinaryDecisionWireFormat.encodeRequest(newRequests())), null);
+		final ImmutableList<PrimaryPolicyMetadata> applicablePolicies = ImmutableList.of(new BasePrimaryPolicyMetadata(TopLevelPolicyElementType.POLICY_SET, "root", new PolicyVersion("1.0")));
+		final DecisionResult permit = DecisionResults.getPermit(Optional.empty(), ImmutableList.of(newObligation("urn:example:count", StandardDatatypes.INTEGER, IntegerValue.valueOf(3)),
+				newObligation("urn:example:shared", StandardDatatypes.STRING, new StringValue("x"))), applicablePolicies);
+		// the strings first used in this unsupported result must be written again in the next result
+		final DecisionResult unsupportedDeny = DecisionResults.getDeny(Optional.empty(),
+				ImmutableList.of(newObligation("urn:example:new", MixedContentValue.DATATYPE, new MixedContentValue("a", "b"))), applicablePolicies);
+		final DecisionResult deny = DecisionResults.getDeny(Optional.empty(), ImmutableList.of(newObligation("urn:example:new", StandardDatatypes.STRING, new StringValue("y"))),
+				ImmutableList.of());
+		final DecisionResult indeterminate = DecisionResults.newIndeterminate(DecisionType.PERMIT, new IndeterminateEvaluationException("Missing attribute", XacmlStatusCode.MISSING_ATTRIBUTE.value()),
+				ImmutableList.of());
+		final List<DecisionResult> results = List.of(permit, unsupportedDeny, deny, indeterminate, DecisionResults.SIMPLE_NOT_APPLICABLE);
+
+		final List<Map.Entry<ImmutableDecisionRequest, ? extends DecisionResult>> resultsByRequest = List.of(Map.entry(requests.get(0), permit), Map.entry(requests.get(1), unsupportedDeny),
+				Map.entry(requests.get(0), deny), Map.entry(requests.get(1), indeterminate), Map.entry(requests.get(0), DecisionResults.SIMPLE_NOT_APPLICABLE));
+		final List<DecisionResult> decodedResults = BinaryDecisionWireFormat.decodeResults(toPayload(new BinaryDecisionResultPostprocessor(0).process(resultsByRequest)),
+				VALUE_FACTORIES);
+
+		// one result per request, the unsupported one only replaced with Indeterminate
+		assertEquals(results.size(), decodedResults.size());
+		for (int i = 0; i < results.size(); i++)
+		{
+			final DecisionResult result = results.get(i);
+			final DecisionResult decodedResult = decodedResults.get(i);
+			if (result == unsupportedDeny)
+			{
+				assertEquals(DecisionType.INDETERMINATE, decodedResult.getDecision());
+				assertEquals(DecisionType.DENY, decodedResult.getExtendedIndeterminate());
+				assertEquals(XacmlStatusCode.PROCESSING_ERROR.value(), decodedResult.getStatus().get().getStatusCode().getValue());
+				continue;
+			}
+
+			assertEquals(result.getDecision(), decodedResult.getDecision());
+			assertEquals(result.getExtendedIndeterminate(), decodedResult.getExtendedIndeterminate());
+			assertEquals(result.getStatus().map(status -> status.getStatusCode().getValue()), decodedResult.getStatus().map(status -> status.getStatusCode().getValue()));
+			assertEquals(result.getPepActions(), decodedResult.getPepActions());
+			assertEquals(result.getApplicablePolicies(), decodedResult.getApplicablePolicies());
+		}
+	}
+
+	@Test
+	public void clientErrorRoundTrip()
+	{
+		final IndeterminateEvaluationException error = new IndeterminateEvaluationException("Invalid request", XacmlStatusCode.SYNTAX_ERROR.value(),
+				new IllegalArgumentException("Invalid value"));
+		final List<DecisionResult> decodedResults = BinaryDecisionWireFormat.decodeResults(toPayload(new BinaryDecisionResultPostprocessor(1).processClientError(error)), VALUE_FACTORIES);
+		assertEquals(1, decodedResults.size());
+		final ImmutableXacmlStatus status = decodedResults.get(0).getStatus().get();
+		assertEquals(XacmlStatusCode.SYNTAX_ERROR.value(), status.getStatusCode().getValue());
+		assertEquals("Invalid request; caused by: Invalid value", status.getStatusMessage());
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.io;
+
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Optional;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmNode;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Attributes;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Content;
+
+import org.ow2.authzforce.core.pdp.api.XmlUtils;
+import org.ow2.authzforce.core.pdp.api.io.XacmlJaxbParsingUtils.FullXacmlJaxbAttributesParserFactory;
+import org.ow2.authzforce.core.pdp.api.io.XacmlJaxbParsingUtils.NamedXacmlJaxbAttributeParser;
+import org.ow2.authzforce.core.pdp.api.value.StandardAttributeValueFactories;
+import org.ow2.authzforce.xacml.identifiers.XacmlAttributeCategory;
+import org.w3c.dom.Element;
+
+/**
+ * Micro-benchmark of the Attributes/Content modes of {@link FullXacmlJaxbAttributesParserFactory}: DOM element wrapped by Saxon (default) vs. copied to a Saxon TinyTree. For each mode, measures the
+ * conversion of the Content (DOM element, as unmarshalled by JAXB) to XPath data model, and the evaluation of a predicate path on the result, with the Content in {@value #CONTENT_RESOURCE}
+ * (2000 items).
+ * <p>
+ * Plain main-method harness (not run by the build): run the main method from the test classpath, e.g. {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.ow2.authzforce.core.pdp.api.io.ContentTinyTreeBenchmark}. Optional arguments: number of warmup iterations, number of measured iterations.
+ */
+public final class ContentTinyTreeBenchmark
+{
+	private static final String CONTENT_RESOURCE = "large-content.xml";
+	private static final String XPATH = "x:item[@id='1999']/x:v/text()";
+
+	private static double measureConversion(final SingleCategoryXacmlAttributesParser<Attributes> parser, final Attributes attributes, final int iterations) throws Exception
+	{
+		final long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+		{
+			if (parser.parseAttributes(attributes, Optional.empty()).getExtraContent() == null)
+			{
+				throw new AssertionError("No Content parsed");
+			}
+		}
+
+		return (System.nanoTime() - start) / 1000.0 / iterations;
+	}
+
+	private static double measureXPath(final XPathExecutable xpath, final XdmNode content, final int iterations) throws Exception
+	{
+		final long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+		{
+			final XPathSelector selector = xpath.load();
+			selector.setContextItem(content);
+			if (selector.evaluate().size() != 1)
+			{
+				throw new AssertionError("Unexpected XPath result");
+			}
+		}
+
+		return (System.nanoTime() - start) / 1000.0 / iterations;
+	}
+
+	/**
+	 * Runs the benchmark and prints the average times (microseconds) per mode
+	 * 
+	 * @param args
+	 *            optional number of warmup iterations (default: 200), and number of measured iterations (default: 500)
+	 * @throws Exception
+	 *             error loading or parsing the Content
+	 */
+	public static void main(final String[] args) throws Exception
+	{
+		final int warmupIterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+		final Element contentElt;
+		try (InputStream in = ContentTinyTreeBenchmark.class.getResourceAsStream(CONTENT_RESOURCE))
+		{
+			if (in == null)
+			{
+				throw new IllegalStateException("Missing test resource: " + CONTENT_RESOURCE);
+			}
+
+			final DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+			docBuilderFactory.setNamespaceAware(true);
+			contentElt = docBuilderFactory.newDocumentBuilder().parse(in).getDocumentElement();
+		}
+
+		final Attributes attributes = new Attributes(new Content(List.of((Serializable) contentElt)), List.of(), XacmlAttributeCategory.XACML_3_0_RESOURCE.value(), null);
+		final XPathCompiler xpathCompiler = XmlUtils.SAXON_PROCESSOR.newXPathCompiler();
+		xpathCompiler.declareNamespace("x", "urn:example:content");
+		final XPathExecutable xpath = xpathCompiler.compile(XPATH);
+
+		final NamedXacmlJaxbAttributeParser namedAttributeParser = new NamedXacmlJaxbAttributeParser(StandardAttributeValueFactories.getRegistry(false, Optional.empty()));
+		for (final boolean tinyTree : new boolean[] { false, true })
+		{
+			final SingleCategoryXacmlAttributesParser<Attributes> parser = new FullXacmlJaxbAttributesParserFactory<>(new NonIssuedLikeIssuedStrictXacmlAttributeParser<>(namedAttributeParser),
+					SingleCategoryAttributes.IDENTITY_ATTRIBUTE_ITERATOR_CONVERTER, false, tinyTree).getInstance();
+			final XdmNode content = parser.parseAttributes(attributes, Optional.empty()).getExtraContent();
+			measureConversion(parser, attributes, warmupIterations);
+			measureXPath(xpath, content, warmupIterations);
+			System.out.printf("%-9s conversion: %10.1f us, XPath evaluation: %8.1f us%n", tinyTree ? "TinyTree" : "DOM wrap", measureConversion(parser, attributes, iterations),
+					measureXPath(xpath, content, iterations));
+		}
+	}
+
+	private ContentTinyTreeBenchmark()
+	{
+		// main class only
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import net.sf.saxon.s9api.XdmNode;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Attribute;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.AttributeValueType;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Attributes;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Content;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Request;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.RequestDefaults;
+
+import org.junit.Test;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.LazilyParsedContent;
+import org.ow2.authzforce.core.pdp.api.expression.XPathCompilerProxy;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValueFactoryRegistry;
+import org.ow2.authzforce.core.pdp.api.value.StandardAttributeValueFactories;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Tests of {@link StaxXacmlRequestPreprocessor}, including equivalence with the JAXB-based parsing ({@link BaseXacmlJaxbRequestPreprocessor}), with XACML Requests from the {@code xml} folder next to
+ * this class in the test resources
+ */
+public class StaxXacmlRequestPreprocessorTest
+{
+	private static final String XACML_3_0_NAMESPACE_URI = "urn:oasis:names:tc:xacml:3.0:core:schema:wd-17";
+	private static final String RESOURCE_CATEGORY = "urn:oasis:names:tc:xacml:3.0:attribute-category:resource";
+
+	/*
+	 * JAXB-based preprocessor like the PDP's default (Multiple Decision Profile, §2.3)
+	 */
+	private static final class JaxbRequestPreprocessor extends BaseXacmlJaxbRequestPreprocessor
+	{
+		private static final MultipleXacmlRequestPreprocHelper<IndividualXacmlJaxbRequest, Attributes, Attributes> MDP_HELPER = new MultipleXacmlRequestPreprocHelper<>(
+				IndividualXacmlJaxbRequest::new)
+		{
+			@Override
+			protected Attributes validate(final Attributes inputRawAttributeCategoryObject)
+			{
+				return inputRawAttributeCategoryObject;
+			}
+		};
+
+		private JaxbRequestPreprocessor(final AttributeValueFactoryRegistry attributeValueFactoryRegistry, final boolean requireContentForXPath)
+		{
+			super(attributeValueFactoryRegistry, false, true, requireContentForXPath, Set.of());
+		}
+
+		@Override
+		public List<IndividualXacmlJaxbRequest> process(final List<Attributes> attributesList, final SingleCategoryXacmlAttributesParser<Attributes> xacmlAttrsParser,
+				final boolean isApplicablePolicyIdListReturned, final boolean combinedDecision, final Optional<XPathCompilerProxy> xPathCompiler, final Map<String, String> namespaceURIsByPrefix)
+				throws IndeterminateEvaluationException
+		{
+			return MDP_HELPER.process(attributesList, xacmlAttrsParser, isApplicablePolicyIdListReturned, xPathCompiler);
+		}
+	}
+
+	private static Document parseDom(final InputStream in) throws Exception
+	{
+		final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(in);
+	}
+
+	private static List<Element> childElements(final Element element)
+	{
+		final List<Element> children = new ArrayList<>();
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+		{
+			if (child instanceof Element)
+			{
+				children.add((Element) child);
+			}
+		}
+
+		return children;
+	}
+
+	private static String getXmlAttribute(final Element element, final String localName)
+	{
+		return element.hasAttributeNS(null, localName) ? element.getAttributeNS(null, localName) : null;
+	}
+
+	/*
+	 * JAXB Request as unmarshalled from the DOM (the JAXB runtime is not required), Content elements being kept as DOM elements (with their ancestors, therefore the namespaces in scope)
+	 */
+	private static Request toJaxbRequest(final Element requestElt)
+	{
+		RequestDefaults requestDefaults = null;
+		final List<Attributes> attributesList = new ArrayList<>();
+		for (final Element child : childElements(requestElt))
+		{
+			if (child.getLocalName().equals("RequestDefaults"))
+			{
+				requestDefaults = new RequestDefaults(childElements(child).get(0).getTextContent().strip());
+				continue;
+			}
+
+			Content content = null;
+			final List<Attribute> attributes = new ArrayList<>();
+			for (final Element attributesChild : childElements(child))
+			{
+				if (attributesChild.getLocalName().equals("Content"))
+				{
+					final List<Serializable> contentNodes = new ArrayList<>();
+					for (Node contentNode = attributesChild.getFirstChild(); contentNode != null; contentNode = contentNode.getNextSibling())
+					{
+						// like JAXB (xs:any), DOM elements are kept as such (the JDK's DOM nodes are Serializable)
+						contentNodes.add(contentNode instanceof Element ? (Serializable) contentNode : contentNode.getTextContent());
+					}
+
+					content = new Content(contentNodes);
+					continue;
+				}
+
+				final List<AttributeValueType> values = new ArrayList<>();
+				for (final Element valueElt : childElements(attributesChild))
+				{
+					final Map<QName, String> otherAttributes = new HashMap<>();
+					final NamedNodeMap xmlAttributes = valueElt.getAttributes();
+					for (int i = 0; i < xmlAttributes.getLength(); i++)
+					{
+						final Node xmlAttribute = xmlAttributes.item(i);
+						if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(xmlAttribute.getNamespaceURI()) && !xmlAttribute.getLocalName().equals("DataType"))
+						{
+							otherAttributes.put(new QName(xmlAttribute.getNamespaceURI() == null ? "" : xmlAttribute.getNamespaceURI(), xmlAttribute.getLocalName()), xmlAttribute.getNodeValue());
+						}
+					}
+
+					final String text = valueElt.getTextContent();
+					values.add(new AttributeValueType(text.isEmpty() ? List.of() : List.of(text), valueElt.getAttribute("DataType"), otherAttributes));
+				}
+
+				attributes.add(new Attribute(values, attributesChild.getAttribute("AttributeId"), getXmlAttribute(attributesChild, "Issuer"),
+						Boolean.parseBoolean(attributesChild.getAttribute("IncludeInResult"))));
+			}
+
+			attributesList.add(new Attributes(content, attributes, child.getAttribute("Category"), child.hasAttributeNS(XMLConstants.XML_NS_URI, "id") ? child.getAttributeNS(
+					XMLConstants.XML_NS_URI, "id") : null));
+		}
+
+		return new Request(requestDefaults, attributesList, null, Boolean.parseBoolean(requestElt.getAttribute("ReturnPolicyIdList")), Boolean.parseBoolean(requestElt.getAttribute(
+				"CombinedDecision")));
+	}
+
+	/*
+	 * Namespace declarations of the root Request element, as passed to the JAXB-based preprocessor by the PDP
+	 */
+	private static Map<String, String> getRootNamespaces(final Element requestElt)
+	{
+		final Map<String, String> namespaces = new HashMap<>();
+		final NamedNodeMap xmlAttributes = requestElt.getAttributes();
+		for (int i = 0; i < xmlAttributes.getLength(); i++)
+		{
+			final Node xmlAttribute = xmlAttributes.item(i);
+			if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(xmlAttribute.getNamespaceURI()))
+			{
+				namespaces.put(xmlAttribute.getPrefix() == null ? "" : xmlAttribute.getLocalName(), xmlAttribute.getNodeValue());
+			}
+		}
+
+		return namespaces;
+	}
+
+	private static byte[] readFixture(final String name) throws IOException
+	{
+		try (InputStream in = StaxXacmlRequestPreprocessorTest.class.getResourceAsStream("xml/" + name))
+		{
+			assertNotNull(name, in);
+			return in.readAllBytes();
+		}
+	}
+
+	private static void assertEquivalentToJaxb(final String fixture, final boolean requireContentForXPath) throws Exception
+	{
+		final AttributeValueFactoryRegistry attributeValueFactories = StandardAttributeValueFactories.getRegistry(true, Optional.empty());
+		final byte[] xml = readFixture(fixture);
+		final List<IndividualXacmlJaxbRequest> staxRequests = new StaxXacmlRequestPreprocessor(attributeValueFactories, false, true, requireContentForXPath, Set.of()).process(
+				new ByteArrayInputStream(xml), null);
+		final Element requestElt = parseDom(new ByteArrayInputStream(xml)).getDocumentElement();
+		final List<IndividualXacmlJaxbRequest> jaxbRequests = new JaxbRequestPreprocessor(attributeValueFactories, requireContentForXPath).process(toJaxbRequest(requestElt),
+				getRootNamespaces(requestElt));
+
+		assertEquals(jaxbRequests.size(), staxRequests.size());
+		for (int i = 0; i < jaxbRequests.size(); i++)
+		{
+			final IndividualXacmlJaxbRequest jaxbRequest = jaxbRequests.get(i);
+			final IndividualXacmlJaxbRequest staxRequest = staxRequests.get(i);
+			assertEquals(jaxbRequest.getNamedAttributes(), staxRequest.getNamedAttributes());
+			assertEquals(jaxbRequest.isApplicablePolicyIdListReturned(), staxRequest.isApplicablePolicyIdListReturned());
+			assertEquals(jaxbRequest.getAttributesToBeReturned(), staxRequest.getAttributesToBeReturned());
+			final Map<String, XdmNode> jaxbContents = jaxbRequest.getExtraContentsByCategory();
+			final Map<String, XdmNode> staxContents = staxRequest.getExtraContentsByCategory();
+			assertEquals(jaxbContents.keySet(), staxContents.keySet());
+			for (final Map.Entry<String, XdmNode> jaxbContent : jaxbContents.entrySet())
+			{
+				assertEquals(LazilyParsedContent.serialize(jaxbContent.getValue().asSource()), LazilyParsedContent.serialize(staxContents.get(jaxbContent.getKey()).asSource()));
+			}
+		}
+	}
+
+	@Test
+	public void equivalentToJaxb() throws Exception
+	{
+		assertEquivalentToJaxb("request.xml", false);
+	}
+
+	@Test
+	public void equivalentToJaxbWithContent() throws Exception
+	{
+		assertEquivalentToJaxb("request.xml", true);
+	}
+
+	@Test
+	public void contentKeepsInScopeNamespaces() throws Exception
+	{
+		final List<IndividualXacmlJaxbRequest> requests = new StaxXacmlRequestPreprocessor(StandardAttributeValueFactories.getRegistry(true, Optional.empty()), false, true, true, Set.of())
+				.process(new ByteArrayInputStream(readFixture("request.xml")), null);
+		// 2 resources
+		assertEquals(2, requests.size());
+		final String content = LazilyParsedContent.serialize(requests.get(0).getExtraContent(RESOURCE_CATEGORY).asSource());
+		// declared on the Content root element or inherited from the Request element, but not used by any element/attribute name
+		assertTrue(content, content.contains("xmlns:unused=\"urn:example:unused\""));
+		assertTrue(content, content.contains("xmlns:ex=\"urn:example\""));
+	}
+
+	private static void assertSyntaxError(final String xml)
+	{
+		try
+		{
+			new StaxXacmlRequestPreprocessor(StandardAttributeValueFactories.getRegistry(false, Optional.empty()), false, true, false, Set.of()).process(
+					new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), null);
+			fail("Request accepted: " + xml);
+		}
+		catch (final IndeterminateEvaluationException e)
+		{
+			assertEquals(XacmlStatusCode.SYNTAX_ERROR.value(), e.getStatus().getStatusCode().getValue());
+		}
+	}
+
+	private static String newRequest(final String requestXmlAttributes, final String attributeXmlAttributes, final String children)
+	{
+		return "<Request xmlns='" + XACML_3_0_NAMESPACE_URI + "' xmlns:xacml='" + XACML_3_0_NAMESPACE_URI + "' ReturnPolicyIdList='false' CombinedDecision='false'" + requestXmlAttributes
+				+ ">" + children + "<Attributes Category='" + RESOURCE_CATEGORY + "'><Attribute AttributeId='urn:example:id' IncludeInResult='false'" + attributeXmlAttributes
+				+ "><AttributeValue DataType='http://www.w3.org/2001/XMLSchema#string'>x</AttributeValue></Attribute></Attributes></Request>";
+	}
+
+	@Test
+	public void syntaxErrors() throws IndeterminateEvaluationException
+	{
+		// valid
+		assertEquals(1, new StaxXacmlRequestPreprocessor(StandardAttributeValueFactories.getRegistry(false, Optional.empty()), false, true, false, Set.of()).process(
+				new ByteArrayInputStream(newRequest("", "", "").getBytes(StandardCharsets.UTF_8)), null).size());
+		// XML attributes in the XACML namespace
+		assertSyntaxError(newRequest(" xacml:Unknown='x'", "", ""));
+		assertSyntaxError(newRequest("", " xacml:Issuer='x'", ""));
+		// unknown element, MultiRequests
+		assertSyntaxError(newRequest("", "", "<Unknown/>"));
+		assertSyntaxError(newRequest("", "", "<MultiRequests/>"));
+		// missing required XML attribute
+		assertSyntaxError(newRequest("", "", "").replace(" CombinedDecision='false'", ""));
+		assertSyntaxError(newRequest("", "", "").replace(" IncludeInResult='false'", ""));
+		// invalid XPathVersion
+		assertSyntaxError(newRequest("", "", "<RequestDefaults><XPathVersion>urn:example:unknown</XPathVersion></RequestDefaults>"));
+		// no Attributes
+		assertSyntaxError("<Request xmlns='" + XACML_3_0_NAMESPACE_URI + "' ReturnPolicyIdList='false' CombinedDecision='false'/>");
+		// not well-formed, DTD
+		assertSyntaxError(newRequest("", "", "").replace("</Request>", ""));
+		assertSyntaxError("<!DOCTYPE Request [<!ENTITY e 'x'>]>" + newRequest("", "", ""));
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2012-2023 THALES.
+ *
+ * This file is part of AuthzForce CE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.authzforce.core.pdp.api.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmValue;
+import oasis.names.tc.xacml._3_0.core.schema.wd_17.Attributes;
+
+import org.junit.Test;
+import org.ow2.authzforce.core.pdp.api.AttributeFqn;
+import org.ow2.authzforce.core.pdp.api.AttributeFqns;
+import org.ow2.authzforce.core.pdp.api.BaseEvaluationContext;
+import org.ow2.authzforce.core.pdp.api.IndeterminateEvaluationException;
+import org.ow2.authzforce.core.pdp.api.expression.AttributeSelectorExpression;
+import org.ow2.authzforce.core.pdp.api.value.AttributeBag;
+import org.ow2.authzforce.core.pdp.api.value.AttributeValue;
+import org.ow2.authzforce.core.pdp.api.value.Bag;
+import org.ow2.authzforce.core.pdp.api.value.StandardAttributeValueFactories;
+import org.ow2.authzforce.core.pdp.api.value.StandardDatatypes;
+import org.ow2.authzforce.core.pdp.api.value.StringValue;
+import org.ow2.authzforce.core.pdp.api.value.XPathValue;
+import org.ow2.authzforce.xacml.identifiers.XacmlAttributeCategory;
+import org.ow2.authzforce.xacml.identifiers.XacmlStatusCode;
+
+/**
+ * Tests of {@link XacmlJsonRequestPreprocessor}, with XACML/JSON Requests from the {@code json} folder next to this class in the test resources
+ */
+public class XacmlJsonRequestPreprocessorTest
+{
+	private static final String SUBJECT_CATEGORY = XacmlAttributeCategory.XACML_1_0_ACCESS_SUBJECT.value();
+	private static final String ACTION_CATEGORY = XacmlAttributeCategory.XACML_3_0_ACTION.value();
+	private static final String RESOURCE_CATEGORY = XacmlAttributeCategory.XACML_3_0_RESOURCE.value();
+
+	private static XacmlJsonRequestPreprocessor newPreprocessor(final boolean requireContentForXPath)
+	{
+		return new XacmlJsonRequestPreprocessor(StandardAttributeValueFactories.getRegistry(requireContentForXPath, Optional.empty()), false, true, requireContentForXPath, Set.of());
+	}
+
+	private static List<IndividualXacmlJaxbRequest> process(final String fixture, final boolean requireContentForXPath) throws IOException, IndeterminateEvaluationException
+	{
+		try (InputStream in = XacmlJsonRequestPreprocessorTest.class.getResourceAsStream("json/" + fixture))
+		{
+			assertNotNull(fixture, in);
+			return newPreprocessor(requireContentForXPath).process(in, Map.of("ex", "urn:example"));
+		}
+	}
+
+	private static void assertSyntaxError(final String json)
+	{
+		try
+		{
+			newPreprocessor(false).process(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), null);
+			fail("Request accepted: " + json);
+		}
+		catch (final IndeterminateEvaluationException e)
+		{
+			assertEquals(XacmlStatusCode.SYNTAX_ERROR.value(), e.getStatus().getStatusCode().getValue());
+		}
+	}
+
+	private static AttributeBag<?> getBag(final IndividualXacmlJaxbRequest request, final String category, final String attributeId)
+	{
+		final AttributeBag<?> bag = request.getNamedAttributes().get(AttributeFqns.newInstance(category, Optional.empty(), attributeId));
+		assertNotNull(attributeId, bag);
+		return bag;
+	}
+
+	private static String getSingleString(final IndividualXacmlJaxbRequest request, final String category, final String attributeId)
+	{
+		return ((StringValue) getBag(request, category, attributeId).getSingleElement()).getUnderlyingValue();
+	}
+
+	@Test
+	public void shorthandCategories() throws IOException, IndeterminateEvaluationException
+	{
+		final List<IndividualXacmlJaxbRequest> requests = process("shorthand-categories.json", false);
+		assertEquals(1, requests.size());
+		final IndividualXacmlJaxbRequest request = requests.get(0);
+		assertTrue(request.isApplicablePolicyIdListReturned());
+		assertEquals("alice", getSingleString(request, SUBJECT_CATEGORY, "urn:oasis:names:tc:xacml:1.0:subject:subject-id"));
+		assertEquals("read", getSingleString(request, ACTION_CATEGORY, "urn:oasis:names:tc:xacml:1.0:action:action-id"));
+		assertEquals(StandardDatatypes.ANYURI, getBag(request, RESOURCE_CATEGORY, "urn:oasis:names:tc:xacml:1.0:resource:resource-id").getElementDatatype());
+		final AttributeFqn issuedAttribute = AttributeFqns.newInstance("urn:example:category", Optional.of("urn:example:issuer"), "urn:example:attribute");
+		assertEquals(new StringValue("x"), request.getNamedAttributes().get(issuedAttribute).getSingleElement());
+
+		// only the attribute with IncludeInResult = true
+		final List<Attributes> attributesToBeReturned = request.getAttributesToBeReturned();
+		assertEquals(1, attributesToBeReturned.size());
+		assertEquals(SUBJECT_CATEGORY, attributesToBeReturned.get(0).getCategory());
+		assertEquals("urn:oasis:names:tc:xacml:1.0:subject:subject-id", attributesToBeReturned.get(0).getAttributes().get(0).getAttributeId());
+	}
+
+	@Test
+	public void datatypeInference() throws IOException, IndeterminateEvaluationException
+	{
+		final IndividualXacmlJaxbRequest request = process("datatype-inference.json", false).get(0);
+		assertEquals(StandardDatatypes.STRING, getBag(request, RESOURCE_CATEGORY, "urn:example:string").getElementDatatype());
+		assertEquals(2, getBag(request, RESOURCE_CATEGORY, "urn:example:string").size());
+		assertEquals(StandardDatatypes.BOOLEAN, getBag(request, RESOURCE_CATEGORY, "urn:example:boolean").getElementDatatype());
+		assertEquals(StandardDatatypes.INTEGER, getBag(request, RESOURCE_CATEGORY, "urn:example:integer").getElementDatatype());
+		assertEquals(StandardDatatypes.DOUBLE, getBag(request, RESOURCE_CATEGORY, "urn:example:double").getElementDatatype());
+		assertEquals(StandardDatatypes.DOUBLE, getBag(request, RESOURCE_CATEGORY, "urn:example:integer-and-double").getElementDatatype());
+		assertEquals(2, getBag(request, RESOURCE_CATEGORY, "urn:example:integer-and-double").size());
+		assertEquals(StandardDatatypes.DATE, getBag(request, RESOURCE_CATEGORY, "urn:example:explicit").getElementDatatype());
+	}
+
+	@Test
+	public void datatypeInferenceChecksEveryValue()
+	{
+		try
+		{
+			process("mixed-types.json", false);
+			fail("Values of mixed JSON types accepted");
+		}
+		catch (final IndeterminateEvaluationException e)
+		{
+			assertEquals(XacmlStatusCode.SYNTAX_ERROR.value(), e.getStatus().getStatusCode().getValue());
+			assertTrue(e.getMessage().contains("cannot infer DataType"));
+		}
+		catch (final IOException e)
+		{
+			throw new AssertionError(e);
+		}
+
+		assertSyntaxError("{\"Request\":{\"Resource\":{\"Attribute\":{\"AttributeId\":\"a\",\"Value\":[\"x\",true]}}}}");
+		assertSyntaxError("{\"Request\":{\"Resource\":{\"Attribute\":{\"AttributeId\":\"a\",\"Value\":[1,\"2\"]}}}}");
+		assertSyntaxError("{\"Request\":{\"Resource\":{\"Attribute\":{\"AttributeId\":\"a\",\"Value\":[1.5,false]}}}}");
+	}
+
+	private static final class XPathEvaluationContext extends BaseEvaluationContext
+	{
+		private final IndividualXacmlJaxbRequest request;
+
+		private XPathEvaluationContext(final IndividualXacmlJaxbRequest request)
+		{
+			super(request.getNamedAttributes(), false, Optional.empty());
+			this.request = request;
+		}
+
+		@Override
+		public <AV extends AttributeValue> Bag<AV> getAttributeSelectorResult(final AttributeSelectorExpression<AV> attributeSelector)
+		{
+			return null;
+		}
+
+		@Override
+		public <AV extends AttributeValue> boolean putAttributeSelectorResultIfAbsent(final AttributeSelectorExpression<AV> attributeSelector, final Bag<AV> result)
+		{
+			return false;
+		}
+
+		@Override
+		public XdmNode getAttributesContent(final String category)
+		{
+			return request.getExtraContentsByCategory().get(category);
+		}
+	}
+
+	@Test
+	public void base64ContentAndXPathExpression() throws IOException, IndeterminateEvaluationException
+	{
+		final IndividualXacmlJaxbRequest request = process("base64-content.json", true).get(0);
+		assertNotNull(request.getExtraContent(RESOURCE_CATEGORY));
+		final AttributeBag<?> bag = getBag(request, RESOURCE_CATEGORY, "urn:example:xpath");
+		assertEquals(StandardDatatypes.XPATH, bag.getElementDatatype());
+		final XdmValue result = ((XPathValue) bag.getSingleElement()).evaluate(new XPathEvaluationContext(request));
+		assertEquals(1, result.size());
+		assertEquals("Report", result.itemAt(0).getStringValue());
+	}
+
+	@Test
+	public void multipleDecision() throws IOException, IndeterminateEvaluationException
+	{
+		final List<IndividualXacmlJaxbRequest> requests = process("multiple-decision.json", false);
+		assertEquals(6, requests.size());
+		final Set<String> combinations = new HashSet<>();
+		for (final IndividualXacmlJaxbRequest request : requests)
+		{
+			assertEquals("alice", getSingleString(request, SUBJECT_CATEGORY, "urn:oasis:names:tc:xacml:1.0:subject:subject-id"));
+			combinations.add(getSingleString(request, RESOURCE_CATEGORY, "urn:oasis:names:tc:xacml:1.0:resource:resource-id") + "/"
+					+ getSingleString(request, ACTION_CATEGORY, "urn:oasis:names:tc:xacml:1.0:action:action-id"));
+		}
+
+		assertEquals(Set.of("doc1/read", "doc1/write", "doc2/read", "doc2/write", "doc3/read", "doc3/write"), combinations);
+	}
+
+	@Test
+	public void invalidXPathVersion() throws IOException
+	{
+		try
+		{
+			process("invalid-xpath-version.json", false);
+			fail("Invalid XPathVersion accepted");
+		}
+		catch (final IndeterminateEvaluationException e)
+		{
+			assertEquals(XacmlStatusCode.SYNTAX_ERROR.value(), e.getStatus().getStatusCode().getValue());
+			assertTrue(e.getMessage().contains("urn:example:unknown-xpath-version"));
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+	@Test
+	public void syntaxErrors()
+	{
+		// not JSON
+		assertSyntaxError("<Request/>");
+		// missing Request
+		assertSyntaxError("{}");
+		// trailing data
+		assertSyntaxError("{\"Request\":{\"Resource\":{\"Attribute\":{\"AttributeId\":\"a\",\"Value\":\"x\"}}}} {}");
+		// unknown members
+		assertSyntaxError("{\"Request\":{\"Unknown\":{}}}");
+		assertSyntaxError("{\"Request\":{\"Resource\":{\"Attribute\":{\"AttributeId\":\"a\",\"Value\":\"x\",\"Unknown\":1}}}}");
+		// no category
+		assertSyntaxError("{\"Request\":{\"ReturnPolicyIdList\":false}}");
+		// missing CategoryId, AttributeId, Value
+		assertSyntaxError("{\"Request\":{\"Category\":{\"Attribute\":{\"AttributeId\":\"a\",\"Value\":\"x\"}}}}");
+		assertSyntaxError("{\"Request\":{\"Resource\":{\"Attribute\":{\"Value\":\"x\"}}}}");
+		assertSyntaxError("{\"Request\":{\"Resource\":{\"Attribute\":{\"AttributeId\":\"a\",\"Value\":[]}}}}");
+		// CategoryId inconsistent with shorthand category
+		assertSyntaxError("{\"Request\":{\"Resource\":{\"CategoryId\":\"urn:example:category\",\"Attribute\":{\"AttributeId\":\"a\",\"Value\":\"x\"}}}}");
+		// invalid value for the DataType
+		assertSyntaxError("{\"Request\":{\"Resource\":{\"Attribute\":{\"AttributeId\":\"a\",\"DataType\":\"integer\",\"Value\":\"x\"}}}}");
+		// unsupported features
+		assertSyntaxError("{\"Request\":{\"CombinedDecision\":true,\"Resource\":{\"Attribute\":{\"AttributeId\":\"a\",\"Value\":\"x\"}}}}");
+		assertSyntaxError("{\"Request\":{\"MultiRequests\":{},\"Resource\":{\"Attribute\":{\"AttributeId\":\"a\",\"Value\":\"x\"}}}}");
+	}
+
+	@Test
+	public void invalidContent() throws IndeterminateEvaluationException
+	{
+		final String request = "{\"Request\":{\"Resource\":{\"Content\":\"%not base64%\",\"Attribute\":{\"AttributeId\":\"a\",\"Value\":\"x\"}}}}";
+		// Content skipped if not required
+		assertTrue(newPreprocessor(false).process(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)), null).get(0).getExtraContentsByCategory().isEmpty());
+		try
+		{
+			newPreprocessor(true).process(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)), null);
+			fail("Invalid Content accepted");
+		}
+		catch (final IndeterminateEvaluationException e)
+		{
+			assertEquals(XacmlStatusCode.SYNTAX_ERROR.value(), e.getStatus().getStatusCode().getValue());
+		}
+	}
+}